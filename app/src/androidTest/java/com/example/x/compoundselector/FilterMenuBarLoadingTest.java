@@ -0,0 +1,218 @@
+package com.example.x.compoundselector;
+
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.rule.UiThreadTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.view.View;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the asynchronous loading of the menu items of {@link FilterMenuBar}, with executors
+ * running the tasks on the main thread, at once or when the test says so.
+ */
+@RunWith(AndroidJUnit4.class)
+public class FilterMenuBarLoadingTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * Queues the tasks until {@link #runAll()}.
+     */
+    private static final class QueuedExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+
+        void runFirst() {
+            tasks.remove(0).run();
+        }
+    }
+
+    @Rule
+    public final UiThreadTestRule uiThreadTestRule = new UiThreadTestRule();
+
+    private FilterMenuBar menuBar;
+    private String loadingText;
+
+    @Before
+    public void setUp() throws Throwable {
+        uiThreadTestRule.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                menuBar = new FilterMenuBar(InstrumentationRegistry.getTargetContext());
+            }
+        });
+        loadingText = InstrumentationRegistry.getTargetContext().getString(R.string.filter_menu_loading);
+    }
+
+    private static Callable<Node> supplier(final String json) {
+        return new Callable<Node>() {
+            @Override
+            public Node call() {
+                return TreeLoader.fromJson(json);
+            }
+        };
+    }
+
+    /**
+     * Returns a tree with the leaves {@code <name>1} and {@code <name>21}, the latter checked if
+     * specified.
+     */
+    private static String tree(String name, boolean checked) {
+        return "{\"showName\":\"" + name + "\",\"value\":\"" + name + "\",\"children\":["
+                + "{\"showName\":\"" + name + "1\",\"value\":\"1\"},"
+                + "{\"showName\":\"" + name + "2\",\"value\":\"2\",\"checked\":" + checked + ","
+                + "\"children\":[{\"showName\":\"" + name + "21\",\"value\":\"21\",\"checked\":"
+                + checked + "}]}]}";
+    }
+
+    private String titleOf(int index) {
+        return ((TextView) menuBar.getChildAt(index)).getText().toString();
+    }
+
+    @Test
+    @UiThreadTest
+    public void setMenuItemsAsync_directExecutors_bindsTreesAtOnce() {
+        menuBar.setLoadExecutors(DIRECT, DIRECT);
+        menuBar.setMenuItemsAsync(Arrays.asList(supplier(tree("a", false)), supplier(tree("b", true))));
+
+        assertEquals(2, menuBar.getChildCount());
+        // The default selection is the first leaf, the loaded one the checked leaf.
+        assertEquals("a1", titleOf(0));
+        assertEquals("b21", titleOf(1));
+    }
+
+    @Test
+    @UiThreadTest
+    public void setMenuItemsAsync_showsPlaceholdersUntilLoaded() {
+        QueuedExecutor loadExecutor = new QueuedExecutor();
+        menuBar.setLoadExecutors(loadExecutor, DIRECT);
+        menuBar.setMenuItemsAsync(Arrays.asList(supplier(tree("a", false)), supplier(tree("b", true))));
+
+        assertEquals(2, menuBar.getChildCount());
+        assertEquals(loadingText, titleOf(0));
+        assertEquals(loadingText, titleOf(1));
+        loadExecutor.runAll();
+        assertEquals("a1", titleOf(0));
+        assertEquals("b21", titleOf(1));
+    }
+
+    @Test
+    @UiThreadTest
+    public void setMenuItemsAsync_removesFailedAndUnsupportedTrees() {
+        menuBar.setLoadExecutors(DIRECT, DIRECT);
+        Callable<Node> failing = new Callable<Node>() {
+            @Override
+            public Node call() throws Exception {
+                throw new Exception("failed");
+            }
+        };
+        menuBar.setMenuItemsAsync(Arrays.asList(failing, supplier(tree("a", false)),
+                supplier("{\"showName\":\"leaf\",\"value\":\"leaf\"}")));
+
+        assertEquals(1, menuBar.getChildCount());
+        assertEquals("a1", titleOf(0));
+    }
+
+    @Test
+    @UiThreadTest
+    public void setMenuItemsAsync_cancelsPreviousLoads() {
+        QueuedExecutor loadExecutor = new QueuedExecutor();
+        QueuedExecutor resultExecutor = new QueuedExecutor();
+        menuBar.setLoadExecutors(loadExecutor, resultExecutor);
+        menuBar.setMenuItemsAsync(Arrays.asList(supplier(tree("a", false)), supplier(tree("b", false))));
+        // Loaded, but not applied yet.
+        loadExecutor.runAll();
+
+        menuBar.setMenuItemsAsync(Arrays.asList(supplier(tree("c", true))));
+        loadExecutor.runAll();
+        resultExecutor.runAll();
+        assertEquals(1, menuBar.getChildCount());
+        assertEquals("c21", titleOf(0));
+    }
+
+    @Test
+    @UiThreadTest
+    public void select_whileLoading_leavesLoadingGroupsOutOfSimpleMap() {
+        QueuedExecutor loadExecutor = new QueuedExecutor();
+        menuBar.setLoadExecutors(loadExecutor, DIRECT);
+        menuBar.setMenuItemsAsync(Arrays.asList(supplier(tree("a", false)), supplier(tree("b", false))));
+        // The group "b" is still loading.
+        loadExecutor.runFirst();
+        final List<Map<String, String>> selections = new ArrayList<>();
+        menuBar.setOnFilterItemSelectedListener(new FilterMenuBar.OnFilterItemSelectedSimpleAdapter() {
+            @Override
+            public void onFilterItemSelected(Map<String, String> selectedGroups, int invokedGroupIndex) {
+                selections.add(selectedGroups);
+            }
+        });
+
+        FilterMenuBar.SelectionTransaction transaction = menuBar.beginSelection();
+        assertTrue(transaction.select(0, new Node("a21", "21")));
+        transaction.commit();
+        assertEquals(1, selections.size());
+        assertEquals("a21", selections.get(0).get("a"));
+        assertFalse(selections.get(0).containsKey("b"));
+        assertEquals(loadingText, titleOf(1));
+    }
+
+    @Test
+    @UiThreadTest
+    public void restoreInstanceState_lazyTree_selectsOnceLevelsLoad() {
+        final Node source = TreeLoader.fromJson(tree("a", false));
+        LeafPath path = LeafPath.of(source.getChildren().get(1).getChildren().get(0));
+        QueuedExecutor pageExecutor = new QueuedExecutor();
+        menuBar.setLoadExecutors(DIRECT, DIRECT);
+        menuBar.setChildLoader(new LazyChildLoader(LazyChildLoader.DEFAULT_PAGE_SIZE,
+                LazyChildLoader.DEFAULT_MAX_CACHED_LEVELS, pageExecutor, DIRECT));
+        menuBar.setMenuItemsAsync(Arrays.asList(new Callable<Node>() {
+            @Override
+            public Node call() {
+                return new InMemoryChildProvider(0).newLazyTree(source);
+            }
+        }));
+        assertEquals("a", titleOf(0));
+
+        FilterMenuBar.SavedState state = new FilterMenuBar.SavedState(View.BaseSavedState.EMPTY_STATE);
+        state.selectedPaths = new LeafPath[]{path};
+        menuBar.onRestoreInstanceState(state);
+        // Kept, and saved again, until the levels of the path are loaded.
+        assertEquals("a", titleOf(0));
+        FilterMenuBar.SavedState saved = (FilterMenuBar.SavedState) menuBar.onSaveInstanceState();
+        assertEquals(path, saved.selectedPaths[0]);
+        pageExecutor.runAll();
+        assertEquals("a21", titleOf(0));
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.x.compoundselector;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.rule.UiThreadTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a {@link FilterMenuBar.SelectionTransaction} applies the selections of several
+ * groups at once, with a single call of every listener.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SelectionTransactionTest {
+
+    @Rule
+    public final UiThreadTestRule uiThreadTestRule = new UiThreadTestRule();
+
+    private FilterMenuBar menuBar;
+    private final List<List<SelectionChange>> changeCalls = new ArrayList<>();
+    private final List<SelectionSnapshot> snapshotCalls = new ArrayList<>();
+    private final List<Integer> invokedGroupIndices = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Throwable {
+        uiThreadTestRule.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                menuBar = new FilterMenuBar(InstrumentationRegistry.getTargetContext());
+                menuBar.setMenuItems(Arrays.asList(newTree("a"), newTree("b"), newTree("c")));
+                menuBar.setOnSelectionChangeListener(new FilterMenuBar.OnSelectionChangeListener() {
+                    @Override
+                    public void onSelectionChanged(List<SelectionChange> changes, List<SelectionSnapshot> allGroups) {
+                        changeCalls.add(new ArrayList<>(changes));
+                    }
+                });
+                menuBar.setOnSelectionSnapshotListener(new FilterMenuBar.OnSelectionSnapshotListener() {
+                    @Override
+                    public void onSelectionChanged(SelectionSnapshot changed, List<SelectionSnapshot> allGroups) {
+                        snapshotCalls.add(changed);
+                    }
+                });
+                menuBar.setOnFilterItemSelectedListener(new FilterMenuBar.OnFilterItemSelectedListener() {
+                    @Override
+                    public void onFilterItemSelected(List<List<Node>> selectedGroups, int invokedGroupIndex) {
+                        invokedGroupIndices.add(invokedGroupIndex);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns a tree of two branches, {@code <name>1} and {@code <name>2}, of two leaves each,
+     * the first leaf being the default selection.
+     */
+    private static Node newTree(String name) {
+        Node root = new Node(name, name);
+        for (int i = 1; i <= 2; i++) {
+            Node branch = new Node(name + i, name + i);
+            branch.addChild(new Node(name + i + "1", name + i + "1"));
+            branch.addChild(new Node(name + i + "2", name + i + "2"));
+            root.addChild(branch);
+        }
+        return root;
+    }
+
+    private static Node key(String value) {
+        return new Node(value, value);
+    }
+
+    private String titleOf(int groupIndex) {
+        return ((TextView) menuBar.getChildAt(groupIndex)).getText().toString();
+    }
+
+    private void assertNotNotified() {
+        assertTrue(changeCalls.isEmpty());
+        assertTrue(snapshotCalls.isEmpty());
+        assertTrue(invokedGroupIndices.isEmpty());
+    }
+
+    @Test
+    @UiThreadTest
+    public void commit_severalGroups_notifiesOnce() {
+        FilterMenuBar.SelectionTransaction transaction = menuBar.beginSelection();
+        assertTrue(transaction.select(0, key("a22")));
+        assertTrue(transaction.select(2, key("c11")));
+        // The last selection of a group wins.
+        assertTrue(transaction.select(2, key("c12")));
+        assertFalse(transaction.select(1, key("a22")));
+        assertFalse(transaction.select(3, key("a22")));
+        // Branches are not selectable.
+        assertFalse(transaction.select(1, key("b2")));
+        // Nothing changes before the commit.
+        assertEquals("a11", titleOf(0));
+        assertNotNotified();
+
+        transaction.commit();
+        assertEquals("a22", titleOf(0));
+        assertEquals("b11", titleOf(1));
+        assertEquals("c12", titleOf(2));
+        assertEquals(1, changeCalls.size());
+        List<SelectionChange> changes = changeCalls.get(0);
+        assertEquals(2, changes.size());
+        assertEquals(0, changes.get(0).getGroupIndex());
+        assertEquals(2, changes.get(1).getGroupIndex());
+        // Several groups changed, so no single group is reported.
+        assertEquals(1, snapshotCalls.size());
+        assertNull(snapshotCalls.get(0));
+        assertEquals(Arrays.asList(-1), invokedGroupIndices);
+    }
+
+    @Test
+    @UiThreadTest
+    public void commit_singleGroup_reportsItsIndex() {
+        FilterMenuBar.SelectionTransaction transaction = menuBar.beginSelection();
+        assertTrue(transaction.select(1, key("b21")));
+        transaction.commit();
+
+        assertEquals("b21", titleOf(1));
+        assertEquals(1, changeCalls.size());
+        assertEquals(1, snapshotCalls.size());
+        assertEquals(1, snapshotCalls.get(0).getGroupIndex());
+        assertEquals(Arrays.asList(1), invokedGroupIndices);
+    }
+
+    @Test
+    @UiThreadTest
+    public void commit_unchangedSelections_notifiesNothing() {
+        FilterMenuBar.SelectionTransaction transaction = menuBar.beginSelection();
+        assertTrue(transaction.select(0, key("a11")));
+        transaction.commit();
+        assertNotNotified();
+    }
+
+    @Test
+    @UiThreadTest
+    public void commit_skipsGroupsWhoseTreeWasReplaced() {
+        FilterMenuBar.SelectionTransaction transaction = menuBar.beginSelection();
+        assertTrue(transaction.select(0, key("a12")));
+        assertTrue(transaction.select(1, key("b12")));
+        menuBar.setMenuItems(Arrays.asList(newTree("a"), newTree("b")));
+        transaction.commit();
+
+        assertEquals("a11", titleOf(0));
+        assertEquals("b11", titleOf(1));
+        assertNotNotified();
+
+        // The tree of the group 0 is patched in place, keeping the selected leaf, while the
+        // group 1 is removed.
+        transaction = menuBar.beginSelection();
+        assertTrue(transaction.select(0, key("a12")));
+        assertTrue(transaction.select(1, key("b12")));
+        menuBar.updateMenuItems(Arrays.asList(newTree("a")));
+        transaction.commit();
+        assertEquals(1, menuBar.getChildCount());
+        assertEquals("a12", titleOf(0));
+        assertEquals(1, changeCalls.size());
+        assertEquals(1, changeCalls.get(0).size());
+        assertEquals(Arrays.asList(0), invokedGroupIndices);
+    }
+
+    @Test
+    @UiThreadTest
+    public void cancel_appliesNothing() {
+        FilterMenuBar.SelectionTransaction transaction = menuBar.beginSelection();
+        assertTrue(transaction.select(0, key("a22")));
+        assertTrue(transaction.select(1, key("b22")));
+        transaction.cancel();
+
+        assertEquals("a11", titleOf(0));
+        assertEquals("b11", titleOf(1));
+        assertNotNotified();
+        try {
+            transaction.commit();
+            fail("committed after cancel");
+        } catch (IllegalStateException expected) {
+            // A transaction is finished by its cancel.
+        }
+        try {
+            transaction.select(0, key("a22"));
+            fail("selected after cancel");
+        } catch (IllegalStateException expected) {
+            // Same for the selections.
+        }
+    }
+
+    @Test
+    @UiThreadTest
+    public void commit_simpleAdapter_receivesMinusOneForSeveralGroups() {
+        final List<Integer> indices = new ArrayList<>();
+        menuBar.setOnFilterItemSelectedListener(new FilterMenuBar.OnFilterItemSelectedSimpleAdapter() {
+            @Override
+            public void onFilterItemSelected(Map<String, String> selectedGroups, int invokedGroupIndex) {
+                assertEquals("a21", selectedGroups.get("a"));
+                indices.add(invokedGroupIndex);
+            }
+        });
+        FilterMenuBar.SelectionTransaction transaction = menuBar.beginSelection();
+        assertTrue(transaction.select(0, key("a21")));
+        assertTrue(transaction.select(1, key("b21")));
+        transaction.commit();
+        assertEquals(Arrays.asList(-1), indices);
+        assertEquals(1, changeCalls.size());
+    }
+}
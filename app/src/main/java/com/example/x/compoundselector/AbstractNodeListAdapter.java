@@ -0,0 +1,349 @@
+package com.example.x.compoundselector;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.support.annotation.NonNull;
+import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.List;
+
+/**
+ * Base of the adapters showing one level of a tree in a column of {@link FilterView}.
+ * <p>Items are rendered from a snapshot of their name, value and state taken by
+ * {@link #swapItems(String[], String[], int[], boolean, int)}, which compares the snapshot with
+ * the previous one position by position, so that only the items actually changed are bound again,
+ * at a cost linear in the count of items on the main thread. The stable id of an item is its
+ * position within the level along with the {@link Node#hashCode()} of its name and value, so that
+ * ids never collide, even for equal names and values repeated within a level.</p>
+ * <p>Item views do not depend on the level, so that they may be recycled between the columns
+ * through a shared {@link RecyclerView.RecycledViewPool}.</p>
+ */
+public abstract class AbstractNodeListAdapter extends RecyclerView.Adapter<AbstractNodeListAdapter.ViewHolder> {
+
+    static final int VIEW_TYPE_NODE = 0;
+    static final int VIEW_TYPE_LOADING = 1;
+
+    static final int STATE_CHECKED = 1;
+    static final int STATE_LEAF = 1 << 1;
+    /**
+     * More children would be loaded, so that the count is unknown.
+     */
+    static final int STATE_MORE_CHILDREN = 1 << 2;
+    /**
+     * Some but not all the leaves under the branch are selected, see {@link MultiSelection}.
+     */
+    static final int STATE_PARTIALLY_CHECKED = 1 << 3;
+    /**
+     * The count is a count of records rather than of children, shown for the leaves as well,
+     * see {@link FacetCounter}.
+     */
+    static final int STATE_RECORD_COUNT = 1 << 4;
+    private static final int STATE_COUNT_SHIFT = 5;
+    private static final int MAX_STATE_COUNT = Integer.MAX_VALUE >>> STATE_COUNT_SHIFT;
+
+    private static final Object PAYLOAD_ACTIVATED = new Object();
+    private static final String[] EMPTY_STRINGS = new String[0];
+    private static final int[] EMPTY_STATES = new int[0];
+
+    private final LayoutInflater mLayoutInflater;
+    private final Drawable markCheckedLeafDrawable;
+    private final Drawable markCheckedNonLeafDrawable;
+    private final Drawable placeHolderDrawable;
+
+    private final int listItemBgRes;
+
+    private String[] showNames = EMPTY_STRINGS;
+    private String[] values = EMPTY_STRINGS;
+    private int[] states = EMPTY_STATES;
+    /**
+     * Whether a loading row is shown after the items, while more items are loaded.
+     */
+    private boolean loading;
+    private int checkedPosition = -1;
+    private OnItemClickListener onItemClickListener;
+    private OnItemLongClickListener onItemLongClickListener;
+
+    AbstractNodeListAdapter(@NonNull Context context, FilterView.ListLevelRes listLevelRes) {
+        this.mLayoutInflater = LayoutInflater.from(context);
+        this.listItemBgRes = listLevelRes.getListItemBg();
+
+        this.markCheckedLeafDrawable = ContextCompat.getDrawable(context, R.drawable.ic_checked_state_18dp);
+        int w = markCheckedLeafDrawable.getIntrinsicWidth();
+        int h = markCheckedLeafDrawable.getIntrinsicHeight();
+        markCheckedLeafDrawable.setBounds(0, 0, w, h);
+        this.placeHolderDrawable = new ColorDrawable(Color.TRANSPARENT);
+        placeHolderDrawable.setBounds(0, 0, w, h);
+        this.markCheckedNonLeafDrawable = ContextCompat.getDrawable(context, R.drawable.ic_done_all_18dp);
+        markCheckedNonLeafDrawable.setBounds(0, 0, w, h);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Returns the state of a node as shown by an item, see {@link #swapItems}.
+     *
+     * @param childCount the count of children, ignored for a leaf or if more children would be loaded.
+     */
+    static int itemState(boolean checked, boolean leaf, boolean moreChildren, int childCount) {
+        int state = (checked ? STATE_CHECKED : 0) | (leaf ? STATE_LEAF : 0);
+        if (moreChildren) {
+            return state | STATE_MORE_CHILDREN;
+        }
+        return leaf ? state : state | (Math.min(childCount, MAX_STATE_COUNT) << STATE_COUNT_SHIFT);
+    }
+
+    /**
+     * Returns the item state with the count of records shown instead of the count of children.
+     */
+    static int withRecordCount(int state, int recordCount) {
+        return (state & (STATE_CHECKED | STATE_LEAF | STATE_PARTIALLY_CHECKED)) | STATE_RECORD_COUNT
+                | (Math.min(recordCount, MAX_STATE_COUNT) << STATE_COUNT_SHIFT);
+    }
+
+    /**
+     * Replaces the shown items, notifying the changes between the former and the new ones.
+     *
+     * @param showNames       the names of the new items.
+     * @param values          the values of the new items.
+     * @param states          the states of the new items, see {@link #itemState}.
+     * @param loading         whether a loading row is shown after the items.
+     * @param checkedPosition the position of the activated item, or -1.
+     */
+    protected final void swapItems(String[] showNames, String[] values, int[] states,
+                                   boolean loading, int checkedPosition) {
+        String[] oldShowNames = this.showNames;
+        String[] oldValues = this.values;
+        int[] oldStates = this.states;
+        int oldCount = getItemCount();
+        int oldCheckedPosition = this.checkedPosition;
+
+        this.showNames = showNames;
+        this.values = values;
+        this.states = states;
+        this.loading = loading;
+        this.checkedPosition = checkedPosition;
+
+        int newCount = getItemCount();
+        for (int position = 0, common = Math.min(oldCount, newCount); position < common; position++) {
+            boolean oldLoadingRow = position == oldShowNames.length;
+            boolean newLoadingRow = position == showNames.length;
+            if (oldLoadingRow && newLoadingRow) {
+                continue;
+            }
+            if (oldLoadingRow || newLoadingRow
+                    || !oldShowNames[position].equals(showNames[position])
+                    || !equal(oldValues[position], values[position])
+                    || oldStates[position] != states[position]) {
+                notifyItemChanged(position);
+            } else if ((position == oldCheckedPosition) != (position == checkedPosition)) {
+                notifyItemChanged(position, PAYLOAD_ACTIVATED);
+            }
+        }
+        if (newCount > oldCount) {
+            notifyItemRangeInserted(oldCount, newCount - oldCount);
+        } else if (newCount < oldCount) {
+            notifyItemRangeRemoved(newCount, oldCount - newCount);
+        }
+    }
+
+    private static boolean equal(String a, String b) {
+        return a != null ? a.equals(b) : b == null;
+    }
+
+    /**
+     * Shows or hides the loading row after the items.
+     */
+    public void setLoading(boolean loading) {
+        if (this.loading != loading) {
+            this.loading = loading;
+            if (loading) {
+                notifyItemInserted(showNames.length);
+            } else {
+                notifyItemRemoved(showNames.length);
+            }
+        }
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * Activates the item at the specified position, or none if it is -1.
+     */
+    public void setCheckedPosition(int checkedPosition) {
+        int oldCheckedPosition = this.checkedPosition;
+        if (oldCheckedPosition == checkedPosition) {
+            return;
+        }
+        this.checkedPosition = checkedPosition;
+        if (oldCheckedPosition > -1) {
+            notifyItemChanged(oldCheckedPosition, PAYLOAD_ACTIVATED);
+        }
+        if (checkedPosition > -1) {
+            notifyItemChanged(checkedPosition, PAYLOAD_ACTIVATED);
+        }
+    }
+
+    public int getCheckedPosition() {
+        return checkedPosition;
+    }
+
+    /**
+     * Returns the count of node items, without the loading row.
+     */
+    public int getNodeCount() {
+        return showNames.length;
+    }
+
+    public void setOnItemClickListener(OnItemClickListener onItemClickListener) {
+        this.onItemClickListener = onItemClickListener;
+    }
+
+    public void setOnItemLongClickListener(OnItemLongClickListener onItemLongClickListener) {
+        this.onItemLongClickListener = onItemLongClickListener;
+    }
+
+    @Override
+    public int getItemCount() {
+        return showNames.length + (loading ? 1 : 0);
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return position < showNames.length ? VIEW_TYPE_NODE : VIEW_TYPE_LOADING;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        if (position >= showNames.length) {
+            return (long) position << 32;
+        }
+        // Same as Node#hashCode(), made unique by the position.
+        String value = values[position];
+        int hash = 31 * showNames[position].hashCode() + (value != null ? value.hashCode() : 0);
+        return (long) position << 32 | hash & 0xFFFFFFFFL;
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        if (viewType == VIEW_TYPE_LOADING) {
+            return new ViewHolder(mLayoutInflater.inflate(R.layout.view_node_list_loading_item, parent, false));
+        }
+        final ViewHolder viewHolder = new ViewHolder(mLayoutInflater.inflate(R.layout.view_node_list_item, parent, false));
+        viewHolder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                // The adapter of a recycled view may be another one than the creating one.
+                AbstractNodeListAdapter adapter = viewHolder.boundAdapter;
+                int position = viewHolder.getAdapterPosition();
+                if (adapter != null && position != RecyclerView.NO_POSITION) {
+                    adapter.onItemClick(position);
+                }
+            }
+        });
+        viewHolder.itemView.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                AbstractNodeListAdapter adapter = viewHolder.boundAdapter;
+                int position = viewHolder.getAdapterPosition();
+                return adapter != null && position != RecyclerView.NO_POSITION && adapter.onItemLongClick(position);
+            }
+        });
+        return viewHolder;
+    }
+
+    private void onItemClick(int position) {
+        if (position < showNames.length && onItemClickListener != null) {
+            onItemClickListener.onItemClick(this, position);
+        }
+    }
+
+    private boolean onItemLongClick(int position) {
+        return position < showNames.length && onItemLongClickListener != null
+                && onItemLongClickListener.onItemLongClick(this, position);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+        if (!payloads.isEmpty() && holder.getItemViewType() == VIEW_TYPE_NODE) {
+            // Only the activated item changed.
+            holder.itemView.setActivated(position == checkedPosition);
+            return;
+        }
+        onBindViewHolder(holder, position);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        holder.boundAdapter = this;
+        if (holder.getItemViewType() == VIEW_TYPE_LOADING) {
+            return;
+        }
+        // Recycled between the columns, whose backgrounds differ.
+        if (holder.itemBgRes != listItemBgRes) {
+            holder.itemView.setBackgroundResource(listItemBgRes);
+            holder.itemBgRes = listItemBgRes;
+        }
+        holder.itemView.setActivated(position == checkedPosition);
+        holder.tvName.setText(showNames[position]);
+
+        int state = states[position];
+        boolean leaf = (state & STATE_LEAF) != 0;
+        if ((state & STATE_RECORD_COUNT) != 0) {
+            holder.tvNum.setVisibility(View.VISIBLE);
+            holder.tvNum.setText(String.valueOf(state >>> STATE_COUNT_SHIFT));
+        } else if (leaf) {
+            holder.tvNum.setVisibility(View.GONE);
+        } else {
+            holder.tvNum.setVisibility(View.VISIBLE);
+            // The count is unknown until all the children are loaded.
+            holder.tvNum.setText((state & STATE_MORE_CHILDREN) != 0 ? ""
+                    : String.valueOf(state >>> STATE_COUNT_SHIFT));
+        }
+        Drawable drawable;
+        if ((state & STATE_CHECKED) != 0) {
+            drawable = leaf ? markCheckedLeafDrawable : markCheckedNonLeafDrawable;
+        } else {
+            // A partially selected branch shows the single check mark, a fully selected one the double.
+            drawable = (state & STATE_PARTIALLY_CHECKED) != 0 ? markCheckedLeafDrawable : placeHolderDrawable;
+        }
+        holder.tvName.setCompoundDrawables(drawable, null, null, null);
+    }
+
+    public interface OnItemClickListener {
+        /**
+         * @param adapter  the adapter of the clicked item.
+         * @param position the position of the clicked node item.
+         */
+        void onItemClick(AbstractNodeListAdapter adapter, int position);
+    }
+
+    public interface OnItemLongClickListener {
+        /**
+         * @param adapter  the adapter of the long clicked item.
+         * @param position the position of the long clicked node item.
+         * @return <tt>true</tt> if the long click is consumed.
+         */
+        boolean onItemLongClick(AbstractNodeListAdapter adapter, int position);
+    }
+
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView tvName;
+        final TextView tvNum;
+        AbstractNodeListAdapter boundAdapter;
+        int itemBgRes;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            tvName = (TextView) itemView.findViewById(R.id.tv_node_name);
+            tvNum = (TextView) itemView.findViewById(R.id.tv_node_num);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.x.compoundselector;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * The children of a {@link Node}, in insertion order.
+ * <p>Beyond {@link #INDEX_THRESHOLD} children, the list also counts its children by their
+ * {@link Node#equals(Object)} key, so that {@link #contains(Object)} is O(1) instead of a scan of
+ * the list, and building a wide branch child by child is no longer quadratic. Lists read by Gson
+ * or a tree loader may hold children equal to each other, hence the counts.</p>
+ * <p>A node is a key of the counts while it is a child, so renaming a child must go through
+ * {@link #onKeyChanging(Node)} and {@link #onKeyChanged(Node)}.</p>
+ */
+final class ChildList extends AbstractList<Node> implements RandomAccess {
+
+    /**
+     * Beyond this size, a scan of the list costs more than a hash lookup.
+     */
+    static final int INDEX_THRESHOLD = 8;
+
+    private static final Node[] EMPTY_ELEMENTS = new Node[0];
+
+    private Node[] elements = EMPTY_ELEMENTS;
+    private int size;
+    /**
+     * The count of the children equal to each key, or {@code null} at or below the threshold.
+     * Counts are boxed in an array, so that updating them does not allocate.
+     */
+    private HashMap<Node, int[]> counts;
+
+    ChildList() {
+    }
+
+    ChildList(Collection<? extends Node> nodes) {
+        elements = nodes.toArray(new Node[nodes.size()]);
+        size = elements.length;
+        if (size > INDEX_THRESHOLD) {
+            buildCounts();
+        }
+    }
+
+    @Override
+    public Node get(int index) {
+        checkIndex(index);
+        return elements[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Node set(int index, Node node) {
+        checkIndex(index);
+        Node old = elements[index];
+        elements[index] = node;
+        if (counts != null) {
+            decrement(old);
+            increment(node);
+        }
+        return old;
+    }
+
+    @Override
+    public void add(int index, Node node) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(elements, index, elements, index + 1, size - index);
+        elements[index] = node;
+        size++;
+        modCount++;
+        if (counts != null) {
+            increment(node);
+        } else if (size > INDEX_THRESHOLD) {
+            buildCounts();
+        }
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Node> nodes) {
+        ensureCapacity(size + nodes.size());
+        return super.addAll(nodes);
+    }
+
+    @Override
+    public Node remove(int index) {
+        checkIndex(index);
+        Node old = elements[index];
+        System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+        elements[--size] = null;
+        modCount++;
+        if (counts != null) {
+            decrement(old);
+        }
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(elements, 0, size, null);
+        size = 0;
+        modCount++;
+        counts = null;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (counts != null) {
+            return counts.containsKey(o);
+        }
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (counts != null && !counts.containsKey(o)) {
+            return -1;
+        }
+        for (int i = 0; i < size; i++) {
+            if (o == null ? elements[i] == null : o.equals(elements[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Grows the backing array at once for the specified count of children.
+     */
+    void ensureCapacity(int capacity) {
+        if (capacity <= elements.length) {
+            return;
+        }
+        elements = Arrays.copyOf(elements, Math.max(capacity, elements.length + (elements.length >> 1)));
+    }
+
+    /**
+     * Removes all the children equal to one of the specified nodes, compacting the list in a
+     * single pass.
+     *
+     * @param targets the nodes to remove.
+     * @return the removed children, in their former order, or {@code null} if none was removed.
+     */
+    Node[] removeAllEqual(Set<?> targets) {
+        Node[] removed = null;
+        int removedCount = 0;
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Node node = elements[i];
+            if (targets.contains(node)) {
+                if (removed == null) {
+                    removed = new Node[Math.min(size - i, targets.size())];
+                } else if (removedCount == removed.length) {
+                    removed = Arrays.copyOf(removed, Math.min(size - i + removedCount, removedCount * 2));
+                }
+                removed[removedCount++] = node;
+                if (counts != null) {
+                    // All the children equal to the node are removed.
+                    counts.remove(node);
+                }
+            } else {
+                elements[kept++] = node;
+            }
+        }
+        if (removed == null) {
+            return null;
+        }
+        Arrays.fill(elements, kept, size, null);
+        size = kept;
+        modCount++;
+        return removedCount == removed.length ? removed : Arrays.copyOf(removed, removedCount);
+    }
+
+    /**
+     * Called before the key of the specified child changes.
+     */
+    void onKeyChanging(Node child) {
+        if (counts != null) {
+            decrement(child);
+        }
+    }
+
+    /**
+     * Called after the key of the specified child changed.
+     */
+    void onKeyChanged(Node child) {
+        if (counts != null) {
+            increment(child);
+        }
+    }
+
+    private void buildCounts() {
+        counts = new HashMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+        for (int i = 0; i < size; i++) {
+            increment(elements[i]);
+        }
+    }
+
+    private void increment(Node node) {
+        int[] count = counts.get(node);
+        if (count == null) {
+            counts.put(node, new int[]{1});
+        } else {
+            count[0]++;
+        }
+    }
+
+    /**
+     * Uncounts the specified node, which is not a child any longer, or is about to be renamed.
+     */
+    private void decrement(Node node) {
+        int[] count = counts.get(node);
+        if (count == null) {
+            return;
+        }
+        // The key may be the node itself, which must not stay a key once it is not counted.
+        counts.remove(node);
+        if (--count[0] > 0) {
+            counts.put(findOtherEqual(node), count);
+        }
+    }
+
+    private Node findOtherEqual(Node node) {
+        for (int i = 0; i < size; i++) {
+            Node element = elements[i];
+            if (element != node && node.equals(element)) {
+                return element;
+            }
+        }
+        return node;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.x.compoundselector;
+
+import java.util.List;
+
+/**
+ * Provides the children of branch nodes on demand, so that the levels never opened by the user
+ * need not be loaded. See {@link Node#setChildProvider(ChildProvider)} and {@link LazyChildLoader}.
+ */
+public interface ChildProvider {
+
+    /**
+     * Loads a page of the children of the specified node. Called on a worker thread, so it must not
+     * touch the tree.
+     *
+     * @param parent the node whose children are loaded. Read only.
+     * @param offset the index of the first child to load.
+     * @param limit  the max count of children to load.
+     * @return the loaded children, fewer than {@code limit} if there is no more. The returned nodes
+     * may declare a child provider themselves.
+     */
+    List<Node> loadChildren(Node parent, int offset, int limit) throws Exception;
+
+    /**
+     * Returns the depth of the subtree rooted by the specified node once fully loaded, which is
+     * 2 if its children are all leaf nodes. Used for laying out the levels not loaded yet.
+     */
+    int getSubtreeDepth(Node parent);
+}
@@ -0,0 +1,423 @@
+package com.example.x.compoundselector;
+
+import java.util.Arrays;
+
+/**
+ * An immutable compressed set of record ids, for indexes of up to millions of records: the
+ * records of a node in a {@link RecordIndex}, counted by a {@link FacetCounter}.
+ * <p>The ids are split into chunks of 65536 by their upper 16 bits, and only the chunks holding
+ * some ids are stored, each in the cheaper of two forms: the sorted array of the lower 16 bits of
+ * its ids, two bytes per id, up to {@link #MAX_ARRAY_SIZE} ids, or a bitmap of 8 KB beyond. So a
+ * sparse set costs about two bytes per id, and a dense one about one bit per record. Sets are
+ * intersected chunk by chunk, and only the chunks present in all of them are read, see
+ * {@link RecordIndex.Query}.</p>
+ */
+final class CompressedBitmap {
+
+    /**
+     * Beyond this count of ids in a chunk, the array would be larger than the bitmap.
+     */
+    static final int MAX_ARRAY_SIZE = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    static final CompressedBitmap EMPTY = new CompressedBitmap(new char[0], new Container[0], 0, 0);
+
+    /**
+     * The upper 16 bits of the ids of every chunk, sorted.
+     */
+    private final char[] keys;
+    private final Container[] containers;
+    private final int chunkCount;
+    private final int cardinality;
+
+    private CompressedBitmap(char[] keys, Container[] containers, int chunkCount, int cardinality) {
+        this.keys = keys;
+        this.containers = containers;
+        this.chunkCount = chunkCount;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * Returns the set of the specified ids.
+     *
+     * @param sortedIds the ids, sorted and distinct, not negative.
+     * @param count     the count of ids in {@code sortedIds}.
+     */
+    static CompressedBitmap of(int[] sortedIds, int count) {
+        if (count == 0) {
+            return EMPTY;
+        }
+        char[] keys = new char[4];
+        Container[] containers = new Container[4];
+        int chunkCount = 0;
+        int start = 0;
+        while (start < count) {
+            int key = sortedIds[start] >>> 16;
+            int end = start + 1;
+            while (end < count && sortedIds[end] >>> 16 == key) {
+                end++;
+            }
+            if (chunkCount == keys.length) {
+                keys = Arrays.copyOf(keys, chunkCount * 2);
+                containers = Arrays.copyOf(containers, chunkCount * 2);
+            }
+            keys[chunkCount] = (char) key;
+            containers[chunkCount++] = Container.of(sortedIds, start, end);
+            start = end;
+        }
+        return new CompressedBitmap(keys, containers, chunkCount, count);
+    }
+
+    /**
+     * Returns the set of the specified chunks, none of them empty.
+     *
+     * @param keys       the keys of the chunks, sorted. Owned by the set afterwards.
+     * @param containers the chunks. Owned by the set afterwards.
+     * @param chunkCount the count of chunks in {@code keys}.
+     */
+    static CompressedBitmap ofChunks(char[] keys, Container[] containers, int chunkCount) {
+        if (chunkCount == 0) {
+            return EMPTY;
+        }
+        int cardinality = 0;
+        for (int c = 0; c < chunkCount; c++) {
+            cardinality += containers[c].cardinality;
+        }
+        return new CompressedBitmap(keys, containers, chunkCount, cardinality);
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    boolean contains(int id) {
+        int index = indexOfKey((char) (id >>> 16));
+        return index >= 0 && containers[index].contains((char) id);
+    }
+
+    /**
+     * Returns the union of the specified sets, such as the records under a branch. Every chunk is
+     * merged once from all the sets, rather than through the unions of pairs.
+     */
+    static CompressedBitmap union(CompressedBitmap[] bitmaps, int count) {
+        if (count == 0) {
+            return EMPTY;
+        }
+        if (count == 1) {
+            return bitmaps[0];
+        }
+        boolean[] present = new boolean[1 << 16];
+        int keyCount = 0;
+        for (int i = 0; i < count; i++) {
+            CompressedBitmap bitmap = bitmaps[i];
+            for (int c = 0; c < bitmap.chunkCount; c++) {
+                if (!present[bitmap.keys[c]]) {
+                    present[bitmap.keys[c]] = true;
+                    keyCount++;
+                }
+            }
+        }
+        char[] keys = new char[keyCount];
+        Container[] containers = new Container[keyCount];
+        int chunkCount = 0;
+        int cardinality = 0;
+        long[] words = new long[BITMAP_WORDS];
+        for (int key = 0; key < present.length && chunkCount < keyCount; key++) {
+            if (!present[key]) {
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                int index = bitmaps[i].indexOfKey((char) key);
+                if (index >= 0) {
+                    bitmaps[i].containers[index].orInto(words);
+                }
+            }
+            Container container = Container.ofWords(words);
+            // Kept by a bitmap container, otherwise cleared for the next chunk.
+            words = container instanceof BitmapContainer ? new long[BITMAP_WORDS] : clear(words);
+            keys[chunkCount] = (char) key;
+            containers[chunkCount++] = container;
+            cardinality += container.cardinality;
+        }
+        return new CompressedBitmap(keys, containers, chunkCount, cardinality);
+    }
+
+    private static long[] clear(long[] words) {
+        Arrays.fill(words, 0L);
+        return words;
+    }
+
+    /**
+     * Returns the count of ids of the intersection with the other set, without building it.
+     */
+    int andCardinality(CompressedBitmap other) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < chunkCount && j < other.chunkCount) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                count += containers[i++].andCardinality(other.containers[j++]);
+            }
+        }
+        return count;
+    }
+
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    char getKey(int chunk) {
+        return keys[chunk];
+    }
+
+    Container getContainer(int chunk) {
+        return containers[chunk];
+    }
+
+    /**
+     * Returns the index of the chunk with the key, or a negative value if there is none.
+     */
+    int indexOfKey(char key) {
+        return Arrays.binarySearch(keys, 0, chunkCount, key);
+    }
+
+    /**
+     * The lower 16 bits of the ids of one chunk.
+     */
+    abstract static class Container {
+
+        final int cardinality;
+
+        Container(int cardinality) {
+            this.cardinality = cardinality;
+        }
+
+        static Container of(int[] sortedIds, int start, int end) {
+            int count = end - start;
+            if (count > MAX_ARRAY_SIZE) {
+                long[] words = new long[BITMAP_WORDS];
+                for (int i = start; i < end; i++) {
+                    int low = sortedIds[i] & 0xFFFF;
+                    words[low >>> 6] |= 1L << low;
+                }
+                return new BitmapContainer(words, count);
+            }
+            char[] values = new char[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = (char) sortedIds[start + i];
+            }
+            return new ArrayContainer(values, count);
+        }
+
+        abstract boolean contains(char value);
+
+        abstract Container and(Container other);
+
+        abstract int andCardinality(Container other);
+
+        /**
+         * Sets the bits of the ids of this chunk in the words of a bitmap container.
+         */
+        abstract void orInto(long[] words);
+
+        /**
+         * Copies the ids from the rank {@code from} of this chunk into {@code out}, as many as
+         * fit from {@code offset}, adding {@code high} to the lower bits.
+         *
+         * @return the count of ids copied.
+         */
+        abstract int copyTo(int from, int[] out, int offset, int high);
+
+        /**
+         * Returns the container of the specified words, in the cheaper form.
+         */
+        static Container ofWords(long[] words) {
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            if (count > MAX_ARRAY_SIZE) {
+                return new BitmapContainer(words, count);
+            }
+            char[] values = new char[count];
+            int index = 0;
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[index++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+    }
+
+    static final class ArrayContainer extends Container {
+
+        final char[] values;
+
+        ArrayContainer(char[] values, int cardinality) {
+            super(cardinality);
+            this.values = values;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[Math.min(cardinality, other.cardinality)];
+            int count = 0;
+            if (other instanceof BitmapContainer) {
+                long[] words = ((BitmapContainer) other).words;
+                for (int i = 0; i < cardinality; i++) {
+                    char value = values[i];
+                    if ((words[value >>> 6] & 1L << value) != 0) {
+                        result[count++] = value;
+                    }
+                }
+            } else {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    char a = values[i];
+                    char b = array.values[j];
+                    if (a < b) {
+                        i++;
+                    } else if (a > b) {
+                        j++;
+                    } else {
+                        result[count++] = a;
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            int count = 0;
+            if (other instanceof BitmapContainer) {
+                long[] words = ((BitmapContainer) other).words;
+                for (int i = 0; i < cardinality; i++) {
+                    char value = values[i];
+                    if ((words[value >>> 6] & 1L << value) != 0) {
+                        count++;
+                    }
+                }
+                return count;
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality && j < array.cardinality) {
+                char a = values[i];
+                char b = array.values[j];
+                if (a < b) {
+                    i++;
+                } else if (a > b) {
+                    j++;
+                } else {
+                    count++;
+                    i++;
+                    j++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        void orInto(long[] words) {
+            for (int i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+        }
+
+        @Override
+        int copyTo(int from, int[] out, int offset, int high) {
+            int count = Math.min(cardinality - from, out.length - offset);
+            for (int i = 0; i < count; i++) {
+                out[offset + i] = high | values[from + i];
+            }
+            return count;
+        }
+    }
+
+    static final class BitmapContainer extends Container {
+
+        final long[] words;
+
+        BitmapContainer(long[] words, int cardinality) {
+            super(cardinality);
+            this.words = words;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & 1L << value) != 0;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] result = new long[BITMAP_WORDS];
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                result[w] = words[w] & otherWords[w];
+            }
+            return ofWords(result);
+        }
+
+        @Override
+        int andCardinality(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.andCardinality(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                count += Long.bitCount(words[w] & otherWords[w]);
+            }
+            return count;
+        }
+
+        @Override
+        void orInto(long[] words) {
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                words[w] |= this.words[w];
+            }
+        }
+
+        @Override
+        int copyTo(int from, int[] out, int offset, int high) {
+            // Skips the words before the rank, then copies the set bits in order.
+            int rank = 0;
+            int w = 0;
+            while (w < BITMAP_WORDS && rank + Long.bitCount(words[w]) <= from) {
+                rank += Long.bitCount(words[w++]);
+            }
+            int copied = 0;
+            for (; w < BITMAP_WORDS && offset + copied < out.length; w++) {
+                long word = words[w];
+                while (word != 0 && offset + copied < out.length) {
+                    if (rank++ >= from) {
+                        out[offset + copied++] = high | ((w << 6) + Long.numberOfTrailingZeros(word));
+                    }
+                    word &= word - 1;
+                }
+            }
+            return copied;
+        }
+    }
+}
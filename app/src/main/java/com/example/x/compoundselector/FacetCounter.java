@@ -0,0 +1,191 @@
+package com.example.x.compoundselector;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts the records of a {@link RecordIndex} matching every node of the menu trees given the
+ * selections of the other groups, i.e. the counts of a faceted search: the count of a node is
+ * the count of records tagged with it, or with a leaf below it, which also match the selected
+ * nodes of all the other groups. So the counts of a group do not depend on its own selection,
+ * and only the other groups are counted again when it changes, see
+ * {@link #count(Node[], FacetCounts)}.
+ * <p>The bitmap of every node is taken from the index once, when the counter is made. The
+ * selections of the other groups are intersected as a {@link RecordIndex.Query}, and every node
+ * counts its records within the intersection, chunk by chunk, without listing them.</p>
+ * <p>A counter is made by {@link #of(RecordIndex)} on the thread owning the trees, and their
+ * nodes are only used as identity keys afterwards. A counter is immutable, so that counting may
+ * run on any thread while the views own the trees. It must be made again once the trees of the
+ * groups are replaced or updated.</p>
+ */
+public final class FacetCounter {
+
+    private final RecordIndex recordIndex;
+    private final Group[] groups;
+
+    private FacetCounter(RecordIndex recordIndex, Group[] groups) {
+        this.recordIndex = recordIndex;
+        this.groups = groups;
+    }
+
+    /**
+     * Returns a counter of the records of the index, for the trees it was built for. To be
+     * called on the thread owning the trees, since their nodes are read.
+     */
+    public static FacetCounter of(RecordIndex recordIndex) {
+        Group[] groups = new Group[recordIndex.getGroupCount()];
+        for (int g = 0; g < groups.length; g++) {
+            final List<Node> nodes = new ArrayList<>();
+            TreeWalker.obtain().preOrder(recordIndex.getRootNode(g), new TreeWalker.Visitor() {
+                @Override
+                public int visit(Node node) {
+                    nodes.add(node);
+                    return TreeWalker.CONTINUE;
+                }
+            });
+            int nodeCount = nodes.size();
+            Map<Node, Integer> ordinals = new IdentityHashMap<>(nodeCount);
+            CompressedBitmap[] records = new CompressedBitmap[nodeCount];
+            for (int o = 0; o < nodeCount; o++) {
+                Node node = nodes.get(o);
+                ordinals.put(node, o);
+                records[o] = recordIndex.recordsOf(g, node);
+            }
+            groups[g] = new Group(ordinals, records);
+        }
+        return new FacetCounter(recordIndex, groups);
+    }
+
+    public RecordIndex getRecordIndex() {
+        return recordIndex;
+    }
+
+    public int getGroupCount() {
+        return groups.length;
+    }
+
+    public int getRecordCount() {
+        return recordIndex.getRecordCount();
+    }
+
+    /**
+     * Counts the records for the specified selections.
+     *
+     * @param selectedNodes the selected node of every group, or {@code null} for a group not
+     *                      restricting the records. A branch selects all the records below it,
+     *                      and the root or a node matching all the records select them all.
+     * @param previous      the counts of former selections by this counter, whose groups are
+     *                      kept when only their own selection changed, or {@code null}.
+     * @throws IllegalArgumentException if the count of selected nodes is not the count of groups.
+     */
+    public FacetCounts count(Node[] selectedNodes, FacetCounts previous) {
+        if (selectedNodes.length != groups.length) {
+            throw new IllegalArgumentException("Expected " + groups.length + " selections, got "
+                    + selectedNodes.length);
+        }
+        int groupCount = groups.length;
+        int[] selections = new int[groupCount];
+        for (int g = 0; g < groupCount; g++) {
+            selections[g] = groups[g].selectionOrdinal(selectedNodes[g]);
+        }
+        if (previous != null && previous.getCounter() != this) {
+            previous = null;
+        }
+
+        int recordCount = getRecordCount();
+        int[][] counts = new int[groupCount][];
+        for (int h = 0; h < groupCount; h++) {
+            if (previous != null && othersEqual(selections, previous.getSelections(), h)) {
+                counts[h] = previous.getGroupCounts(h);
+                continue;
+            }
+            counts[h] = groups[h].count(query(selections, h).toBitmap(), recordCount);
+        }
+        return new FacetCounts(this, selections, counts, query(selections, -1).count());
+    }
+
+    /**
+     * Returns the records matching the selections of all the groups but the excluded one.
+     */
+    private RecordIndex.Query query(int[] selections, int excludedGroup) {
+        List<CompressedBitmap> operands = new ArrayList<>(groups.length);
+        for (int g = 0; g < groups.length; g++) {
+            if (g != excludedGroup && selections[g] >= 0) {
+                operands.add(groups[g].records[selections[g]]);
+            }
+        }
+        return new RecordIndex.Query(operands, getRecordCount());
+    }
+
+    /**
+     * Returns <tt>true</tt> if the selections are the same but maybe for the specified group.
+     */
+    private static boolean othersEqual(int[] selections, int[] previousSelections, int group) {
+        for (int g = 0; g < selections.length; g++) {
+            if (g != group && selections[g] != previousSelections[g]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the preorder ordinal of the node in the tree of the group, or -1 if it is not a
+     * node of the tree.
+     */
+    int ordinalOf(int groupIndex, Node node) {
+        if (groupIndex < 0 || groupIndex >= groups.length) {
+            return -1;
+        }
+        Integer ordinal = groups[groupIndex].ordinals.get(node);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * The nodes of the tree of one group, in preorder.
+     */
+    private static final class Group {
+
+        final Map<Node, Integer> ordinals;
+        /**
+         * The records of every node, {@code null} for a node matching all the records.
+         */
+        final CompressedBitmap[] records;
+
+        Group(Map<Node, Integer> ordinals, CompressedBitmap[] records) {
+            this.ordinals = ordinals;
+            this.records = records;
+        }
+
+        /**
+         * Returns the ordinal of the selected node, or -1 if it does not restrict the records.
+         */
+        int selectionOrdinal(Node node) {
+            Integer ordinal = node == null ? null : ordinals.get(node);
+            if (ordinal == null || ordinal == 0 || records[ordinal] == null) {
+                return -1;
+            }
+            return ordinal;
+        }
+
+        /**
+         * Counts the records of every node also in the filter, or all of them if it is
+         * {@code null}.
+         */
+        int[] count(CompressedBitmap filter, int recordCount) {
+            int[] counts = new int[records.length];
+            int filterCount = filter == null ? recordCount : filter.cardinality();
+            for (int o = 0; o < records.length; o++) {
+                CompressedBitmap nodeRecords = records[o];
+                if (nodeRecords == null) {
+                    counts[o] = filterCount;
+                } else {
+                    counts[o] = filter == null ? nodeRecords.cardinality() : nodeRecords.andCardinality(filter);
+                }
+            }
+            return counts;
+        }
+    }
+}
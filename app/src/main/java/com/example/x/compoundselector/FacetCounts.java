@@ -0,0 +1,51 @@
+package com.example.x.compoundselector;
+
+/**
+ * The record counts of the nodes of all the groups for some selections, computed by a
+ * {@link FacetCounter}. Immutable, so that counts computed in background may be handed to the
+ * views as they are.
+ */
+public final class FacetCounts {
+
+    private final FacetCounter counter;
+    private final int[] selections;
+    private final int[][] counts;
+    private final int matchCount;
+
+    FacetCounts(FacetCounter counter, int[] selections, int[][] counts, int matchCount) {
+        this.counter = counter;
+        this.selections = selections;
+        this.counts = counts;
+        this.matchCount = matchCount;
+    }
+
+    public FacetCounter getCounter() {
+        return counter;
+    }
+
+    /**
+     * Returns the count of records tagged with the node or below it, which match the selections
+     * of the other groups.
+     *
+     * @return the count, or -1 if the node is not a node of the tree the group was counted for.
+     */
+    public int getCount(int groupIndex, Node node) {
+        int ordinal = counter.ordinalOf(groupIndex, node);
+        return ordinal < 0 ? -1 : counts[groupIndex][ordinal];
+    }
+
+    /**
+     * Returns the count of records matching the selections of all the groups.
+     */
+    public int getMatchCount() {
+        return matchCount;
+    }
+
+    int[] getSelections() {
+        return selections;
+    }
+
+    int[] getGroupCounts(int groupIndex) {
+        return counts[groupIndex];
+    }
+}
@@ -3,10 +3,16 @@ package com.example.x.compoundselector;
 import android.content.Context;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.AppCompatTextView;
 import android.text.TextUtils;
 import android.util.AttributeSet;
@@ -22,6 +28,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 /**
  * Created by Richa on 08/09/2017.
@@ -37,6 +45,57 @@ public class FilterMenuBar extends LinearLayout {
 
     private PopupWindow mPopupWindow;
 
+    // Volatile, since read by publishMenuSnapshot from any thread.
+    private volatile Executor loadExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
+    private volatile Executor resultExecutor;
+    private LazyChildLoader childLoader;
+    /**
+     * Menu items still loaded in background, cancelled when the menu items are replaced.
+     */
+    private final List<LoadMenuItemTask> pendingLoadTasks = new ArrayList<>();
+
+    /**
+     * The selection of every menu group, in the order of the groups, valid when
+     * {@code selectionSnapshotsValid} is <tt>true</tt>. Only the snapshot of the changed group is
+     * replaced on a selection, and the list is built again when the groups change.
+     */
+    private final List<SelectionSnapshot> selectionSnapshots = new ArrayList<>();
+    private final List<SelectionSnapshot> unmodifiableSelectionSnapshots =
+            Collections.unmodifiableList(selectionSnapshots);
+    private boolean selectionSnapshotsValid;
+
+    /**
+     * Selection changes not dispatched yet, at most one per group. They are dispatched together
+     * on the next animation frame, or at the end of the outermost batch.
+     */
+    private final List<SelectionChange> pendingSelectionChanges = new ArrayList<>();
+    private final List<SelectionChange> unmodifiablePendingSelectionChanges =
+            Collections.unmodifiableList(pendingSelectionChanges);
+    private boolean selectionChangesDispatchPosted;
+    private int selectionBatchDepth;
+
+    /**
+     * The selections restored from a saved state, by group index, until the tree of their group
+     * is bound and the children on their path are loaded. {@code null} once all of them are
+     * applied.
+     */
+    private LeafPath[] pendingRestoredPaths;
+
+    /**
+     * The latest snapshot published for every group and not applied yet, guarded by itself.
+     */
+    private final Map<Integer, NodeSnapshot> publishedSnapshots = new HashMap<>();
+
+    /**
+     * Counts the records matching the selections, see {@link #setFacetCounter(FacetCounter)}.
+     */
+    private FacetCounter facetCounter;
+    private FacetCounts facetCounts;
+    /**
+     * Incremented on every count request, so that only the latest counts are applied.
+     */
+    private int facetCountGeneration;
+
     public FilterMenuBar(Context context) {
         this(context, null);
     }
@@ -65,37 +124,533 @@ public class FilterMenuBar extends LinearLayout {
         Drawable divider = ContextCompat.getDrawable(getContext(),
                 android.R.drawable.divider_horizontal_bright);
         setDividerDrawable(divider);
+
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        resultExecutor = new Executor() {
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mainHandler.post(command);
+            }
+        };
     }
 
     public void setMenuItems(List<Node> rootNodeList) {
+        cancelPendingLoads();
         removeAllViews();
+        selectionSnapshotsValid = false;
+        // Group indices of the pending changes no longer apply.
+        pendingSelectionChanges.clear();
         for (Node rootNode : rootNodeList) {
-            appendMenuItem(rootNode);
+            addMenuItem(rootNode);
         }
+        restorePendingSelections();
     }
 
     public boolean appendMenuItem(Node rootNode) {
-        if (rootNode == null || rootNode.getChildren() == null || rootNode.getChildren().size() == 0) {
+        if (!addMenuItem(rootNode)) {
+            return false;
+        }
+        restorePendingSelections();
+        return true;
+    }
+
+    /**
+     * Updates the menu items to new versions of their trees, without building the views again,
+     * so that the menu may follow frequent refreshes of its data, such as new options or counts.
+     * The supported trees are matched with the groups by index, as {@link #setMenuItems(List)}
+     * would add them: every matched group is updated as by {@link #updateMenuTree(int, Node)},
+     * the additional trees are appended, and the groups left over are removed. Groups still
+     * loading are bound to their new tree directly.
+     *
+     * @param rootNodeList the new versions of the trees, consumed by the update.
+     */
+    public void updateMenuItems(List<Node> rootNodeList) {
+        beginSelectionBatch();
+        try {
+            int groupIndex = 0;
+            for (Node rootNode : rootNodeList) {
+                FilterTitleTextView titleView = getGroupTitleView(groupIndex);
+                if (titleView == null) {
+                    if (addMenuItem(rootNode)) {
+                        groupIndex++;
+                    }
+                    continue;
+                }
+                Node checkedLeafNode = prepareMenuTree(rootNode);
+                if (checkedLeafNode == null) {
+                    continue;
+                }
+                if (titleView.getNode() == null) {
+                    cancelPendingLoad(titleView);
+                    bindMenuTitleView(titleView, rootNode, checkedLeafNode);
+                } else {
+                    patchMenuTree(titleView, rootNode);
+                }
+                groupIndex++;
+            }
+            removeGroupsFrom(groupIndex);
+        } finally {
+            endSelectionBatch();
+        }
+        restorePendingSelections();
+    }
+
+    /**
+     * Updates the tree of the specified group to a new version of it, keeping its title view.
+     * The tree shown is patched in place, see {@link TreePatch}: the nodes with the same keys
+     * are kept, so the checked leaf stays checked if it is still in the new version; otherwise
+     * the group falls back to its default selection, which is reported to the listeners. If the
+     * tree of the group is shown by the popup, the popup stays open and its lists only bind the
+     * items actually changed, keeping the opened branches.
+     *
+     * @param groupIndex the index of the menu group.
+     * @param rootNode   the new version of its tree, consumed by the update.
+     * @return <tt>false</tt> if there is no such group, its tree is still loading, or the new
+     * version is not supported, then nothing is changed.
+     */
+    public boolean updateMenuTree(int groupIndex, Node rootNode) {
+        FilterTitleTextView titleView = getGroupTitleView(groupIndex);
+        if (titleView == null || titleView.getNode() == null || prepareMenuTree(rootNode) == null) {
+            return false;
+        }
+        patchMenuTree(titleView, rootNode);
+        return true;
+    }
+
+    private boolean addMenuItem(Node rootNode) {
+        Node checkedLeafNode = prepareMenuTree(rootNode);
+        if (checkedLeafNode == null) {
             return false;
         }
+        FilterTitleTextView titleView = newMenuTitleView();
+        bindMenuTitleView(titleView, rootNode, checkedLeafNode);
+        addView(titleView);
+        selectionSnapshotsValid = false;
+
+        return true;
+    }
+
+    /**
+     * Replaces the menu items with the trees provided by the suppliers. The trees are loaded,
+     * formatted and resolved on the load executor, while placeholder titles are shown in their place.
+     * Menu items still loading from previous calls are cancelled.
+     *
+     * @param treeSuppliers suppliers called on the load executor, one for each menu item.
+     * @see #setLoadExecutors(Executor, Executor)
+     */
+    public void setMenuItemsAsync(List<? extends Callable<Node>> treeSuppliers) {
+        cancelPendingLoads();
+        removeAllViews();
+        selectionSnapshotsValid = false;
+        pendingSelectionChanges.clear();
+        for (Callable<Node> treeSupplier : treeSuppliers) {
+            appendMenuItemAsync(treeSupplier);
+        }
+    }
+
+    /**
+     * Appends a menu item whose tree is provided by the supplier, called on the load executor.
+     * A placeholder title is shown until the tree is ready, and removed if the supplier fails or
+     * the tree is not supported, just like {@link #appendMenuItem(Node)} adds nothing.
+     *
+     * @param treeSupplier supplier called on the load executor.
+     */
+    public void appendMenuItemAsync(Callable<Node> treeSupplier) {
+        FilterTitleTextView titleView = newMenuTitleView();
+        titleView.setText(R.string.filter_menu_loading);
+        addView(titleView);
+        selectionSnapshotsValid = false;
+
+        LoadMenuItemTask task = new LoadMenuItemTask(titleView, treeSupplier);
+        pendingLoadTasks.add(task);
+        loadExecutor.execute(task);
+    }
+
+    /**
+     * Sets the executors used by the asynchronous menu item loading, mainly for tests.
+     *
+     * @param loadExecutor   the executor loading the trees, a background thread pool by default.
+     * @param resultExecutor the executor applying the results, which must run tasks on the thread
+     *                       owning this view. The main thread by default.
+     */
+    public void setLoadExecutors(@NonNull Executor loadExecutor, @NonNull Executor resultExecutor) {
+        this.loadExecutor = loadExecutor;
+        this.resultExecutor = resultExecutor;
+    }
+
+    /**
+     * Sets the loader of the children provided on demand by the menu trees, see
+     * {@link Node#setChildProvider(ChildProvider)}. By default, one is created with the load
+     * executors on first use.
+     */
+    public void setChildLoader(LazyChildLoader childLoader) {
+        this.childLoader = childLoader;
+    }
+
+    private LazyChildLoader getChildLoader() {
+        if (childLoader == null) {
+            childLoader = new LazyChildLoader(LazyChildLoader.DEFAULT_PAGE_SIZE,
+                    LazyChildLoader.DEFAULT_MAX_CACHED_LEVELS, loadExecutor, resultExecutor);
+        }
+        return childLoader;
+    }
+
+    private void cancelPendingLoads() {
+        for (LoadMenuItemTask task : pendingLoadTasks) {
+            task.cancelled = true;
+        }
+        pendingLoadTasks.clear();
+    }
+
+    private void cancelPendingLoad(FilterTitleTextView titleView) {
+        for (int i = 0; i < pendingLoadTasks.size(); i++) {
+            LoadMenuItemTask task = pendingLoadTasks.get(i);
+            if (task.titleView == titleView) {
+                task.cancelled = true;
+                pendingLoadTasks.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Removes the menu groups from the specified index on, with their pending loads and changes.
+     */
+    private void removeGroupsFrom(int groupIndex) {
+        FilterTitleTextView titleView;
+        boolean removed = false;
+        while ((titleView = getGroupTitleView(groupIndex)) != null) {
+            FilterView filterView = titleView.getFilterView();
+            if (isShownByPopup(filterView)) {
+                mPopupWindow.dismiss();
+            }
+            cancelPendingLoad(titleView);
+            removeView(titleView);
+            removed = true;
+        }
+        if (!removed) {
+            return;
+        }
+        selectionSnapshotsValid = false;
+        for (int i = pendingSelectionChanges.size() - 1; i >= 0; i--) {
+            if (pendingSelectionChanges.get(i).getGroupIndex() >= groupIndex) {
+                pendingSelectionChanges.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Formats the tree and resolves its checked leaf. Touches nothing but the tree, so it is safe
+     * to be called on any thread owning the tree.
+     *
+     * @return the checked leaf node, the root node if the children are not loaded yet, or
+     * {@code null} if the tree is not supported.
+     */
+    private Node prepareMenuTree(Node rootNode) {
+        if (rootNode == null || rootNode.isLeaf()) {
+            return null;
+        }
 
         Node.formatTree(rootNode);
 
         int depth = Node.getTreeDepth(rootNode);
         // Unsupported tree, limited by the dimension of the screen.
         if (depth < 2 && depth > MAX_SUPPORT_DEPTH) {
-            return false;
+            return null;
         }
 
         Node checkedLeafNode = Node.getCheckedLeafWithDefault(rootNode);
-        FilterTitleTextView titleView = newMenuTitleView();
-        titleView.setText(checkedLeafNode.getShowName());
+        return checkedLeafNode != null ? checkedLeafNode : rootNode;
+    }
+
+    private void bindMenuTitleView(FilterTitleTextView titleView, Node rootNode, Node checkedLeafNode) {
         // Store the tree into the textView's tag attribute.
         titleView.setNode(rootNode);
         titleView.setOnClickListener(internalTitleClickListener);
-        addView(titleView);
+        updateMenuTitleView(titleView, rootNode, checkedLeafNode);
+    }
 
-        return true;
+    /**
+     * Shows the checked leaf of the tree bound to the title view, keeping its filter view.
+     */
+    private void updateMenuTitleView(FilterTitleTextView titleView, Node rootNode, Node checkedLeafNode) {
+        titleView.setText(checkedLeafNode.getShowName());
+        // The selection the first change of the group would be reported from.
+        titleView.setSelectionSnapshot(new SelectionSnapshot(indexOfGroup(titleView), rootNode,
+                Node.findCheckedLeafPreOrder(rootNode)));
+        selectionSnapshotsValid = false;
+    }
+
+    /**
+     * Returns the title view of the menu group at the specified index, or {@code null} if there
+     * is no such group.
+     */
+    private FilterTitleTextView getGroupTitleView(int groupIndex) {
+        if (groupIndex < 0) {
+            return null;
+        }
+        int index = 0;
+        for (int i = 0, count = getChildCount(); i < count; i++) {
+            View view = getChildAt(i);
+            if (view instanceof FilterTitleTextView && index++ == groupIndex) {
+                return (FilterTitleTextView) view;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the index of the menu group of the title view, or -1 if it is not a child.
+     */
+    private int indexOfGroup(FilterTitleTextView titleView) {
+        int groupIndex = 0;
+        for (int i = 0, count = getChildCount(); i < count; i++) {
+            View view = getChildAt(i);
+            if (view == titleView) {
+                return groupIndex;
+            }
+            if (view instanceof FilterTitleTextView) {
+                groupIndex++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Loads and prepares the tree of one menu item on the load executor, then binds it to the
+     * placeholder title view on the result executor.
+     */
+    private class LoadMenuItemTask implements Runnable {
+
+        private final FilterTitleTextView titleView;
+        private final Callable<Node> treeSupplier;
+        volatile boolean cancelled;
+
+        LoadMenuItemTask(FilterTitleTextView titleView, Callable<Node> treeSupplier) {
+            this.titleView = titleView;
+            this.treeSupplier = treeSupplier;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            Node rootNode;
+            Node checkedLeafNode;
+            try {
+                rootNode = treeSupplier.call();
+                checkedLeafNode = cancelled ? null : prepareMenuTree(rootNode);
+            } catch (Exception e) {
+                rootNode = null;
+                checkedLeafNode = null;
+            }
+            final Node loadedRootNode = rootNode;
+            final Node loadedCheckedLeafNode = checkedLeafNode;
+            resultExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled) {
+                        return;
+                    }
+                    pendingLoadTasks.remove(LoadMenuItemTask.this);
+                    if (loadedCheckedLeafNode == null) {
+                        removeView(titleView);
+                        selectionSnapshotsValid = false;
+                    } else {
+                        bindMenuTitleView(titleView, loadedRootNode, loadedCheckedLeafNode);
+                        restorePendingSelections();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Replaces the tree of the specified group with a new version published by another thread,
+     * such as a {@link TreePublisher} refreshed by a background sync. May be called from any
+     * thread.
+     * <p>A {@link Node} tree is built from the snapshot on the load executor, then the tree
+     * shown is patched to it on the result executor, as by {@link #updateMenuTree(int, Node)},
+     * so that the views only ever read trees owned by their thread. Versions published before
+     * the previous one is applied are skipped. The checked leaf stays checked if its keys are
+     * still in the new version; otherwise the group falls back to its default selection, which
+     * is reported to the listeners.</p>
+     *
+     * @param groupIndex the index of the menu group.
+     * @param snapshot   the new version of its tree.
+     */
+    public void publishMenuSnapshot(final int groupIndex, final NodeSnapshot snapshot) {
+        synchronized (publishedSnapshots) {
+            publishedSnapshots.put(groupIndex, snapshot);
+        }
+        final Executor resultExecutor = this.resultExecutor;
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!isLatestSnapshot(groupIndex, snapshot, false)) {
+                    return;
+                }
+                final Node rootNode = snapshot.toNode();
+                final Node checkedLeafNode = prepareMenuTree(rootNode);
+                resultExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isLatestSnapshot(groupIndex, snapshot, true) || checkedLeafNode == null) {
+                            return;
+                        }
+                        FilterTitleTextView titleView = getGroupTitleView(groupIndex);
+                        if (titleView != null && titleView.getNode() != null) {
+                            patchMenuTree(titleView, rootNode);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Returns <tt>true</tt> if the snapshot is the latest one published for the group.
+     *
+     * @param consume whether the snapshot is applied by the caller, so no longer pending.
+     */
+    private boolean isLatestSnapshot(int groupIndex, NodeSnapshot snapshot, boolean consume) {
+        synchronized (publishedSnapshots) {
+            if (publishedSnapshots.get(groupIndex) != snapshot) {
+                return false;
+            }
+            if (consume) {
+                publishedSnapshots.remove(groupIndex);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Patches the tree of a group to its new version, see {@link #updateMenuTree(int, Node)}.
+     *
+     * @param newRootNode the new version, formatted.
+     */
+    private void patchMenuTree(FilterTitleTextView titleView, Node newRootNode) {
+        Node rootNode = titleView.getNode();
+        Node oldLeaf = Node.findCheckedLeafPreOrder(rootNode);
+        SelectionSnapshot oldSelection = titleView.getSelectionSnapshot();
+        if (!TreePatch.patch(rootNode, newRootNode)) {
+            return;
+        }
+        Node checkedLeafNode = Node.findCheckedLeafPreOrder(rootNode);
+        boolean leafLost = oldLeaf != null && oldLeaf != checkedLeafNode;
+        if (checkedLeafNode == null) {
+            checkedLeafNode = prepareMenuTree(rootNode);
+        }
+
+        FilterView filterView = titleView.getFilterView();
+        if (filterView != null && !filterView.onTreePatched()) {
+            // The lists do not fit the tree anymore, so the view is built again.
+            titleView.setFilterView(null);
+            if (isShownByPopup(filterView)) {
+                mPopupWindow.dismiss();
+                showFilterMenuWindow(titleView);
+            }
+        }
+        // The name of the checked leaf may have changed as well.
+        updateMenuTitleView(titleView, rootNode, checkedLeafNode);
+        if (leafLost) {
+            // Reported as a change from the former leaf.
+            titleView.setSelectionSnapshot(oldSelection);
+            dispatchFilterItemSelected(titleView);
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> if the popup is showing the specified filter view.
+     */
+    private boolean isShownByPopup(FilterView filterView) {
+        return mPopupWindow != null && mPopupWindow.isShowing() && filterView != null
+                && mPopupWindow.getContentView() == filterView.peekView();
+    }
+
+    /**
+     * Shows the counts of the records matching the selections in the lists, instead of the counts
+     * of children: the count of a node is the count of records under it which match the
+     * selections of the other groups. The records are counted on the load executor whenever a
+     * selection changes, only the groups depending on the changed one being counted again, and
+     * the counts are pushed to the lists on the result executor, which only bind the items
+     * whose count changed.
+     *
+     * @param facetCounter the counter built for the trees of the menu groups, in order, or
+     *                     {@code null} to show the counts of children again. It must be set again
+     *                     once the menu items are replaced or updated.
+     */
+    public void setFacetCounter(FacetCounter facetCounter) {
+        this.facetCounter = facetCounter;
+        if (facetCounter == null) {
+            facetCountGeneration++;
+            applyFacetCounts(null);
+        } else {
+            requestFacetCounts();
+        }
+    }
+
+    /**
+     * Returns the latest counts applied, or {@code null} if there are none.
+     */
+    public FacetCounts getFacetCounts() {
+        return facetCounts;
+    }
+
+    /**
+     * Counts the records for the current selections in background, if a counter is set.
+     */
+    private void requestFacetCounts() {
+        final FacetCounter counter = facetCounter;
+        if (counter == null) {
+            return;
+        }
+        final int generation = ++facetCountGeneration;
+        // Only used as keys by the counter, so the nodes are never read by the load executor.
+        final Node[] selectedNodes = new Node[counter.getGroupCount()];
+        for (int groupIndex = 0; groupIndex < selectedNodes.length; groupIndex++) {
+            FilterTitleTextView titleView = getGroupTitleView(groupIndex);
+            if (titleView != null && titleView.getNode() != null) {
+                selectedNodes[groupIndex] = Node.findCheckedLeafPreOrder(titleView.getNode());
+            }
+        }
+        final FacetCounts previous = facetCounts;
+        final Executor resultExecutor = this.resultExecutor;
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final FacetCounts counts = counter.count(selectedNodes, previous);
+                resultExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == facetCountGeneration) {
+                            applyFacetCounts(counts);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private void applyFacetCounts(FacetCounts counts) {
+        facetCounts = counts;
+        int groupIndex = 0;
+        for (int i = 0, count = getChildCount(); i < count; i++) {
+            View view = getChildAt(i);
+            if (!(view instanceof FilterTitleTextView)) {
+                continue;
+            }
+            FilterView filterView = ((FilterTitleTextView) view).getFilterView();
+            if (filterView != null) {
+                filterView.setFacetCounts(counts, groupIndex);
+            }
+            groupIndex++;
+        }
+        if (onFacetCountsListener != null && counts != null) {
+            onFacetCountsListener.onFacetCountsChanged(counts);
+        }
     }
 
     @NonNull
@@ -147,52 +702,13 @@ public class FilterMenuBar extends LinearLayout {
             return;
         }
 
-        View contentView = FilterView.newFilterView(getContext(), rootNode,
-                new FilterView.OnNodeSelectedListener() {
-                    @Override
-                    public void onNodeSelected(Node node) {
-                        // Update the title text.
-                        invokerView.setText(node.getShowName());
-                        mPopupWindow.dismiss();
-
-                        // Collecting filter selected result.
-                        if (onFilterItemSelectedListener != null) {
-
-                            List<List<Node>> result = new ArrayList<>();
-                            // index for indicating which menu group invoked this selection action.
-                            int invokedGroupIndex = -1;
-                            for (int i = 0, count = getChildCount(); i < count; i++) {
-                                View view = getChildAt(i);
-                                if (!(view instanceof FilterTitleTextView)) {
-                                    continue;
-                                }
-                                FilterTitleTextView titleView = (FilterTitleTextView) view;
-                                if (invokedGroupIndex < 0 && titleView.equals(invokerView)) {
-                                    invokedGroupIndex = result.size();
-                                }
-                                List<Node> subResult;
-                                Node rootNode = titleView.getNode();
-                                Node checkedNode = Node.findCheckedLeafPreOrder(rootNode);
-                                if (checkedNode == null) {
-                                    subResult = Collections.emptyList();
-                                } else {
-                                    List<Node> nodePath = Node.getNodeSimplePath(checkedNode);
-                                    subResult = new ArrayList<>();
-
-                                    // index 0 represents the root node for differentiating the group
-                                    for (int j = 0, length = nodePath.size(); j < length; j++) {
-                                        subResult.add((Node) nodePath.get(j).clone());
-                                    }
-                                }
-                                result.add(subResult);
-                            }
-                            onFilterItemSelectedListener.onFilterItemSelected(result, invokedGroupIndex);
-                        }
-                    }
-                });
-
-        View shadowView = contentView.findViewById(R.id.view_shadow);
-        shadowView.setOnClickListener(internalShadowClickListener);
+        // Built once per menu group, then only bound to the tree again on next showing.
+        FilterView filterView = invokerView.getFilterView();
+        if (filterView == null || !filterView.refresh()) {
+            filterView = newMenuFilterView(invokerView);
+            invokerView.setFilterView(filterView);
+        }
+        View contentView = filterView.getView();
 
         if (mPopupWindow == null) {
             mPopupWindow = new PopupWindow(getContext());
@@ -216,6 +732,583 @@ public class FilterMenuBar extends LinearLayout {
         }
     }
 
+    private FilterView newMenuFilterView(final FilterTitleTextView invokerView) {
+        FilterView filterView = FilterView.newInstance(getContext(), invokerView.getNode(), getChildLoader(),
+                new FilterView.OnNodeSelectedListener() {
+                    @Override
+                    public void onNodeSelected(Node node) {
+                        // Update the title text.
+                        invokerView.setText(node.getShowName());
+                        mPopupWindow.dismiss();
+                        dispatchFilterItemSelected(invokerView);
+                    }
+                });
+        if (facetCounts != null) {
+            filterView.setFacetCounts(facetCounts, indexOfGroup(invokerView));
+        }
+        View contentView = filterView.getView();
+        View shadowView = contentView.findViewById(R.id.view_shadow);
+        shadowView.setOnClickListener(internalShadowClickListener);
+        return filterView;
+    }
+
+    private void dispatchFilterItemSelected(FilterTitleTextView invokerView) {
+        dropPendingRestoredPath(invokerView);
+        requestFacetCounts();
+        SelectionSnapshot changed = recordSelectionChange(invokerView);
+        if (onSelectionSnapshotListener != null) {
+            onSelectionSnapshotListener.onSelectionChanged(changed, unmodifiableSelectionSnapshots);
+        }
+        notifyFilterItemSelected(invokerView);
+    }
+
+    /**
+     * Updates the snapshot of the group whose selection changed and queues the change, if any
+     * listener needs them.
+     *
+     * @return the new snapshot of the group, or {@code null} if no listener needs it.
+     */
+    private SelectionSnapshot recordSelectionChange(FilterTitleTextView changedView) {
+        if (onSelectionSnapshotListener == null && onSelectionChangeListener == null) {
+            return null;
+        }
+        SelectionSnapshot old = changedView.getSelectionSnapshot();
+        SelectionSnapshot changed = updateSelectionSnapshot(changedView);
+        if (onSelectionChangeListener != null) {
+            queueSelectionChange(old == null ? null : old.getLeaf(), changed);
+        }
+        return changed;
+    }
+
+    /**
+     * Collects the selected results of all the groups for the {@link OnFilterItemSelectedListener}.
+     *
+     * @param invokerView the title view of the group which invoked the selection, or {@code null}
+     *                    if several groups changed at once.
+     */
+    private void notifyFilterItemSelected(FilterTitleTextView invokerView) {
+        if (onFilterItemSelectedListener == null) {
+            return;
+        }
+        List<List<Node>> result = new ArrayList<>();
+        // index for indicating which menu group invoked this selection action.
+        int invokedGroupIndex = -1;
+        for (int i = 0, count = getChildCount(); i < count; i++) {
+            View view = getChildAt(i);
+            if (!(view instanceof FilterTitleTextView)) {
+                continue;
+            }
+            FilterTitleTextView titleView = (FilterTitleTextView) view;
+            if (invokedGroupIndex < 0 && titleView.equals(invokerView)) {
+                invokedGroupIndex = result.size();
+            }
+            List<Node> subResult;
+            Node rootNode = titleView.getNode();
+            Node checkedNode = Node.findCheckedLeafPreOrder(rootNode);
+            if (checkedNode == null) {
+                subResult = Collections.emptyList();
+            } else {
+                List<Node> nodePath = Node.getNodeSimplePath(checkedNode);
+                subResult = new ArrayList<>();
+
+                // index 0 represents the root node for differentiating the group
+                for (int j = 0, length = nodePath.size(); j < length; j++) {
+                    subResult.add((Node) nodePath.get(j).clone());
+                }
+            }
+            result.add(subResult);
+        }
+        onFilterItemSelectedListener.onFilterItemSelected(result, invokedGroupIndex);
+    }
+
+    /**
+     * Takes a new snapshot of the selection of the specified group. The snapshots of the other
+     * groups are kept, unless the groups changed since the last selection.
+     *
+     * @return the new snapshot of the group.
+     */
+    private SelectionSnapshot updateSelectionSnapshot(FilterTitleTextView changedView) {
+        if (selectionSnapshotsValid) {
+            int groupIndex = changedView.getSelectionSnapshot().getGroupIndex();
+            SelectionSnapshot snapshot = newSelectionSnapshot(groupIndex, changedView);
+            selectionSnapshots.set(groupIndex, snapshot);
+            return snapshot;
+        }
+        selectionSnapshots.clear();
+        SelectionSnapshot changed = null;
+        for (int i = 0, count = getChildCount(); i < count; i++) {
+            View view = getChildAt(i);
+            if (!(view instanceof FilterTitleTextView)) {
+                continue;
+            }
+            FilterTitleTextView titleView = (FilterTitleTextView) view;
+            int groupIndex = selectionSnapshots.size();
+            SelectionSnapshot snapshot = titleView.getSelectionSnapshot();
+            // Snapshots of groups not changed since the last selection are kept.
+            if (titleView == changedView || snapshot == null || snapshot.getGroupIndex() != groupIndex
+                    || snapshot.getRootNode() != titleView.getNode()) {
+                snapshot = newSelectionSnapshot(groupIndex, titleView);
+            }
+            selectionSnapshots.add(snapshot);
+            if (titleView == changedView) {
+                changed = snapshot;
+            }
+        }
+        selectionSnapshotsValid = true;
+        return changed;
+    }
+
+    private static SelectionSnapshot newSelectionSnapshot(int groupIndex, FilterTitleTextView titleView) {
+        Node rootNode = titleView.getNode();
+        SelectionSnapshot snapshot = new SelectionSnapshot(groupIndex, rootNode, Node.findCheckedLeafPreOrder(rootNode));
+        titleView.setSelectionSnapshot(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Queues the change of one group, merged with the pending change of the same group if any.
+     */
+    private void queueSelectionChange(Node oldLeaf, SelectionSnapshot newSelection) {
+        int groupIndex = newSelection.getGroupIndex();
+        for (int i = 0, size = pendingSelectionChanges.size(); i < size; i++) {
+            SelectionChange pending = pendingSelectionChanges.get(i);
+            if (pending.getGroupIndex() == groupIndex) {
+                oldLeaf = pending.getOldLeaf();
+                pendingSelectionChanges.remove(i);
+                break;
+            }
+        }
+        SelectionChange change = new SelectionChange(groupIndex, oldLeaf, newSelection);
+        if (change.isChanged()) {
+            pendingSelectionChanges.add(change);
+        }
+        if (selectionBatchDepth == 0 && !selectionChangesDispatchPosted && !pendingSelectionChanges.isEmpty()) {
+            selectionChangesDispatchPosted = true;
+            ViewCompat.postOnAnimation(this, dispatchSelectionChangesRunnable);
+        }
+    }
+
+    private final Runnable dispatchSelectionChangesRunnable = new Runnable() {
+        @Override
+        public void run() {
+            selectionChangesDispatchPosted = false;
+            // Changes made during a batch started meanwhile are dispatched at its end.
+            if (selectionBatchDepth == 0) {
+                dispatchSelectionChanges();
+            }
+        }
+    };
+
+    private void dispatchSelectionChanges() {
+        if (pendingSelectionChanges.isEmpty() || onSelectionChangeListener == null) {
+            pendingSelectionChanges.clear();
+            return;
+        }
+        try {
+            onSelectionChangeListener.onSelectionChanged(unmodifiablePendingSelectionChanges,
+                    unmodifiableSelectionSnapshots);
+        } finally {
+            pendingSelectionChanges.clear();
+        }
+    }
+
+    /**
+     * Starts a batch of selection changes, reported to the {@link OnSelectionChangeListener} in a
+     * single call by the matching {@link #endSelectionBatch()}. Batches may be nested, the
+     * changes are reported at the end of the outermost one.
+     */
+    public void beginSelectionBatch() {
+        selectionBatchDepth++;
+    }
+
+    /**
+     * Ends a batch started by {@link #beginSelectionBatch()}, reporting the changes made since
+     * the start of the outermost batch at once.
+     *
+     * @throws IllegalStateException if no batch is started.
+     */
+    public void endSelectionBatch() {
+        if (selectionBatchDepth == 0) {
+            throw new IllegalStateException("No selection batch is started");
+        }
+        if (--selectionBatchDepth == 0) {
+            dispatchSelectionChanges();
+        }
+    }
+
+    /**
+     * Starts a transaction changing the selections of any number of groups at once, such as for
+     * restoring a saved filter. See {@link SelectionTransaction}.
+     */
+    public SelectionTransaction beginSelection() {
+        return new SelectionTransaction();
+    }
+
+    /**
+     * Selections of several groups applied together by {@link #commit()}. Until then nothing
+     * changes: the trees, the titles and the listeners are left untouched.
+     * <p>On commit, every group gets the last leaf selected for it, checked through the tracked
+     * checked path of its tree rather than by resetting the whole tree. The titles are all set
+     * within the commit, so they are measured in the same layout pass. Every listener is called
+     * once, whatever the count of changed groups, and not at all if nothing changed. An open popup
+     * is dismissed, the filter views are bound again to their trees on next showing.</p>
+     */
+    public final class SelectionTransaction {
+
+        private final List<FilterTitleTextView> titleViews = new ArrayList<>();
+        private final List<Node> rootNodes = new ArrayList<>();
+        private final List<Node> leaves = new ArrayList<>();
+        private boolean finished;
+
+        private SelectionTransaction() {
+        }
+
+        /**
+         * Selects the leaf equal to {@code target} in the tree of the specified group, replacing
+         * any leaf selected before for the group in this transaction. The leaf is resolved by the
+         * node index of the tree, see {@link Node#findNode(Node, Node)}.
+         *
+         * @param groupIndex the index of the menu group.
+         * @param target     a node equal to the leaf to select, such as a node of a former copy
+         *                   of the tree.
+         * @return <tt>true</tt> if the leaf is found, or <tt>false</tt> if there is no such group,
+         * its tree is loading, or it has no leaf equal to {@code target}.
+         * @throws IllegalStateException if the transaction is finished.
+         */
+        public boolean select(int groupIndex, Node target) {
+            checkNotFinished();
+            FilterTitleTextView titleView = getGroupTitleView(groupIndex);
+            Node rootNode = titleView == null ? null : titleView.getNode();
+            Node leaf = Node.findNode(rootNode, target);
+            if (leaf == null || !leaf.isLeaf() || leaf.isRoot()) {
+                return false;
+            }
+            stage(titleView, leaf);
+            return true;
+        }
+
+        /**
+         * Selects the leaf, resolved already, of the tree bound to the title view.
+         */
+        private void stage(FilterTitleTextView titleView, Node leaf) {
+            Node rootNode = titleView.getNode();
+            int index = titleViews.indexOf(titleView);
+            if (index >= 0) {
+                rootNodes.set(index, rootNode);
+                leaves.set(index, leaf);
+            } else {
+                titleViews.add(titleView);
+                rootNodes.add(rootNode);
+                leaves.add(leaf);
+            }
+        }
+
+        /**
+         * Applies the selections, then notifies the listeners once. Groups whose tree was
+         * replaced since the selection are skipped.
+         *
+         * @throws IllegalStateException if the transaction is finished.
+         */
+        public void commit() {
+            checkNotFinished();
+            finished = true;
+            beginSelectionBatch();
+            try {
+                FilterTitleTextView lastChangedView = null;
+                SelectionSnapshot lastChanged = null;
+                int changedCount = 0;
+                for (int i = 0, size = titleViews.size(); i < size; i++) {
+                    FilterTitleTextView titleView = titleViews.get(i);
+                    Node rootNode = rootNodes.get(i);
+                    Node leaf = leaves.get(i);
+                    if (titleView.getNode() != rootNode || titleView.getParent() != FilterMenuBar.this
+                            || Node.findCheckedLeafPreOrder(rootNode) == leaf) {
+                        continue;
+                    }
+                    // Resolved already, and the tracked path makes the reset cost its depth.
+                    Node.setSingleLeafNodeChecked(rootNode, leaf, false);
+                    titleView.setText(leaf.getShowName());
+                    dropPendingRestoredPath(titleView);
+                    lastChanged = recordSelectionChange(titleView);
+                    lastChangedView = titleView;
+                    changedCount++;
+                }
+                if (changedCount == 0) {
+                    return;
+                }
+                requestFacetCounts();
+                if (mPopupWindow != null && mPopupWindow.isShowing()) {
+                    mPopupWindow.dismiss();
+                }
+                boolean single = changedCount == 1;
+                if (onSelectionSnapshotListener != null) {
+                    onSelectionSnapshotListener.onSelectionChanged(single ? lastChanged : null,
+                            unmodifiableSelectionSnapshots);
+                }
+                notifyFilterItemSelected(single ? lastChangedView : null);
+            } finally {
+                clear();
+                // Reports the queued changes to the OnSelectionChangeListener at once.
+                endSelectionBatch();
+            }
+        }
+
+        /**
+         * Drops the selections without applying any.
+         *
+         * @throws IllegalStateException if the transaction is finished.
+         */
+        public void cancel() {
+            checkNotFinished();
+            finished = true;
+            clear();
+        }
+
+        private void clear() {
+            titleViews.clear();
+            rootNodes.clear();
+            leaves.clear();
+        }
+
+        private void checkNotFinished() {
+            if (finished) {
+                throw new IllegalStateException("The selection transaction is finished");
+            }
+        }
+    }
+
+    /**
+     * Applies the restored selections of the groups whose tree is bound, in a single
+     * {@link SelectionTransaction}. The others are kept until their tree is bound, or until the
+     * children on their path are loaded by the {@link LazyChildLoader}.
+     */
+    private void restorePendingSelections() {
+        if (pendingRestoredPaths == null) {
+            return;
+        }
+        SelectionTransaction transaction = beginSelection();
+        boolean remaining = false;
+        for (int groupIndex = 0; groupIndex < pendingRestoredPaths.length; groupIndex++) {
+            LeafPath path = pendingRestoredPaths[groupIndex];
+            if (path == null) {
+                continue;
+            }
+            FilterTitleTextView titleView = getGroupTitleView(groupIndex);
+            if (titleView == null || titleView.getNode() == null) {
+                remaining = true;
+                continue;
+            }
+            // Dropped if the tree no longer has the leaf.
+            Node node = path.resolveLoaded(titleView.getNode());
+            if (node != null && node.hasMoreChildren()) {
+                remaining = true;
+                // Resolved again once the page is loaded, or by the load already running.
+                getChildLoader().loadNextPage(node, restoreChildPageListener);
+                continue;
+            }
+            pendingRestoredPaths[groupIndex] = null;
+            if (node != null) {
+                transaction.stage(titleView, node);
+            }
+        }
+        if (!remaining) {
+            pendingRestoredPaths = null;
+        }
+        transaction.commit();
+    }
+
+    /**
+     * Drops the restored selection of the group still waiting for its children, replaced by a
+     * newer selection.
+     */
+    private void dropPendingRestoredPath(FilterTitleTextView titleView) {
+        int groupIndex = indexOfGroup(titleView);
+        if (pendingRestoredPaths != null && groupIndex >= 0 && groupIndex < pendingRestoredPaths.length) {
+            pendingRestoredPaths[groupIndex] = null;
+        }
+    }
+
+    /**
+     * Resumes the restored selections waiting for the children of a lazy tree. Those whose
+     * children fail to load are dropped.
+     */
+    private final LazyChildLoader.OnChildPageLoadedListener restoreChildPageListener =
+            new LazyChildLoader.OnChildPageLoadedListener() {
+                @Override
+                public void onChildPageLoaded(Node parent) {
+                    restorePendingSelections();
+                }
+
+                @Override
+                public void onChildPageFailed(Node parent, Exception e) {
+                    if (pendingRestoredPaths == null) {
+                        return;
+                    }
+                    for (int groupIndex = 0; groupIndex < pendingRestoredPaths.length; groupIndex++) {
+                        LeafPath path = pendingRestoredPaths[groupIndex];
+                        FilterTitleTextView titleView = getGroupTitleView(groupIndex);
+                        if (path != null && titleView != null
+                                && path.resolveLoaded(titleView.getNode()) == parent) {
+                            pendingRestoredPaths[groupIndex] = null;
+                        }
+                    }
+                    restorePendingSelections();
+                }
+            };
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        SavedState savedState = new SavedState(super.onSaveInstanceState());
+        List<LeafPath> paths = new ArrayList<>();
+        for (int i = 0, count = getChildCount(); i < count; i++) {
+            View view = getChildAt(i);
+            if (!(view instanceof FilterTitleTextView)) {
+                continue;
+            }
+            Node rootNode = ((FilterTitleTextView) view).getNode();
+            Node checkedLeaf = Node.findCheckedLeafPreOrder(rootNode);
+            int groupIndex = paths.size();
+            if (pendingRestoredPaths != null && groupIndex < pendingRestoredPaths.length
+                    && pendingRestoredPaths[groupIndex] != null) {
+                // Still loading, keeps the selection restored before.
+                paths.add(pendingRestoredPaths[groupIndex]);
+            } else if (checkedLeaf != null && checkedLeaf != rootNode) {
+                paths.add(LeafPath.of(checkedLeaf));
+            } else {
+                paths.add(null);
+            }
+        }
+        savedState.selectedPaths = paths.toArray(new LeafPath[paths.size()]);
+        return savedState;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        pendingRestoredPaths = savedState.selectedPaths;
+        restorePendingSelections();
+    }
+
+    /**
+     * Saves the selection of every group as the {@link LeafPath} of its checked leaf, a few ints
+     * per level, rather than the trees themselves, which are provided again by the owner.
+     */
+    static class SavedState extends BaseSavedState {
+
+        LeafPath[] selectedPaths;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            selectedPaths = new LeafPath[in.readInt()];
+            for (int i = 0; i < selectedPaths.length; i++) {
+                int[] childIndices = in.createIntArray();
+                int[] nodeHashes = in.createIntArray();
+                if (childIndices != null && nodeHashes != null) {
+                    selectedPaths[i] = new LeafPath(childIndices, nodeHashes);
+                }
+            }
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeInt(selectedPaths.length);
+            for (LeafPath path : selectedPaths) {
+                // A null array stands for a group without selection.
+                out.writeIntArray(path == null ? null : path.getChildIndices());
+                out.writeIntArray(path == null ? null : path.getNodeHashes());
+            }
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
+    private OnFacetCountsListener onFacetCountsListener;
+
+    /**
+     * Sets a listener receiving the counts applied, see {@link #setFacetCounter(FacetCounter)}.
+     */
+    public void setOnFacetCountsListener(OnFacetCountsListener listener) {
+        this.onFacetCountsListener = listener;
+    }
+
+    public interface OnFacetCountsListener {
+        /**
+         * @param counts the counts for the current selections, such as
+         *               {@link FacetCounts#getMatchCount()} for the count of results.
+         */
+        void onFacetCountsChanged(FacetCounts counts);
+    }
+
+    private OnSelectionChangeListener onSelectionChangeListener;
+
+    /**
+     * Sets a listener receiving only the changes of the selections, see {@link OnSelectionChangeListener}.
+     */
+    public void setOnSelectionChangeListener(OnSelectionChangeListener listener) {
+        this.onSelectionChangeListener = listener;
+    }
+
+    /**
+     * Receives what changed rather than the whole state, so that the consumer may update only
+     * what depends on the changed groups and levels. The changes made within one frame, or
+     * within a batch (see {@link #beginSelectionBatch()}), are reported in a single call, with
+     * at most one change per group.
+     */
+    public interface OnSelectionChangeListener {
+        /**
+         * @param changes   the changes, one per changed group, in the order of their last change.
+         *                  Read-only, and only valid during the call.
+         * @param allGroups the selections of all the menu groups after the changes, for consumers
+         *                  needing the whole state. Read-only, and only valid during the call.
+         */
+        void onSelectionChanged(List<SelectionChange> changes, List<SelectionSnapshot> allGroups);
+    }
+
+    private OnSelectionSnapshotListener onSelectionSnapshotListener;
+
+    /**
+     * Sets a listener receiving the selections as snapshots, see {@link OnSelectionSnapshotListener}.
+     * It is called before the {@link OnFilterItemSelectedListener}, if both are set.
+     */
+    public void setOnSelectionSnapshotListener(OnSelectionSnapshotListener listener) {
+        this.onSelectionSnapshotListener = listener;
+    }
+
+    /**
+     * A lighter alternative of {@link OnFilterItemSelectedListener}: a selection creates a single
+     * snapshot, for the changed group only, and neither the paths nor the nodes are copied.
+     */
+    public interface OnSelectionSnapshotListener {
+        /**
+         * @param changed   the new selection of the group whose selection changed, or
+         *                  {@code null} if several groups changed at once, see
+         *                  {@link SelectionTransaction}.
+         * @param allGroups the selections of all the menu groups, in order. Read-only, and only
+         *                  valid during the call, though the snapshots it holds may be kept.
+         */
+        void onSelectionChanged(SelectionSnapshot changed, List<SelectionSnapshot> allGroups);
+    }
+
     private OnFilterItemSelectedListener onFilterItemSelectedListener;
 
     public void setOnFilterItemSelectedListener(OnFilterItemSelectedListener listener) {
@@ -226,19 +1319,24 @@ public class FilterMenuBar extends LinearLayout {
         /**
          * @param selectedGroups    the selection results of all the menu groups. If one group without
          *                          selected item, empty list would be provided rather than {@code null}.
-         * @param invokedGroupIndex index for indicating which menu group invoked this selection action.
+         * @param invokedGroupIndex index for indicating which menu group invoked this selection action,
+         *                          or -1 if several groups changed at once, see {@link SelectionTransaction}.
          */
         void onFilterItemSelected(List<List<Node>> selectedGroups, int invokedGroupIndex);
     }
 
     /**
-     * An adapter class for receiving simplified selected result.
+     * An adapter class for receiving simplified selected result. Groups without selected item,
+     * such as the ones still loading, are left out of the map.
      */
     public static abstract class OnFilterItemSelectedSimpleAdapter implements OnFilterItemSelectedListener {
         @Override
         public final void onFilterItemSelected(List<List<Node>> selectedGroups, int invokedGroupIndex) {
             Map<String, String> selected = new HashMap<>();
             for (List<Node> group : selectedGroups) {
+                if (group.isEmpty()) {
+                    continue;
+                }
                 String groupName = group.get(0).getShowName();
                 String groupValue = group.get(group.size() - 1).getShowName();
                 selected.put(groupName, groupValue);
@@ -258,6 +1356,8 @@ public class FilterMenuBar extends LinearLayout {
 
         private final FilterType filterType;
         private Node node;
+        private FilterView filterView;
+        private SelectionSnapshot selectionSnapshot;
 
         public FilterTitleTextView(Context context) {
             this(context, FilterType.Normal);
@@ -278,6 +1378,23 @@ public class FilterMenuBar extends LinearLayout {
 
         public void setNode(Node node) {
             this.node = node;
+            this.filterView = null;
+        }
+
+        FilterView getFilterView() {
+            return filterView;
+        }
+
+        void setFilterView(FilterView filterView) {
+            this.filterView = filterView;
+        }
+
+        SelectionSnapshot getSelectionSnapshot() {
+            return selectionSnapshot;
+        }
+
+        void setSelectionSnapshot(SelectionSnapshot selectionSnapshot) {
+            this.selectionSnapshot = selectionSnapshot;
         }
     }
 
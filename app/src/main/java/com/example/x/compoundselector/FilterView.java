@@ -2,22 +2,26 @@ package com.example.x.compoundselector;
 
 import android.app.Activity;
 import android.content.Context;
-import android.graphics.Color;
 import android.graphics.Point;
 import android.support.annotation.ColorInt;
 import android.support.annotation.ColorRes;
 import android.support.annotation.DrawableRes;
 import android.support.annotation.NonNull;
 import android.support.v4.content.ContextCompat;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.TypedValue;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.AdapterView;
+import android.view.ViewParent;
+import android.widget.EditText;
 import android.widget.LinearLayout;
-import android.widget.ListView;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -27,33 +31,234 @@ import java.util.List;
 public class FilterView {
 
     private static final int MAX_VISIBLE_ITEM_COUNT = 9;
+    /**
+     * The search runs once the query is unchanged for this delay, not on every keystroke.
+     */
+    private static final long SEARCH_DELAY_MS = 150;
+    private static final int MAX_SEARCH_RESULT_COUNT = 100;
 
     private final Context context;
     private final Node rootNode;
-    private final int treeDegree;
+    private final FlatTree flatTree;
+    private int treeDegree;
     private final OnNodeSelectedListener nodeSelectedListener;
+    private final OnFlatNodeSelectedListener flatNodeSelectedListener;
+    private final MultiSelection multiSelection;
+    private final OnSelectionChangedListener selectionChangedListener;
+    private final LazyChildLoader childLoader;
 
     private final int listViewCount;
-    private final List<ListView> listViewList = new ArrayList<>();
+    private final List<RecyclerView> listViewList = new ArrayList<>();
     private final List<NodeListAdapter> adapterList = new ArrayList<>();
-
-    private FilterView(Context context, Node rootNode, OnNodeSelectedListener nodeSelectedListener) {
+    private final List<FlatNodeListAdapter> flatAdapterList = new ArrayList<>();
+    /**
+     * Shared by the lists, so that the item views are recycled between them.
+     */
+    private final RecyclerView.RecycledViewPool itemViewPool = new RecyclerView.RecycledViewPool();
+    /**
+     * The node whose children are shown in each list, {@code null} for an empty list.
+     */
+    private final Node[] shownParentNodes;
+    private FacetCounts facetCounts;
+    private int facetGroupIndex;
+    private View view;
+    private View contentView;
+    private EditText searchEditText;
+    private RecyclerView searchResultView;
+    private SearchResultAdapter searchResultAdapter;
+
+    private FilterView(Context context, Node rootNode, LazyChildLoader childLoader,
+                       OnNodeSelectedListener nodeSelectedListener) {
         this.context = context;
         this.rootNode = rootNode;
+        this.flatTree = null;
+        this.childLoader = childLoader;
         this.nodeSelectedListener = nodeSelectedListener;
-        this.listViewCount = Node.getTreeDepth(rootNode) - 1;
+        this.flatNodeSelectedListener = null;
+        this.multiSelection = null;
+        this.selectionChangedListener = null;
+        this.listViewCount = checkListViewCount(Node.getTreeDepth(rootNode) - 1);
+        this.treeDegree = Node.getTreeDegree(rootNode);
+        this.shownParentNodes = new Node[listViewCount];
+    }
 
+    private FilterView(Context context, FlatTree flatTree, OnFlatNodeSelectedListener nodeSelectedListener,
+                       MultiSelection multiSelection, OnSelectionChangedListener selectionChangedListener) {
+        this.context = context;
+        this.rootNode = null;
+        this.flatTree = flatTree;
+        this.childLoader = null;
+        this.nodeSelectedListener = null;
+        this.flatNodeSelectedListener = nodeSelectedListener;
+        this.multiSelection = multiSelection;
+        this.selectionChangedListener = selectionChangedListener;
+        this.listViewCount = checkListViewCount(flatTree.getTreeDepth() - 1);
+        this.treeDegree = flatTree.getTreeDegree();
+        this.shownParentNodes = null;
+    }
+
+    private static int checkListViewCount(int listViewCount) {
         // As screen dimension limit, we just enabled 1-3 level, though more levels are supported.
         if (listViewCount < 1 || listViewCount > 3) {
             throw new IllegalArgumentException("Unsupported tree");
         }
-        this.treeDegree = Node.getTreeDegree(rootNode);
+        return listViewCount;
     }
 
     public static View newFilterView(Context context, Node rootNode,
                                      OnNodeSelectedListener nodeSelectedListener) {
-        FilterView filterView = new FilterView(context, rootNode, nodeSelectedListener);
-        return filterView.buildView();
+        return newFilterView(context, rootNode, null, nodeSelectedListener);
+    }
+
+    /**
+     * Builds the filter view of a tree whose nodes may provide their children on demand.
+     *
+     * @param childLoader the loader of the children not loaded yet, or {@code null} if the tree
+     *                    is fully loaded.
+     */
+    public static View newFilterView(Context context, Node rootNode, LazyChildLoader childLoader,
+                                     OnNodeSelectedListener nodeSelectedListener) {
+        return newInstance(context, rootNode, childLoader, nodeSelectedListener).getView();
+    }
+
+    /**
+     * Builds the filter view rendering the specified compact tree directly, without node objects.
+     */
+    public static View newFilterView(Context context, FlatTree flatTree,
+                                     OnFlatNodeSelectedListener nodeSelectedListener) {
+        return newInstance(context, flatTree, nodeSelectedListener).getView();
+    }
+
+    /**
+     * Creates a filter view which may be kept and shown again, so that its views are built only
+     * once. See {@link #getView()} and {@link #refresh()}.
+     *
+     * @param childLoader the loader of the children not loaded yet, or {@code null} if the tree
+     *                    is fully loaded.
+     */
+    public static FilterView newInstance(Context context, Node rootNode, LazyChildLoader childLoader,
+                                         OnNodeSelectedListener nodeSelectedListener) {
+        return new FilterView(context, rootNode, childLoader, nodeSelectedListener);
+    }
+
+    /**
+     * Creates a filter view of the compact tree which may be kept and shown again.
+     */
+    public static FilterView newInstance(Context context, FlatTree flatTree,
+                                         OnFlatNodeSelectedListener nodeSelectedListener) {
+        return new FilterView(context, flatTree, nodeSelectedListener, null, null);
+    }
+
+    /**
+     * Creates a multi-select filter view of the compact tree. Clicking a leaf selects or deselects
+     * it, and long clicking a branch selects all its leaves, or deselects them if all are
+     * selected. The checked path of the tree is left untouched.
+     *
+     * @param multiSelection the selection of the tree, shown and changed by the view.
+     */
+    public static FilterView newInstance(Context context, MultiSelection multiSelection,
+                                         OnSelectionChangedListener selectionChangedListener) {
+        return new FilterView(context, multiSelection.getFlatTree(), null, multiSelection, selectionChangedListener);
+    }
+
+    /**
+     * Returns the view, built on the first call and detached from its former parent on the
+     * next ones.
+     */
+    public View getView() {
+        if (view == null) {
+            view = buildView();
+        } else {
+            ViewParent parent = view.getParent();
+            if (parent instanceof ViewGroup) {
+                ((ViewGroup) parent).removeView(view);
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Returns the view if built already, without detaching it from its parent.
+     */
+    View peekView() {
+        return view;
+    }
+
+    /**
+     * Binds the lists to the current data and checked state of the tree again, e.g. before
+     * the kept view is shown again. No view is created.
+     *
+     * @return <tt>false</tt> if the tree needs another count of lists now, then a new filter
+     * view must be created instead.
+     */
+    public boolean refresh() {
+        int treeDepth = flatTree == null ? Node.getTreeDepth(rootNode) : flatTree.getTreeDepth();
+        if (treeDepth - 1 != listViewCount) {
+            return false;
+        }
+        treeDegree = flatTree == null ? Node.getTreeDegree(rootNode) : flatTree.getTreeDegree();
+        if (view != null) {
+            clearSearch();
+            bindListViews();
+        }
+        return true;
+    }
+
+    /**
+     * Binds the lists again after their tree was patched in place to a newer version, see
+     * {@link FilterMenuBar#updateMenuTree(int, Node)}. Unlike {@link #refresh()}, the opened
+     * branches still in the tree stay opened, the lists are not scrolled and the search is kept,
+     * so that a shown view follows frequent updates smoothly: only the items actually changed are
+     * bound again.
+     *
+     * @return <tt>false</tt> if the tree needs another count of lists now, or if this view
+     * renders a compact tree, then a new filter view must be created instead.
+     */
+    public boolean onTreePatched() {
+        if (flatTree != null || Node.getTreeDepth(rootNode) - 1 != listViewCount) {
+            return false;
+        }
+        treeDegree = Node.getTreeDegree(rootNode);
+        if (view == null) {
+            return true;
+        }
+        updateListLayout();
+        if (searchResultView.getVisibility() == View.VISIBLE) {
+            String query = searchEditText.getText().toString();
+            searchResultAdapter.setResults(Node.searchLeaves(rootNode, query, MAX_SEARCH_RESULT_COUNT));
+        }
+
+        Node parentNode = rootNode;
+        for (int index = 0; index < listViewCount; index++) {
+            // The branch opened in this list, if it is still there.
+            Node openedNode = index + 1 < listViewCount ? shownParentNodes[index + 1] : null;
+            if (openedNode != null && (parentNode == null || openedNode.getParent() != parentNode
+                    || openedNode.isLeaf())) {
+                openedNode = null;
+            }
+            int checkedPos = bindNodeListView(index, parentNode, openedNode);
+            if (openedNode == null && parentNode != null && !parentNode.getChildList().isEmpty()) {
+                // As updateNodeListViews, the checked node or else the first one is opened.
+                openedNode = parentNode.getChildList().get(checkedPos > -1 ? checkedPos : 0);
+            }
+            parentNode = openedNode != null && !openedNode.isLeaf() ? openedNode : null;
+        }
+        return true;
+    }
+
+    /**
+     * Shows the counts of records of the nodes, as counted for the specified group of a
+     * {@link FacetCounter}, instead of their counts of children. The lists are not bound again,
+     * only the items whose count changed are.
+     *
+     * @param facetCounts the counts, or {@code null} to show the counts of children again.
+     */
+    public void setFacetCounts(FacetCounts facetCounts, int groupIndex) {
+        this.facetCounts = facetCounts;
+        this.facetGroupIndex = groupIndex;
+        for (NodeListAdapter adapter : adapterList) {
+            adapter.setFacetCounts(facetCounts, groupIndex);
+        }
     }
 
     public enum ListLevelRes {
@@ -101,75 +306,337 @@ public class FilterView {
 
         final View view = LayoutInflater.from(context).inflate(R.layout.view_filter_multi_list, null);
         final LinearLayout contentView = (LinearLayout) view.findViewById(R.id.content_view);
-
-        final Node checkedNode = Node.getCheckedLeafWithDefault(rootNode);
-        final List<Node> simplePath = Node.getNodeSimplePath(checkedNode);
+        this.contentView = contentView;
+        if (flatTree == null) {
+            buildSearchView(view);
+        }
 
         for (int index = 0; index < listViewCount; index++) {
-            List<Node> nodeList;
-            if (index <= (simplePath.size() - 1)) {
-                nodeList = new ArrayList<>(simplePath.get(index).getChildren());
+            ListLevelRes listLevelRes = ListLevelRes.getListLevelResByIndex(index);
+            AbstractNodeListAdapter adapter;
+            if (flatTree == null) {
+                NodeListAdapter nodeListAdapter = new NodeListAdapter(context,
+                        Collections.<Node>emptyList(), listLevelRes);
+                nodeListAdapter.setFacetCounts(facetCounts, facetGroupIndex);
+                adapterList.add(nodeListAdapter);
+                adapter = nodeListAdapter;
             } else {
-                nodeList = new ArrayList<>();
+                FlatNodeListAdapter flatNodeListAdapter = new FlatNodeListAdapter(context, flatTree,
+                        multiSelection, FlatTree.NO_NODE, listLevelRes);
+                flatAdapterList.add(flatNodeListAdapter);
+                adapter = flatNodeListAdapter;
+            }
+            adapter.setOnItemClickListener(flatTree == null ? onItemClickListener : onFlatItemClickListener);
+            if (multiSelection != null) {
+                adapter.setOnItemLongClickListener(onFlatItemLongClickListener);
             }
-            ListLevelRes listLevelRes = ListLevelRes.getListLevelResByIndex(index);
-            NodeListAdapter adapter = new NodeListAdapter(context, nodeList, listLevelRes);
 
-            ListView listView = newListView();
+            RecyclerView listView = newListView();
             listView.setBackgroundColor(getListViewBgColorByIndex(index));
-            listView.setOnItemClickListener(onItemClickListener);
-
-            // Limit the max height of the listView.
-            if (index == 0 && treeDegree > MAX_VISIBLE_ITEM_COUNT) {
-                float listItemHeight = context.getResources().getDimension(R.dimen.list_item_height);
-                listView.setLayoutParams(new LinearLayout.LayoutParams(
-                        0, (int) ((MAX_VISIBLE_ITEM_COUNT + 0.5) * listItemHeight), 1.0f));
+            if (childLoader != null) {
+                listView.addOnScrollListener(pagingScrollListener);
             }
-
             listView.setAdapter(adapter);
             contentView.addView(listView);
             listViewList.add(listView);
-            adapterList.add(adapter);
-
-            // If some one in the nodeList is in checked state, updating the listView's
-            // checked state, which would affect the list view item's "activated" state.
-            for (int i = 0, length = nodeList.size(); i < length; i++) {
-                Node node = nodeList.get(i);
-                if (node.isChecked()) {
-                    listView.setItemChecked(i, true);
-                    // 9 items visible on screen. Make the checked item shown in the center of the listView.
-                    if (length > 9 && i > 4) {
-                        int scrollPos = Math.min((i + 4), (length - 1));
-                        listView.smoothScrollToPosition(scrollPos);
-                    }
-                    break;
+        }
+        bindListViews();
+        return view;
+    }
+
+    /**
+     * Sets up the search field and the list of its results, shown instead of the lists while the
+     * query is not empty.
+     */
+    private void buildSearchView(View view) {
+        searchEditText = (EditText) view.findViewById(R.id.et_search);
+        searchEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                searchEditText.removeCallbacks(searchRunnable);
+                if (s.toString().trim().isEmpty()) {
+                    showSearchResults(false);
+                } else {
+                    searchEditText.postDelayed(searchRunnable, SEARCH_DELAY_MS);
                 }
             }
+        });
+
+        searchResultAdapter = new SearchResultAdapter(context);
+        searchResultAdapter.setOnResultClickListener(onResultClickListener);
+        searchResultView = (RecyclerView) view.findViewById(R.id.rv_search_results);
+        searchResultView.setLayoutManager(new LinearLayoutManager(context));
+        searchResultView.setAdapter(searchResultAdapter);
+        float listItemHeight = context.getResources().getDimension(R.dimen.list_item_height);
+        searchResultView.getLayoutParams().height = (int) ((MAX_VISIBLE_ITEM_COUNT + 0.5) * listItemHeight);
+    }
+
+    private final Runnable searchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            String query = searchEditText.getText().toString();
+            searchResultAdapter.setResults(Node.searchLeaves(rootNode, query, MAX_SEARCH_RESULT_COUNT));
+            searchResultView.scrollToPosition(0);
+            showSearchResults(true);
         }
-        return view;
+    };
+
+    private void showSearchResults(boolean show) {
+        searchResultView.setVisibility(show ? View.VISIBLE : View.GONE);
+        contentView.setVisibility(show ? View.GONE : View.VISIBLE);
+    }
+
+    /**
+     * Empties the search field, showing the lists again.
+     */
+    private void clearSearch() {
+        if (searchEditText == null) {
+            return;
+        }
+        searchEditText.removeCallbacks(searchRunnable);
+        searchEditText.setText("");
+        showSearchResults(false);
+    }
+
+    private final SearchResultAdapter.OnResultClickListener onResultClickListener = new SearchResultAdapter.OnResultClickListener() {
+        @Override
+        public void onResultClick(Node leaf) {
+            Node.setSingleLeafNodeChecked(rootNode, leaf);
+            clearSearch();
+            // Show the path of the selected leaf in the lists, as if it was clicked there.
+            bindListViews();
+            if (nodeSelectedListener != null) {
+                nodeSelectedListener.onNodeSelected(leaf);
+            }
+        }
+    };
+
+    /**
+     * Shows the checked path of the tree, or the default one, in the lists.
+     */
+    private void bindListViews() {
+        final List<Node> simplePath;
+        final int[] flatSimplePath;
+        if (flatTree == null) {
+            final Node checkedNode = Node.getCheckedLeafWithDefault(rootNode);
+            // No leaf node is loaded yet, if the children of the tree are provided on demand.
+            simplePath = Node.getNodeSimplePath(checkedNode != null ? checkedNode : rootNode);
+            flatSimplePath = null;
+        } else if (multiSelection == null) {
+            simplePath = null;
+            flatSimplePath = flatTree.getNodeSimplePath(flatTree.getCheckedLeafWithDefault());
+        } else {
+            // Open the path of the first selected leaf, without checking anything.
+            simplePath = null;
+            int leafId = multiSelection.getFirstSelectedLeaf();
+            flatSimplePath = flatTree.getNodeSimplePath(leafId != FlatTree.NO_NODE ? leafId
+                    : flatTree.getFirstLeafPreOrder(flatTree.getRoot()));
+        }
+
+        updateListLayout();
+
+        for (int index = 0; index < listViewCount; index++) {
+            // The index of the checked node in the list, or -1 if all nodes in the list are unchecked.
+            int checkedPos;
+            int length;
+            if (flatTree == null) {
+                Node parentNode = index <= (simplePath.size() - 1) ? simplePath.get(index) : null;
+                checkedPos = bindNodeListView(index, parentNode);
+                length = adapterList.get(index).getNodeCount();
+            } else {
+                // The adapter activates the checked item, if exist.
+                FlatNodeListAdapter flatNodeListAdapter = flatAdapterList.get(index);
+                int parentId = index < flatSimplePath.length ? flatSimplePath[index] : FlatTree.NO_NODE;
+                if (multiSelection == null) {
+                    flatNodeListAdapter.setParentId(parentId);
+                } else {
+                    // The selected leaves are marked, only the opened branches are activated.
+                    int openedId = index + 1 < flatSimplePath.length - 1 ? flatSimplePath[index + 1] : FlatTree.NO_NODE;
+                    flatNodeListAdapter.setParentId(parentId,
+                            openedId == FlatTree.NO_NODE ? -1 : flatTree.getChildPosition(openedId));
+                }
+                length = flatNodeListAdapter.getNodeCount();
+                checkedPos = flatNodeListAdapter.getCheckedPosition();
+            }
+
+            // 9 items visible on screen. Make the checked item shown in the center of the listView.
+            RecyclerView listView = listViewList.get(index);
+            if (checkedPos > 4 && length > 9) {
+                int scrollPos = Math.min((checkedPos + 4), (length - 1));
+                listView.smoothScrollToPosition(scrollPos);
+            } else {
+                listView.scrollToPosition(0);
+            }
+        }
+    }
+
+    /**
+     * Limits the height of the first list, and shows the search field only if the options do not
+     * fit in the lists.
+     */
+    private void updateListLayout() {
+        // Limit the max height of the listView.
+        RecyclerView firstListView = listViewList.get(0);
+        int firstListViewHeight = ViewGroup.LayoutParams.MATCH_PARENT;
+        if (treeDegree > MAX_VISIBLE_ITEM_COUNT) {
+            float listItemHeight = context.getResources().getDimension(R.dimen.list_item_height);
+            firstListViewHeight = (int) ((MAX_VISIBLE_ITEM_COUNT + 0.5) * listItemHeight);
+        }
+        if (firstListView.getLayoutParams().height != firstListViewHeight) {
+            firstListView.setLayoutParams(new LinearLayout.LayoutParams(0, firstListViewHeight, 1.0f));
+        }
+        if (searchEditText != null) {
+            // Searching is only worth it when the options do not fit in the lists.
+            boolean searchable = Node.getTreeLeafCount(rootNode) > MAX_VISIBLE_ITEM_COUNT;
+            searchEditText.setVisibility(searchable ? View.VISIBLE : View.GONE);
+        }
+    }
+
+    /**
+     * Shows the children of the specified node in the list at the index, or nothing if the
+     * node is {@code null}, and activates the checked one. Children not loaded yet are requested
+     * from the child loader.
+     *
+     * @return the position of the checked node in the list, or -1 if all nodes in the list are unchecked.
+     */
+    private int bindNodeListView(int index, Node parentNode) {
+        return bindNodeListView(index, parentNode, null);
+    }
+
+    /**
+     * Shows the children of the specified node in the list at the index as above, but activates
+     * the specified child instead of the checked one, if not {@code null}.
+     *
+     * @return the position of the activated node in the list, or -1 if none is.
+     */
+    private int bindNodeListView(int index, Node parentNode, Node activatedNode) {
+        shownParentNodes[index] = parentNode;
+        List<Node> nodeList = parentNode == null ? Collections.<Node>emptyList() : parentNode.getChildren();
+        boolean loading = childLoader != null && parentNode != null && parentNode.hasMoreChildren();
+
+        // Search the activated node, or else the checked node of the current level, if exist.
+        int checkedPos = -1;
+        for (int pos = 0, len = nodeList.size(); pos < len; pos++) {
+            Node node = nodeList.get(pos);
+            if (activatedNode != null ? node == activatedNode : node.isChecked()) {
+                checkedPos = pos;
+                break;
+            }
+        }
+        // Only the items actually changed are bound again, the levels often share most of them.
+        adapterList.get(index).setNodes(nodeList, loading, checkedPos);
+
+        if (loading && nodeList.isEmpty()) {
+            childLoader.loadNextPage(parentNode, childPageLoadedListener);
+        } else if (childLoader != null && parentNode != null) {
+            childLoader.touch(parentNode);
+        }
+        return checkedPos;
     }
 
+    /**
+     * Updates the lists from the index, the first one showing the children of the specified
+     * node, and the subsequent ones showing the children of the checked (or first) node above.
+     */
+    private void updateNodeListViews(int fromIndex, Node node) {
+        for (int i = fromIndex, length = listViewList.size(); i < length; i++) {
+            Node parentNode = (node != null && !node.isLeaf()) ? node : null;
+            // The index of the checked node in the node list, or -1 if all nodes in the list are unchecked.
+            int checkedPos = bindNodeListView(i, parentNode);
+            List<Node> nodeList = parentNode == null ? null : parentNode.getChildList();
+            // Handling the scenario that one of the nodes was already
+            // in checked state. If such a node exist (we call it "A"),
+            // all the subsequent listView data should be A's descendant,
+            // rather than A's first sibling's (index 0) default.
+            node = (nodeList == null || nodeList.isEmpty()) ? null : nodeList.get(checkedPos > -1 ? checkedPos : 0);
+        }
+    }
+
+    private final LazyChildLoader.OnChildPageLoadedListener childPageLoadedListener =
+            new LazyChildLoader.OnChildPageLoadedListener() {
+                @Override
+                public void onChildPageLoaded(Node parent) {
+                    for (int i = 0; i < listViewCount; i++) {
+                        if (shownParentNodes[i] != parent) {
+                            continue;
+                        }
+                        boolean nextListViewWaiting = i + 1 < listViewCount && shownParentNodes[i + 1] == null;
+                        // New items are appended, so only they are bound.
+                        int checkedPos = bindNodeListView(i, parent);
+                        List<Node> nodeList = parent.getChildList();
+                        if (nextListViewWaiting && !nodeList.isEmpty()) {
+                            updateNodeListViews(i + 1, nodeList.get(checkedPos > -1 ? checkedPos : 0));
+                        }
+                    }
+                }
+
+                @Override
+                public void onChildPageFailed(Node parent, Exception e) {
+                    for (int i = 0; i < listViewCount; i++) {
+                        if (shownParentNodes[i] == parent) {
+                            // Stop showing the loading row, the page would be requested on next showing.
+                            adapterList.get(i).setLoading(false);
+                        }
+                    }
+                }
+            };
+
+    /**
+     * Requests the next page of children once the loading row of a list is shown. Also called
+     * when the shown items change after a layout.
+     */
+    private final RecyclerView.OnScrollListener pagingScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            int lastVisiblePosition = ((LinearLayoutManager) recyclerView.getLayoutManager()).findLastVisibleItemPosition();
+            if (lastVisiblePosition == RecyclerView.NO_POSITION
+                    || lastVisiblePosition < recyclerView.getAdapter().getItemCount() - 1) {
+                return;
+            }
+            int index = listViewList.indexOf(recyclerView);
+            if (index < 0 || !adapterList.get(index).isLoading()) {
+                return;
+            }
+            childLoader.loadNextPage(shownParentNodes[index], childPageLoadedListener);
+        }
+    };
+
     private int dp2px(float dp) {
         return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp,
                 context.getResources().getDisplayMetrics());
     }
 
     @NonNull
-    private ListView newListView() {
-        ListView listView = new ListView(context);
+    private RecyclerView newListView() {
+        RecyclerView listView = new RecyclerView(context);
         LinearLayout.LayoutParams lp = new LinearLayout.LayoutParams(0,
                 ViewGroup.LayoutParams.MATCH_PARENT, 1.0f);
         listView.setLayoutParams(lp);
-        listView.setDivider(null);
-        listView.setCacheColorHint(Color.TRANSPARENT);
-        listView.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
+        LinearLayoutManager layoutManager = new LinearLayoutManager(context);
+        // Give the item views back to the shared pool once the popup is gone.
+        layoutManager.setRecycleChildrenOnDetach(true);
+        listView.setLayoutManager(layoutManager);
+        listView.setRecycledViewPool(itemViewPool);
         return listView;
     }
 
-    private final AdapterView.OnItemClickListener onItemClickListener = new AdapterView.OnItemClickListener() {
+    private final AbstractNodeListAdapter.OnItemClickListener onItemClickListener = new AbstractNodeListAdapter.OnItemClickListener() {
         @Override
-        public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-            final Node clickedNode = (Node) ((ListView) parent).getAdapter().getItem(position);
+        public void onItemClick(AbstractNodeListAdapter adapter, int position) {
+            final Node clickedNode = ((NodeListAdapter) adapter).getItem(position);
+            if (clickedNode == null) {
+                // The loading row.
+                return;
+            }
+            adapter.setCheckedPosition(position);
 
             if (clickedNode.isLeaf()) {
                 Node.setSingleLeafNodeChecked(rootNode, clickedNode);
@@ -177,62 +644,99 @@ public class FilterView {
                     nodeSelectedListener.onNodeSelected(clickedNode);
                 }
             } else {
-                List<Node> simplePath = Node.getNodeSimplePath(clickedNode);
-
-                // 1. Refresh the clicked ListView
                 // Root node of the tree is not shown in view. So if a node is not a leaf
-                // nor a root node, the count of nodes in the simple path (the path from
-                // the node to the root) must be greater than or equal to 2.
-                final int clickedListViewIndex = simplePath.size() - 2;
-                ListView clickedListView = listViewList.get(clickedListViewIndex);
-                clickedListView.setItemChecked(position, true);
-
-                // 2. Update all subsequent ListView
-                Node node = clickedNode;
+                // nor a root node, its level must be greater than or equal to 1.
+                final int clickedListViewIndex = clickedNode.getHeight() - 1;
+
+                // Update all subsequent lists.
+                updateNodeListViews(clickedListViewIndex + 1, clickedNode);
+            }
+        }
+    };
+
+    private final AbstractNodeListAdapter.OnItemClickListener onFlatItemClickListener = new AbstractNodeListAdapter.OnItemClickListener() {
+        @Override
+        public void onItemClick(AbstractNodeListAdapter adapter, int position) {
+            final int clickedId = ((FlatNodeListAdapter) adapter).getNodeId(position);
+            if (multiSelection != null && flatTree.isLeaf(clickedId)) {
+                multiSelection.toggleLeaf(clickedId);
+                onSelectionChanged(clickedId);
+                return;
+            }
+            adapter.setCheckedPosition(position);
+
+            if (flatTree.isLeaf(clickedId)) {
+                flatTree.setSingleLeafNodeChecked(clickedId);
+                if (flatNodeSelectedListener != null) {
+                    flatNodeSelectedListener.onNodeSelected(flatTree, clickedId);
+                }
+            } else {
+                // The root is not shown so level 1 is the first list.
+                final int clickedListViewIndex = flatTree.getLevel(clickedId) - 1;
+
+                // Update all subsequent lists, see onItemClickListener.
+                int nodeId = clickedId;
                 for (int i = clickedListViewIndex + 1, length = listViewList.size(); i < length; i++) {
-                    List<Node> nodeList;
-                    // The index of the checked node in the node list, or -1 if all nodes in the list are unchecked.
-                    int checkedPos = -1;
-                    if (node != null && node.getChildren().size() > 0) {
-                        nodeList = node.getChildren();
-                        // Search the checked node of the current level, if exist.
-                        for (int pos = 0, len = nodeList.size(); pos < len; pos++) {
-                            if (nodeList.get(pos).isChecked()) {
-                                checkedPos = pos;
-                                break;
-                            }
+                    FlatNodeListAdapter flatAdapter = flatAdapterList.get(i);
+                    if (nodeId != FlatTree.NO_NODE && !flatTree.isLeaf(nodeId)) {
+                        if (multiSelection == null) {
+                            flatAdapter.setParentId(nodeId);
+                        } else {
+                            flatAdapter.setParentId(nodeId, -1);
                         }
-                        // Handling the scenario that one of the nodes was already
-                        // in checked state. If such a node exist (we call it "A"),
-                        // all the subsequent listView data should be A's descendant,
-                        // rather than A's first sibling's (index 0) default.
-                        node = nodeList.get(checkedPos > -1 ? checkedPos : 0);
+                        int checkedPos = flatAdapter.getCheckedPosition();
+                        nodeId = flatTree.getChild(nodeId, checkedPos > -1 ? checkedPos : 0);
                     } else {
-                        nodeList = new ArrayList<>();
-                        node = null;
-                    }
-                    NodeListAdapter adapter = adapterList.get(i);
-                    adapter.setNotifyOnChange(false);
-                    adapter.clear();
-                    adapter.setNotifyOnChange(true);
-                    adapter.addAll(nodeList);
-
-                    // Underneath data changed, so clear the listView's checked state first. (the
-                    // listView's checked state would affect the "activated" state of the list
-                    // view items in it).
-                    // And if some one in the new dataset is in checked state, updating the listView's
-                    // checked state, which would affect the list view item's "activated" state.
-                    ListView listView = listViewList.get(i);
-                    listView.clearChoices();
-                    if (checkedPos > -1) {
-                        listView.setItemChecked(checkedPos, true);
+                        flatAdapter.setParentId(FlatTree.NO_NODE);
+                        nodeId = FlatTree.NO_NODE;
                     }
                 }
             }
         }
     };
 
+    private final AbstractNodeListAdapter.OnItemLongClickListener onFlatItemLongClickListener = new AbstractNodeListAdapter.OnItemLongClickListener() {
+        @Override
+        public boolean onItemLongClick(AbstractNodeListAdapter adapter, int position) {
+            int clickedId = ((FlatNodeListAdapter) adapter).getNodeId(position);
+            if (flatTree.isLeaf(clickedId)) {
+                return false;
+            }
+            multiSelection.setSubtreeSelected(clickedId, !multiSelection.isSelected(clickedId));
+            onSelectionChanged(clickedId);
+            return true;
+        }
+    };
+
+    /**
+     * Shows the new states of the selection, the ancestors of the changed node included.
+     */
+    private void onSelectionChanged(int changedId) {
+        for (int i = 0, size = flatAdapterList.size(); i < size; i++) {
+            flatAdapterList.get(i).refreshStates();
+        }
+        if (selectionChangedListener != null) {
+            selectionChangedListener.onSelectionChanged(multiSelection, changedId);
+        }
+    }
+
     public interface OnNodeSelectedListener {
         void onNodeSelected(Node node);
     }
+
+    public interface OnFlatNodeSelectedListener {
+        /**
+         * @param flatTree the tree the selected node belongs to.
+         * @param nodeId   the index of the selected leaf node.
+         */
+        void onNodeSelected(FlatTree flatTree, int nodeId);
+    }
+
+    public interface OnSelectionChangedListener {
+        /**
+         * @param multiSelection the changed selection.
+         * @param changedId      the leaf selected or deselected, or the branch whose leaves were.
+         */
+        void onSelectionChanged(MultiSelection multiSelection, int changedId);
+    }
 }
@@ -0,0 +1,95 @@
+package com.example.x.compoundselector;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+
+/**
+ * List adapter showing the children of one node of a {@link FlatTree}. Only the names, values and
+ * states of the shown nodes are copied, so no object is created per node.
+ */
+public class FlatNodeListAdapter extends AbstractNodeListAdapter {
+
+    private final FlatTree flatTree;
+    /**
+     * The selection shown instead of the checked path of the tree, if not {@code null}.
+     */
+    private final MultiSelection multiSelection;
+
+    private int parentId = FlatTree.NO_NODE;
+
+    public FlatNodeListAdapter(@NonNull Context context, @NonNull FlatTree flatTree, int parentId,
+                               FilterView.ListLevelRes listLevelRes) {
+        this(context, flatTree, null, parentId, listLevelRes);
+    }
+
+    /**
+     * @param multiSelection the selection whose state the items show, instead of the checked
+     *                       path of the tree, or {@code null}.
+     */
+    public FlatNodeListAdapter(@NonNull Context context, @NonNull FlatTree flatTree, MultiSelection multiSelection,
+                               int parentId, FilterView.ListLevelRes listLevelRes) {
+        super(context, listLevelRes);
+        this.flatTree = flatTree;
+        this.multiSelection = multiSelection;
+        setParentId(parentId);
+    }
+
+    /**
+     * Shows the children of another node, or nothing if {@code parentId} is {@link FlatTree#NO_NODE}.
+     */
+    public void setParentId(int parentId) {
+        setParentId(parentId, parentId == FlatTree.NO_NODE ? -1 : flatTree.getCheckedChildPosition(parentId));
+    }
+
+    /**
+     * Shows the children of another node, activating the child at the specified position
+     * instead of the checked one.
+     */
+    public void setParentId(int parentId, int checkedPosition) {
+        this.parentId = parentId;
+        int count = parentId == FlatTree.NO_NODE ? 0 : flatTree.getChildCount(parentId);
+        String[] showNames = new String[count];
+        String[] values = new String[count];
+        int[] states = new int[count];
+        for (int i = 0; i < count; i++) {
+            int id = flatTree.getChild(parentId, i);
+            showNames[i] = flatTree.getShowName(id);
+            values[i] = flatTree.getValue(id);
+            if (multiSelection == null) {
+                states[i] = itemState(flatTree.isChecked(id), flatTree.isLeaf(id), false, flatTree.getChildCount(id));
+            } else {
+                int selectionState = multiSelection.getSelectionState(id);
+                states[i] = itemState(selectionState == MultiSelection.STATE_ALL, flatTree.isLeaf(id), false,
+                        flatTree.getChildCount(id))
+                        | (selectionState == MultiSelection.STATE_PARTIAL ? STATE_PARTIALLY_CHECKED : 0);
+            }
+        }
+        swapItems(showNames, values, states, false, checkedPosition);
+    }
+
+    /**
+     * Shows the current states of the items again, e.g. after a change of the selection, keeping
+     * the activated item.
+     */
+    public void refreshStates() {
+        setParentId(parentId, getCheckedPosition());
+    }
+
+    public int getParentId() {
+        return parentId;
+    }
+
+    /**
+     * Returns the position of the checked child node, or {@code -1} if all the children are unchecked.
+     */
+    public int getCheckedChildPosition() {
+        return parentId == FlatTree.NO_NODE ? -1 : flatTree.getCheckedChildPosition(parentId);
+    }
+
+    /**
+     * Returns the index of the node shown at the specified position.
+     */
+    public int getNodeId(int position) {
+        return flatTree.getChild(parentId, position);
+    }
+}
@@ -0,0 +1,489 @@
+package com.example.x.compoundselector;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A compact read-only form of a {@link Node} tree, for large filter catalogs.
+ * <p>Nodes are identified by their preorder index (the root is {@code 0}) and stored in parallel
+ * arrays rather than one object per node: the parent index, the range of the node's children in
+ * the {@code childIds} array, the end of the node's subtree, and the show names and values,
+ * shared through a {@link StringPool}. The checked state lives in a {@link BitSet}, which is the only mutable part.</p>
+ * <p>Tags of the nodes are not kept.</p>
+ */
+public class FlatTree {
+
+    public static final int NO_NODE = -1;
+
+    private final int size;
+    private final int[] parentIds;
+    private final int[] firstChildOffsets;
+    private final int[] childCounts;
+    private final int[] childIds;
+    private final int[] subtreeEnds;
+    private final int[] levels;
+    private final String[] showNames;
+    private final String[] values;
+
+    private final int depth;
+    private final int degree;
+    private final int leafCount;
+
+    private final BitSet checkedBits;
+    /**
+     * The checked leaf, valid when {@code checkedPathTracked} is <tt>true</tt>. The same rules as
+     * the checked path tracking of {@link Node} apply.
+     */
+    private int checkedLeafId = NO_NODE;
+    private boolean checkedPathTracked;
+
+    /**
+     * @param size       the count of the nodes.
+     * @param parentIds  parent index of every node in preorder, {@link #NO_NODE} for the root.
+     * @param showNames  show name of every node in preorder.
+     * @param values     value of every node in preorder.
+     * @param checkedBits checked state of every node in preorder.
+     */
+    FlatTree(int size, int[] parentIds, String[] showNames, String[] values, BitSet checkedBits) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Empty tree");
+        }
+        this.size = size;
+        this.parentIds = parentIds;
+        this.showNames = showNames;
+        this.values = values;
+        this.checkedBits = checkedBits;
+
+        this.childCounts = new int[size];
+        this.firstChildOffsets = new int[size];
+        this.childIds = new int[size - 1];
+        this.subtreeEnds = new int[size];
+        this.levels = new int[size];
+
+        for (int id = 1; id < size; id++) {
+            int parentId = parentIds[id];
+            if (parentId < 0 || parentId >= id) {
+                throw new IllegalArgumentException("Nodes are not in preorder");
+            }
+            childCounts[parentId]++;
+            levels[id] = levels[parentId] + 1;
+        }
+        // Children of a node are contiguous in childIds, in the order of their preorder indices.
+        int offset = 0;
+        int maxDegree = 0;
+        int maxLevel = 0;
+        int leaves = 0;
+        for (int id = 0; id < size; id++) {
+            firstChildOffsets[id] = offset;
+            offset += childCounts[id];
+            maxDegree = Math.max(maxDegree, childCounts[id]);
+            maxLevel = Math.max(maxLevel, levels[id]);
+            if (childCounts[id] == 0) {
+                leaves++;
+            }
+        }
+        int[] filled = new int[size];
+        for (int id = 1; id < size; id++) {
+            int parentId = parentIds[id];
+            childIds[firstChildOffsets[parentId] + filled[parentId]++] = id;
+        }
+        for (int id = size - 1; id >= 0; id--) {
+            subtreeEnds[id] = Math.max(subtreeEnds[id], id + 1);
+            if (id > 0) {
+                subtreeEnds[parentIds[id]] = Math.max(subtreeEnds[parentIds[id]], subtreeEnds[id]);
+            }
+        }
+        this.depth = maxLevel + 1;
+        this.degree = maxDegree;
+        this.leafCount = leaves;
+    }
+
+    /**
+     * Builds the compact form of the tree rooted by the specified node, including the checked
+     * state of its nodes.
+     *
+     * @param rootNode the root of the tree.
+     */
+    public static FlatTree of(Node rootNode) {
+        if (rootNode == null) {
+            throw new IllegalArgumentException("rootNode == null");
+        }
+        // Only the strings of this tree are shared.
+        Builder builder = new Builder(new StringPool());
+        TreeWalker walker = TreeWalker.obtain();
+        walker.preOrder(rootNode, new NodeAppender(builder, walker));
+        return builder.build();
+    }
+
+    /**
+     * Appends the visited nodes to the builder, in preorder as the ids require.
+     */
+    private static final class NodeAppender implements TreeWalker.Visitor {
+        private final Builder builder;
+        private final TreeWalker walker;
+        /**
+         * The id of the last visited node of every depth, i.e. the ids of the current path.
+         */
+        private int[] pathIds = new int[8];
+
+        NodeAppender(Builder builder, TreeWalker walker) {
+            this.builder = builder;
+            this.walker = walker;
+        }
+
+        @Override
+        public int visit(Node node) {
+            int depth = walker.getDepth();
+            int id = builder.addNode(depth == 0 ? NO_NODE : pathIds[depth - 1]);
+            builder.setShowName(id, node.getShowName());
+            builder.setValue(id, node.getValue());
+            builder.setChecked(id, node.isChecked());
+            if (depth == pathIds.length) {
+                pathIds = Arrays.copyOf(pathIds, depth * 2);
+            }
+            pathIds[depth] = id;
+            return TreeWalker.CONTINUE;
+        }
+    }
+
+    /**
+     * Reads a tree directly from the JSON form used by {@link Node} (fields {@code showName},
+     * {@code value}, {@code checked} and {@code children}), without creating any node object.
+     * Only the strings of this tree are shared.
+     *
+     * @param reader the reader positioned at the JSON object of the root node.
+     */
+    public static FlatTree fromJson(JsonReader reader) throws IOException {
+        return fromJson(reader, new StringPool());
+    }
+
+    /**
+     * Reads a tree from its JSON form, as {@link #fromJson(JsonReader)} does.
+     *
+     * @param reader     the reader positioned at the JSON object of the root node.
+     * @param stringPool the pool sharing the names and values of the tree.
+     */
+    public static FlatTree fromJson(JsonReader reader, StringPool stringPool) throws IOException {
+        Builder builder = new Builder(stringPool);
+        readNode(reader, builder, NO_NODE);
+        return builder.build();
+    }
+
+    private static void readNode(JsonReader reader, Builder builder, int parentId) throws IOException {
+        int id = builder.addNode(parentId);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("showName".equals(name)) {
+                builder.setShowName(id, reader.nextString());
+            } else if ("value".equals(name)) {
+                builder.setValue(id, reader.nextString());
+            } else if ("checked".equals(name)) {
+                builder.setChecked(id, reader.nextBoolean());
+            } else if ("children".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readNode(reader, builder, id);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    //region Structure
+
+    public int size() {
+        return size;
+    }
+
+    public int getRoot() {
+        return 0;
+    }
+
+    public boolean isRoot(int id) {
+        return id == 0;
+    }
+
+    public boolean isLeaf(int id) {
+        return childCounts[id] == 0;
+    }
+
+    public int getParent(int id) {
+        return parentIds[id];
+    }
+
+    public int getChildCount(int id) {
+        return childCounts[id];
+    }
+
+    /**
+     * Returns the index of the {@code position}th child of the specified node.
+     */
+    public int getChild(int id, int position) {
+        if (position < 0 || position >= childCounts[id]) {
+            throw new IndexOutOfBoundsException("position: " + position + ", count: " + childCounts[id]);
+        }
+        return childIds[firstChildOffsets[id] + position];
+    }
+
+    /**
+     * Returns the position of the specified node among its siblings, or {@code -1} for the root.
+     */
+    public int getChildPosition(int id) {
+        if (id == 0) {
+            return -1;
+        }
+        int parentId = parentIds[id];
+        int from = firstChildOffsets[parentId];
+        int position = Arrays.binarySearch(childIds, from, from + childCounts[parentId], id);
+        return position - from;
+    }
+
+    /**
+     * Returns the exclusive end of the preorder range {@code [id, end)} covered by the subtree
+     * rooted by the specified node.
+     */
+    public int getSubtreeEnd(int id) {
+        return subtreeEnds[id];
+    }
+
+    /**
+     * Returns the level of the specified node, the root being level zero.
+     */
+    public int getLevel(int id) {
+        return levels[id];
+    }
+
+    public String getShowName(int id) {
+        return showNames[id];
+    }
+
+    public String getValue(int id) {
+        return values[id];
+    }
+
+    //endregion
+
+    //region Utility function, the counterparts of the ones of Node
+
+    /**
+     * Returns the simple path which contains all the nodes from the root to the specified node.
+     */
+    public int[] getNodeSimplePath(int id) {
+        int[] path = new int[levels[id] + 1];
+        for (int i = path.length - 1; i >= 0; i--) {
+            path[i] = id;
+            id = parentIds[id];
+        }
+        return path;
+    }
+
+    /**
+     * Returns the depth of the tree.
+     */
+    public int getTreeDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the degree of the tree.
+     */
+    public int getTreeDegree() {
+        return degree;
+    }
+
+    public int getTreeLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * Returns the first leaf node of the subtree rooted by the specified node, based on the
+     * sequence of preorder traversal.
+     */
+    public int getFirstLeafPreOrder(int id) {
+        // The first child of a branch node always follows it in preorder.
+        while (childCounts[id] > 0) {
+            id++;
+        }
+        return id;
+    }
+
+    public boolean isChecked(int id) {
+        return checkedBits.get(id);
+    }
+
+    /**
+     * Returns the checked leaf node of the tree, or {@link #NO_NODE} if all the leaf nodes are unchecked.
+     */
+    public int findCheckedLeafPreOrder() {
+        if (!checkedPathTracked) {
+            resolveCheckedPath();
+        }
+        return checkedLeafId;
+    }
+
+    /**
+     * Returns the position of the checked child of the specified node, or {@code -1} if all its
+     * children are unchecked.
+     */
+    public int getCheckedChildPosition(int id) {
+        for (int i = 0, count = childCounts[id]; i < count; i++) {
+            if (checkedBits.get(childIds[firstChildOffsets[id] + i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets all the tree nodes' states to be unchecked state.
+     */
+    public void setAllNodeUnchecked() {
+        if (checkedPathTracked) {
+            setPathChecked(checkedLeafId, false);
+        } else {
+            checkedBits.clear();
+        }
+        checkedLeafId = NO_NODE;
+        checkedPathTracked = true;
+    }
+
+    /**
+     * Sets the specified leaf node to be checked state, including all its parent nodes. And
+     * uncheck all the others.
+     *
+     * @return returns <tt>true</tt> if the operation succeeds, or <tt>false</tt> if the node is
+     * not a leaf node of the tree.
+     */
+    public boolean setSingleLeafNodeChecked(int id) {
+        if (id < 0 || id >= size || !isLeaf(id)) {
+            return false;
+        }
+        setAllNodeUnchecked();
+        setPathChecked(id, true);
+        checkedLeafId = id;
+        return true;
+    }
+
+    /**
+     * Returns the checked leaf node of the tree. If no such node found, the first leaf node
+     * of the tree and all its parents would be set to be checked.
+     */
+    public int getCheckedLeafWithDefault() {
+        int checkedId = findCheckedLeafPreOrder();
+        if (checkedId == NO_NODE) {
+            checkedId = getFirstLeafPreOrder(0);
+            setSingleLeafNodeChecked(checkedId);
+        }
+        return checkedId;
+    }
+
+    /**
+     * Builds the {@link Node} tree equivalent to this tree, including the checked states and the
+     * siblings of repeated keys, as the tree loaders do.
+     */
+    public Node toNode() {
+        Node[] nodes = new Node[size];
+        @SuppressWarnings("unchecked")
+        List<Node>[] children = new List[size];
+        for (int id = 0; id < size; id++) {
+            nodes[id] = new Node(showNames[id], values[id]);
+            if (childCounts[id] > 0) {
+                children[id] = new ArrayList<>(childCounts[id]);
+            }
+            if (id > 0) {
+                children[parentIds[id]].add(nodes[id]);
+            }
+        }
+        // Children follow their parent in preorder, so they are finished first.
+        for (int id = size - 1; id >= 0; id--) {
+            nodes[id].finishLoading(children[id], checkedBits.get(id));
+        }
+        return nodes[0];
+    }
+
+    private void setPathChecked(int id, boolean checked) {
+        while (id != NO_NODE) {
+            checkedBits.set(id, checked);
+            id = parentIds[id];
+        }
+    }
+
+    private void resolveCheckedPath() {
+        int firstCheckedLeaf = NO_NODE;
+        for (int id = checkedBits.nextSetBit(0); id >= 0; id = checkedBits.nextSetBit(id + 1)) {
+            if (isLeaf(id)) {
+                firstCheckedLeaf = id;
+                break;
+            }
+        }
+        int pathCount = 0;
+        for (int id = firstCheckedLeaf; id != NO_NODE && checkedBits.get(id); id = parentIds[id]) {
+            pathCount++;
+        }
+        checkedLeafId = firstCheckedLeaf;
+        checkedPathTracked = pathCount == checkedBits.cardinality();
+    }
+
+    //endregion
+
+    /**
+     * Collects the nodes in preorder, sharing the repeated names and values through a pool.
+     */
+    static final class Builder {
+
+        private final StringPool stringPool;
+
+        private int size;
+        private int[] parentIds = new int[64];
+        private String[] showNames = new String[64];
+        private String[] values = new String[64];
+        private final BitSet checkedBits = new BitSet();
+
+        Builder(StringPool stringPool) {
+            this.stringPool = stringPool;
+        }
+
+        /**
+         * Appends a node, whose parent must have been appended, and returns its index.
+         */
+        int addNode(int parentId) {
+            if (size == parentIds.length) {
+                int capacity = size * 2;
+                parentIds = Arrays.copyOf(parentIds, capacity);
+                showNames = Arrays.copyOf(showNames, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            parentIds[size] = parentId;
+            return size++;
+        }
+
+        void setShowName(int id, String showName) {
+            showNames[id] = stringPool.intern(showName);
+        }
+
+        void setValue(int id, String value) {
+            values[id] = stringPool.intern(value);
+        }
+
+        void setChecked(int id, boolean checked) {
+            checkedBits.set(id, checked);
+        }
+
+        FlatTree build() {
+            return new FlatTree(size, Arrays.copyOf(parentIds, size), Arrays.copyOf(showNames, size),
+                    Arrays.copyOf(values, size), checkedBits);
+        }
+    }
+}
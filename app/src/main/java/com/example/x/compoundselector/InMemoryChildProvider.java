@@ -0,0 +1,103 @@
+package com.example.x.compoundselector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link ChildProvider} serving the levels of a tree held in memory, with an artificial delay
+ * simulating a remote source. Every served node is a copy without children, declaring this
+ * provider if the original one has children.
+ * <p>The nodes of the source trees are numbered level by level, so that the children of a node
+ * have consecutive indices. Every served branch node holds the index of its original as the key
+ * of its child provider, so that the provider keeps no reference to the copies, which are
+ * dropped along with the levels evicted by the {@link LazyChildLoader}.</p>
+ */
+public class InMemoryChildProvider implements ChildProvider {
+
+    private final long delayMillis;
+    /**
+     * The nodes of the source trees by index, guarded by this provider.
+     */
+    private final List<Node> sourceNodes = new ArrayList<>();
+    /**
+     * The index of the first child of every node of {@link #sourceNodes}, guarded by this provider.
+     */
+    private int[] firstChildIds = new int[16];
+
+    public InMemoryChildProvider(long delayMillis) {
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Returns a copy of the root of the source tree, whose children would be provided on demand.
+     *
+     * @param sourceRootNode the formatted tree serving the children.
+     */
+    public Node newLazyTree(Node sourceRootNode) {
+        int rootId;
+        synchronized (this) {
+            rootId = sourceNodes.size();
+            sourceNodes.add(sourceRootNode);
+            for (int id = rootId; id < sourceNodes.size(); id++) {
+                if (id == firstChildIds.length) {
+                    firstChildIds = Arrays.copyOf(firstChildIds, id * 2);
+                }
+                firstChildIds[id] = sourceNodes.size();
+                List<Node> children = sourceNodes.get(id).getChildList();
+                if (children != null) {
+                    sourceNodes.addAll(children);
+                }
+            }
+        }
+        return newLazyCopy(sourceRootNode, rootId);
+    }
+
+    @Override
+    public List<Node> loadChildren(Node parent, int offset, int limit) throws Exception {
+        if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+        }
+        int id = getId(parent);
+        Node sourceNode;
+        int firstChildId;
+        synchronized (this) {
+            sourceNode = sourceNodes.get(id);
+            firstChildId = firstChildIds[id];
+        }
+        List<Node> sourceChildren = sourceNode.getChildren();
+        int end = Math.min(sourceChildren.size(), offset + limit);
+        List<Node> page = new ArrayList<>(Math.max(0, end - offset));
+        for (int i = offset; i < end; i++) {
+            page.add(newLazyCopy(sourceChildren.get(i), firstChildId + i));
+        }
+        return page;
+    }
+
+    @Override
+    public int getSubtreeDepth(Node parent) {
+        if (parent.getChildProvider() != this) {
+            return 2;
+        }
+        Node sourceNode;
+        synchronized (this) {
+            sourceNode = sourceNodes.get(parent.getChildProviderKey());
+        }
+        return Node.getTreeDepth(sourceNode);
+    }
+
+    private int getId(Node node) {
+        if (node.getChildProvider() != this) {
+            throw new IllegalArgumentException("Unknown node: " + node);
+        }
+        return node.getChildProviderKey();
+    }
+
+    private Node newLazyCopy(Node sourceNode, int id) {
+        Node node = new Node(sourceNode.getShowName(), sourceNode.getValue(), sourceNode.getTag());
+        if (!sourceNode.isLeaf()) {
+            node.setChildProvider(this, id);
+        }
+        return node;
+    }
+}
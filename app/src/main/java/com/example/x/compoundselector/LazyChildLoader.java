@@ -0,0 +1,226 @@
+package com.example.x.compoundselector;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads the children of the nodes declaring a {@link ChildProvider}, page by page, and keeps the
+ * loaded levels in the tree up to a bound. Beyond the bound, the least recently used levels are
+ * dropped from the tree and would be loaded again on demand; levels on the checked path or still
+ * loading are never dropped.
+ * <p>The provider is called on the load executor, while the tree is only changed on the result
+ * executor, which must be the thread owning the tree (the main thread by default).</p>
+ */
+public class LazyChildLoader {
+
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int DEFAULT_MAX_CACHED_LEVELS = 64;
+
+    private final int pageSize;
+    private final int maxCachedLevels;
+    private final Executor loadExecutor;
+    private final Executor resultExecutor;
+
+    /**
+     * Nodes whose children have been loaded, the least recently used first. Compared by identity,
+     * since equal nodes may live in different branches.
+     */
+    private final List<Node> cachedLevels = new ArrayList<>();
+    private final List<Node> loadingNodes = new ArrayList<>();
+    /**
+     * The listeners of the load of every node of {@link #loadingNodes}, at the same index.
+     */
+    private final List<List<OnChildPageLoadedListener>> loadingListeners = new ArrayList<>();
+
+    public LazyChildLoader() {
+        this(DEFAULT_PAGE_SIZE, DEFAULT_MAX_CACHED_LEVELS, AsyncTask.THREAD_POOL_EXECUTOR, null);
+    }
+
+    /**
+     * @param pageSize        the count of children loaded at a time.
+     * @param maxCachedLevels the max count of nodes keeping their loaded children.
+     * @param loadExecutor    the executor calling the child providers.
+     * @param resultExecutor  the executor changing the tree, or {@code null} for the main thread.
+     */
+    public LazyChildLoader(int pageSize, int maxCachedLevels, @NonNull Executor loadExecutor,
+                           Executor resultExecutor) {
+        if (pageSize < 1 || maxCachedLevels < 1) {
+            throw new IllegalArgumentException("pageSize: " + pageSize + ", maxCachedLevels: " + maxCachedLevels);
+        }
+        this.pageSize = pageSize;
+        this.maxCachedLevels = maxCachedLevels;
+        this.loadExecutor = loadExecutor;
+        if (resultExecutor == null) {
+            final Handler mainHandler = new Handler(Looper.getMainLooper());
+            resultExecutor = new Executor() {
+                @Override
+                public void execute(@NonNull Runnable command) {
+                    mainHandler.post(command);
+                }
+            };
+        }
+        this.resultExecutor = resultExecutor;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Loads the next page of the children of the specified node, if it has more children and is
+     * not loading already. If it is, the listener is notified of the running load as well.
+     *
+     * @param parent   the node whose children are loaded.
+     * @param listener notified on the result executor once the page is appended, may be {@code null}.
+     * @return <tt>true</tt> if a page is requested.
+     */
+    public boolean loadNextPage(final Node parent, final OnChildPageLoadedListener listener) {
+        if (parent == null || !parent.hasMoreChildren()) {
+            return false;
+        }
+        int loading = indexOfIdentity(loadingNodes, parent);
+        if (loading >= 0) {
+            List<OnChildPageLoadedListener> listeners = loadingListeners.get(loading);
+            if (listener != null && !listeners.contains(listener)) {
+                listeners.add(listener);
+            }
+            return false;
+        }
+        loadingNodes.add(parent);
+        List<OnChildPageLoadedListener> listeners = new ArrayList<>(1);
+        if (listener != null) {
+            listeners.add(listener);
+        }
+        loadingListeners.add(listeners);
+        final ChildProvider childProvider = parent.getChildProvider();
+        final int offset = parent.getChildList() == null ? 0 : parent.getChildList().size();
+        loadExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<Node> page;
+                Exception error;
+                try {
+                    page = childProvider.loadChildren(parent, offset, pageSize);
+                    error = null;
+                } catch (Exception e) {
+                    page = null;
+                    error = e;
+                }
+                final List<Node> loadedPage = page;
+                final Exception loadError = error;
+                resultExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        onPageLoaded(parent, childProvider, offset, loadedPage, loadError);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    public boolean isLoading(Node parent) {
+        return indexOfIdentity(loadingNodes, parent) >= 0;
+    }
+
+    /**
+     * Marks the loaded children of the specified node as recently used, e.g. when they are shown.
+     */
+    public void touch(Node parent) {
+        int position = indexOfIdentity(cachedLevels, parent);
+        if (position >= 0) {
+            cachedLevels.remove(position);
+            cachedLevels.add(parent);
+        }
+    }
+
+    /**
+     * Returns the count of nodes currently keeping their loaded children.
+     */
+    public int getCachedLevelCount() {
+        return cachedLevels.size();
+    }
+
+    private void onPageLoaded(Node parent, ChildProvider childProvider, int offset, List<Node> page,
+                              Exception error) {
+        int loading = indexOfIdentity(loadingNodes, parent);
+        loadingNodes.remove(loading);
+        List<OnChildPageLoadedListener> listeners = loadingListeners.remove(loading);
+        int loadedCount = parent.getChildList() == null ? 0 : parent.getChildList().size();
+        // Dropped or changed meanwhile, the page no longer fits.
+        boolean stale = parent.getChildProvider() != childProvider || loadedCount != offset;
+        if (error == null && !stale) {
+            parent.appendChildPage(page, page.size() < pageSize);
+            if (indexOfIdentity(cachedLevels, parent) < 0) {
+                cachedLevels.add(parent);
+            } else {
+                touch(parent);
+            }
+            evictIfNeeded(parent);
+        }
+        for (OnChildPageLoadedListener listener : listeners) {
+            if (error != null) {
+                listener.onChildPageFailed(parent, error);
+            } else if (!stale) {
+                listener.onChildPageLoaded(parent);
+            }
+        }
+    }
+
+    /**
+     * Drops the least recently used levels beyond the bound, except the one just loaded.
+     */
+    private void evictIfNeeded(Node loadedParent) {
+        for (int i = 0; cachedLevels.size() > maxCachedLevels && i < cachedLevels.size(); ) {
+            Node node = cachedLevels.get(i);
+            if (node == loadedParent || node.isChecked() || isLoading(node)) {
+                i++;
+                continue;
+            }
+            cachedLevels.remove(i);
+            // Levels below the dropped one go away with it.
+            for (int j = cachedLevels.size() - 1; j >= 0; j--) {
+                if (isDescendant(cachedLevels.get(j), node)) {
+                    cachedLevels.remove(j);
+                    if (j < i) {
+                        i--;
+                    }
+                }
+            }
+            node.unloadChildren();
+        }
+    }
+
+    private static boolean isDescendant(Node node, Node ancestor) {
+        for (Node parent = node.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent == ancestor) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int indexOfIdentity(List<Node> nodes, Node node) {
+        for (int i = 0, size = nodes.size(); i < size; i++) {
+            if (nodes.get(i) == node) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public interface OnChildPageLoadedListener {
+        /**
+         * Called once a page of children has been appended to the parent node.
+         */
+        void onChildPageLoaded(Node parent);
+
+        void onChildPageFailed(Node parent, Exception e);
+    }
+}
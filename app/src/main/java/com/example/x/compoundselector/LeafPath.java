@@ -0,0 +1,143 @@
+package com.example.x.compoundselector;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The position of a leaf in its tree, compact enough to be saved within the state of a view: for
+ * every node of the path below the root, its index among the children of its parent and its
+ * {@link Node#hashCode() hash code}, which only depends on its name and value.
+ * <p>The indices find the leaf again in a tree built from the same data without any search. If
+ * the tree changed meanwhile, a node whose hash does not match the one of its index is looked
+ * for by its hash among the children of its parent instead.</p>
+ */
+final class LeafPath {
+
+    private final int[] childIndices;
+    private final int[] nodeHashes;
+
+    LeafPath(int[] childIndices, int[] nodeHashes) {
+        if (childIndices.length != nodeHashes.length) {
+            throw new IllegalArgumentException("Lengths differ: " + childIndices.length
+                    + " and " + nodeHashes.length);
+        }
+        this.childIndices = childIndices;
+        this.nodeHashes = nodeHashes;
+    }
+
+    /**
+     * Returns the path from the root of the tree down to the specified node.
+     */
+    static LeafPath of(Node leaf) {
+        int length = leaf.getHeight();
+        int[] childIndices = new int[length];
+        int[] nodeHashes = new int[length];
+        Node node = leaf;
+        for (int level = length - 1; level >= 0; level--) {
+            Node parent = node.getParent();
+            childIndices[level] = indexOfChild(parent.getChildList(), node);
+            nodeHashes[level] = node.hashCode();
+            node = parent;
+        }
+        return new LeafPath(childIndices, nodeHashes);
+    }
+
+    /**
+     * Returns the index of the node itself, not of the first child equal to it.
+     */
+    private static int indexOfChild(List<Node> children, Node child) {
+        for (int i = 0, size = children.size(); i < size; i++) {
+            if (children.get(i) == child) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Not a child of its parent: " + child);
+    }
+
+    /**
+     * Returns the count of nodes of the path, the root left out.
+     */
+    int length() {
+        return childIndices.length;
+    }
+
+    int[] getChildIndices() {
+        return childIndices;
+    }
+
+    int[] getNodeHashes() {
+        return nodeHashes;
+    }
+
+    /**
+     * Finds the leaf of this path in the specified tree.
+     *
+     * @return the leaf, or {@code null} if a node of the path is missing, such as children not
+     * loaded yet, or if the found node is not a leaf.
+     */
+    Node resolve(Node rootNode) {
+        Node node = resolveLoaded(rootNode);
+        return node != null && node.isLeaf() ? node : null;
+    }
+
+    /**
+     * Follows this path in the specified tree as far as its children are loaded, see
+     * {@link Node#hasMoreChildren()}.
+     *
+     * @return the leaf, the node whose next page of children may hold the rest of the path, or
+     * {@code null} if the tree does not have the leaf.
+     */
+    Node resolveLoaded(Node rootNode) {
+        if (rootNode == null || childIndices.length == 0) {
+            return null;
+        }
+        Node node = rootNode;
+        for (int level = 0; level < childIndices.length; level++) {
+            List<Node> children = node.getChildList();
+            int index = childIndices[level];
+            int hash = nodeHashes[level];
+            if (index >= 0 && index < children.size() && children.get(index).hashCode() == hash) {
+                node = children.get(index);
+                continue;
+            }
+            Node child = findChildByHash(children, hash);
+            if (child == null) {
+                return node.hasMoreChildren() ? node : null;
+            }
+            node = child;
+        }
+        return node.isLeaf() ? node : null;
+    }
+
+    private static Node findChildByHash(List<Node> children, int hash) {
+        for (int i = 0, size = children.size(); i < size; i++) {
+            Node child = children.get(i);
+            if (child.hashCode() == hash) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        LeafPath leafPath = (LeafPath) o;
+        return Arrays.equals(childIndices, leafPath.childIndices)
+                && Arrays.equals(nodeHashes, leafPath.nodeHashes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(childIndices) + Arrays.hashCode(nodeHashes);
+    }
+
+    @Override
+    public String toString() {
+        return "LeafPath{" + "childIndices=" + Arrays.toString(childIndices) + '}';
+    }
+}
@@ -9,10 +9,10 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.Toast;
 
-import com.google.gson.Gson;
-
+import java.io.File;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -35,8 +35,8 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
-        Node node = new Gson().fromJson(getResources().getString(R.string.single_node), Node.class);
-        Node node1 = new Gson().fromJson(getResources().getString(R.string.two_node), Node.class);
+        Node node = loadMenuTree(R.string.single_node, "single_node");
+        Node node1 = loadMenuTree(R.string.two_node, "two_node");
 
         FilterMenuBar filterMenuBar = (FilterMenuBar) findViewById(R.id.fiterBar);
         filterMenuBar.setMenuItems(Arrays.asList(node, node1));
@@ -58,6 +58,27 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Reads the tree from its mapped file in the cache directory, written from the JSON resource
+     * on first start and whenever the app is updated, rather than parsing the JSON every time.
+     * The resource is only read when the file is written.
+     */
+    private Node loadMenuTree(final int jsonResId, String fileName) {
+        try {
+            // Resources only change with the app, so its install time stamps them.
+            long stamp = getPackageManager().getPackageInfo(getPackageName(), 0).lastUpdateTime;
+            return MappedTreeFile.load(new File(getCacheDir(), fileName + ".tree"), stamp,
+                    new Callable<Node>() {
+                        @Override
+                        public Node call() {
+                            return TreeLoader.fromJson(getResources().getString(jsonResId));
+                        }
+                    });
+        } catch (Exception e) {
+            return TreeLoader.fromJson(getResources().getString(jsonResId));
+        }
+    }
+
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
             finish();
@@ -0,0 +1,429 @@
+package com.example.x.compoundselector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.zip.CRC32;
+
+/**
+ * A tree stored in a file laid out to be read in place through {@link FileChannel#map}, so that
+ * opening it costs about nothing whatever its size, and only the levels opened by the user are
+ * ever read. It serves the children of its nodes as a {@link ChildProvider}: the tree returned by
+ * {@link #newLazyTree()} holds only the levels along its checked path, the other ones are built on
+ * demand from the mapped file by the {@link LazyChildLoader} of the {@link FilterMenuBar}.
+ * <p>The file is made of, in order:</p>
+ * <ul>
+ * <li>a header of {@link #HEADER_SIZE} bytes: {@link #MAGIC}, {@link #VERSION}, the node count,
+ * the string count, the offsets of the three following tables, the CRC32 of everything after the
+ * header, and the stamp of the source the tree was built from. The CRC32 is checked when the file
+ * is written and once by {@link #load(File, long, Callable)}, before any node is served, while
+ * {@link #open(File, long)} only checks its header and size;</li>
+ * <li>the node table, one record of {@link #NODE_RECORD_SIZE} bytes per node in preorder: the
+ * end of its subtree (the index of the node following its last descendant), its child count, the
+ * string indices of its name, value and tag (-1 if {@code null}), and its flags and the depth of
+ * its subtree;</li>
+ * <li>the string offsets, one per string plus the end of the last one;</li>
+ * <li>the string data, every distinct string of the tree once, as UTF-8.</li>
+ * </ul>
+ * <p>The children of a node are the nodes following it in preorder, each one starting right at
+ * the end of the subtree of the previous one, so that they are found without any index. Strings
+ * are decoded on first access, then shared through the default {@link StringPool}. Every served
+ * branch node holds its index in the file as the key of its child provider.</p>
+ * <p>A file whose stamp differs from the current one of the source, such as the version of the
+ * JSON form it was built from, is stale. {@link #load(File, long, Callable)} then loads the tree from
+ * its source instead, and writes the file again. Tags other than strings are not supported, they
+ * are stored as {@code null}.</p>
+ */
+public final class MappedTreeFile implements ChildProvider {
+
+    /**
+     * "FMTM", the first four bytes of a file.
+     */
+    static final int MAGIC = 0x464D544D;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 40;
+    static final int NODE_RECORD_SIZE = 24;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NO_STRING = -1;
+    private static final int FLAG_CHECKED = 1;
+    private static final int DEPTH_SHIFT = 8;
+
+    private final ByteBuffer buffer;
+    private final int nodeCount;
+    private final int nodeTableOffset;
+    private final int stringOffsetsOffset;
+    private final int stringDataOffset;
+    /**
+     * The strings decoded so far. A string decoded by two threads at once is only decoded twice.
+     */
+    private final String[] strings;
+    private MappedTreeFile(ByteBuffer buffer, long sourceStamp) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a mapped tree file");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported mapped tree file version: " + version);
+        }
+        if (buffer.getLong(32) != sourceStamp) {
+            throw new IOException("Stale mapped tree file");
+        }
+        nodeCount = buffer.getInt(8);
+        strings = new String[buffer.getInt(12)];
+        nodeTableOffset = buffer.getInt(16);
+        stringOffsetsOffset = buffer.getInt(20);
+        stringDataOffset = buffer.getInt(24);
+        if (nodeCount < 1 || nodeTableOffset != HEADER_SIZE
+                || stringOffsetsOffset != nodeTableOffset + nodeCount * NODE_RECORD_SIZE
+                || stringDataOffset != stringOffsetsOffset + (strings.length + 1) * 4
+                || stringDataOffset > buffer.capacity()
+                || stringDataOffset + buffer.getInt(stringDataOffset - 4) != buffer.capacity()) {
+            throw new IOException("Corrupted mapped tree file");
+        }
+    }
+
+    /**
+     * Maps the file, checking its header and size. The file may be deleted or replaced
+     * afterwards, the mapping keeps the former content.
+     *
+     * @param sourceStamp the current stamp of the source of the tree.
+     * @throws IOException if the file cannot be read, is not a valid tree file of the current
+     *                     version, or is stale.
+     */
+    public static MappedTreeFile open(File file, long sourceStamp) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        MappedByteBuffer buffer;
+        try {
+            FileChannel channel = in.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+        return new MappedTreeFile(buffer, sourceStamp);
+    }
+
+    /**
+     * Returns a lazy tree read from the file, or, if the file is missing, invalid, corrupted or
+     * stale, the tree loaded from its source. The file is written again from the loaded tree in
+     * the latter case, a failure of which only costs the next start the same fallback.
+     * <p>The whole file is read once to check its checksum, see {@link #verify()}, so that the
+     * levels later read on demand are known to be as written.</p>
+     *
+     * @param sourceStamp the current stamp of the source, such as the version of its JSON form.
+     * @param treeSource  loads the tree from its source, such as {@link TreeLoader}.
+     */
+    public static Node load(File file, long sourceStamp, Callable<Node> treeSource) throws Exception {
+        try {
+            MappedTreeFile treeFile = open(file, sourceStamp);
+            treeFile.verify();
+            return treeFile.newLazyTree();
+        } catch (IOException e) {
+            // Falls back to the source.
+        }
+        Node rootNode = treeSource.call();
+        if (rootNode != null) {
+            try {
+                write(rootNode, sourceStamp, file);
+            } catch (IOException e) {
+                // Written again on next load.
+            }
+        }
+        return rootNode;
+    }
+
+    /**
+     * Writes the tree rooted by {@code rootNode} to the file, then checks the checksum of the
+     * file written. The file is replaced at once, so that readers never see a partial file.
+     *
+     * @param sourceStamp the stamp of the source the tree is built from.
+     * @throws IOException if the file cannot be written, or is not read back as written, in
+     *                     which case it is deleted.
+     */
+    public static void write(Node rootNode, long sourceStamp, File file) throws IOException {
+        ByteBuffer content = new Writer().write(rootNode, sourceStamp);
+        File tempFile = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(tempFile, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+        try {
+            open(file, sourceStamp).verify();
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the checksum of the file, reading all of it.
+     *
+     * @throws IOException if the file is corrupted.
+     */
+    public void verify() throws IOException {
+        if (buffer.getInt(28) != checksum(buffer)) {
+            throw new IOException("Mapped tree file checksum mismatch");
+        }
+    }
+
+    /**
+     * Returns the CRC32 of everything after the header. Chunked, since the buffer variant of
+     * {@link CRC32#update} requires Java 8.
+     */
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_SIZE);
+        byte[] chunk = new byte[8192];
+        while (body.hasRemaining()) {
+            int length = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns a new root node of the tree, whose children are provided on demand by this file.
+     * The levels along the checked path, or along the first children if no leaf is checked, are
+     * loaded at once, so that the checked leaf of the tree is known without opening it.
+     */
+    public Node newLazyTree() {
+        Node rootNode = newNode(0);
+        Node node = rootNode;
+        while (node.hasMoreChildren()) {
+            List<Node> children = loadChildren(node, 0, getChildCount(node.getChildProviderKey()));
+            node.appendChildPage(children, true);
+            Node next = children.get(0);
+            for (int i = 0, size = children.size(); i < size; i++) {
+                if (children.get(i).isChecked()) {
+                    next = children.get(i);
+                    break;
+                }
+            }
+            node = next;
+        }
+        return rootNode;
+    }
+
+    /**
+     * Reads the whole tree at once, formatted just as by {@link TreeLoader}.
+     */
+    public Node readTree() {
+        return readSubtree(0);
+    }
+
+    private Node readSubtree(int id) {
+        int childCount = getChildCount(id);
+        List<Node> children = null;
+        if (childCount > 0) {
+            children = new ArrayList<>(childCount);
+            for (int i = 0, childId = id + 1; i < childCount; i++, childId = getSubtreeEnd(childId)) {
+                children.add(readSubtree(childId));
+            }
+        }
+        Node node = new Node(getString(id, 8), getString(id, 12), getString(id, 16));
+        node.finishLoading(children, (getFlags(id) & FLAG_CHECKED) != 0);
+        return node;
+    }
+
+    @Override
+    public List<Node> loadChildren(Node parent, int offset, int limit) {
+        int id = getId(parent);
+        int childCount = getChildCount(id);
+        int end = Math.min(childCount, offset + limit);
+        List<Node> page = new ArrayList<>(Math.max(0, end - offset));
+        // Skips the subtrees of the children loaded already.
+        int childId = id + 1;
+        for (int i = 0; i < offset && i < childCount; i++) {
+            childId = getSubtreeEnd(childId);
+        }
+        for (int i = offset; i < end; i++) {
+            page.add(newNode(childId));
+            childId = getSubtreeEnd(childId);
+        }
+        return page;
+    }
+
+    @Override
+    public int getSubtreeDepth(Node parent) {
+        return parent.getChildProvider() == this ? getFlags(parent.getChildProviderKey()) >>> DEPTH_SHIFT : 2;
+    }
+
+    private int getId(Node node) {
+        if (node.getChildProvider() != this) {
+            throw new IllegalArgumentException("Unknown node: " + node);
+        }
+        return node.getChildProviderKey();
+    }
+
+    /**
+     * Builds the node of the specified index with its checked state, declaring this file as its
+     * child provider if it has children.
+     */
+    private Node newNode(int id) {
+        Node node = new Node(getString(id, 8), getString(id, 12), getString(id, 16));
+        node.finishLoading(null, (getFlags(id) & FLAG_CHECKED) != 0);
+        if (getChildCount(id) > 0) {
+            node.setChildProvider(this, id);
+        }
+        return node;
+    }
+
+    private int recordOffset(int id) {
+        return nodeTableOffset + id * NODE_RECORD_SIZE;
+    }
+
+    private int getSubtreeEnd(int id) {
+        return buffer.getInt(recordOffset(id));
+    }
+
+    private int getChildCount(int id) {
+        return buffer.getInt(recordOffset(id) + 4);
+    }
+
+    private int getFlags(int id) {
+        return buffer.getInt(recordOffset(id) + 20);
+    }
+
+    /**
+     * Returns the string of the node record field at the specified offset.
+     */
+    private String getString(int id, int fieldOffset) {
+        int index = buffer.getInt(recordOffset(id) + fieldOffset);
+        if (index == NO_STRING) {
+            return null;
+        }
+        String string = strings[index];
+        if (string == null) {
+            int start = buffer.getInt(stringOffsetsOffset + index * 4);
+            int end = buffer.getInt(stringOffsetsOffset + index * 4 + 4);
+            byte[] utf8 = new byte[end - start];
+            ByteBuffer data = buffer.duplicate();
+            data.position(stringDataOffset + start);
+            data.get(utf8);
+            string = StringPool.getDefault().intern(new String(utf8, UTF_8));
+            strings[index] = string;
+        }
+        return string;
+    }
+
+    private static final class Writer {
+
+        private final Map<String, Integer> stringIndices = new HashMap<>();
+        private final List<byte[]> strings = new ArrayList<>();
+        private int stringDataSize;
+        private final List<Node> nodes = new ArrayList<>();
+
+        private final TreeWalker.Visitor collectVisitor = new TreeWalker.Visitor() {
+            @Override
+            public int visit(Node node) {
+                nodes.add(node);
+                addString(node.getShowName());
+                addString(node.getValue());
+                if (node.getTag() instanceof String) {
+                    addString((String) node.getTag());
+                }
+                return TreeWalker.CONTINUE;
+            }
+        };
+
+        private void addString(String string) {
+            if (string != null && !stringIndices.containsKey(string)) {
+                stringIndices.put(string, strings.size());
+                byte[] utf8 = string.getBytes(UTF_8);
+                strings.add(utf8);
+                stringDataSize += utf8.length;
+            }
+        }
+
+        ByteBuffer write(Node rootNode, long sourceStamp) {
+            TreeWalker.obtain().preOrder(rootNode, collectVisitor);
+            int nodeCount = nodes.size();
+            int stringOffsetsOffset = HEADER_SIZE + nodeCount * NODE_RECORD_SIZE;
+            int stringDataOffset = stringOffsetsOffset + (strings.size() + 1) * 4;
+            ByteBuffer content = ByteBuffer.allocate(stringDataOffset + stringDataSize);
+
+            content.putInt(0, MAGIC);
+            content.putInt(4, VERSION);
+            content.putInt(8, nodeCount);
+            content.putInt(12, strings.size());
+            content.putInt(16, HEADER_SIZE);
+            content.putInt(20, stringOffsetsOffset);
+            content.putInt(24, stringDataOffset);
+            content.putLong(32, sourceStamp);
+
+            // Nodes are in preorder, so the subtree of a node ends at the sum of the sizes of its
+            // own subtree, known once its descendants are written.
+            int[] subtreeEnds = new int[nodeCount];
+            int[] depths = new int[nodeCount];
+            Map<Node, Integer> ids = new IdentityHashMap<>(nodeCount);
+            for (int id = 0; id < nodeCount; id++) {
+                ids.put(nodes.get(id), id);
+            }
+            for (int id = nodeCount - 1; id >= 0; id--) {
+                Node node = nodes.get(id);
+                List<Node> children = node.getChildList();
+                int childCount = children == null ? 0 : children.size();
+                subtreeEnds[id] = childCount == 0 ? id + 1 : subtreeEnds[ids.get(children.get(childCount - 1))];
+                int depth = 1;
+                for (int i = 0; i < childCount; i++) {
+                    depth = Math.max(depth, depths[ids.get(children.get(i))] + 1);
+                }
+                depths[id] = depth;
+
+                int offset = HEADER_SIZE + id * NODE_RECORD_SIZE;
+                content.putInt(offset, subtreeEnds[id]);
+                content.putInt(offset + 4, childCount);
+                content.putInt(offset + 8, indexOf(node.getShowName()));
+                content.putInt(offset + 12, indexOf(node.getValue()));
+                content.putInt(offset + 16, node.getTag() instanceof String ? indexOf((String) node.getTag()) : NO_STRING);
+                content.putInt(offset + 20, (node.isChecked() ? FLAG_CHECKED : 0) | depth << DEPTH_SHIFT);
+            }
+
+            int stringOffset = 0;
+            content.position(stringDataOffset);
+            for (int i = 0, count = strings.size(); i < count; i++) {
+                content.putInt(stringOffsetsOffset + i * 4, stringOffset);
+                byte[] utf8 = strings.get(i);
+                content.put(utf8);
+                stringOffset += utf8.length;
+            }
+            content.putInt(stringOffsetsOffset + strings.size() * 4, stringOffset);
+
+            content.putInt(28, checksum(content));
+            content.rewind();
+            return content;
+        }
+
+        private int indexOf(String string) {
+            return string == null ? NO_STRING : stringIndices.get(string);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.x.compoundselector;
+
+import java.util.BitSet;
+
+/**
+ * Selection of any number of leaves of a {@link FlatTree}, for multi-select filters. It is kept
+ * apart from the single checked path of the tree, which it leaves untouched.
+ * <p>Selected leaves are bits of a {@link BitSet} indexed by the preorder index of the nodes. Every
+ * node also holds the count of selected leaves in its subtree, from which its
+ * {@link #getSelectionState(int) state} is derived: {@link #STATE_NONE}, {@link #STATE_PARTIAL}
+ * or {@link #STATE_ALL}. Selecting a leaf updates the counts of its ancestors only, and selecting
+ * a subtree updates the nodes of the preorder range of the subtree, then its ancestors.</p>
+ */
+public final class MultiSelection {
+
+    public static final int STATE_NONE = 0;
+    public static final int STATE_PARTIAL = 1;
+    public static final int STATE_ALL = 2;
+
+    private final FlatTree flatTree;
+    private final BitSet selectedBits;
+    private final int[] leafCounts;
+    private final int[] selectedLeafCounts;
+
+    public MultiSelection(FlatTree flatTree) {
+        this.flatTree = flatTree;
+        int size = flatTree.size();
+        this.selectedBits = new BitSet(size);
+        this.leafCounts = new int[size];
+        this.selectedLeafCounts = new int[size];
+        // Descendants follow their ancestors in preorder, so a reverse pass sums the subtrees.
+        for (int id = size - 1; id >= 0; id--) {
+            if (flatTree.isLeaf(id)) {
+                leafCounts[id] = 1;
+            }
+            if (id > 0) {
+                leafCounts[flatTree.getParent(id)] += leafCounts[id];
+            }
+        }
+    }
+
+    public FlatTree getFlatTree() {
+        return flatTree;
+    }
+
+    /**
+     * Returns {@link #STATE_NONE}, {@link #STATE_PARTIAL} or {@link #STATE_ALL}, depending on the
+     * count of selected leaves in the subtree of the specified node.
+     */
+    public int getSelectionState(int id) {
+        int selected = selectedLeafCounts[id];
+        if (selected == 0) {
+            return STATE_NONE;
+        }
+        return selected == leafCounts[id] ? STATE_ALL : STATE_PARTIAL;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the specified leaf, or all the leaves under the specified branch,
+     * are selected.
+     */
+    public boolean isSelected(int id) {
+        return selectedLeafCounts[id] == leafCounts[id];
+    }
+
+    /**
+     * Returns the count of selected leaves in the subtree of the specified node.
+     */
+    public int getSelectedLeafCount(int id) {
+        return selectedLeafCounts[id];
+    }
+
+    /**
+     * Returns the count of leaves in the subtree of the specified node.
+     */
+    public int getLeafCount(int id) {
+        return leafCounts[id];
+    }
+
+    /**
+     * Returns the count of selected leaves of the tree.
+     */
+    public int getSelectedLeafCount() {
+        return selectedLeafCounts[0];
+    }
+
+    /**
+     * Returns the first selected leaf in preorder, or {@link FlatTree#NO_NODE} if none is selected.
+     */
+    public int getFirstSelectedLeaf() {
+        int id = selectedBits.nextSetBit(0);
+        return id < 0 ? FlatTree.NO_NODE : id;
+    }
+
+    /**
+     * Returns the selected leaves, in preorder.
+     */
+    public int[] getSelectedLeaves() {
+        int[] leaves = new int[selectedLeafCounts[0]];
+        int count = 0;
+        for (int id = selectedBits.nextSetBit(0); id >= 0; id = selectedBits.nextSetBit(id + 1)) {
+            leaves[count++] = id;
+        }
+        return leaves;
+    }
+
+    /**
+     * Selects or deselects the specified leaf, updating the counts of its ancestors.
+     *
+     * @return <tt>true</tt> if the selection changed.
+     * @throws IllegalArgumentException if the node is not a leaf.
+     */
+    public boolean setLeafSelected(int id, boolean selected) {
+        if (!flatTree.isLeaf(id)) {
+            throw new IllegalArgumentException("Not a leaf: " + id);
+        }
+        if (selectedBits.get(id) == selected) {
+            return false;
+        }
+        selectedBits.set(id, selected);
+        addToPath(id, selected ? 1 : -1);
+        return true;
+    }
+
+    /**
+     * Inverts the selection of the specified leaf.
+     *
+     * @return <tt>true</tt> if the leaf is selected afterwards.
+     */
+    public boolean toggleLeaf(int id) {
+        boolean selected = !selectedBits.get(id);
+        setLeafSelected(id, selected);
+        return selected;
+    }
+
+    /**
+     * Selects or deselects all the leaves of the subtree of the specified node, in one pass over
+     * the preorder range of the subtree.
+     *
+     * @return the count of leaves whose selection changed.
+     */
+    public int setSubtreeSelected(int id, boolean selected) {
+        int delta = selected ? leafCounts[id] - selectedLeafCounts[id] : -selectedLeafCounts[id];
+        if (delta == 0) {
+            return 0;
+        }
+        int end = flatTree.getSubtreeEnd(id);
+        if (selected) {
+            for (int i = id; i < end; i++) {
+                selectedLeafCounts[i] = leafCounts[i];
+                if (flatTree.isLeaf(i)) {
+                    selectedBits.set(i);
+                }
+            }
+        } else {
+            selectedBits.clear(id, end);
+            for (int i = id; i < end; i++) {
+                selectedLeafCounts[i] = 0;
+            }
+        }
+        int parentId = flatTree.getParent(id);
+        if (parentId != FlatTree.NO_NODE) {
+            addToPath(parentId, delta);
+        }
+        return Math.abs(delta);
+    }
+
+    /**
+     * Deselects all the leaves.
+     */
+    public void clear() {
+        setSubtreeSelected(flatTree.getRoot(), false);
+    }
+
+    private void addToPath(int id, int delta) {
+        while (id != FlatTree.NO_NODE) {
+            selectedLeafCounts[id] += delta;
+            id = flatTree.getParent(id);
+        }
+    }
+}
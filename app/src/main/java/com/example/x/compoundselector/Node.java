@@ -1,10 +1,13 @@
 package com.example.x.compoundselector;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Stack;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by Richa on 05/09/2017.
@@ -19,14 +22,80 @@ public class Node {
     private Object tag;
 
     private Node parent;
-    private List<Node> children = new ArrayList<>();
+    private List<Node> children = new ChildList();
 
     private boolean checked;
 
+    /**
+     * Cached {@link #hashCode()}, 0 if not computed yet, as {@link String#hashCode()} does.
+     */
+    private transient int hash;
+
+    /**
+     * Index of all the nodes of the tree, only held by the root node. Built lazily on the
+     * first lookup and maintained by the structural operations afterwards.
+     */
+    private transient NodeIndex nodeIndex;
+    /**
+     * Substring index of the names of all the nodes of the tree, only held by the root node.
+     * Built lazily on the first search and maintained as {@code nodeIndex}.
+     */
+    private transient NodeSearchIndex searchIndex;
+    /**
+     * The slot of this node in the search index of its tree, see {@link NodeSearchIndex}.
+     */
+    private transient int searchSlot;
+
+    /**
+     * The checked leaf of the tree, only held by the root node, and only valid when
+     * {@code checkedPathTracked} is <tt>true</tt>. A tracked tree has no other checked nodes
+     * than the ones on the path from the root to the checked leaf (or none at all, if
+     * {@code checkedLeaf} is {@code null}).
+     */
+    private transient Node checkedLeaf;
+    private transient boolean checkedPathTracked;
+
+    /**
+     * Cached metrics of the subtree rooted by this node, valid when {@code metricsValid} is
+     * <tt>true</tt>. A valid node always has valid descendants, so invalidating the ancestor
+     * chain of a changed node is enough to keep the cache consistent.
+     */
+    private transient boolean metricsValid;
+    private transient int subtreeDepth;
+    private transient int subtreeDegree;
+    private transient int leafCount;
+
+    /**
+     * Cached level of this node, valid when {@code levelValid} is <tt>true</tt>. A valid node
+     * always has a valid parent.
+     */
+    private transient boolean levelValid;
+    private transient int level;
+
+    /**
+     * Whether the subtree rooted by this node is known to be formatted, i.e. all the parent
+     * pointers are linked, so that {@link #formatTree(Node)} has nothing to do.
+     */
+    private transient boolean formatted;
+
+    /**
+     * Provider of the children not loaded yet, {@code null} if all the children are held.
+     */
+    private transient ChildProvider childProvider;
+    /**
+     * Identifies this node for its child provider, see {@link #setChildProvider(ChildProvider, int)}.
+     */
+    private transient int childProviderKey;
+    private transient boolean allChildrenLoaded;
+
     public Node(String showName, String value) {
         this(showName, value, null);
     }
 
+    /**
+     * Creates a node holding the strings as they are. The tree loaders and
+     * {@link #formatTree(Node)} share the repeated strings through a {@link StringPool}.
+     */
     public Node(String showName, String value, Object tag) {
         this.showName = showName;
         this.value = value;
@@ -38,29 +107,290 @@ public class Node {
     }
 
     public boolean isLeaf() {
-        return children == null || children.size() == 0;
+        return (children == null || children.size() == 0) && !hasMoreChildren();
+    }
+
+    /**
+     * Declares that this node has children provided on demand by the specified provider, in
+     * addition to the ones it already holds. Such a node is a branch node even without children.
+     *
+     * @param childProvider the provider, or {@code null} if all the children are held.
+     */
+    public void setChildProvider(ChildProvider childProvider) {
+        this.childProvider = childProvider;
+        this.allChildrenLoaded = false;
+        invalidateMetrics();
+    }
+
+    /**
+     * Declares a child provider as {@link #setChildProvider(ChildProvider)} does, with the key
+     * identifying this node for the provider, such as the position of the node in a file, so
+     * that the provider needs no map of the nodes it served.
+     */
+    void setChildProvider(ChildProvider childProvider, int childProviderKey) {
+        setChildProvider(childProvider);
+        this.childProviderKey = childProviderKey;
+    }
+
+    public ChildProvider getChildProvider() {
+        return childProvider;
+    }
+
+    int getChildProviderKey() {
+        return childProviderKey;
+    }
+
+    /**
+     * Returns <tt>true</tt> if some children of this node are not loaded from its provider yet.
+     */
+    public boolean hasMoreChildren() {
+        return childProvider != null && !allChildrenLoaded;
     }
 
     public int getHeight() {
-        return isRoot() ? 0 : (parent.getHeight() + 1);
+        if (levelValid) {
+            return level;
+        }
+        // Without recursion: find the closest ancestor with a valid level (or the root), then
+        // assign the levels down the path.
+        int distance = 0;
+        Node anchor = this;
+        while (!anchor.levelValid && anchor.parent != null) {
+            anchor = anchor.parent;
+            distance++;
+        }
+        if (!anchor.levelValid) {
+            anchor.level = 0;
+            anchor.levelValid = true;
+        }
+        int nodeLevel = anchor.level + distance;
+        for (Node node = this; node != anchor; node = node.parent) {
+            node.level = nodeLevel--;
+            node.levelValid = true;
+        }
+        return level;
     }
 
     public boolean addChild(Node node) {
-        if (!children.contains(node)) {
-            children.add(node);
-            node.parent = this;
-            return true;
-        } else {
+        ChildList childList = childList(1);
+        if (childList.contains(node)) {
             return false;
         }
+        childList.add(node);
+        invalidateMetrics();
+        Node rootNode = getRoot(this);
+        boolean subtreeChecked = linkChild(node, rootNode);
+        // Adding checked nodes, or turning the checked leaf into a branch, breaks the checked path.
+        if (subtreeChecked || rootNode.checkedLeaf == this) {
+            rootNode.invalidateCheckedPath();
+        }
+        return true;
+    }
+
+    /**
+     * Adds the specified nodes which are not equal to a child yet, or to a node added before, as
+     * {@link #addChild(Node)} would do one by one, but growing the children once and resolving
+     * the caches of this node once.
+     *
+     * @param nodes the nodes to add, in order.
+     * @return <tt>true</tt> if any node was added.
+     */
+    public boolean addChildren(Collection<? extends Node> nodes) {
+        if (nodes.isEmpty()) {
+            return false;
+        }
+        ChildList childList = childList(nodes.size());
+        Node rootNode = getRoot(this);
+        boolean added = false;
+        boolean subtreeChecked = false;
+        for (Node node : nodes) {
+            if (childList.contains(node)) {
+                continue;
+            }
+            childList.add(node);
+            subtreeChecked |= linkChild(node, rootNode);
+            added = true;
+        }
+        if (!added) {
+            return false;
+        }
+        invalidateMetrics();
+        if (subtreeChecked || rootNode.checkedLeaf == this) {
+            rootNode.invalidateCheckedPath();
+        }
+        return true;
+    }
+
+    /**
+     * Links an added child to this node, and its subtree to the indexes of the tree.
+     *
+     * @param rootNode the root of the tree of this node.
+     * @return <tt>true</tt> if the subtree of the child may hold checked nodes.
+     */
+    private boolean linkChild(Node child, Node rootNode) {
+        child.parent = this;
+        if (!child.formatted && child.children != null && !child.children.isEmpty()) {
+            // Such as a subtree filled by Gson, whose descendants are linked by the next format.
+            for (Node node = this; node != null && node.formatted; node = node.parent) {
+                node.formatted = false;
+            }
+        }
+        child.invalidateLevels();
+        // The subtree is merged into this tree, so its own indexes are no longer valid.
+        child.nodeIndex = null;
+        child.searchIndex = null;
+        boolean subtreeUnchecked = child.isLeaf() ? !child.checked
+                : (child.checkedPathTracked && child.checkedLeaf == null);
+        child.invalidateCheckedPath();
+        if (rootNode.nodeIndex != null) {
+            rootNode.nodeIndex.addSubtree(child);
+        }
+        if (rootNode.searchIndex != null) {
+            rootNode.searchIndex.addSubtree(child);
+        }
+        return !subtreeUnchecked;
+    }
+
+    /**
+     * Returns the children as a {@link ChildList}, converting the list read by Gson or a tree
+     * loader on the first change, with room for the specified count of additional children.
+     */
+    private ChildList childList(int additionalCount) {
+        if (!(children instanceof ChildList)) {
+            children = children == null || children.isEmpty() ? new ChildList() : new ChildList(children);
+        }
+        ChildList childList = (ChildList) children;
+        childList.ensureCapacity(childList.size() + additionalCount);
+        return childList;
     }
 
     public boolean removeChild(Node node) {
-        if (!children.contains(node)) {
+        int position = children.indexOf(node);
+        if (position < 0) {
             return false;
         }
-        node.parent = null;
-        return children.remove(node);
+        // The child equals to the given node is removed, which may not be the same instance.
+        Node child = children.remove(position);
+        invalidateMetrics();
+        Node rootNode = getRoot(this);
+        NodeIndex index = rootNode.nodeIndex;
+        if (index != null) {
+            index.removeSubtree(child);
+        }
+        NodeSearchIndex searchIndex = rootNode.searchIndex;
+        if (searchIndex != null) {
+            searchIndex.removeSubtree(child);
+        }
+        // Removing the checked leaf leaves its ancestors checked, the path must be resolved again.
+        if (rootNode.checkedPathTracked && isAncestorOrSelf(child, rootNode.checkedLeaf)) {
+            rootNode.invalidateCheckedPath();
+        }
+        child.parent = null;
+        child.invalidateLevels();
+        return true;
+    }
+
+    /**
+     * Removes all the children equal to one of the specified nodes, compacting the children once
+     * and resolving the caches of this node once.
+     *
+     * @param nodes the nodes to remove.
+     * @return <tt>true</tt> if any child was removed.
+     */
+    public boolean removeChildren(Collection<? extends Node> nodes) {
+        if (children == null || children.isEmpty() || nodes.isEmpty()) {
+            return false;
+        }
+        Node[] removed = childList(0).removeAllEqual(nodes instanceof Set ? (Set<?>) nodes : new HashSet<>(nodes));
+        if (removed == null) {
+            return false;
+        }
+        invalidateMetrics();
+        Node rootNode = getRoot(this);
+        NodeIndex index = rootNode.nodeIndex;
+        NodeSearchIndex searchIndex = rootNode.searchIndex;
+        boolean checkedLeafRemoved = false;
+        for (Node child : removed) {
+            if (index != null) {
+                index.removeSubtree(child);
+            }
+            if (searchIndex != null) {
+                searchIndex.removeSubtree(child);
+            }
+            if (rootNode.checkedPathTracked && !checkedLeafRemoved) {
+                checkedLeafRemoved = isAncestorOrSelf(child, rootNode.checkedLeaf);
+            }
+            child.parent = null;
+            child.invalidateLevels();
+        }
+        // Removing the checked leaf leaves its ancestors checked, the path must be resolved again.
+        if (checkedLeafRemoved) {
+            rootNode.invalidateCheckedPath();
+        }
+        return true;
+    }
+
+    /**
+     * Replaces the children with the specified nodes, in order, by identity rather than by key:
+     * the children left out are removed, the nodes not held yet are added, and the kept ones are
+     * only moved, with their subtrees and caches untouched. Used by {@link TreePatch}.
+     *
+     * @param newChildren the new children, which may hold nodes with equal keys.
+     */
+    void rearrangeChildren(List<Node> newChildren) {
+        List<Node> oldChildren = children == null ? EMPTY_NODE_CHILD : children;
+        Map<Node, Boolean> kept = new IdentityHashMap<>(newChildren.size());
+        for (int i = 0, size = newChildren.size(); i < size; i++) {
+            kept.put(newChildren.get(i), Boolean.TRUE);
+        }
+        Node rootNode = getRoot(this);
+        NodeIndex index = rootNode.nodeIndex;
+        NodeSearchIndex searchIndex = rootNode.searchIndex;
+        boolean structureChanged = false;
+        boolean checkedPathBroken = false;
+        List<Node> keptChildren = new ArrayList<>(oldChildren.size());
+        for (int i = 0, size = oldChildren.size(); i < size; i++) {
+            Node child = oldChildren.get(i);
+            if (kept.remove(child) != null) {
+                keptChildren.add(child);
+                continue;
+            }
+            if (index != null) {
+                index.removeSubtree(child);
+            }
+            if (searchIndex != null) {
+                searchIndex.removeSubtree(child);
+            }
+            if (rootNode.checkedPathTracked && !checkedPathBroken) {
+                checkedPathBroken = isAncestorOrSelf(child, rootNode.checkedLeaf);
+            }
+            child.parent = null;
+            child.invalidateLevels();
+            structureChanged = true;
+        }
+        // The node index keeps equal nodes in preorder, which moving the kept children may break.
+        for (int i = 0, k = 0, size = newChildren.size(); i < size && index != null; i++) {
+            Node child = newChildren.get(i);
+            if (!kept.containsKey(child) && keptChildren.get(k++) != child) {
+                rootNode.nodeIndex = null;
+                index = null;
+            }
+        }
+        children = newChildren.isEmpty() ? new ChildList() : new ChildList(newChildren);
+        // Left in the map: the nodes not held yet, linked once at their place.
+        if (!kept.isEmpty()) {
+            structureChanged = true;
+            checkedPathBroken |= rootNode.checkedLeaf == this;
+            for (Node child : kept.keySet()) {
+                checkedPathBroken |= linkChild(child, rootNode);
+            }
+        }
+        if (structureChanged) {
+            invalidateMetrics();
+        }
+        if (checkedPathBroken) {
+            rootNode.invalidateCheckedPath();
+        }
     }
 
     //region Utility function
@@ -106,15 +436,48 @@ public class Node {
      * @param node the target node.
      */
     public static List<Node> getNodeSimplePath(final Node node) {
-        LinkedList<Node> nodePath = new LinkedList<>();
+        if (node == null) {
+            return new ArrayList<>(0);
+        }
+        // Sized from the cached level of the node.
+        List<Node> nodePath = new ArrayList<>(node.getHeight() + 1);
         Node tempNode = node;
         while (tempNode != null) {
-            nodePath.addFirst(tempNode);
+            nodePath.add(tempNode);
             tempNode = tempNode.parent;
         }
+        Collections.reverse(nodePath);
         return nodePath;
     }
 
+    /**
+     * Returns the node of the tree rooted by {@code rootNode} whose ancestors, the root left out,
+     * have the same keys as the ones of {@code node} in its own tree, such as the same node in a
+     * newer version of the tree.
+     *
+     * @return the node, {@code rootNode} if {@code node} is a root, or {@code null} if there is
+     * no such node.
+     */
+    static Node findSameKeyPath(Node rootNode, Node node) {
+        if (rootNode == null || node == null) {
+            return null;
+        }
+        List<Node> path = getNodeSimplePath(node);
+        Node current = rootNode;
+        for (int level = 1, length = path.size(); level < length && current != null; level++) {
+            Node key = path.get(level);
+            List<Node> children = current.children;
+            current = null;
+            for (int i = 0, size = children == null ? 0 : children.size(); i < size; i++) {
+                if (children.get(i).equals(key)) {
+                    current = children.get(i);
+                    break;
+                }
+            }
+        }
+        return current;
+    }
+
     /**
      * Returns the degree of the tree. {@code null} or single node tree would be thought as zero degree.
      *
@@ -125,13 +488,8 @@ public class Node {
         if (!isBranchNode(rootNode)) {
             return 0;
         }
-        int degree = rootNode.children.size();
-        for (Node child : rootNode.children) {
-            if (!child.isLeaf()) {
-                degree = Math.max(degree, getTreeDegree(child));
-            }
-        }
-        return degree;
+        rootNode.ensureMetrics();
+        return rootNode.subtreeDegree;
     }
 
     /**
@@ -141,26 +499,118 @@ public class Node {
      * @return the tree's depth.
      */
     public static int getTreeDepth(Node rootNode) {
-        depth = 0;
         if (rootNode == null) {
             return 0;
         }
-        dfs(rootNode, 1);
-        return depth;
+        rootNode.ensureMetrics();
+        return rootNode.subtreeDepth;
     }
 
-    private static int depth;
+    /**
+     * Returns the count of leaf nodes of the tree. A single node tree has one leaf node.
+     *
+     * @param rootNode the root of the tree.
+     * @return the count of leaf nodes, or zero if the tree is {@code null}.
+     */
+    public static int getTreeLeafCount(Node rootNode) {
+        if (rootNode == null) {
+            return 0;
+        }
+        rootNode.ensureMetrics();
+        return rootNode.leafCount;
+    }
 
-    private static void dfs(Node node, int deep) {
-        if (node.children.size() == 0) {
-            depth = Math.max(depth, deep);
-        } else {
-            for (Node childNode : node.children) {
-                dfs(childNode, deep + 1);
-            }
+    /**
+     * Computes the cached metrics of the subtree rooted by this node, if they are invalid.
+     */
+    private void ensureMetrics() {
+        if (!metricsValid) {
+            // A valid node has valid descendants, so only the invalid subtrees are walked.
+            TreeWalker.obtain().depthFirst(this, SKIP_VALID_METRICS, COMPUTE_METRICS);
+        }
+    }
+
+    private static final TreeWalker.Visitor SKIP_VALID_METRICS = new TreeWalker.Visitor() {
+        @Override
+        public int visit(Node node) {
+            return node.metricsValid ? TreeWalker.SKIP_SUBTREE : TreeWalker.CONTINUE;
+        }
+    };
+
+    private static final TreeWalker.Visitor COMPUTE_METRICS = new TreeWalker.Visitor() {
+        @Override
+        public int visit(Node node) {
+            node.computeMetrics();
+            return TreeWalker.CONTINUE;
+        }
+    };
+
+    /**
+     * Computes the metrics of this node from the ones of its children, which must be valid.
+     */
+    private void computeMetrics() {
+        int size = children == null ? 0 : children.size();
+        // Levels not loaded yet are counted as declared by the provider.
+        int maxDepth = hasMoreChildren() ? Math.max(1, childProvider.getSubtreeDepth(this) - 1) : 0;
+        int maxDegree = size;
+        int leaves = isLeaf() ? 1 : 0;
+        for (int i = 0; i < size; i++) {
+            Node child = children.get(i);
+            maxDepth = Math.max(maxDepth, child.subtreeDepth);
+            maxDegree = Math.max(maxDegree, child.subtreeDegree);
+            leaves += child.leafCount;
+        }
+        subtreeDepth = maxDepth + 1;
+        subtreeDegree = maxDegree;
+        leafCount = leaves;
+        metricsValid = true;
+    }
+
+    boolean isMetricsValid() {
+        return metricsValid;
+    }
+
+    /**
+     * Returns the cached depth of the subtree rooted by this node, only meaningful if the metrics
+     * are valid.
+     */
+    int getCachedSubtreeDepth() {
+        return subtreeDepth;
+    }
+
+    /**
+     * Invalidates the cached metrics of this node and all its ancestors.
+     */
+    private void invalidateMetrics() {
+        Node node = this;
+        // An invalid node never has valid ancestors, so stop at the first one.
+        while (node != null && node.metricsValid) {
+            node.metricsValid = false;
+            node = node.parent;
         }
     }
 
+    /**
+     * Invalidates the cached level of this node and all its descendants.
+     */
+    private void invalidateLevels() {
+        if (levelValid) {
+            TreeWalker.obtain().preOrder(this, INVALIDATE_LEVEL);
+        }
+    }
+
+    private static final TreeWalker.Visitor INVALIDATE_LEVEL = new TreeWalker.Visitor() {
+        @Override
+        public int visit(Node node) {
+            // An invalid node never has valid descendants, so stop at the first one.
+            if (!node.levelValid) {
+                return TreeWalker.SKIP_SUBTREE;
+            }
+            node.levelValid = false;
+            return TreeWalker.CONTINUE;
+        }
+    };
+
     /**
      * Searches the checked leaf node from the tree.
      *
@@ -169,12 +619,62 @@ public class Node {
      * if all the leaf nodes in the tree are unchecked.
      */
     public static Node findCheckedLeafPreOrder(Node rootNode) {
-        return iterativePreOrder(rootNode, new DataAction() {
-            @Override
-            public Node action(Node node) {
-                return (node.isLeaf() && node.isChecked()) ? node : null;
+        if (rootNode == null) {
+            return null;
+        }
+        if (!rootNode.isRoot()) {
+            return TreeWalker.obtain().preOrder(rootNode, FIND_CHECKED_LEAF);
+        }
+        if (!rootNode.checkedPathTracked) {
+            resolveCheckedPath(rootNode);
+        }
+        return rootNode.checkedLeaf;
+    }
+
+    /**
+     * Searches the checked leaf node of the whole tree, and starts tracking the checked path if
+     * the checked nodes of the tree form exactly the path from the root to that leaf.
+     *
+     * @param rootNode the root of the tree.
+     */
+    private static void resolveCheckedPath(final Node rootNode) {
+        CheckedNodeCounter counter = new CheckedNodeCounter();
+        TreeWalker.obtain().preOrder(rootNode, counter);
+        Node firstCheckedLeaf = counter.firstCheckedLeaf;
+        int pathCount = 0;
+        for (Node node = firstCheckedLeaf; node != null && node.checked; node = node.parent) {
+            pathCount++;
+        }
+        boolean consistent = firstCheckedLeaf == null ? counter.checkedCount == 0
+                : (pathCount == counter.checkedCount && getRoot(firstCheckedLeaf) == rootNode);
+        rootNode.checkedLeaf = firstCheckedLeaf;
+        rootNode.checkedPathTracked = consistent;
+    }
+
+    private static final TreeWalker.Visitor FIND_CHECKED_LEAF = new TreeWalker.Visitor() {
+        @Override
+        public int visit(Node node) {
+            return (node.isLeaf() && node.isChecked()) ? TreeWalker.TERMINATE : TreeWalker.CONTINUE;
+        }
+    };
+
+    /**
+     * Counts the checked nodes, and finds the first checked leaf in preorder.
+     */
+    private static final class CheckedNodeCounter implements TreeWalker.Visitor {
+        int checkedCount;
+        Node firstCheckedLeaf;
+
+        @Override
+        public int visit(Node node) {
+            if (node.checked) {
+                checkedCount++;
+                if (firstCheckedLeaf == null && node.isLeaf()) {
+                    firstCheckedLeaf = node;
+                }
             }
-        });
+            return TreeWalker.CONTINUE;
+        }
     }
 
     /**
@@ -183,14 +683,31 @@ public class Node {
      * @param rootNode the root of the tree.
      */
     public static void setAllNodeUnchecked(Node rootNode) {
-        iterativePreOrder(rootNode, new Action() {
-            @Override
-            public void action(Node node) {
-                node.checked = false;
-            }
-        });
+        if (rootNode == null) {
+            return;
+        }
+        if (rootNode.isRoot() && rootNode.checkedPathTracked) {
+            // Only the nodes on the checked path are in checked state.
+            setPathChecked(rootNode.checkedLeaf, false);
+        } else {
+            TreeWalker.obtain().preOrder(rootNode, UNCHECK);
+        }
+        if (rootNode.isRoot()) {
+            rootNode.checkedLeaf = null;
+            rootNode.checkedPathTracked = true;
+        } else {
+            getRoot(rootNode).invalidateCheckedPath();
+        }
     }
 
+    private static final TreeWalker.Visitor UNCHECK = new TreeWalker.Visitor() {
+        @Override
+        public int visit(Node node) {
+            node.checked = false;
+            return TreeWalker.CONTINUE;
+        }
+    };
+
     /**
      * Checks that if the tree contains the specified node element.
      *
@@ -203,14 +720,41 @@ public class Node {
         if (rootNode == null || targetNode == null) {
             return null;
         }
-        return iterativePreOrder(rootNode, new DataAction() {
+        if (rootNode.isRoot()) {
+            return rootNode.getNodeIndex().find(targetNode);
+        }
+        // The index covers the whole tree, fallback to traversal for searching within a subtree.
+        return TreeWalker.obtain().preOrder(rootNode, new TreeWalker.Visitor() {
             @Override
-            public Node action(Node node) {
-                return node.equals(targetNode) ? node : null;
+            public int visit(Node node) {
+                return node.equals(targetNode) ? TreeWalker.TERMINATE : TreeWalker.CONTINUE;
             }
         });
     }
 
+    /**
+     * Searches the leaf nodes of the tree whose name contains the specified text, ignoring the
+     * case. The search index of the tree is built on the first search, then kept in sync with
+     * the changes of the tree, so that a query costs about the count of the candidate names
+     * rather than the size of the tree. Children not loaded from their provider are not searched.
+     *
+     * @param rootNode the root of the tree, or any node of it.
+     * @param query    the searched text, leading and trailing spaces are ignored.
+     * @param maxCount the maximum count of returned leaves.
+     * @return the matching leaves, in preorder for the nodes held when the index was built and
+     * in insertion order for the later ones. Empty for an empty query.
+     */
+    public static List<Node> searchLeaves(Node rootNode, String query, int maxCount) {
+        if (rootNode == null) {
+            return new ArrayList<>(0);
+        }
+        Node realRootNode = getRoot(rootNode);
+        if (realRootNode.searchIndex == null) {
+            realRootNode.searchIndex = NodeSearchIndex.build(realRootNode);
+        }
+        return realRootNode.searchIndex.searchLeaves(query, maxCount);
+    }
+
     /**
      * Sets the specified note to be checked state, including all its parent nodes. And
      * uncheck all the others.
@@ -238,7 +782,7 @@ public class Node {
      * @return returns <tt>true</tt> if the operation succeeds, or <tt>false</tt> if the param
      * {@code leafNode} is not a leaf node or it is not a node element of the tree {@code rootNode}.
      */
-    private static boolean setSingleLeafNodeChecked(Node rootNode, Node leafNode, boolean includeCheckRequired) {
+    static boolean setSingleLeafNodeChecked(Node rootNode, Node leafNode, boolean includeCheckRequired) {
         if (leafNode == null || !(leafNode.isLeaf())) {
             return false;
         }
@@ -253,12 +797,47 @@ public class Node {
             }
         }
         setAllNodeUnchecked(rootNode);
-        Node node = nodeElement;
+        setPathChecked(nodeElement, true);
+        Node realRootNode = getRoot(nodeElement);
+        if (rootNode.isRoot() && realRootNode == rootNode && nodeElement.isLeaf()) {
+            rootNode.checkedLeaf = nodeElement;
+            rootNode.checkedPathTracked = true;
+        } else {
+            realRootNode.invalidateCheckedPath();
+        }
+        return true;
+    }
+
+    /**
+     * Sets the checked state of the specified node and all its ancestors.
+     */
+    private static void setPathChecked(Node node, boolean checked) {
         while (node != null) {
-            node.checked = true;
+            node.checked = checked;
             node = node.parent;
         }
-        return true;
+    }
+
+    /**
+     * Returns <tt>true</tt> if {@code node} is {@code ancestor} itself or one of its descendants.
+     */
+    private static boolean isAncestorOrSelf(Node ancestor, Node node) {
+        while (node != null) {
+            if (node == ancestor) {
+                return true;
+            }
+            node = node.parent;
+        }
+        return false;
+    }
+
+    /**
+     * Stops tracking the checked path of the tree rooted by this node, it would be resolved
+     * again by traversal on next access.
+     */
+    private void invalidateCheckedPath() {
+        checkedLeaf = null;
+        checkedPathTracked = false;
     }
 
     /**
@@ -268,14 +847,16 @@ public class Node {
         if (isLeaf()) {
             return this;
         }
-        return iterativePreOrder(this, new DataAction() {
-            @Override
-            public Node action(Node node) {
-                return node.isLeaf() ? node : null;
-            }
-        });
+        return TreeWalker.obtain().preOrder(this, FIND_LEAF);
     }
 
+    private static final TreeWalker.Visitor FIND_LEAF = new TreeWalker.Visitor() {
+        @Override
+        public int visit(Node node) {
+            return node.isLeaf() ? TreeWalker.TERMINATE : TreeWalker.CONTINUE;
+        }
+    };
+
     /**
      * Returns the checked leaf node of the tree. If no such node found, the first leaf node
      * of the tree and all its parents would be set to be checked.
@@ -298,84 +879,69 @@ public class Node {
     }
 
     /**
-     * Preorder traversal the tree and performs the given action for each node element.
+     * Formats the tree.
      *
      * @param rootNode the root of the tree.
-     * @param action   the action to apply to every node when traversing. Without return value.
      */
-    private static void iterativePreOrder(final Node rootNode, Action action) {
-        if (rootNode == null || action == null) {
+    public static void formatTree(final Node rootNode) {
+        if (rootNode == null || rootNode.formatted) {
             return;
         }
-        Stack<Node> nodeStack = new Stack<>();
-        nodeStack.push(rootNode);
-        while (!nodeStack.isEmpty()) {
-            Node item = nodeStack.pop();
-            action.action(item);
-            // right child is pushed first so that left is processed first
-            for (int i = item.children.size() - 1; i >= 0; i--) {
-                nodeStack.push(item.children.get(i));
-            }
-        }
+        // Parent pointers and children may be changed without notice (e.g. filled by Gson),
+        // the indexes and the checked path would be rebuilt on next lookup.
+        rootNode.nodeIndex = null;
+        rootNode.searchIndex = null;
+        rootNode.invalidateCheckedPath();
+        rootNode.invalidateMetrics();
+        // Only the strings of this tree are shared, so the pool needs no other lifetime.
+        TreeWalker.obtain().preOrder(rootNode, new FormatChildren(new StringPool()));
     }
 
     /**
-     * Returns the node which matches the rule defined int action.
-     *
-     * @param rootNode the root of the tree.
-     * @param action   the action to apply to every node for filtering.
-     * @return the node matches the rule defined in action.
+     * Links the children of a node to it and resets their caches. Subtrees formatted already
+     * are left out, but the root of the walk is never formatted already.
      */
-    private static Node iterativePreOrder(final Node rootNode, DataAction action) {
-        if (rootNode == null || action == null) {
-            return null;
+    private static final class FormatChildren implements TreeWalker.Visitor {
+
+        private final StringPool stringPool;
+
+        FormatChildren(StringPool stringPool) {
+            this.stringPool = stringPool;
         }
-        Stack<Node> nodeStack = new Stack<>();
-        nodeStack.push(rootNode);
-        while (!nodeStack.isEmpty()) {
-            Node item = nodeStack.pop();
-            Node node = action.action(item);
-            if (node != null) {
-                return node;
+
+        @Override
+        public int visit(Node node) {
+            if (node.formatted) {
+                return TreeWalker.SKIP_SUBTREE;
             }
-            // right child is pushed first so that left is processed first
-            for (int i = item.children.size() - 1; i >= 0; i--) {
-                nodeStack.push(item.children.get(i));
+            // Filled by Gson, every node holds its own copy of the repeated strings.
+            node.showName = stringPool.intern(node.showName);
+            node.value = stringPool.intern(node.value);
+            List<Node> children = node.children;
+            if (children == null || children.size() == 0) {
+                return TreeWalker.CONTINUE;
             }
-        }
-        return null;
-    }
-
-    /**
-     * Formats the tree.
-     *
-     * @param rootNode the root of the tree.
-     */
-    public static void formatTree(final Node rootNode) {
-        if (rootNode == null) {
-            return;
-        }
-        List<Node> children = rootNode.getChildren();
-        if (children == null || children.size() == 0) {
-            return;
-        }
-        for (Node node : children) {
-            node.parent = rootNode;
-            if (node.children == null) {
-                node.children = EMPTY_NODE_CHILD;
-            } else if (node.children.size() > 0) {
-                formatTree(node);
+            for (int i = 0, size = children.size(); i < size; i++) {
+                Node child = children.get(i);
+                child.parent = node;
+                if (child.formatted) {
+                    // Left out by the walk, so its descendants are reset here.
+                    child.invalidateLevels();
+                } else {
+                    child.levelValid = false;
+                }
+                child.metricsValid = false;
+                child.nodeIndex = null;
+                child.searchIndex = null;
+                child.invalidateCheckedPath();
+                if (child.children == null) {
+                    child.children = EMPTY_NODE_CHILD;
+                }
             }
+            node.formatted = true;
+            return TreeWalker.CONTINUE;
         }
     }
-
-    private interface Action {
-        void action(Node node);
-    }
-
-    private interface DataAction {
-        Node action(Node node);
-    }
     //endregion
 
     //region equals & hashcode & clone & toString, all based on the showName and value field.
@@ -387,6 +953,8 @@ public class Node {
             return false;
 
         Node node = (Node) o;
+        if (hash != 0 && node.hash != 0 && hash != node.hash)
+            return false;
         if (!showName.equals(node.showName))
             return false;
         return value != null ? value.equals(node.value) : node.value == null;
@@ -394,8 +962,12 @@ public class Node {
 
     @Override
     public int hashCode() {
-        int result = showName.hashCode();
-        result = 31 * result + (value != null ? value.hashCode() : 0);
+        int result = hash;
+        if (result == 0) {
+            result = showName.hashCode();
+            result = 31 * result + (value != null ? value.hashCode() : 0);
+            hash = result;
+        }
         return result;
     }
 
@@ -417,7 +989,31 @@ public class Node {
     }
 
     public void setShowName(String showName) {
+        Node rootNode = getRoot(this);
+        NodeIndex index = rootNode.nodeIndex;
+        if (index != null) {
+            index.remove(this);
+        }
+        NodeSearchIndex searchIndex = rootNode.searchIndex;
+        if (searchIndex != null) {
+            searchIndex.remove(this);
+        }
+        ChildList siblings = parent != null && parent.children instanceof ChildList
+                ? (ChildList) parent.children : null;
+        if (siblings != null) {
+            siblings.onKeyChanging(this);
+        }
         this.showName = showName;
+        this.hash = 0;
+        if (index != null) {
+            index.add(this);
+        }
+        if (searchIndex != null) {
+            searchIndex.add(this);
+        }
+        if (siblings != null) {
+            siblings.onKeyChanged(this);
+        }
     }
 
     public String getValue() {
@@ -425,7 +1021,23 @@ public class Node {
     }
 
     public void setValue(String value) {
+        NodeIndex index = getRoot(this).nodeIndex;
+        if (index != null) {
+            index.remove(this);
+        }
+        ChildList siblings = parent != null && parent.children instanceof ChildList
+                ? (ChildList) parent.children : null;
+        if (siblings != null) {
+            siblings.onKeyChanging(this);
+        }
         this.value = value;
+        this.hash = 0;
+        if (index != null) {
+            index.add(this);
+        }
+        if (siblings != null) {
+            siblings.onKeyChanged(this);
+        }
     }
 
     public Object getTag() {
@@ -441,7 +1053,10 @@ public class Node {
     }
 
     public void setParent(Node parent) {
+        getRoot(this).invalidateCheckedPath();
         this.parent = parent;
+        invalidateLevels();
+        getRoot(this).invalidateCheckedPath();
     }
 
     public List<Node> getChildren() {
@@ -452,6 +1067,115 @@ public class Node {
         return checked;
     }
 
+    //region Loader support
+
+    /**
+     * Appends a page of children loaded from the child provider.
+     *
+     * @param page the loaded children.
+     * @param last whether it is the last page of the children.
+     */
+    void appendChildPage(List<Node> page, boolean last) {
+        addChildren(page);
+        if (last) {
+            allChildrenLoaded = true;
+            invalidateMetrics();
+        }
+    }
+
+    /**
+     * Drops all the children loaded from the child provider, so that they would be loaded again
+     * on demand.
+     */
+    void unloadChildren() {
+        if (childProvider == null || children == null || children.isEmpty()) {
+            allChildrenLoaded = false;
+            invalidateMetrics();
+            return;
+        }
+        removeChildren(new ArrayList<>(children));
+        allChildrenLoaded = false;
+        invalidateMetrics();
+    }
+
+    /**
+     * Completes a node read by a tree loader, linking the children already read. The children are
+     * not checked for duplicates, so that the result is the same as the one of Gson and
+     * {@link #formatTree(Node)}.
+     *
+     * @param loadedChildren the children, with their metrics computed. Owned by the node afterwards.
+     * @param checked        the checked state read.
+     */
+    void finishLoading(List<Node> loadedChildren, boolean checked) {
+        this.checked = checked;
+        if (loadedChildren == null || loadedChildren.isEmpty()) {
+            children = EMPTY_NODE_CHILD;
+        } else {
+            children = loadedChildren;
+            for (int i = 0, size = loadedChildren.size(); i < size; i++) {
+                loadedChildren.get(i).parent = this;
+            }
+        }
+        // Metrics of the children are already computed, so this only costs O(degree).
+        computeMetrics();
+        formatted = true;
+    }
+
+    //endregion
+
+    /**
+     * Returns the backing children list without wrapping, for internal read-only access.
+     */
+    List<Node> getChildList() {
+        return children;
+    }
+
+    int getSearchSlot() {
+        return searchSlot;
+    }
+
+    void setSearchSlot(int searchSlot) {
+        this.searchSlot = searchSlot;
+    }
+
+    /**
+     * Returns the index of the tree rooted by this node, building it if not exist.
+     */
+    NodeIndex getNodeIndex() {
+        if (nodeIndex == null) {
+            nodeIndex = NodeIndex.build(this);
+        }
+        return nodeIndex;
+    }
+
+    /**
+     * Replaces the strings of the node by the equal ones they are mapped to, such as the ones of
+     * another {@link StringPool}. The keys of the node are unchanged, so no index is updated.
+     */
+    void replaceStrings(Map<String, String> replacements) {
+        String string = replacements.get(showName);
+        if (string != null) {
+            showName = string;
+        }
+        string = replacements.get(value);
+        if (string != null) {
+            value = string;
+        }
+        string = tag instanceof String ? replacements.get(tag) : null;
+        if (string != null) {
+            tag = string;
+        }
+    }
+
+    /**
+     * Sets the indexes of the tree rooted by this node, built apart from it, such as by a
+     * {@link ParallelTreeLoader}.
+     */
+    void setIndexes(NodeIndex nodeIndex, NodeSearchIndex searchIndex) {
+        this.nodeIndex = nodeIndex;
+        this.searchIndex = searchIndex;
+    }
+
     //endregion
 
 }
@@ -0,0 +1,247 @@
+package com.example.x.compoundselector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hash index over all the node elements of one tree, keyed on the {@code showName}/{@code value}
+ * pair used by {@link Node#equals(Object)}. It is owned by the root node of the tree and kept in
+ * sync by {@link Node#addChild(Node)}, {@link Node#removeChild(Node)} and {@link Node#formatTree(Node)}.
+ * <p>A tree may contain several nodes equal to each other (e.g. an "All" item under every branch),
+ * so every key maps to all of them, kept in preorder, and lookups return the first one, just as a
+ * preorder traversal would do. Nodes added by a build come in preorder and are appended, the
+ * other ones are inserted at their place. Reordering the children of a node may break the order,
+ * so the index is then dropped, see {@link Node#rearrangeChildren(List)}.</p>
+ */
+final class NodeIndex {
+
+    /**
+     * Maps the key to a single {@link Node}, or to a {@link List} of nodes equal to each other.
+     * A node is only used as a key while it is indexed, so renaming an indexed node (which is
+     * done by removing and re-adding it) never corrupts the map.
+     */
+    private final Map<Node, Object> entries;
+
+    private final TreeWalker.Visitor addVisitor = new TreeWalker.Visitor() {
+        @Override
+        public int visit(Node node) {
+            add(node);
+            return TreeWalker.CONTINUE;
+        }
+    };
+
+    /**
+     * Adds the nodes of a whole tree, visited in preorder, so after the nodes equal to them.
+     */
+    private final TreeWalker.Visitor appendVisitor = new TreeWalker.Visitor() {
+        @Override
+        public int visit(Node node) {
+            append(node);
+            return TreeWalker.CONTINUE;
+        }
+    };
+
+    private final TreeWalker.Visitor removeVisitor = new TreeWalker.Visitor() {
+        @Override
+        public int visit(Node node) {
+            remove(node);
+            return TreeWalker.CONTINUE;
+        }
+    };
+
+    private NodeIndex(int expectedSize) {
+        this.entries = new HashMap<>(Math.max(16, (int) (expectedSize / 0.75f) + 1));
+    }
+
+    /**
+     * Builds the index of the tree rooted by {@code rootNode}.
+     */
+    static NodeIndex build(Node rootNode) {
+        NodeIndex index = new NodeIndex(0);
+        TreeWalker.obtain().preOrder(rootNode, index.appendVisitor);
+        return index;
+    }
+
+    /**
+     * Adds the specified node and all its descendants into the index.
+     */
+    void addSubtree(Node node) {
+        TreeWalker.obtain().preOrder(node, addVisitor);
+    }
+
+    /**
+     * Removes the specified node and all its descendants from the index.
+     */
+    void removeSubtree(Node node) {
+        TreeWalker.obtain().preOrder(node, removeVisitor);
+    }
+
+    /**
+     * Adds the node at its place in preorder among the nodes equal to it.
+     */
+    @SuppressWarnings("unchecked")
+    void add(Node node) {
+        Object entry = entries.get(node);
+        if (entry == null) {
+            entries.put(node, node);
+            return;
+        }
+        List<Node> sameNodes;
+        if (entry instanceof Node) {
+            if (entry == node) {
+                return;
+            }
+            sameNodes = new ArrayList<>(2);
+            sameNodes.add((Node) entry);
+            entries.put(node, sameNodes);
+        } else {
+            sameNodes = (List<Node>) entry;
+        }
+        int size = sameNodes.size();
+        // Nodes are mostly added after the other ones, such as by appending children.
+        if (precedesPreOrder(sameNodes.get(size - 1), node)) {
+            sameNodes.add(node);
+            return;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (precedesPreOrder(sameNodes.get(middle), node)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (sameNodes.get(low) != node) {
+            sameNodes.add(low, node);
+        }
+    }
+
+    /**
+     * Adds the node after the nodes equal to it, which it must follow in preorder.
+     */
+    @SuppressWarnings("unchecked")
+    private void append(Node node) {
+        Object entry = entries.get(node);
+        if (entry == null) {
+            entries.put(node, node);
+        } else if (entry instanceof Node) {
+            List<Node> sameNodes = new ArrayList<>(2);
+            sameNodes.add((Node) entry);
+            sameNodes.add(node);
+            entries.put(node, sameNodes);
+        } else {
+            ((List<Node>) entry).add(node);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    void remove(Node node) {
+        Object entry = entries.get(node);
+        if (entry == null) {
+            return;
+        }
+        if (entry instanceof Node) {
+            if (entry == node) {
+                entries.remove(node);
+            }
+            return;
+        }
+        List<Node> sameNodes = (List<Node>) entry;
+        int pos = indexOfIdentity(sameNodes, node);
+        if (pos < 0) {
+            return;
+        }
+        sameNodes.remove(pos);
+        // Re-insert the entry, so that the key object is always one of the indexed nodes.
+        entries.remove(node);
+        entries.put(sameNodes.get(0), sameNodes.size() == 1 ? sameNodes.get(0) : sameNodes);
+    }
+
+    /**
+     * Returns <tt>true</tt> if the specified node element itself (not just an equal one) is indexed.
+     */
+    @SuppressWarnings("unchecked")
+    boolean contains(Node node) {
+        Object entry = entries.get(node);
+        if (entry instanceof Node) {
+            return entry == node;
+        }
+        return entry != null && indexOfIdentity((List<Node>) entry, node) >= 0;
+    }
+
+    /**
+     * Returns the first node in preorder which equals to the specified node, or {@code null} if
+     * no such node is indexed.
+     */
+    @SuppressWarnings("unchecked")
+    Node find(Node targetNode) {
+        Object entry = entries.get(targetNode);
+        if (entry == null || entry instanceof Node) {
+            return (Node) entry;
+        }
+        return ((List<Node>) entry).get(0);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static int indexOfIdentity(List<Node> nodes, Node node) {
+        for (int i = 0, size = nodes.size(); i < size; i++) {
+            if (nodes.get(i) == node) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the node {@code a} is visited before the node {@code b} by a
+     * preorder traversal of their tree. Costs the depth of the nodes, plus the scan of the
+     * children of their closest common ancestor up to the first of the two branches.
+     */
+    private static boolean precedesPreOrder(Node a, Node b) {
+        if (a == b) {
+            return false;
+        }
+        int levelA = a.getHeight();
+        int levelB = b.getHeight();
+        Node branchA = a;
+        Node branchB = b;
+        while (levelA > levelB) {
+            branchA = branchA.getParent();
+            levelA--;
+        }
+        while (levelB > levelA) {
+            branchB = branchB.getParent();
+            levelB--;
+        }
+        // One is the ancestor of the other, the ancestor is visited first.
+        if (branchA == branchB) {
+            return branchA == a;
+        }
+        while (branchA.getParent() != branchB.getParent()) {
+            branchA = branchA.getParent();
+            branchB = branchB.getParent();
+        }
+        if (branchA.getParent() == null) {
+            // Not in the same tree.
+            return false;
+        }
+        List<Node> siblings = branchA.getParent().getChildList();
+        for (int i = 0, size = siblings.size(); i < size; i++) {
+            Node sibling = siblings.get(i);
+            if (sibling == branchA) {
+                return true;
+            }
+            if (sibling == branchB) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
@@ -1,17 +1,8 @@
 package com.example.x.compoundselector;
 
 import android.content.Context;
-import android.graphics.Color;
-import android.graphics.drawable.ColorDrawable;
-import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.v4.content.ContextCompat;
-import android.view.LayoutInflater;
-import android.view.View;
-import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
-import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -20,66 +11,67 @@ import java.util.List;
  * Created by Richa on 07/09/2017.
  */
 
-public class NodeListAdapter extends ArrayAdapter<Node> {
+public class NodeListAdapter extends AbstractNodeListAdapter {
 
-    private final LayoutInflater mLayoutInflater;
-    private final Drawable markCheckedLeafDrawable;
-    private final Drawable markCheckedNonLeafDrawable;
-    private final Drawable placeHolderDrawable;
-
-    private final int listItemBgRes;
+    private final List<Node> nodes = new ArrayList<>();
+    private FacetCounts facetCounts;
+    private int groupIndex;
 
     public NodeListAdapter(@NonNull Context context, @NonNull List<Node> objects,
                            FilterView.ListLevelRes listLevelRes) {
-        super(context, 0, new ArrayList<>(objects));
-        this.mLayoutInflater = LayoutInflater.from(context);
-        this.listItemBgRes = listLevelRes.getListItemBg();
-
-        this.markCheckedLeafDrawable = ContextCompat.getDrawable(context, R.drawable.ic_checked_state_18dp);
-        int w = markCheckedLeafDrawable.getIntrinsicWidth();
-        int h = markCheckedLeafDrawable.getIntrinsicHeight();
-        markCheckedLeafDrawable.setBounds(0, 0, w, h);
-        this.placeHolderDrawable = new ColorDrawable(Color.TRANSPARENT);
-        placeHolderDrawable.setBounds(0, 0, w, h);
-        this.markCheckedNonLeafDrawable = ContextCompat.getDrawable(context, R.drawable.ic_done_all_18dp);
-        markCheckedNonLeafDrawable.setBounds(0, 0, w, h);
+        super(context, listLevelRes);
+        setNodes(objects, false, -1);
     }
 
-    @NonNull
-    @Override
-    public View getView(int position, @Nullable View convertView, @NonNull ViewGroup parent) {
-        View view;
-        ViewHolder viewHolder;
-        if (convertView != null) {
-            view = convertView;
-            viewHolder = (ViewHolder) view.getTag();
-        } else {
-            view = mLayoutInflater.inflate(R.layout.view_node_list_item, parent, false);
-            view.setBackgroundResource(listItemBgRes);
-            viewHolder = new ViewHolder();
-            viewHolder.tvName = (TextView) view.findViewById(R.id.tv_node_name);
-            viewHolder.tvNum = (TextView) view.findViewById(R.id.tv_node_num);
-            view.setTag(viewHolder);
+    /**
+     * Replaces the items, notifying only the items actually changed.
+     *
+     * @param nodes           the new items.
+     * @param loading         whether a loading row is shown after the items.
+     * @param checkedPosition the position of the activated item, or -1.
+     */
+    public void setNodes(@NonNull List<Node> nodes, boolean loading, int checkedPosition) {
+        this.nodes.clear();
+        this.nodes.addAll(nodes);
+        int count = nodes.size();
+        String[] showNames = new String[count];
+        String[] values = new String[count];
+        int[] states = new int[count];
+        for (int i = 0; i < count; i++) {
+            Node node = nodes.get(i);
+            showNames[i] = node.getShowName();
+            values[i] = node.getValue();
+            List<Node> children = node.getChildList();
+            states[i] = itemState(node.isChecked(), node.isLeaf(), node.hasMoreChildren(),
+                    children == null ? 0 : children.size());
+            int recordCount = facetCounts == null ? -1 : facetCounts.getCount(groupIndex, node);
+            if (recordCount >= 0) {
+                states[i] = withRecordCount(states[i], recordCount);
+            }
         }
+        swapItems(showNames, values, states, loading, checkedPosition);
+    }
 
-        final Node node = getItem(position);
-        viewHolder.tvName.setText(node.getShowName());
-
-        if (node.isLeaf()) {
-            viewHolder.tvNum.setVisibility(View.GONE);
-        } else {
-            viewHolder.tvNum.setVisibility(View.VISIBLE);
-            viewHolder.tvNum.setText(String.valueOf(node.getChildren().size()));
+    /**
+     * Shows the counts of records of the nodes of the specified group instead of their counts of
+     * children. Only the items whose count changed are bound again.
+     *
+     * @param facetCounts the counts, or {@code null} to show the counts of children again.
+     */
+    public void setFacetCounts(FacetCounts facetCounts, int groupIndex) {
+        if (this.facetCounts == facetCounts && this.groupIndex == groupIndex) {
+            return;
         }
-        Drawable drawable = !node.isChecked() ? placeHolderDrawable :
-                (node.isLeaf() ? markCheckedLeafDrawable : markCheckedNonLeafDrawable);
-        viewHolder.tvName.setCompoundDrawables(drawable, null, null, null);
-
-        return view;
+        this.facetCounts = facetCounts;
+        this.groupIndex = groupIndex;
+        setNodes(new ArrayList<>(nodes), isLoading(), getCheckedPosition());
     }
 
-    private static class ViewHolder {
-        TextView tvName;
-        TextView tvNum;
+    /**
+     * Returns the node at the specified position, or {@code null} for the loading row.
+     */
+    @Nullable
+    public Node getItem(int position) {
+        return position < nodes.size() ? nodes.get(position) : null;
     }
 }
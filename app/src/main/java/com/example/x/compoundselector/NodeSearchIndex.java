@@ -0,0 +1,292 @@
+package com.example.x.compoundselector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Substring index over the {@code showName} of all the nodes of one tree, for type-ahead search.
+ * It is owned by the root node of the tree and kept in sync by the structural operations of
+ * {@link Node}, just as {@link NodeIndex}.
+ * <p>Names are lower cased and split into the characters and the pairs of adjacent characters
+ * (bigrams) they contain. Every character and bigram maps to the ascending list of the slots of
+ * the nodes whose name contains it. A query only scans the shortest list among the ones of its
+ * bigrams (or of its character, for a single character query), verifying every candidate name,
+ * and stops once enough results are found.</p>
+ * <p>Slots are given in the order the nodes are added, which is preorder for the nodes indexed
+ * when the index is built. The slot of a removed node is left empty until the empty slots
+ * outnumber the used ones, then the slots are compacted.</p>
+ */
+final class NodeSearchIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Below this count of empty slots, compacting costs more than skipping them.
+     */
+    private static final int MIN_COMPACTED_SLOT_COUNT = 1024;
+
+    private Node[] nodes = new Node[INITIAL_CAPACITY];
+    /**
+     * The lower cased name of the node of every slot.
+     */
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int slotCount;
+    private int emptySlotCount;
+
+    private final Map<Integer, Postings> charPostings = new HashMap<>();
+    private final Map<Integer, Postings> bigramPostings = new HashMap<>();
+
+    private final TreeWalker.Visitor addVisitor = new TreeWalker.Visitor() {
+        @Override
+        public int visit(Node node) {
+            add(node);
+            return TreeWalker.CONTINUE;
+        }
+    };
+
+    private final TreeWalker.Visitor removeVisitor = new TreeWalker.Visitor() {
+        @Override
+        public int visit(Node node) {
+            remove(node);
+            return TreeWalker.CONTINUE;
+        }
+    };
+
+    NodeSearchIndex() {
+    }
+
+    /**
+     * Builds the index of the tree rooted by {@code rootNode}.
+     */
+    static NodeSearchIndex build(Node rootNode) {
+        NodeSearchIndex index = new NodeSearchIndex();
+        index.addSubtree(rootNode);
+        return index;
+    }
+
+    /**
+     * Adds the specified node and all its descendants into the index.
+     */
+    void addSubtree(Node node) {
+        TreeWalker.obtain().preOrder(node, addVisitor);
+    }
+
+    /**
+     * Removes the specified node and all its descendants from the index.
+     */
+    void removeSubtree(Node node) {
+        TreeWalker.obtain().preOrder(node, removeVisitor);
+    }
+
+    void add(Node node) {
+        if (indexOf(node) >= 0) {
+            return;
+        }
+        if (slotCount == nodes.length) {
+            int capacity = nodes.length * 2;
+            nodes = Arrays.copyOf(nodes, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        int slot = slotCount++;
+        String name = normalize(node.getShowName());
+        nodes[slot] = node;
+        names[slot] = name;
+        node.setSearchSlot(slot);
+        addPostings(slot, name);
+    }
+
+    void remove(Node node) {
+        int slot = indexOf(node);
+        if (slot < 0) {
+            return;
+        }
+        // The postings of the slot are skipped by the queries until the next compaction.
+        nodes[slot] = null;
+        names[slot] = null;
+        node.setSearchSlot(-1);
+        emptySlotCount++;
+        if (emptySlotCount >= MIN_COMPACTED_SLOT_COUNT && emptySlotCount > slotCount - emptySlotCount) {
+            compact();
+        }
+    }
+
+    /**
+     * Adds the nodes of the other index, which indexes other nodes than this one, after the ones
+     * of this index, keeping their order. The other index is left unusable.
+     */
+    void addAll(NodeSearchIndex other) {
+        int shift = slotCount;
+        int newSlotCount = slotCount + other.slotCount;
+        if (newSlotCount > nodes.length) {
+            int capacity = Math.max(nodes.length * 2, newSlotCount);
+            nodes = Arrays.copyOf(nodes, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+        System.arraycopy(other.nodes, 0, nodes, shift, other.slotCount);
+        System.arraycopy(other.names, 0, names, shift, other.slotCount);
+        for (int slot = shift; slot < newSlotCount; slot++) {
+            if (nodes[slot] != null) {
+                nodes[slot].setSearchSlot(slot);
+            }
+        }
+        slotCount = newSlotCount;
+        emptySlotCount += other.emptySlotCount;
+        addAllPostings(charPostings, other.charPostings, shift);
+        addAllPostings(bigramPostings, other.bigramPostings, shift);
+    }
+
+    /**
+     * Returns the leaf nodes whose name contains the query, ignoring the case, in slot order.
+     *
+     * @param query    the searched text.
+     * @param maxCount the maximum count of returned leaves.
+     */
+    List<Node> searchLeaves(String query, int maxCount) {
+        String text = normalize(query);
+        List<Node> results = new ArrayList<>(Math.min(maxCount, INITIAL_CAPACITY));
+        if (text.isEmpty() || maxCount <= 0) {
+            return results;
+        }
+        Postings candidates;
+        if (text.length() == 1) {
+            candidates = charPostings.get((int) text.charAt(0));
+        } else {
+            candidates = null;
+            for (int i = 1, length = text.length(); i < length; i++) {
+                Postings postings = bigramPostings.get(bigram(text.charAt(i - 1), text.charAt(i)));
+                if (postings == null) {
+                    return results;
+                }
+                if (candidates == null || postings.size < candidates.size) {
+                    candidates = postings;
+                }
+            }
+        }
+        if (candidates == null) {
+            return results;
+        }
+        int[] slots = candidates.slots;
+        for (int i = 0, size = candidates.size; i < size; i++) {
+            int slot = slots[i];
+            Node node = nodes[slot];
+            if (node != null && !node.isRoot() && node.isLeaf() && names[slot].contains(text)) {
+                results.add(node);
+                if (results.size() == maxCount) {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    int size() {
+        return slotCount - emptySlotCount;
+    }
+
+    private int indexOf(Node node) {
+        int slot = node.getSearchSlot();
+        return slot >= 0 && slot < slotCount && nodes[slot] == node ? slot : -1;
+    }
+
+    private void addPostings(int slot, String name) {
+        for (int i = 0, length = name.length(); i < length; i++) {
+            char c = name.charAt(i);
+            addPosting(charPostings, (int) c, slot);
+            if (i > 0) {
+                addPosting(bigramPostings, bigram(name.charAt(i - 1), c), slot);
+            }
+        }
+    }
+
+    private static void addPosting(Map<Integer, Postings> postingsMap, int key, int slot) {
+        Postings postings = postingsMap.get(key);
+        if (postings == null) {
+            postings = new Postings();
+            postingsMap.put(key, postings);
+        }
+        postings.add(slot);
+    }
+
+    private static void addAllPostings(Map<Integer, Postings> postingsMap, Map<Integer, Postings> otherMap,
+                                       int shift) {
+        for (Map.Entry<Integer, Postings> otherEntry : otherMap.entrySet()) {
+            Postings otherPostings = otherEntry.getValue();
+            Postings postings = postingsMap.get(otherEntry.getKey());
+            if (postings == null) {
+                // Shifted in place, the other index being left unusable.
+                for (int i = 0; i < otherPostings.size; i++) {
+                    otherPostings.slots[i] += shift;
+                }
+                postingsMap.put(otherEntry.getKey(), otherPostings);
+            } else {
+                postings.addAll(otherPostings, shift);
+            }
+        }
+    }
+
+    /**
+     * Gives the used slots new consecutive slots, keeping their order, and rebuilds the postings.
+     */
+    private void compact() {
+        charPostings.clear();
+        bigramPostings.clear();
+        int used = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            Node node = nodes[slot];
+            if (node == null) {
+                continue;
+            }
+            nodes[used] = node;
+            names[used] = names[slot];
+            node.setSearchSlot(used);
+            addPostings(used, names[used]);
+            used++;
+        }
+        Arrays.fill(nodes, used, slotCount, null);
+        Arrays.fill(names, used, slotCount, null);
+        slotCount = used;
+        emptySlotCount = 0;
+    }
+
+    private static int bigram(char first, char second) {
+        return (first << 16) | second;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The ascending slots of the nodes containing a character or a bigram, each slot once.
+     */
+    private static final class Postings {
+        int[] slots = new int[4];
+        int size;
+
+        void add(int slot) {
+            // Slots are added in ascending order, so a repeated bigram of a name is the last one.
+            if (size > 0 && slots[size - 1] == slot) {
+                return;
+            }
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        /**
+         * Appends the slots of the other postings, shifted after the ones of these postings.
+         */
+        void addAll(Postings other, int shift) {
+            if (size + other.size > slots.length) {
+                slots = Arrays.copyOf(slots, Math.max(slots.length * 2, size + other.size));
+            }
+            for (int i = 0; i < other.size; i++) {
+                slots[size++] = other.slots[i] + shift;
+            }
+        }
+    }
+}
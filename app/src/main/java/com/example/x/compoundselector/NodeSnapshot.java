@@ -0,0 +1,320 @@
+package com.example.x.compoundselector;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable copy of a {@link Node} tree, which any number of threads may read without locking
+ * while another one prepares the next version of the tree, such as a catalog refreshed by a
+ * background sync. A built snapshot never changes. Its fields are not final though, so it must be
+ * handed to the other threads through a safe publication, such as a {@link TreePublisher}.
+ * <p>New versions are made by a {@link Builder}, which copies only the nodes on the paths from the
+ * root to the changed nodes; every other subtree is shared with the former version. Nodes copied
+ * by a builder belong to it until {@link Builder#build()}, so that they are changed in place by
+ * its later operations rather than copied again.</p>
+ * <p>A snapshot holds the names, values, tags and structure of the tree, but not the checked
+ * state, which belongs to the {@link Node} trees shown by the views. Snapshots are compared by
+ * key, the name and value, as nodes are.</p>
+ */
+public final class NodeSnapshot {
+
+    private static final NodeSnapshot[] NO_CHILDREN = new NodeSnapshot[0];
+
+    private String showName;
+    private String value;
+    private Object tag;
+    /**
+     * Shared between versions, so only changed by the builder owning this node.
+     */
+    private NodeSnapshot[] children;
+    private int childCount;
+    /**
+     * The builder token this node belongs to, or {@code null} once published.
+     */
+    private Object owner;
+
+    private NodeSnapshot(String showName, String value, Object tag, NodeSnapshot[] children,
+                         int childCount, Object owner) {
+        this.showName = showName;
+        this.value = value;
+        this.tag = tag;
+        this.children = children;
+        this.childCount = childCount;
+        this.owner = owner;
+    }
+
+    /**
+     * Creates a leaf snapshot.
+     */
+    public static NodeSnapshot leaf(String showName, String value, Object tag) {
+        StringPool stringPool = StringPool.getDefault();
+        return new NodeSnapshot(stringPool.intern(showName), stringPool.intern(value), tag,
+                NO_CHILDREN, 0, null);
+    }
+
+    /**
+     * Copies the tree rooted by the specified node, as far as its children are loaded.
+     */
+    public static NodeSnapshot of(Node node) {
+        List<Node> nodeChildren = node.getChildList();
+        int count = nodeChildren == null ? 0 : nodeChildren.size();
+        NodeSnapshot[] snapshotChildren = count == 0 ? NO_CHILDREN : new NodeSnapshot[count];
+        for (int i = 0; i < count; i++) {
+            snapshotChildren[i] = of(nodeChildren.get(i));
+        }
+        return new NodeSnapshot(node.getShowName(), node.getValue(), node.getTag(), snapshotChildren,
+                count, null);
+    }
+
+    /**
+     * Builds a new formatted {@link Node} tree from this snapshot, all unchecked, to be owned by
+     * a single thread such as the main one.
+     */
+    public Node toNode() {
+        List<Node> nodeChildren = null;
+        if (childCount > 0) {
+            nodeChildren = new ArrayList<>(childCount);
+            for (int i = 0; i < childCount; i++) {
+                nodeChildren.add(children[i].toNode());
+            }
+        }
+        Node node = new Node(showName, value, tag);
+        node.finishLoading(nodeChildren, false);
+        return node;
+    }
+
+    public String getShowName() {
+        return showName;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public Object getTag() {
+        return tag;
+    }
+
+    public boolean isLeaf() {
+        return childCount == 0;
+    }
+
+    public int getChildCount() {
+        return childCount;
+    }
+
+    public NodeSnapshot getChild(int index) {
+        if (index < 0 || index >= childCount) {
+            throw new IndexOutOfBoundsException("index: " + index + ", count: " + childCount);
+        }
+        return children[index];
+    }
+
+    /**
+     * Returns a read-only view of the children.
+     */
+    public List<NodeSnapshot> getChildren() {
+        return new ChildrenView(children, childCount);
+    }
+
+    /**
+     * Returns the index of the first child with the specified key, or -1 if there is none.
+     */
+    public int indexOfChild(String showName, String value) {
+        for (int i = 0; i < childCount; i++) {
+            NodeSnapshot child = children[i];
+            if (child.showName.equals(showName)
+                    && (child.value != null ? child.value.equals(value) : value == null)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a builder of the next version of the tree rooted by this snapshot.
+     */
+    public Builder edit() {
+        return new Builder(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+
+        NodeSnapshot snapshot = (NodeSnapshot) o;
+        if (!showName.equals(snapshot.showName))
+            return false;
+        return value != null ? value.equals(snapshot.value) : snapshot.value == null;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = showName.hashCode();
+        result = 31 * result + (value != null ? value.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "NodeSnapshot{" + "showName='" + showName + '\'' + ", value='" + value + '\''
+                + ", childCount=" + childCount + '}';
+    }
+
+    /**
+     * Makes the next version of a tree. Nodes are addressed by their path of child indices from
+     * the root, the root itself being the empty path. A builder is not thread-safe, and is done
+     * once built.
+     */
+    public static final class Builder {
+
+        private NodeSnapshot root;
+        private Object token = new Object();
+
+        private Builder(NodeSnapshot root) {
+            this.root = root;
+        }
+
+        /**
+         * Appends the child to the node at the specified path.
+         */
+        public Builder addChild(int[] parentPath, NodeSnapshot child) {
+            NodeSnapshot parent = editPath(parentPath);
+            if (parent.childCount == parent.children.length) {
+                parent.children = Arrays.copyOf(parent.children, Math.max(4, parent.childCount * 2));
+            }
+            parent.children[parent.childCount++] = child;
+            return this;
+        }
+
+        /**
+         * Removes the child at the specified index from the node at the specified path.
+         */
+        public Builder removeChild(int[] parentPath, int index) {
+            NodeSnapshot parent = editPath(parentPath);
+            // Checks the index.
+            parent.getChild(index);
+            System.arraycopy(parent.children, index + 1, parent.children, index, parent.childCount - index - 1);
+            parent.children[--parent.childCount] = null;
+            return this;
+        }
+
+        /**
+         * Replaces the subtree at the specified path, which must not be the root.
+         */
+        public Builder replace(int[] path, NodeSnapshot node) {
+            if (path.length == 0) {
+                throw new IllegalArgumentException("The root cannot be replaced");
+            }
+            NodeSnapshot parent = editPath(Arrays.copyOf(path, path.length - 1));
+            int index = path[path.length - 1];
+            // Checks the index.
+            parent.getChild(index);
+            parent.children[index] = node;
+            return this;
+        }
+
+        /**
+         * Changes the key of the node at the specified path.
+         */
+        public Builder setKey(int[] path, String showName, String value) {
+            NodeSnapshot node = editPath(path);
+            StringPool stringPool = StringPool.getDefault();
+            node.showName = stringPool.intern(showName);
+            node.value = stringPool.intern(value);
+            return this;
+        }
+
+        public Builder setTag(int[] path, Object tag) {
+            editPath(path).tag = tag;
+            return this;
+        }
+
+        /**
+         * Returns the new version of the tree. The builder cannot be used afterwards.
+         */
+        public NodeSnapshot build() {
+            checkNotBuilt();
+            NodeSnapshot result = root;
+            release(result);
+            token = null;
+            return result;
+        }
+
+        /**
+         * Returns the node at the path, owned by this builder: the nodes of the path not owned yet
+         * are copied, and linked to their copied parent.
+         */
+        private NodeSnapshot editPath(int[] path) {
+            checkNotBuilt();
+            root = ownedCopy(root);
+            NodeSnapshot node = root;
+            for (int index : path) {
+                NodeSnapshot child = ownedCopy(node.getChild(index));
+                node.children[index] = child;
+                node = child;
+            }
+            return node;
+        }
+
+        private NodeSnapshot ownedCopy(NodeSnapshot node) {
+            if (node.owner == token) {
+                return node;
+            }
+            // The children array is shared by the former version, so it is copied as well.
+            NodeSnapshot[] children = node.childCount == 0 ? NO_CHILDREN
+                    : Arrays.copyOf(node.children, node.childCount);
+            return new NodeSnapshot(node.showName, node.value, node.tag, children, node.childCount, token);
+        }
+
+        /**
+         * Clears the owner of the nodes copied by this builder, all reachable from the root
+         * through owned nodes only.
+         */
+        private void release(NodeSnapshot node) {
+            if (node.owner != token) {
+                return;
+            }
+            node.owner = null;
+            for (int i = 0; i < node.childCount; i++) {
+                release(node.children[i]);
+            }
+        }
+
+        private void checkNotBuilt() {
+            if (token == null) {
+                throw new IllegalStateException("The builder is built already");
+            }
+        }
+    }
+
+    private static final class ChildrenView extends AbstractList<NodeSnapshot> implements RandomAccess {
+
+        private final NodeSnapshot[] children;
+        private final int size;
+
+        ChildrenView(NodeSnapshot[] children, int size) {
+            this.children = children;
+            this.size = size;
+        }
+
+        @Override
+        public NodeSnapshot get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+            }
+            return children[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package com.example.x.compoundselector;
+
+import android.support.annotation.RequiresApi;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loads very large trees from their JSON form, and builds their indexes, on the workers of a
+ * {@link ForkJoinPool}.
+ * <p>The top-level branches of the tree are split across the workers: each worker reads its
+ * branches with a {@link TreeLoader}, linking the parents and computing the metrics as it reads.
+ * The search index is built by branches the same way, while the node index is built whole by
+ * another worker. Branches and search indexes are merged in the order of the JSON, so that the
+ * tree and its indexes are the same as the ones of a single-threaded load, whatever the count of
+ * workers. A tree whose top level cannot be split is loaded by a single {@link TreeLoader}.</p>
+ * <p>The workers share the strings through a strong {@link StringPool}, which pools them without
+ * locking. A weak pool, such as the default one, locks every string, so the workers share the
+ * strings of a load through a strong pool of their own instead, pooled into the weak one once
+ * they are done.</p>
+ * <p>Meant for the JVM catalog tooling and for multi-core devices. {@link ForkJoinPool} is
+ * available from API 21 only, so on older devices trees are loaded by a {@link TreeLoader}.</p>
+ */
+@RequiresApi(21)
+public final class ParallelTreeLoader {
+
+    /**
+     * Below this count of characters, the branches are read by a single worker.
+     */
+    private static final int MIN_GRAIN = 1 << 16;
+    /**
+     * Split into this count of tasks per worker, so that idle workers steal from busy ones.
+     */
+    private static final int TASKS_PER_WORKER = 8;
+
+    private final ForkJoinPool pool;
+    private final StringPool stringPool;
+
+    /**
+     * Creates a loader sharing the strings through the {@link StringPool#getDefault() default pool}.
+     * Being weak, the strings of every load are pooled into it by a single thread once the
+     * workers are done, so that a strong pool scales better for the largest trees.
+     *
+     * @param pool the workers, owned by the caller.
+     */
+    public ParallelTreeLoader(ForkJoinPool pool) {
+        this(pool, StringPool.getDefault());
+    }
+
+    /**
+     * @param pool       the workers, owned by the caller.
+     * @param stringPool the pool sharing the names, values and tags of the loaded trees.
+     */
+    public ParallelTreeLoader(ForkJoinPool pool, StringPool stringPool) {
+        this.pool = pool;
+        this.stringPool = stringPool;
+    }
+
+    /**
+     * Loads a tree from the JSON string, as {@link TreeLoader#load(Reader)} does.
+     *
+     * @throws JsonParseException if the JSON is malformed.
+     */
+    public Node load(String json) {
+        int[] bounds = TopLevelScanner.scan(json);
+        try {
+            if (bounds == null || bounds.length < 6) {
+                // Not worth splitting, or to be reported by the loader as malformed.
+                return new TreeLoader(stringPool).load(new StringReader(json));
+            }
+            StringPool workerPool = stringPool.isWeak() ? new StringPool() : stringPool;
+            // The root is read without its children, which are read by the workers.
+            int arrayStart = bounds[0];
+            int arrayEnd = bounds[1];
+            String rootJson = json.substring(0, arrayStart) + "null" + json.substring(arrayEnd);
+            Node rootNode = new TreeLoader(workerPool).load(new StringReader(rootJson));
+            Node[] children = new Node[bounds.length / 2 - 1];
+            int grain = Math.max(MIN_GRAIN, json.length() / (pool.getParallelism() * TASKS_PER_WORKER));
+            pool.invoke(new LoadTask(json, bounds, children, 0, children.length, grain, workerPool));
+            if (workerPool != stringPool) {
+                Map<String, String> replacements = stringPool.internAll(workerPool);
+                if (!replacements.isEmpty()) {
+                    // Strings pooled before by other trees.
+                    rootNode.replaceStrings(replacements);
+                    pool.invoke(new ReplaceTask(children, 0, children.length,
+                            Math.max(1, children.length / (pool.getParallelism() * TASKS_PER_WORKER)),
+                            replacements));
+                }
+            }
+            rootNode.finishLoading(new ArrayList<>(Arrays.asList(children)), rootNode.isChecked());
+            return rootNode;
+        } catch (IOException e) {
+            throw new JsonParseException(e);
+        }
+    }
+
+    /**
+     * Loads a tree from the JSON string and builds its indexes.
+     *
+     * @throws JsonParseException if the JSON is malformed.
+     * @see #buildIndexes(Node)
+     */
+    public Node loadIndexed(String json) {
+        Node rootNode = load(json);
+        if (rootNode != null) {
+            buildIndexes(rootNode);
+        }
+        return rootNode;
+    }
+
+    /**
+     * Builds the indexes used by {@link Node#findNode(Node, Node)} and
+     * {@link Node#searchLeaves(Node, String, int)}, which would otherwise be built by the first
+     * lookup. The tree must not be changed meanwhile.
+     *
+     * @param rootNode the root of a formatted tree.
+     */
+    public void buildIndexes(Node rootNode) {
+        IndexTask task = new IndexTask(rootNode, pool.getParallelism());
+        pool.invoke(task);
+        rootNode.setIndexes(task.nodeIndex, task.searchIndex.searchIndex);
+    }
+
+    /**
+     * Reads a range of top-level branches, splitting it while it is longer than the grain.
+     */
+    private static final class LoadTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String json;
+        private final int[] bounds;
+        private final Node[] children;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final StringPool stringPool;
+
+        LoadTask(String json, int[] bounds, Node[] children, int from, int to, int grain,
+                 StringPool stringPool) {
+            this.json = json;
+            this.bounds = bounds;
+            this.children = children;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.stringPool = stringPool;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && end(to - 1) - start(from) > grain) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LoadTask(json, bounds, children, from, middle, grain, stringPool),
+                        new LoadTask(json, bounds, children, middle, to, grain, stringPool));
+                return;
+            }
+            TreeLoader loader = new TreeLoader(stringPool);
+            try {
+                for (int i = from; i < to; i++) {
+                    children[i] = loader.load(new JsonReader(new StringRangeReader(json, start(i), end(i))));
+                }
+            } catch (IOException e) {
+                throw new JsonParseException(e);
+            }
+        }
+
+        private int start(int child) {
+            return bounds[2 + 2 * child];
+        }
+
+        private int end(int child) {
+            return bounds[3 + 2 * child];
+        }
+    }
+
+    /**
+     * Replaces the strings of a range of top-level branches by the ones of the pool of the loader.
+     */
+    private static final class ReplaceTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node[] children;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final Map<String, String> replacements;
+
+        ReplaceTask(Node[] children, int from, int to, int grain, Map<String, String> replacements) {
+            this.children = children;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.replacements = replacements;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ReplaceTask(children, from, middle, grain, replacements),
+                        new ReplaceTask(children, middle, to, grain, replacements));
+                return;
+            }
+            TreeWalker.Visitor visitor = new TreeWalker.Visitor() {
+                @Override
+                public int visit(Node node) {
+                    node.replaceStrings(replacements);
+                    return TreeWalker.CONTINUE;
+                }
+            };
+            for (int i = from; i < to; i++) {
+                TreeWalker.obtain().preOrder(children[i], visitor);
+            }
+        }
+    }
+
+    /**
+     * Builds the indexes of a tree. The {@link NodeIndex} is built whole by one worker, merging
+     * hash maps costing about as much as filling them, while the {@link NodeSearchIndex}, several
+     * times longer to build and cheap to merge, is built by the others, by branches.
+     */
+    private static final class IndexTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node rootNode;
+        private final int parallelism;
+        NodeIndex nodeIndex;
+        SearchIndexTask searchIndex;
+
+        IndexTask(Node rootNode, int parallelism) {
+            this.rootNode = rootNode;
+            this.parallelism = parallelism;
+        }
+
+        @Override
+        protected void compute() {
+            List<Node> children = rootNode.getChildList();
+            int size = children == null ? 0 : children.size();
+            int grain = Math.max(1, size / (parallelism * TASKS_PER_WORKER));
+            searchIndex = new SearchIndexTask(rootNode, children, 0, size, grain);
+            if (parallelism == 1) {
+                searchIndex.invoke();
+                nodeIndex = NodeIndex.build(rootNode);
+                return;
+            }
+            searchIndex.fork();
+            nodeIndex = NodeIndex.build(rootNode);
+            searchIndex.join();
+        }
+    }
+
+    /**
+     * Builds the search index of a range of top-level branches, the root included for the first
+     * range, merging the indexes of its halves in order.
+     */
+    private static final class SearchIndexTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node rootNode;
+        private final List<Node> children;
+        private final int from;
+        private final int to;
+        private final int grain;
+        NodeSearchIndex searchIndex;
+
+        SearchIndexTask(Node rootNode, List<Node> children, int from, int to, int grain) {
+            this.rootNode = rootNode;
+            this.children = children;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                SearchIndexTask first = new SearchIndexTask(rootNode, children, from, middle, grain);
+                SearchIndexTask second = new SearchIndexTask(rootNode, children, middle, to, grain);
+                invokeAll(first, second);
+                first.searchIndex.addAll(second.searchIndex);
+                searchIndex = first.searchIndex;
+                return;
+            }
+            searchIndex = new NodeSearchIndex();
+            if (from == 0) {
+                // First in preorder.
+                searchIndex.add(rootNode);
+            }
+            for (int i = from; i < to; i++) {
+                searchIndex.addSubtree(children.get(i));
+            }
+        }
+    }
+
+    /**
+     * Finds the top-level branches in a JSON tree without reading them.
+     */
+    static final class TopLevelScanner {
+
+        private TopLevelScanner() {
+        }
+
+        /**
+         * Returns the bounds of the {@code children} array of the root object, then the bounds of
+         * every element of the array, as pairs of start and end offsets, or {@code null} if the
+         * JSON is not an object whose children are objects, such as a malformed one.
+         */
+        static int[] scan(String json) {
+            int[] bounds = null;
+            int i = skipWhitespace(json, 0);
+            if (i == json.length() || json.charAt(i) != '{') {
+                return null;
+            }
+            i = skipWhitespace(json, i + 1);
+            if (i < json.length() && json.charAt(i) == '}') {
+                return null;
+            }
+            while (i < json.length()) {
+                if (json.charAt(i) != '"') {
+                    return null;
+                }
+                int keyEnd = skipString(json, i);
+                if (keyEnd < 0) {
+                    return null;
+                }
+                boolean children = keyEnd - i == 10 && json.startsWith("children", i + 1);
+                i = skipWhitespace(json, keyEnd);
+                if (i == json.length() || json.charAt(i) != ':') {
+                    return null;
+                }
+                i = skipWhitespace(json, i + 1);
+                if (children && i < json.length() && json.charAt(i) == '[') {
+                    // The last one is the one read, as by the loader.
+                    bounds = scanArray(json, i);
+                    if (bounds == null) {
+                        return null;
+                    }
+                    i = bounds[1];
+                } else {
+                    i = skipValue(json, i);
+                    if (i < 0) {
+                        return null;
+                    }
+                }
+                i = skipWhitespace(json, i);
+                if (i == json.length()) {
+                    return null;
+                }
+                if (json.charAt(i) == '}') {
+                    return bounds;
+                }
+                if (json.charAt(i) != ',') {
+                    return null;
+                }
+                i = skipWhitespace(json, i + 1);
+            }
+            return null;
+        }
+
+        private static int[] scanArray(String json, int start) {
+            int[] bounds = new int[16];
+            int size = 2;
+            int i = skipWhitespace(json, start + 1);
+            if (i < json.length() && json.charAt(i) == ']') {
+                return new int[]{start, i + 1};
+            }
+            while (i < json.length()) {
+                if (json.charAt(i) != '{') {
+                    return null;
+                }
+                int end = skipValue(json, i);
+                if (end < 0) {
+                    return null;
+                }
+                if (size + 2 > bounds.length) {
+                    bounds = Arrays.copyOf(bounds, bounds.length * 2);
+                }
+                bounds[size++] = i;
+                bounds[size++] = end;
+                i = skipWhitespace(json, end);
+                if (i == json.length()) {
+                    return null;
+                }
+                if (json.charAt(i) == ']') {
+                    bounds[0] = start;
+                    bounds[1] = i + 1;
+                    return Arrays.copyOf(bounds, size);
+                }
+                if (json.charAt(i) != ',') {
+                    return null;
+                }
+                i = skipWhitespace(json, i + 1);
+            }
+            return null;
+        }
+
+        /**
+         * Returns the end of the value starting at the offset, or -1 if it does not end.
+         */
+        private static int skipValue(String json, int start) {
+            if (start == json.length()) {
+                return -1;
+            }
+            char c = json.charAt(start);
+            if (c == '"') {
+                return skipString(json, start);
+            }
+            if (c != '{' && c != '[') {
+                int i = start;
+                while (i < json.length() && ",}] \t\r\n".indexOf(json.charAt(i)) < 0) {
+                    i++;
+                }
+                return i;
+            }
+            int depth = 0;
+            for (int i = start, length = json.length(); i < length; i++) {
+                c = json.charAt(i);
+                if (c == '"') {
+                    i = skipString(json, i);
+                    if (i < 0) {
+                        return -1;
+                    }
+                    i--;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the end of the string starting at the offset, or -1 if it does not end.
+         */
+        private static int skipString(String json, int start) {
+            for (int i = start + 1, length = json.length(); i < length; i++) {
+                char c = json.charAt(i);
+                if (c == '\\') {
+                    i++;
+                } else if (c == '"') {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        private static int skipWhitespace(String json, int start) {
+            int i = start;
+            while (i < json.length() && " \t\r\n".indexOf(json.charAt(i)) >= 0) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Reads a range of a string, without copying it.
+     */
+    private static final class StringRangeReader extends Reader {
+
+        private final String string;
+        private int position;
+        private final int end;
+
+        StringRangeReader(String string, int start, int end) {
+            this.string = string;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position == end) {
+                return -1;
+            }
+            int count = Math.min(length, end - position);
+            string.getChars(position, position + count, buffer, offset);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
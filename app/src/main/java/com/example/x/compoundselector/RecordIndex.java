@@ -0,0 +1,594 @@
+package com.example.x.compoundselector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Filters a collection of records by the selections of the menu groups, so that the consumers of
+ * {@link FilterMenuBar} do not scan their records on every selection.
+ * <p>Every record is tagged with leaf values of the groups. Each distinct value of a group holds
+ * the {@link CompressedBitmap} of its records, and each branch of the trees the union of the
+ * bitmaps of the leaves below it. A selection is answered as the intersection of the bitmaps of
+ * the selected nodes of all the groups, chunk by chunk from the smallest bitmap, so that only the
+ * records of the selected nodes are read: see {@link Query}, whose ids are produced lazily, page
+ * by page.</p>
+ * <p>An index is made by a {@link Builder} for the trees shown by the groups. A built index is
+ * immutable, and its queries may run on any thread. Branches are found by the identity of their
+ * nodes, or else by the keys of their path, so that the trees updated in place by
+ * {@link FilterMenuBar#updateMenuTree(int, Node)} still find theirs. The records of every node
+ * are also counted against the selections by a {@link FacetCounter} made of the index.</p>
+ */
+public final class RecordIndex {
+
+    private final Group[] groups;
+    private final int recordCount;
+
+    private RecordIndex(Group[] groups, int recordCount) {
+        this.groups = groups;
+        this.recordCount = recordCount;
+    }
+
+    public int getGroupCount() {
+        return groups.length;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns the records matching the selected nodes of all the groups, such as the checked
+     * leaves of the groups. To be called on the thread owning the trees, since the nodes are read.
+     *
+     * @param selectedNodes the selected node of every group, or {@code null} for a group not
+     *                      restricting the records. A branch selects the records of all the
+     *                      leaves below it, and the root or a leaf matching all the records
+     *                      select them all.
+     * @throws IllegalArgumentException if the count of selected nodes is not the count of groups.
+     */
+    public Query query(Node[] selectedNodes) {
+        if (selectedNodes.length != groups.length) {
+            throw new IllegalArgumentException("Expected " + groups.length + " selections, got "
+                    + selectedNodes.length);
+        }
+        List<CompressedBitmap> operands = new ArrayList<>(groups.length);
+        for (int g = 0; g < groups.length; g++) {
+            CompressedBitmap bitmap = groups[g].select(selectedNodes[g]);
+            if (bitmap != null) {
+                operands.add(bitmap);
+            }
+        }
+        return new Query(operands, recordCount);
+    }
+
+    /**
+     * Returns the records matching the selections of the groups, as reported by the
+     * {@link FilterMenuBar.OnSelectionSnapshotListener}. Groups without a snapshot, or beyond
+     * the groups of the index, do not restrict the records.
+     */
+    public Query query(List<SelectionSnapshot> selections) {
+        Node[] selectedNodes = new Node[groups.length];
+        for (SelectionSnapshot selection : selections) {
+            int groupIndex = selection.getGroupIndex();
+            if (groupIndex >= 0 && groupIndex < selectedNodes.length) {
+                selectedNodes[groupIndex] = selection.getLeaf();
+            }
+        }
+        return query(selectedNodes);
+    }
+
+    /**
+     * Returns the records matching the selections reported by the
+     * {@link FilterMenuBar.OnFilterItemSelectedSimpleAdapter}: the name of the selected node of
+     * every group, by the name of its root. Groups without an entry do not restrict the records.
+     * The nodes are found by their names, the first in preorder if names repeat, so that trees
+     * repeating the names of their leaves under several branches had better query by nodes. To be
+     * called on the thread owning the trees.
+     */
+    public Query query(Map<String, String> selectedGroups) {
+        List<CompressedBitmap> operands = new ArrayList<>(groups.length);
+        for (Group group : groups) {
+            String showName = selectedGroups.get(group.rootNode.getShowName());
+            if (showName == null) {
+                continue;
+            }
+            Node node = findByShowName(group.rootNode, showName);
+            CompressedBitmap bitmap = node == null ? CompressedBitmap.EMPTY : group.select(node);
+            if (bitmap != null) {
+                operands.add(bitmap);
+            }
+        }
+        return new Query(operands, recordCount);
+    }
+
+    private static Node findByShowName(Node rootNode, final String showName) {
+        final Node[] found = new Node[1];
+        TreeWalker.obtain().preOrder(rootNode, new TreeWalker.Visitor() {
+            @Override
+            public int visit(Node node) {
+                if (showName.equals(node.getShowName())) {
+                    found[0] = node;
+                    return TreeWalker.TERMINATE;
+                }
+                return TreeWalker.CONTINUE;
+            }
+        });
+        return found[0];
+    }
+
+    /**
+     * Returns the records tagged with the specified leaf values, without reading any node.
+     *
+     * @param leafValues the value of every group, or {@code null} for a group not restricting
+     *                   the records. Fewer values than groups may be given.
+     */
+    public Query queryValues(String... leafValues) {
+        List<CompressedBitmap> operands = new ArrayList<>(leafValues.length);
+        for (int g = 0; g < leafValues.length && g < groups.length; g++) {
+            CompressedBitmap bitmap = groups[g].selectValue(leafValues[g]);
+            if (bitmap != null) {
+                operands.add(bitmap);
+            }
+        }
+        return new Query(operands, recordCount);
+    }
+
+    Node getRootNode(int groupIndex) {
+        return groups[groupIndex].rootNode;
+    }
+
+    /**
+     * Returns the records tagged with the node of the group or with a leaf below it, or
+     * {@code null} if the node matches all the records.
+     */
+    CompressedBitmap recordsOf(int groupIndex, Node node) {
+        return groups[groupIndex].recordsOf(node);
+    }
+
+    /**
+     * The index of one group.
+     */
+    private static final class Group {
+
+        final Node rootNode;
+        final Map<String, CompressedBitmap> valueBitmaps;
+        final Map<Node, CompressedBitmap> branchBitmaps;
+        final Set<String> matchAllValues;
+
+        Group(Node rootNode, Map<String, CompressedBitmap> valueBitmaps,
+              Map<Node, CompressedBitmap> branchBitmaps, Set<String> matchAllValues) {
+            this.rootNode = rootNode;
+            this.valueBitmaps = valueBitmaps;
+            this.branchBitmaps = branchBitmaps;
+            this.matchAllValues = matchAllValues;
+        }
+
+        /**
+         * Returns the records of the selected node, or {@code null} if it does not restrict them.
+         */
+        CompressedBitmap select(Node node) {
+            if (node == null || node == rootNode || node.isRoot()) {
+                return null;
+            }
+            return recordsOf(node);
+        }
+
+        /**
+         * Returns the records of the node, the root included, or {@code null} if it matches all
+         * of them.
+         */
+        CompressedBitmap recordsOf(Node node) {
+            if (node.isLeaf()) {
+                return selectValue(node.getValue());
+            }
+            CompressedBitmap bitmap = branchBitmaps.get(node);
+            if (bitmap == null) {
+                bitmap = branchBitmaps.get(Node.findSameKeyPath(rootNode, node));
+            }
+            return bitmap != null ? bitmap : CompressedBitmap.EMPTY;
+        }
+
+        CompressedBitmap selectValue(String value) {
+            if (value == null || matchAllValues.contains(value)) {
+                return null;
+            }
+            CompressedBitmap bitmap = valueBitmaps.get(value);
+            return bitmap != null ? bitmap : CompressedBitmap.EMPTY;
+        }
+    }
+
+    /**
+     * The records matching some selections, evaluated on demand: {@link #count()} intersects the
+     * bitmaps without listing the ids, and a {@link Cursor} lists them in ascending order, one
+     * chunk of the intersection at a time. A query is immutable.
+     */
+    public static final class Query {
+
+        /**
+         * The bitmaps to intersect, smallest first, none if all the records match.
+         */
+        private final CompressedBitmap[] operands;
+        private final int recordCount;
+
+        Query(List<CompressedBitmap> operands, int recordCount) {
+            this.operands = operands.toArray(new CompressedBitmap[operands.size()]);
+            this.recordCount = recordCount;
+            // The smallest drives the intersection, so that the others are only probed.
+            Arrays.sort(this.operands, new Comparator<CompressedBitmap>() {
+                @Override
+                public int compare(CompressedBitmap a, CompressedBitmap b) {
+                    int x = a.cardinality();
+                    int y = b.cardinality();
+                    return x < y ? -1 : x == y ? 0 : 1;
+                }
+            });
+        }
+
+        /**
+         * Returns the count of matching records.
+         */
+        public int count() {
+            if (operands.length == 0) {
+                return recordCount;
+            }
+            if (operands.length == 1) {
+                return operands[0].cardinality();
+            }
+            if (operands.length == 2) {
+                return operands[0].andCardinality(operands[1]);
+            }
+            CompressedBitmap first = operands[0];
+            CompressedBitmap last = operands[operands.length - 1];
+            int count = 0;
+            for (int chunk = 0, chunkCount = first.getChunkCount(); chunk < chunkCount; chunk++) {
+                char key = first.getKey(chunk);
+                CompressedBitmap.Container container = first.getContainer(chunk);
+                for (int i = 1; i < operands.length - 1 && container != null; i++) {
+                    container = and(container, operands[i], key);
+                }
+                int lastIndex = container == null ? -1 : last.indexOfKey(key);
+                if (lastIndex >= 0) {
+                    count += container.andCardinality(last.getContainer(lastIndex));
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Returns a cursor over the ids of the matching records, in ascending order.
+         */
+        public Cursor cursor() {
+            return new Cursor(operands, recordCount);
+        }
+
+        /**
+         * Returns the ids of the specified page of matching records.
+         *
+         * @param pageIndex the index of the page, from 0.
+         * @param pageSize  the count of ids per page.
+         * @return the ids, fewer than {@code pageSize} for the last page, none beyond.
+         */
+        public int[] page(int pageIndex, int pageSize) {
+            if (pageIndex < 0 || pageSize <= 0) {
+                throw new IllegalArgumentException("pageIndex: " + pageIndex + ", pageSize: " + pageSize);
+            }
+            Cursor cursor = cursor();
+            cursor.skip((long) pageIndex * pageSize);
+            int[] ids = new int[pageSize];
+            int count = cursor.nextPage(ids);
+            return count == pageSize ? ids : Arrays.copyOf(ids, count);
+        }
+
+        /**
+         * Returns the matching records as a bitmap, or {@code null} if all the records match.
+         */
+        CompressedBitmap toBitmap() {
+            if (operands.length <= 1) {
+                return operands.length == 0 ? null : operands[0];
+            }
+            CompressedBitmap first = operands[0];
+            int chunkCount = first.getChunkCount();
+            char[] keys = new char[chunkCount];
+            CompressedBitmap.Container[] containers = new CompressedBitmap.Container[chunkCount];
+            int count = 0;
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                char key = first.getKey(chunk);
+                CompressedBitmap.Container container = first.getContainer(chunk);
+                for (int i = 1; i < operands.length && container != null; i++) {
+                    container = and(container, operands[i], key);
+                }
+                if (container != null) {
+                    keys[count] = key;
+                    containers[count++] = container;
+                }
+            }
+            return CompressedBitmap.ofChunks(keys, containers, count);
+        }
+
+        /**
+         * Intersects the container with the chunk of the same key of the bitmap.
+         *
+         * @return the intersection, or {@code null} if it is empty.
+         */
+        static CompressedBitmap.Container and(CompressedBitmap.Container container,
+                                              CompressedBitmap bitmap, char key) {
+            int index = bitmap.indexOfKey(key);
+            if (index < 0) {
+                return null;
+            }
+            CompressedBitmap.Container result = container.and(bitmap.getContainer(index));
+            return result.cardinality == 0 ? null : result;
+        }
+    }
+
+    /**
+     * Lists the ids of the records of a {@link Query} page by page. The intersection of a chunk
+     * is only computed once the ids before it are listed or skipped. Not thread-safe.
+     */
+    public static final class Cursor {
+
+        private final CompressedBitmap[] operands;
+        private final int recordCount;
+        /**
+         * The next chunk of the smallest operand to intersect, or the next id if all the records
+         * match.
+         */
+        private int nextChunk;
+        private CompressedBitmap.Container container;
+        private int high;
+        private int rank;
+
+        Cursor(CompressedBitmap[] operands, int recordCount) {
+            this.operands = operands;
+            this.recordCount = recordCount;
+        }
+
+        /**
+         * Returns <tt>true</tt> if more ids follow.
+         */
+        public boolean hasNext() {
+            if (operands.length == 0) {
+                return nextChunk < recordCount;
+            }
+            return advance();
+        }
+
+        /**
+         * Fills the array with the next ids.
+         *
+         * @return the count of ids filled, less than the length of the array only at the end.
+         */
+        public int nextPage(int[] ids) {
+            if (operands.length == 0) {
+                int count = Math.min(ids.length, recordCount - nextChunk);
+                for (int i = 0; i < count; i++) {
+                    ids[i] = nextChunk++;
+                }
+                return count;
+            }
+            int filled = 0;
+            while (filled < ids.length && advance()) {
+                int copied = container.copyTo(rank, ids, filled, high);
+                rank += copied;
+                filled += copied;
+            }
+            return filled;
+        }
+
+        /**
+         * Returns the next id.
+         *
+         * @throws NoSuchElementException if there is none.
+         */
+        public int next() {
+            int[] id = new int[1];
+            if (nextPage(id) == 0) {
+                throw new NoSuchElementException();
+            }
+            return id[0];
+        }
+
+        /**
+         * Skips the specified count of ids, or all the remaining ones. Whole chunks are skipped by
+         * their count, without listing their ids.
+         */
+        public void skip(long count) {
+            if (operands.length == 0) {
+                nextChunk = (int) Math.min(recordCount, nextChunk + count);
+                return;
+            }
+            while (count > 0 && advance()) {
+                int skipped = (int) Math.min(count, container.cardinality - rank);
+                rank += skipped;
+                count -= skipped;
+            }
+        }
+
+        /**
+         * Moves to the next non empty chunk of the intersection, unless ids of the current one
+         * are left.
+         *
+         * @return <tt>false</tt> at the end.
+         */
+        private boolean advance() {
+            if (container != null && rank < container.cardinality) {
+                return true;
+            }
+            CompressedBitmap first = operands[0];
+            while (nextChunk < first.getChunkCount()) {
+                int chunk = nextChunk++;
+                char key = first.getKey(chunk);
+                CompressedBitmap.Container candidate = first.getContainer(chunk);
+                for (int i = 1; i < operands.length && candidate != null; i++) {
+                    candidate = Query.and(candidate, operands[i], key);
+                }
+                if (candidate != null) {
+                    container = candidate;
+                    high = key << 16;
+                    rank = 0;
+                    return true;
+                }
+            }
+            container = null;
+            return false;
+        }
+    }
+
+    /**
+     * Collects the records and their leaf values. Not thread-safe.
+     */
+    public static final class Builder {
+
+        private final List<Node> rootNodes;
+        private final List<Map<String, Postings>> postings = new ArrayList<>();
+        private final List<Set<String>> matchAllValues = new ArrayList<>();
+        private int recordCount;
+
+        /**
+         * @param rootNodes the trees of the groups, in order, as shown by the menu.
+         */
+        public Builder(List<Node> rootNodes) {
+            this.rootNodes = new ArrayList<>(rootNodes);
+            for (int g = 0; g < this.rootNodes.size(); g++) {
+                postings.add(new HashMap<String, Postings>());
+                matchAllValues.add(new HashSet<String>());
+            }
+        }
+
+        /**
+         * Adds a record tagged with the specified leaf values.
+         *
+         * @param leafValues the value of every group the record is tagged with, {@code null} for
+         *                   a group it is not tagged in. Fewer values than groups may be given.
+         * @return the id of the record, from 0 in the order of addition.
+         * @throws IllegalArgumentException if more values than groups are given.
+         */
+        public int addRecord(String... leafValues) {
+            if (leafValues.length > rootNodes.size()) {
+                throw new IllegalArgumentException("Expected at most " + rootNodes.size()
+                        + " values, got " + leafValues.length);
+            }
+            int record = recordCount++;
+            for (int g = 0; g < leafValues.length; g++) {
+                if (leafValues[g] != null) {
+                    tag(record, g, leafValues[g]);
+                }
+            }
+            return record;
+        }
+
+        /**
+         * Tags a record added before with one more leaf value of a group.
+         *
+         * @throws IllegalArgumentException if there is no such record or group.
+         */
+        public Builder tag(int record, int groupIndex, String leafValue) {
+            if (record < 0 || record >= recordCount) {
+                throw new IllegalArgumentException("No record " + record);
+            }
+            if (groupIndex < 0 || groupIndex >= rootNodes.size()) {
+                throw new IllegalArgumentException("No group " + groupIndex);
+            }
+            Map<String, Postings> groupPostings = postings.get(groupIndex);
+            Postings valuePostings = groupPostings.get(leafValue);
+            if (valuePostings == null) {
+                valuePostings = new Postings();
+                groupPostings.put(leafValue, valuePostings);
+            }
+            valuePostings.add(record);
+            return this;
+        }
+
+        /**
+         * Makes the leaves with the value match all the records, such as an "All" or "Unlimited"
+         * option: selecting one does not restrict the records, and they are left out of the
+         * unions of their branches. Records tagged with the value are ignored.
+         */
+        public Builder matchAll(int groupIndex, String leafValue) {
+            matchAllValues.get(groupIndex).add(leafValue);
+            return this;
+        }
+
+        public RecordIndex build() {
+            Group[] groups = new Group[rootNodes.size()];
+            for (int g = 0; g < groups.length; g++) {
+                Set<String> groupMatchAll = matchAllValues.get(g);
+                Map<String, CompressedBitmap> valueBitmaps = new HashMap<>();
+                for (Map.Entry<String, Postings> entry : postings.get(g).entrySet()) {
+                    if (!groupMatchAll.contains(entry.getKey())) {
+                        valueBitmaps.put(entry.getKey(), entry.getValue().toBitmap());
+                    }
+                }
+                postings.get(g).clear();
+                Map<Node, CompressedBitmap> branchBitmaps = new IdentityHashMap<>();
+                Node rootNode = rootNodes.get(g);
+                unionBranch(rootNode, valueBitmaps, groupMatchAll, branchBitmaps);
+                groups[g] = new Group(rootNode, valueBitmaps, branchBitmaps, groupMatchAll);
+            }
+            return new RecordIndex(groups, recordCount);
+        }
+
+        /**
+         * Returns the records of the leaves below the node, recording the ones of every branch.
+         * Recursive, the depth of the trees being limited by the screen.
+         */
+        private static CompressedBitmap unionBranch(Node node, Map<String, CompressedBitmap> valueBitmaps,
+                                                    Set<String> matchAll, Map<Node, CompressedBitmap> branchBitmaps) {
+            List<Node> children = node.getChildList();
+            if (children == null || children.isEmpty()) {
+                String value = node.getValue();
+                CompressedBitmap bitmap = value == null || matchAll.contains(value) ? null : valueBitmaps.get(value);
+                return bitmap != null ? bitmap : CompressedBitmap.EMPTY;
+            }
+            CompressedBitmap[] childBitmaps = new CompressedBitmap[children.size()];
+            for (int i = 0; i < childBitmaps.length; i++) {
+                childBitmaps[i] = unionBranch(children.get(i), valueBitmaps, matchAll, branchBitmaps);
+            }
+            CompressedBitmap bitmap = CompressedBitmap.union(childBitmaps, childBitmaps.length);
+            branchBitmaps.put(node, bitmap);
+            return bitmap;
+        }
+    }
+
+    /**
+     * The records of one value while building, sorted once built.
+     */
+    private static final class Postings {
+
+        private int[] records = new int[4];
+        private int size;
+        private boolean sorted = true;
+
+        void add(int record) {
+            if (size == records.length) {
+                records = Arrays.copyOf(records, size + (size >> 1));
+            }
+            if (size > 0 && records[size - 1] >= record) {
+                sorted = false;
+            }
+            records[size++] = record;
+        }
+
+        CompressedBitmap toBitmap() {
+            if (!sorted) {
+                Arrays.sort(records, 0, size);
+                int distinct = 0;
+                for (int i = 0; i < size; i++) {
+                    if (distinct == 0 || records[distinct - 1] != records[i]) {
+                        records[distinct++] = records[i];
+                    }
+                }
+                size = distinct;
+            }
+            return CompressedBitmap.of(records, size);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.x.compoundselector;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows the leaves found by a search of {@link FilterView}, each with the path of its ancestors
+ * (the root left out) as a breadcrumb.
+ */
+public class SearchResultAdapter extends RecyclerView.Adapter<SearchResultAdapter.ViewHolder> {
+
+    private static final String PATH_SEPARATOR = " / ";
+
+    private final LayoutInflater mLayoutInflater;
+    private final List<Node> results = new ArrayList<>();
+    private OnResultClickListener onResultClickListener;
+
+    public SearchResultAdapter(@NonNull Context context) {
+        this.mLayoutInflater = LayoutInflater.from(context);
+    }
+
+    /**
+     * Replaces the shown results.
+     */
+    public void setResults(@NonNull List<Node> results) {
+        this.results.clear();
+        this.results.addAll(results);
+        // Results are few, see FilterView#MAX_SEARCH_RESULT_COUNT.
+        notifyDataSetChanged();
+    }
+
+    public Node getItem(int position) {
+        return results.get(position);
+    }
+
+    public void setOnResultClickListener(OnResultClickListener onResultClickListener) {
+        this.onResultClickListener = onResultClickListener;
+    }
+
+    @Override
+    public int getItemCount() {
+        return results.size();
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        final ViewHolder viewHolder = new ViewHolder(mLayoutInflater.inflate(R.layout.view_search_result_item, parent, false));
+        viewHolder.itemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = viewHolder.getAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && onResultClickListener != null) {
+                    onResultClickListener.onResultClick(results.get(position));
+                }
+            }
+        });
+        return viewHolder;
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        Node leaf = results.get(position);
+        holder.tvName.setText(leaf.getShowName());
+        holder.tvPath.setText(getBreadcrumb(leaf));
+    }
+
+    /**
+     * Returns the names of the ancestors of the leaf, from the first level down to its parent.
+     */
+    static String getBreadcrumb(Node leaf) {
+        List<Node> path = Node.getNodeSimplePath(leaf);
+        StringBuilder breadcrumb = new StringBuilder();
+        // The root is not shown, nor the leaf itself.
+        for (int i = 1, last = path.size() - 1; i < last; i++) {
+            if (breadcrumb.length() > 0) {
+                breadcrumb.append(PATH_SEPARATOR);
+            }
+            breadcrumb.append(path.get(i).getShowName());
+        }
+        return breadcrumb.toString();
+    }
+
+    public interface OnResultClickListener {
+        /**
+         * @param leaf the leaf of the clicked result.
+         */
+        void onResultClick(Node leaf);
+    }
+
+    public static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView tvName;
+        final TextView tvPath;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            tvName = (TextView) itemView.findViewById(R.id.tv_result_name);
+            tvPath = (TextView) itemView.findViewById(R.id.tv_result_path);
+        }
+    }
+}
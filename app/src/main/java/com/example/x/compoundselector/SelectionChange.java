@@ -0,0 +1,122 @@
+package com.example.x.compoundselector;
+
+import android.support.annotation.Nullable;
+
+/**
+ * The change of the selection of one menu group of {@link FilterMenuBar}, from the leaf checked
+ * before to the leaf checked now. Changes of the same group made in a row are merged into one.
+ * <p>Levels are the ones of {@link Node#getHeight()}: the root is level 0 and never changes, so
+ * the changed levels are the ones from {@link #getFirstChangedLevel()} down to the deepest of the
+ * two leaves.</p>
+ */
+public final class SelectionChange {
+
+    private final int groupIndex;
+    private final Node oldLeaf;
+    private final SelectionSnapshot newSelection;
+    private final int firstChangedLevel;
+    private final int lastChangedLevel;
+
+    SelectionChange(int groupIndex, Node oldLeaf, SelectionSnapshot newSelection) {
+        this.groupIndex = groupIndex;
+        this.oldLeaf = oldLeaf;
+        this.newSelection = newSelection;
+        Node newLeaf = newSelection.getLeaf();
+        this.firstChangedLevel = firstChangedLevel(oldLeaf, newLeaf);
+        this.lastChangedLevel = Math.max(oldLeaf == null ? 0 : oldLeaf.getHeight(),
+                newLeaf == null ? 0 : newLeaf.getHeight());
+    }
+
+    /**
+     * Returns the level of the highest node which differs between the two paths, 1 if either leaf
+     * is {@code null}, or -1 if the leaves are the same.
+     */
+    private static int firstChangedLevel(Node oldLeaf, Node newLeaf) {
+        if (oldLeaf == newLeaf) {
+            return -1;
+        }
+        if (oldLeaf == null || newLeaf == null) {
+            return 1;
+        }
+        Node a = oldLeaf;
+        Node b = newLeaf;
+        int levelA = a.getHeight();
+        int levelB = b.getHeight();
+        for (; levelA > levelB; levelA--) {
+            a = a.getParent();
+        }
+        for (; levelB > levelA; levelB--) {
+            b = b.getParent();
+        }
+        if (a == b) {
+            // One path continues the other one.
+            return levelA + 1;
+        }
+        int level = levelA;
+        while (a.getParent() != b.getParent()) {
+            a = a.getParent();
+            b = b.getParent();
+            level--;
+        }
+        return level;
+    }
+
+    /**
+     * Returns the index of the menu group.
+     */
+    public int getGroupIndex() {
+        return groupIndex;
+    }
+
+    /**
+     * Returns the leaf checked before the change, or {@code null} if there was none.
+     */
+    @Nullable
+    public Node getOldLeaf() {
+        return oldLeaf;
+    }
+
+    /**
+     * Returns the leaf checked after the change, or {@code null} if there is none.
+     */
+    @Nullable
+    public Node getNewLeaf() {
+        return newSelection.getLeaf();
+    }
+
+    /**
+     * Returns the whole selection of the group after the change.
+     */
+    public SelectionSnapshot getNewSelection() {
+        return newSelection;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the checked leaf actually changed. Changes merged back to the
+     * former leaf are not reported.
+     */
+    public boolean isChanged() {
+        return firstChangedLevel >= 0;
+    }
+
+    /**
+     * Returns the highest level whose checked node changed, or -1 if none did.
+     */
+    public int getFirstChangedLevel() {
+        return firstChangedLevel;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the checked node of the specified level changed, including a level
+     * only one of the two paths reaches.
+     */
+    public boolean isLevelChanged(int level) {
+        return firstChangedLevel >= 0 && level >= firstChangedLevel && level <= lastChangedLevel;
+    }
+
+    @Override
+    public String toString() {
+        return "SelectionChange{" + "groupIndex=" + groupIndex + ", oldLeaf=" + oldLeaf
+                + ", newLeaf=" + getNewLeaf() + ", firstChangedLevel=" + firstChangedLevel + '}';
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.x.compoundselector;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The selection of one menu group of {@link FilterMenuBar}: the checked leaf of its tree and the
+ * path from the root down to it.
+ * <p>A snapshot never changes once created, a new one is created for a group when its selection
+ * changes, so snapshots may be kept and compared by identity. The path is not copied: its nodes
+ * are read from the leaf up on demand, and the nodes are the ones of the tree, which must not be
+ * changed.</p>
+ */
+public final class SelectionSnapshot {
+
+    private final int groupIndex;
+    private final Node rootNode;
+    private final Node leaf;
+    private final int depth;
+    private List<Node> path;
+
+    SelectionSnapshot(int groupIndex, Node rootNode, Node leaf) {
+        this.groupIndex = groupIndex;
+        this.rootNode = rootNode;
+        this.leaf = leaf;
+        this.depth = leaf == null ? 0 : leaf.getHeight() + 1;
+    }
+
+    /**
+     * Returns the index of the menu group.
+     */
+    public int getGroupIndex() {
+        return groupIndex;
+    }
+
+    /**
+     * Returns the root of the tree of the group, or {@code null} while the tree is loading.
+     */
+    @Nullable
+    public Node getRootNode() {
+        return rootNode;
+    }
+
+    /**
+     * Returns the checked leaf, or {@code null} if the group has no selection.
+     */
+    @Nullable
+    public Node getLeaf() {
+        return leaf;
+    }
+
+    /**
+     * Returns the count of nodes on the path from the root to the leaf, both included, or 0 if
+     * the group has no selection.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the node of the path at the specified level, the root being level 0 and the leaf
+     * level {@code getDepth() - 1}. Nothing is allocated.
+     */
+    public Node getNode(int level) {
+        if (level < 0 || level >= depth) {
+            throw new IndexOutOfBoundsException("level: " + level + ", depth: " + depth);
+        }
+        Node node = leaf;
+        for (int i = depth - 1; i > level; i--) {
+            node = node.getParent();
+        }
+        return node;
+    }
+
+    /**
+     * Returns the path from the root to the leaf, built on the first call. Empty if the group has
+     * no selection.
+     */
+    public List<Node> getPath() {
+        if (path == null) {
+            path = leaf == null ? Collections.<Node>emptyList()
+                    : Collections.unmodifiableList(Node.getNodeSimplePath(leaf));
+        }
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "SelectionSnapshot{" + "groupIndex=" + groupIndex + ", leaf=" + leaf + '}';
+    }
+}
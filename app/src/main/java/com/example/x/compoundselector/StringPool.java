@@ -0,0 +1,126 @@
+package com.example.x.compoundselector;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares equal strings, such as the names and values repeated under every branch of a catalog
+ * ("All", "Unlimited", price ranges...), so that a tree holds every distinct string once.
+ * <p>A pool either holds its strings strongly, for the lifetime of a single load, or weakly, so
+ * that the strings of the trees no longer used are collected. The {@link #getDefault() default}
+ * pool is a weak one, used by the tree loaders unless they are given another one, while
+ * {@link Node#formatTree(Node)} shares the strings of a single tree. All the methods are
+ * thread-safe, and a strong pool pools its strings without locking, so that it may be shared by
+ * the workers of a {@link ParallelTreeLoader}.</p>
+ */
+public final class StringPool {
+
+    private static final StringPool DEFAULT = new StringPool(true);
+
+    private final ConcurrentMap<String, String> strongStrings;
+    private final WeakHashMap<String, WeakReference<String>> weakStrings;
+
+    /**
+     * Creates a pool holding its strings strongly.
+     */
+    public StringPool() {
+        this(false);
+    }
+
+    /**
+     * @param weak whether the strings are only held as long as they are used outside the pool.
+     */
+    public StringPool(boolean weak) {
+        this.strongStrings = weak ? null : new ConcurrentHashMap<String, String>();
+        this.weakStrings = weak ? new WeakHashMap<String, WeakReference<String>>() : null;
+    }
+
+    /**
+     * Returns the weak pool shared by the whole process.
+     */
+    public static StringPool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns the pooled string equal to the specified one, pooling it if there is none.
+     *
+     * @return the pooled string, or {@code null} if {@code string} is {@code null}.
+     */
+    public String intern(String string) {
+        if (string == null) {
+            return null;
+        }
+        if (strongStrings != null) {
+            String pooled = strongStrings.get(string);
+            if (pooled == null) {
+                pooled = strongStrings.putIfAbsent(string, string);
+            }
+            return pooled != null ? pooled : string;
+        }
+        synchronized (this) {
+            return internWeak(string);
+        }
+    }
+
+    /**
+     * Pools the strings of a strong pool into this one, as {@link #intern(String)} would one by
+     * one, but locking a weak pool once.
+     *
+     * @return the strings of the other pool equal to other strings of this one, mapped to them.
+     */
+    Map<String, String> internAll(StringPool other) {
+        Map<String, String> replaced = new HashMap<>();
+        synchronized (this) {
+            for (String string : other.strongStrings.keySet()) {
+                String pooled = strongStrings != null ? intern(string) : internWeak(string);
+                if (pooled != string) {
+                    replaced.put(string, pooled);
+                }
+            }
+        }
+        return replaced;
+    }
+
+    boolean isWeak() {
+        return weakStrings != null;
+    }
+
+    private String internWeak(String string) {
+        WeakReference<String> reference = weakStrings.get(string);
+        String pooled = reference == null ? null : reference.get();
+        if (pooled == null) {
+            // The value must not hold the key strongly, or the entry would never be collected.
+            weakStrings.put(string, new WeakReference<>(string));
+            pooled = string;
+        }
+        return pooled;
+    }
+
+    /**
+     * Returns the count of pooled strings, including, for a weak pool, the ones collected but not
+     * purged yet.
+     */
+    public int size() {
+        if (strongStrings != null) {
+            return strongStrings.size();
+        }
+        synchronized (this) {
+            return weakStrings.size();
+        }
+    }
+
+    public void clear() {
+        if (strongStrings != null) {
+            strongStrings.clear();
+            return;
+        }
+        synchronized (this) {
+            weakStrings.clear();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.x.compoundselector;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads {@link Node} trees from their JSON form with a streaming {@link JsonReader}.
+ * <p>Compared to {@code new Gson().fromJson(json, Node.class)} followed by
+ * {@link Node#formatTree(Node)}, the loader reads from a stream instead of a whole string, does not
+ * use reflection, shares the repeated names, values and tags of the tree, and links the parents and
+ * computes the tree metrics in the same single pass. The loaded tree needs no formatting.</p>
+ * <p>A loader instance is not thread-safe. Strings are shared between all the trees loaded with the
+ * same {@link StringPool}.</p>
+ */
+public class TreeLoader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final StringPool stringPool;
+    /**
+     * Children read but not yet linked to their parent, as a stack shared by all the levels.
+     */
+    private final ArrayList<Node> pendingChildren = new ArrayList<>();
+    private TypeAdapter<Object> tagAdapter;
+
+    /**
+     * Creates a loader sharing the strings through the {@link StringPool#getDefault() default pool}.
+     */
+    public TreeLoader() {
+        this(StringPool.getDefault());
+    }
+
+    /**
+     * @param stringPool the pool sharing the names, values and tags of the loaded trees.
+     */
+    public TreeLoader(StringPool stringPool) {
+        this.stringPool = stringPool;
+    }
+
+    /**
+     * Loads a tree from the JSON string. A shortcut of {@code new TreeLoader().load(...)}.
+     *
+     * @throws JsonParseException if the JSON is malformed.
+     */
+    public static Node fromJson(String json) {
+        try {
+            return new TreeLoader().load(new StringReader(json));
+        } catch (IOException e) {
+            throw new JsonParseException(e);
+        }
+    }
+
+    /**
+     * Loads a tree from the UTF-8 encoded JSON stream. The stream is not closed.
+     */
+    public Node load(InputStream in) throws IOException {
+        return load(new BufferedReader(new InputStreamReader(in, UTF_8)));
+    }
+
+    /**
+     * Loads a tree from the JSON reader. The reader is not closed.
+     */
+    public Node load(Reader reader) throws IOException {
+        return load(new JsonReader(reader));
+    }
+
+    /**
+     * Loads a tree from the JSON object the reader is positioned at.
+     */
+    public Node load(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        try {
+            return readNode(reader);
+        } finally {
+            pendingChildren.clear();
+        }
+    }
+
+    private Node readNode(JsonReader reader) throws IOException {
+        String showName = null;
+        String value = null;
+        Object tag = null;
+        boolean checked = false;
+        List<Node> children = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("showName".equals(name)) {
+                showName = intern(reader.nextString());
+            } else if ("value".equals(name)) {
+                value = intern(reader.nextString());
+            } else if ("tag".equals(name)) {
+                tag = readTag(reader);
+            } else if ("checked".equals(name)) {
+                checked = reader.nextBoolean();
+            } else if ("children".equals(name)) {
+                children = readChildren(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        Node node = new Node(showName, value, tag);
+        node.finishLoading(children, checked);
+        return node;
+    }
+
+    private List<Node> readChildren(JsonReader reader) throws IOException {
+        int start = pendingChildren.size();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            pendingChildren.add(readNode(reader));
+        }
+        reader.endArray();
+        int end = pendingChildren.size();
+        if (start == end) {
+            return null;
+        }
+        // Exactly sized, so that no capacity is wasted on large trees.
+        List<Node> children = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            children.add(pendingChildren.get(i));
+        }
+        pendingChildren.subList(start, end).clear();
+        return children;
+    }
+
+    /**
+     * Reads the tag the same way Gson does for a field of type {@code Object}.
+     */
+    private Object readTag(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.STRING) {
+            return intern(reader.nextString());
+        }
+        if (tagAdapter == null) {
+            tagAdapter = new Gson().getAdapter(Object.class);
+        }
+        return tagAdapter.read(reader);
+    }
+
+    private String intern(String string) {
+        return stringPool.intern(string);
+    }
+}
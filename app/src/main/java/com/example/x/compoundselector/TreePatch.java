@@ -0,0 +1,184 @@
+package com.example.x.compoundselector;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Updates a tree in place to a newer version of it, such as a catalog refreshed by a background
+ * sync, so that the views showing the tree keep their nodes, the checked path and the opened
+ * branches, and only the items actually changed are bound again.
+ * <p>The children of every node are matched with the children of its counterpart in the new
+ * version by key, in order, repeated keys being matched one to one. A child whose key is not
+ * found is then matched by its value alone, if it has one, so that a node whose name holds a
+ * count, e.g. "Nike (12)", is renamed rather than replaced. Matched nodes are kept, moved to
+ * their new positions and patched the same way; the other children are removed, and the nodes
+ * of the new version left unmatched are moved into the tree, unchecked. The new version is
+ * consumed by the patch.</p>
+ * <p>Nodes providing their children on demand keep the children loaded, which are refreshed by
+ * their provider instead.</p>
+ */
+final class TreePatch {
+
+    private TreePatch() {
+    }
+
+    /**
+     * Patches the tree rooted by {@code rootNode} to the version rooted by {@code newRootNode}.
+     * The checked path is kept as far as its nodes are matched; if the checked leaf is removed,
+     * or is a branch now, the tree has no valid checked leaf afterwards.
+     *
+     * @return <tt>true</tt> if anything changed.
+     */
+    static boolean patch(Node rootNode, Node newRootNode) {
+        Node.formatTree(newRootNode);
+        return patchNode(rootNode, newRootNode);
+    }
+
+    /**
+     * Recursive, the depth of the trees being limited by the screen.
+     */
+    private static boolean patchNode(Node node, Node newNode) {
+        boolean changed = false;
+        if (!node.getShowName().equals(newNode.getShowName())) {
+            node.setShowName(newNode.getShowName());
+            changed = true;
+        }
+        if (!equal(node.getValue(), newNode.getValue())) {
+            node.setValue(newNode.getValue());
+            changed = true;
+        }
+        if (!equal(node.getTag(), newNode.getTag())) {
+            node.setTag(newNode.getTag());
+            changed = true;
+        }
+        if (node.getChildProvider() != null) {
+            return changed;
+        }
+
+        List<Node> children = node.getChildList();
+        List<Node> newChildren = newNode.getChildList();
+        int count = children == null ? 0 : children.size();
+        int newCount = newChildren == null ? 0 : newChildren.size();
+        if (count == 0 && newCount == 0) {
+            return changed;
+        }
+        int[] matches = match(children, count, newChildren, newCount);
+
+        boolean rearranged = count != newCount;
+        List<Node> result = new ArrayList<>(newCount);
+        for (int i = 0; i < newCount; i++) {
+            Node newChild = newChildren.get(i);
+            int match = matches[i];
+            if (match < 0) {
+                Node.setAllNodeUnchecked(newChild);
+                result.add(newChild);
+                rearranged = true;
+                continue;
+            }
+            Node child = children.get(match);
+            changed |= patchNode(child, newChild);
+            result.add(child);
+            rearranged |= match != i;
+        }
+        if (rearranged) {
+            node.rearrangeChildren(result);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the index of the child matched with every new child, or -1 for the unmatched ones.
+     */
+    private static int[] match(List<Node> children, int count, List<Node> newChildren, int newCount) {
+        int[] matches = new int[newCount];
+        // Mostly, the children of a refreshed node are the same in the same order.
+        int sameCount = 0;
+        while (sameCount < Math.min(count, newCount)
+                && children.get(sameCount).equals(newChildren.get(sameCount))) {
+            matches[sameCount] = sameCount;
+            sameCount++;
+        }
+        if (sameCount == count && sameCount == newCount) {
+            return matches;
+        }
+
+        boolean[] matched = new boolean[count];
+        KeyChains<Node> byKey = new KeyChains<>(count);
+        for (int i = count - 1; i >= sameCount; i--) {
+            byKey.add(children.get(i), i);
+        }
+        boolean unmatched = false;
+        for (int i = sameCount; i < newCount; i++) {
+            int match = byKey.poll(newChildren.get(i));
+            matches[i] = match;
+            if (match >= 0) {
+                matched[match] = true;
+            } else {
+                unmatched = true;
+            }
+        }
+        if (!unmatched) {
+            return matches;
+        }
+
+        KeyChains<String> byValue = new KeyChains<>(count);
+        for (int i = count - 1; i >= sameCount; i--) {
+            String value = children.get(i).getValue();
+            if (!matched[i] && value != null) {
+                byValue.add(value, i);
+            }
+        }
+        for (int i = sameCount; i < newCount; i++) {
+            String value = newChildren.get(i).getValue();
+            if (matches[i] < 0 && value != null) {
+                matches[i] = byValue.poll(value);
+            }
+        }
+        return matches;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a != null ? a.equals(b) : b == null;
+    }
+
+    /**
+     * The indices of the children by key, in order, chained through an array rather than a
+     * collection per key, since most keys are not repeated.
+     */
+    private static final class KeyChains<K> {
+
+        private final Map<K, Integer> heads = new HashMap<>();
+        private final int[] next;
+
+        KeyChains(int count) {
+            next = new int[count];
+        }
+
+        /**
+         * Adds the index of a child with the key, before the ones added already.
+         */
+        void add(K key, int index) {
+            Integer head = heads.put(key, index);
+            next[index] = head == null ? -1 : head;
+        }
+
+        /**
+         * Removes and returns the first index with the key, or -1 if there is none.
+         */
+        int poll(K key) {
+            Integer head = heads.get(key);
+            if (head == null) {
+                return -1;
+            }
+            if (next[head] < 0) {
+                heads.remove(key);
+            } else {
+                heads.put(key, next[head]);
+            }
+            return head;
+        }
+    }
+}
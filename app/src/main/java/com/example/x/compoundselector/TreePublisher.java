@@ -0,0 +1,90 @@
+package com.example.x.compoundselector;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the current version of a tree as a {@link NodeSnapshot}, replaced atomically. Readers
+ * get the current version without ever blocking, and keep reading the version they got while
+ * newer ones are published. Writers either publish a version built from scratch, or update the
+ * current one, the update being applied again to the newer version if another writer published
+ * meanwhile.
+ */
+public final class TreePublisher {
+
+    private final AtomicReference<NodeSnapshot> current;
+    private final List<OnPublishedListener> listeners = new CopyOnWriteArrayList<>();
+
+    public TreePublisher(NodeSnapshot initial) {
+        this.current = new AtomicReference<>(initial);
+    }
+
+    /**
+     * Returns the current version, from any thread.
+     */
+    public NodeSnapshot get() {
+        return current.get();
+    }
+
+    /**
+     * Replaces the current version and notifies the listeners on the calling thread.
+     */
+    public void publish(NodeSnapshot snapshot) {
+        current.set(snapshot);
+        notifyPublished(snapshot);
+    }
+
+    /**
+     * Publishes the version made by the updater from the current one. The updater may be called
+     * several times, if other versions are published while it runs, so it must not have other
+     * effects than building the new version.
+     *
+     * @return the published version.
+     */
+    public NodeSnapshot update(Updater updater) {
+        while (true) {
+            NodeSnapshot base = current.get();
+            NodeSnapshot updated = updater.update(base);
+            if (updated == base) {
+                return base;
+            }
+            if (current.compareAndSet(base, updated)) {
+                notifyPublished(updated);
+                return updated;
+            }
+        }
+    }
+
+    public void addOnPublishedListener(OnPublishedListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeOnPublishedListener(OnPublishedListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void notifyPublished(NodeSnapshot snapshot) {
+        for (OnPublishedListener listener : listeners) {
+            listener.onPublished(snapshot);
+        }
+    }
+
+    public interface Updater {
+        /**
+         * @param current the current version.
+         * @return the new version, typically built by {@code current.edit()}, or {@code current}
+         * itself if nothing changes.
+         */
+        NodeSnapshot update(NodeSnapshot current);
+    }
+
+    public interface OnPublishedListener {
+        /**
+         * Called on the publishing thread, once the snapshot is the current version. Versions
+         * published at once by several threads may be notified out of order, {@link #get()}
+         * returns the latest one.
+         */
+        void onPublished(NodeSnapshot snapshot);
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.x.compoundselector;
+
+import com.google.gson.Gson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of whole {@link Node} trees, for caching a tree downloaded or parsed once, and
+ * loading it again several times faster than from its JSON form.
+ * <p>The snapshot starts with a header ({@link #MAGIC}, {@link #VERSION} and the node count), then
+ * the string pool: every distinct name, value and tag of the tree once, as UTF-8. The nodes follow
+ * in preorder, each made of the pool index of its name, its flags, the pool indices of its value
+ * and of its tag if any, and its child count. Counts and indices are written as
+ * variable length ints, so a node of a usual tree takes a few bytes. Reading builds every string
+ * of the pool once, shared by all its nodes, and links the parents and computes the tree metrics
+ * as it goes, just as {@link TreeLoader}: the loaded tree needs no formatting.</p>
+ * <p>Tags other than strings are stored in their JSON form and read back by Gson, as an
+ * {@code Object} field would be. Children not loaded from their {@link ChildProvider} are not
+ * part of the snapshot.</p>
+ */
+public final class TreeSnapshot {
+
+    /**
+     * "FMTS", the first four bytes of a snapshot.
+     */
+    static final int MAGIC = 0x464D5453;
+    static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_CHECKED = 1;
+    private static final int FLAG_HAS_VALUE = 1 << 1;
+    private static final int FLAG_STRING_TAG = 1 << 2;
+    private static final int FLAG_JSON_TAG = 1 << 3;
+
+    private TreeSnapshot() {
+    }
+
+    /**
+     * Writes the tree rooted by {@code rootNode} as a snapshot. The stream is not closed.
+     */
+    public static void write(Node rootNode, OutputStream out) throws IOException {
+        out.write(toByteArray(rootNode));
+    }
+
+    /**
+     * Returns the snapshot of the tree rooted by {@code rootNode}.
+     */
+    public static byte[] toByteArray(Node rootNode) {
+        Writer writer = new Writer();
+        writer.collect(rootNode);
+        return writer.write(rootNode);
+    }
+
+    /**
+     * Reads a tree from the snapshot stream, up to its end. The stream is not closed.
+     *
+     * @throws IOException if the stream is not a snapshot of a supported version, or is truncated.
+     */
+    public static Node read(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(in.available(), 8192));
+        byte[] chunk = new byte[8192];
+        int count;
+        while ((count = in.read(chunk)) != -1) {
+            buffer.write(chunk, 0, count);
+        }
+        return fromByteArray(buffer.toByteArray());
+    }
+
+    /**
+     * Reads a tree from the snapshot bytes.
+     *
+     * @throws IOException if the bytes are not a snapshot of a supported version, or are truncated.
+     */
+    public static Node fromByteArray(byte[] snapshot) throws IOException {
+        try {
+            return new Reader(snapshot).read();
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Truncated tree snapshot", e);
+        }
+    }
+
+    private static final class Writer {
+
+        private final Map<String, Integer> stringIndices = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        /**
+         * The JSON form of the tags other than strings, by node identity, since equal nodes may
+         * have different tags.
+         */
+        private final Map<Node, String> jsonTags = new IdentityHashMap<>();
+        private Gson gson;
+        private int nodeCount;
+        private byte[] bytes = new byte[8192];
+        private int size;
+
+        private final TreeWalker.Visitor collectVisitor = new TreeWalker.Visitor() {
+            @Override
+            public int visit(Node node) {
+                nodeCount++;
+                addString(node.getShowName());
+                addString(node.getValue());
+                Object tag = node.getTag();
+                if (tag instanceof String) {
+                    addString((String) tag);
+                } else if (tag != null) {
+                    if (gson == null) {
+                        gson = new Gson();
+                    }
+                    String json = gson.toJson(tag);
+                    jsonTags.put(node, json);
+                    addString(json);
+                }
+                return TreeWalker.CONTINUE;
+            }
+        };
+
+        void collect(Node rootNode) {
+            TreeWalker.obtain().preOrder(rootNode, collectVisitor);
+        }
+
+        private void addString(String string) {
+            if (string != null && !stringIndices.containsKey(string)) {
+                stringIndices.put(string, strings.size());
+                strings.add(string);
+            }
+        }
+
+        byte[] write(Node rootNode) {
+            writeInt(MAGIC);
+            writeInt(VERSION);
+            writeVarInt(nodeCount);
+            writeVarInt(strings.size());
+            for (int i = 0, count = strings.size(); i < count; i++) {
+                byte[] utf8 = strings.get(i).getBytes(UTF_8);
+                writeVarInt(utf8.length);
+                ensureCapacity(utf8.length);
+                System.arraycopy(utf8, 0, bytes, size, utf8.length);
+                size += utf8.length;
+            }
+            writeNode(rootNode);
+            return Arrays.copyOf(bytes, size);
+        }
+
+        /**
+         * Recursive, the depth of the trees being limited by the screen.
+         */
+        private void writeNode(Node node) {
+            Object tag = node.getTag();
+            String jsonTag = tag == null || tag instanceof String ? null : jsonTags.get(node);
+            int flags = (node.isChecked() ? FLAG_CHECKED : 0)
+                    | (node.getValue() != null ? FLAG_HAS_VALUE : 0)
+                    | (tag instanceof String ? FLAG_STRING_TAG : 0)
+                    | (jsonTag != null ? FLAG_JSON_TAG : 0);
+            writeVarInt(stringIndices.get(node.getShowName()));
+            writeVarInt(flags);
+            if (node.getValue() != null) {
+                writeVarInt(stringIndices.get(node.getValue()));
+            }
+            if (tag instanceof String) {
+                writeVarInt(stringIndices.get(tag));
+            } else if (jsonTag != null) {
+                writeVarInt(stringIndices.get(jsonTag));
+            }
+            List<Node> children = node.getChildList();
+            int childCount = children == null ? 0 : children.size();
+            writeVarInt(childCount);
+            for (int i = 0; i < childCount; i++) {
+                writeNode(children.get(i));
+            }
+        }
+
+        private void writeInt(int value) {
+            ensureCapacity(4);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        private void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + additional));
+            }
+        }
+    }
+
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int position;
+        private String[] strings;
+        private Gson gson;
+        private int remainingNodes;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        Node read() throws IOException {
+            if (readInt() != MAGIC) {
+                throw new IOException("Not a tree snapshot");
+            }
+            int version = readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported tree snapshot version: " + version);
+            }
+            remainingNodes = readVarInt();
+            strings = new String[readVarInt()];
+            // Shared with the other trees, once per distinct string.
+            StringPool stringPool = StringPool.getDefault();
+            for (int i = 0; i < strings.length; i++) {
+                int length = readVarInt();
+                if (length > bytes.length - position) {
+                    throw new IOException("Truncated tree snapshot");
+                }
+                strings[i] = stringPool.intern(new String(bytes, position, length, UTF_8));
+                position += length;
+            }
+            Node rootNode = readNode();
+            if (remainingNodes != 0 || position != bytes.length) {
+                throw new IOException("Corrupted tree snapshot");
+            }
+            return rootNode;
+        }
+
+        private Node readNode() throws IOException {
+            if (--remainingNodes < 0) {
+                throw new IOException("Corrupted tree snapshot");
+            }
+            String showName = strings[readVarInt()];
+            int flags = readVarInt();
+            String value = (flags & FLAG_HAS_VALUE) != 0 ? strings[readVarInt()] : null;
+            Object tag = null;
+            if ((flags & FLAG_STRING_TAG) != 0) {
+                tag = strings[readVarInt()];
+            } else if ((flags & FLAG_JSON_TAG) != 0) {
+                if (gson == null) {
+                    gson = new Gson();
+                }
+                tag = gson.fromJson(strings[readVarInt()], Object.class);
+            }
+            int childCount = readVarInt();
+            if (childCount < 0 || childCount > remainingNodes) {
+                throw new IOException("Corrupted tree snapshot");
+            }
+            List<Node> children = null;
+            if (childCount > 0) {
+                // Exactly sized, so that no capacity is wasted on large trees.
+                children = new ArrayList<>(childCount);
+                for (int i = 0; i < childCount; i++) {
+                    children.add(readNode());
+                }
+            }
+            Node node = new Node(showName, value, tag);
+            node.finishLoading(children, (flags & FLAG_CHECKED) != 0);
+            return node;
+        }
+
+        private int readInt() {
+            return (bytes[position++] & 0xFF) << 24 | (bytes[position++] & 0xFF) << 16
+                    | (bytes[position++] & 0xFF) << 8 | (bytes[position++] & 0xFF);
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = bytes[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupted tree snapshot");
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.example.x.compoundselector;
+
+import java.util.List;
+
+/**
+ * Walks {@link Node} trees in preorder, postorder or level order, without recursion and without
+ * allocating once its arrays have grown to the size of the walked trees.
+ * <p>Each node is passed to a {@link Visitor}, whose result controls the walk: {@link #CONTINUE},
+ * {@link #SKIP_SUBTREE} to leave out the descendants of the node, or {@link #TERMINATE} to stop
+ * the walk, which then returns the node.</p>
+ * <p>A walker is not thread-safe. {@link #obtain()} returns a walker owned by the current thread,
+ * or a new one if that walker is already walking (e.g. when a visitor walks another tree).</p>
+ */
+public final class TreeWalker {
+
+    /**
+     * Goes on with the walk.
+     */
+    public static final int CONTINUE = 0;
+    /**
+     * Goes on with the walk, but leaves out the descendants of the visited node. Ignored once the
+     * descendants have been walked, i.e. by a postorder visitor.
+     */
+    public static final int SKIP_SUBTREE = 1;
+    /**
+     * Stops the walk, returning the visited node.
+     */
+    public static final int TERMINATE = 2;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final ThreadLocal<TreeWalker> THREAD_WALKER = new ThreadLocal<TreeWalker>() {
+        @Override
+        protected TreeWalker initialValue() {
+            return new TreeWalker();
+        }
+    };
+
+    /**
+     * The path from the walked root to the current node, for depth-first walks. For level order
+     * walks, the queue of the nodes to visit.
+     */
+    private Node[] nodes = new Node[INITIAL_CAPACITY];
+    /**
+     * The position of the next child to walk, for every node of the path.
+     */
+    private int[] nextChildPositions = new int[INITIAL_CAPACITY];
+    private int depth;
+    private boolean walking;
+
+    /**
+     * Returns the walker of the current thread, or a new walker if it is walking already.
+     */
+    public static TreeWalker obtain() {
+        TreeWalker walker = THREAD_WALKER.get();
+        return walker.walking ? new TreeWalker() : walker;
+    }
+
+    /**
+     * Visits the nodes of the tree in preorder.
+     *
+     * @param rootNode the root of the walked tree, or subtree.
+     * @param visitor  called with every node before its descendants.
+     * @return the node whose visit terminated the walk, or {@code null}.
+     */
+    public Node preOrder(Node rootNode, Visitor visitor) {
+        return depthFirst(rootNode, visitor, null);
+    }
+
+    /**
+     * Visits the nodes of the tree in postorder.
+     *
+     * @param rootNode the root of the walked tree, or subtree.
+     * @param visitor  called with every node after its descendants.
+     * @return the node whose visit terminated the walk, or {@code null}.
+     */
+    public Node postOrder(Node rootNode, Visitor visitor) {
+        return depthFirst(rootNode, null, visitor);
+    }
+
+    /**
+     * Walks the tree depth first, visiting every node both before and after its descendants.
+     *
+     * @param rootNode     the root of the walked tree, or subtree.
+     * @param preVisitor   called with every node before its descendants, may be {@code null}.
+     * @param postVisitor  called with every node after its descendants, may be {@code null}. Not
+     *                     called for a node whose subtree is skipped by the pre visitor.
+     * @return the node whose visit terminated the walk, or {@code null}.
+     */
+    public Node depthFirst(Node rootNode, Visitor preVisitor, Visitor postVisitor) {
+        if (rootNode == null) {
+            return null;
+        }
+        checkNotWalking();
+        walking = true;
+        try {
+            ensureCapacity(rootNode.isMetricsValid() ? rootNode.getCachedSubtreeDepth() : INITIAL_CAPACITY);
+            depth = 0;
+            if (preVisitor != null) {
+                int result = preVisitor.visit(rootNode);
+                if (result == TERMINATE) {
+                    return rootNode;
+                }
+                if (result == SKIP_SUBTREE) {
+                    return null;
+                }
+            }
+            push(rootNode);
+            while (depth > 0) {
+                int top = depth - 1;
+                Node node = nodes[top];
+                List<Node> children = node.getChildList();
+                int position = nextChildPositions[top];
+                if (children != null && position < children.size()) {
+                    nextChildPositions[top] = position + 1;
+                    Node child = children.get(position);
+                    if (preVisitor != null) {
+                        int result = preVisitor.visit(child);
+                        if (result == TERMINATE) {
+                            return child;
+                        }
+                        if (result == SKIP_SUBTREE) {
+                            continue;
+                        }
+                    }
+                    push(child);
+                } else {
+                    nodes[top] = null;
+                    depth = top;
+                    if (postVisitor != null && postVisitor.visit(node) == TERMINATE) {
+                        return node;
+                    }
+                }
+            }
+            return null;
+        } finally {
+            clear();
+            walking = false;
+        }
+    }
+
+    /**
+     * Visits the nodes of the tree level by level, each level from left to right.
+     *
+     * @param rootNode the root of the walked tree, or subtree.
+     * @param visitor  called with every node before the nodes of the next level.
+     * @return the node whose visit terminated the walk, or {@code null}.
+     */
+    public Node levelOrder(Node rootNode, Visitor visitor) {
+        if (rootNode == null) {
+            return null;
+        }
+        checkNotWalking();
+        walking = true;
+        // The queue is the range [head, tail) of the nodes array.
+        int head = 0;
+        int tail = 0;
+        try {
+            nodes[tail++] = rootNode;
+            while (head < tail) {
+                Node node = nodes[head];
+                nodes[head++] = null;
+                int result = visitor.visit(node);
+                if (result == TERMINATE) {
+                    return node;
+                }
+                List<Node> children = node.getChildList();
+                if (result == SKIP_SUBTREE || children == null || children.isEmpty()) {
+                    continue;
+                }
+                int size = children.size();
+                if (tail + size > nodes.length) {
+                    // Compact the queue first, then grow the array if needed.
+                    System.arraycopy(nodes, head, nodes, 0, tail - head);
+                    for (int i = tail - head; i < tail; i++) {
+                        nodes[i] = null;
+                    }
+                    tail -= head;
+                    head = 0;
+                    ensureCapacity(tail + size);
+                }
+                for (int i = 0; i < size; i++) {
+                    nodes[tail++] = children.get(i);
+                }
+            }
+            return null;
+        } finally {
+            for (int i = head; i < tail; i++) {
+                nodes[i] = null;
+            }
+            walking = false;
+        }
+    }
+
+    /**
+     * Returns the depth of the node being visited by a depth-first walk, relatively to the walked
+     * root: 0 for the root, 1 for its children and so on.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    private void push(Node node) {
+        if (depth == nodes.length) {
+            ensureCapacity(depth + 1);
+        }
+        nodes[depth] = node;
+        nextChildPositions[depth] = 0;
+        depth++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= nodes.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, nodes.length * 2);
+        Node[] newNodes = new Node[newCapacity];
+        System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+        nodes = newNodes;
+        int[] newPositions = new int[newCapacity];
+        System.arraycopy(nextChildPositions, 0, newPositions, 0, nextChildPositions.length);
+        nextChildPositions = newPositions;
+    }
+
+    /**
+     * Releases the walked nodes, so that a pooled walker never retains a tree.
+     */
+    private void clear() {
+        for (int i = 0; i < depth; i++) {
+            nodes[i] = null;
+        }
+        depth = 0;
+    }
+
+    private void checkNotWalking() {
+        if (walking) {
+            throw new IllegalStateException("The walker is walking already, use another one");
+        }
+    }
+
+    public interface Visitor {
+        /**
+         * @param node the visited node.
+         * @return {@link #CONTINUE}, {@link #SKIP_SUBTREE} or {@link #TERMINATE}.
+         */
+        int visit(Node node);
+    }
+}
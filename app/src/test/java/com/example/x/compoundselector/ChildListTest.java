@@ -0,0 +1,95 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the hash counts of {@link ChildList} follow the changes of wide branches, including
+ * renamed children and children equal to each other.
+ */
+public class ChildListTest {
+
+    private static List<Node> newNodes(String prefix, int count) {
+        List<Node> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            nodes.add(new Node(prefix + i, prefix + i));
+        }
+        return nodes;
+    }
+
+    @Test
+    public void addChild_rejectsDuplicatesOfWideBranches() {
+        int width = 20000;
+        Node root = new Node("root", "root");
+        for (Node node : newNodes("c", width)) {
+            assertTrue(root.addChild(node));
+        }
+        assertFalse(root.addChild(new Node("c123", "c123")));
+        assertTrue(root.removeChild(new Node("c123", "c123")));
+        assertFalse(root.removeChild(new Node("c123", "c123")));
+        assertTrue(root.addChild(new Node("c123", "c123")));
+        assertEquals(width, root.getChildren().size());
+        assertEquals("c123", root.getChildren().get(width - 1).getValue());
+        assertSame(root, root.getChildren().get(width - 1).getParent());
+        assertEquals(width, Node.getTreeLeafCount(root));
+    }
+
+    @Test
+    public void addChildren_addsOnceAndRemoveChildrenUnlinks() {
+        Node root = new Node("root", "root");
+        root.addChild(new Node("c5", "c5"));
+        List<Node> nodes = newNodes("c", 100);
+        // Equal to a child, and to a node added before.
+        nodes.add(new Node("c7", "c7"));
+        assertTrue(root.addChildren(nodes));
+        assertFalse(root.addChildren(newNodes("c", 10)));
+        assertEquals(100, root.getChildren().size());
+        assertEquals("c5", root.getChildren().get(0).getValue());
+        assertEquals("c99", root.getChildren().get(99).getValue());
+        assertEquals(1, root.getChildren().get(50).getHeight());
+
+        Node.setSingleLeafNodeChecked(root, root.getChildren().get(40));
+        Node removedLeaf = root.getChildren().get(30);
+        assertTrue(root.removeChildren(newNodes("c", 50)));
+        assertFalse(root.removeChildren(Arrays.asList(new Node("c1", "c1"))));
+        assertEquals(50, root.getChildren().size());
+        assertEquals("c50", root.getChildren().get(0).getValue());
+        assertNull(removedLeaf.getParent());
+        assertEquals(0, removedLeaf.getHeight());
+        assertNull(Node.findNode(root, new Node("c30", "c30")));
+        assertSame(root.getChildren().get(10), Node.findNode(root, new Node("c60", "c60")));
+        assertNull(Node.findCheckedLeafPreOrder(root));
+    }
+
+    @Test
+    public void counts_followRenamesAndEqualChildren() {
+        Node root = new Node("root", "root");
+        root.addChildren(newNodes("c", 20));
+        Node renamed = root.getChildren().get(3);
+        renamed.setShowName("x");
+        assertFalse(root.getChildren().contains(new Node("c3", "c3")));
+        assertTrue(root.getChildren().contains(new Node("x", "c3")));
+        assertTrue(root.addChild(new Node("c3", "c3")));
+
+        // Children equal to each other, as read by Gson.
+        List<Node> read = newNodes("c", 20);
+        read.addAll(newNodes("c", 20));
+        ChildList children = new ChildList(read);
+        Node first = children.remove(4);
+        assertTrue(children.contains(first));
+        first.setShowName("y");
+        children.remove(children.indexOf(new Node("c4", "c4")));
+        assertFalse(children.contains(new Node("c4", "c4")));
+        assertTrue(children.contains(new Node("c5", "c5")));
+        assertEquals(38, children.size());
+    }
+}
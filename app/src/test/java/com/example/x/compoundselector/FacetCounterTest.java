@@ -0,0 +1,206 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the counts of {@link FacetCounter} against a scan of the records of a {@link RecordIndex},
+ * with single and multiple tags per group.
+ */
+public class FacetCounterTest {
+
+    private static final String COLORS = "{\"showName\":\"color\",\"value\":\"color\",\"children\":["
+            + "{\"showName\":\"All\",\"value\":\"*\"},"
+            + "{\"showName\":\"warm\",\"value\":\"warm\",\"children\":["
+            + "{\"showName\":\"red\",\"value\":\"1\"},{\"showName\":\"orange\",\"value\":\"2\"}]},"
+            + "{\"showName\":\"cold\",\"value\":\"cold\",\"children\":["
+            + "{\"showName\":\"blue\",\"value\":\"3\"},{\"showName\":\"green\",\"value\":\"4\"}]}]}";
+    private static final String SIZES = "{\"showName\":\"size\",\"value\":\"size\",\"children\":["
+            + "{\"showName\":\"S\",\"value\":\"s\"},{\"showName\":\"M\",\"value\":\"m\"},"
+            + "{\"showName\":\"L\",\"value\":\"l\"}]}";
+
+    @Test
+    public void count_excludesOwnGroupSelection() {
+        Node colors = TreeLoader.fromJson(COLORS);
+        Node sizes = TreeLoader.fromJson(SIZES);
+        Node all = child(colors, 0);
+        Node warm = child(colors, 1);
+        Node red = child(warm, 0);
+        Node blue = child(child(colors, 2), 0);
+        Node s = child(sizes, 0);
+        Node m = child(sizes, 1);
+
+        RecordIndex.Builder builder = new RecordIndex.Builder(Arrays.asList(colors, sizes));
+        builder.matchAll(0, all.getValue());
+        builder.addRecord(red.getValue(), s.getValue());
+        builder.addRecord(red.getValue(), m.getValue());
+        builder.addRecord(blue.getValue(), s.getValue());
+        builder.addRecord(blue.getValue());
+        FacetCounter counter = FacetCounter.of(builder.build());
+
+        FacetCounts counts = counter.count(new Node[]{red, null}, null);
+        // Sizes are counted among the red records only.
+        assertEquals(1, counts.getCount(1, s));
+        assertEquals(1, counts.getCount(1, m));
+        assertEquals(2, counts.getCount(1, sizes));
+        // Colors do not depend on their own selection.
+        assertEquals(2, counts.getCount(0, red));
+        assertEquals(2, counts.getCount(0, warm));
+        assertEquals(4, counts.getCount(0, all));
+        assertEquals(2, counts.getMatchCount());
+
+        FacetCounts next = counter.count(new Node[]{blue, s}, counts);
+        assertEquals(1, next.getCount(0, red));
+        assertEquals(1, next.getCount(0, blue));
+        assertEquals(2, next.getCount(0, all));
+        assertEquals(1, next.getMatchCount());
+
+        // Only the sizes changed, so the counts of the sizes are kept.
+        FacetCounts last = counter.count(new Node[]{blue, m}, next);
+        assertSame(next.getGroupCounts(1), last.getGroupCounts(1));
+        assertEquals(1, last.getCount(0, red));
+        assertEquals(0, last.getMatchCount());
+        // Selecting a branch, or the node matching all, restricts by its subtree, or not at all.
+        assertEquals(2, counter.count(new Node[]{warm, null}, null).getMatchCount());
+        assertEquals(4, counter.count(new Node[]{all, null}, null).getMatchCount());
+        assertEquals(-1, last.getCount(0, new Node("red", "1")));
+    }
+
+    @Test
+    public void count_matchesScan_randomRecords() {
+        Random random = new Random(7);
+        for (int round = 0; round < 20; round++) {
+            Node colors = TreeLoader.fromJson(COLORS);
+            Node sizes = TreeLoader.fromJson(SIZES);
+            List<Node> colorLeaves = leaves(colors);
+            List<Node> sizeLeaves = leaves(sizes);
+            // Some rounds dense, some sparse, some with several colors per record.
+            int recordCount = 1 + random.nextInt(round % 2 == 0 ? 50 : 3000);
+            boolean multi = round % 3 == 0;
+
+            RecordIndex.Builder builder = new RecordIndex.Builder(Arrays.asList(colors, sizes));
+            List<List<Node>> recordColors = new ArrayList<>();
+            List<Node> recordSizes = new ArrayList<>();
+            for (int r = 0; r < recordCount; r++) {
+                Node size = random.nextInt(5) == 0 ? null : sizeLeaves.get(random.nextInt(sizeLeaves.size()));
+                int record = builder.addRecord(null, size == null ? null : size.getValue());
+                List<Node> tagged = new ArrayList<>();
+                int tagCount = multi ? random.nextInt(3) : random.nextInt(4) == 0 ? 0 : 1;
+                for (int t = 0; t < tagCount; t++) {
+                    Node color = colorLeaves.get(random.nextInt(colorLeaves.size()));
+                    builder.tag(record, 0, color.getValue());
+                    tagged.add(color);
+                }
+                recordColors.add(tagged);
+                recordSizes.add(size);
+            }
+            FacetCounter counter = FacetCounter.of(builder.build());
+
+            FacetCounts previous = null;
+            for (int step = 0; step < 10; step++) {
+                Node color = random.nextBoolean() ? null : pick(random, colors);
+                Node size = random.nextBoolean() ? null : pick(random, sizes);
+                FacetCounts counts = counter.count(new Node[]{color, size}, previous);
+                for (Node node : nodes(colors)) {
+                    int expected = 0;
+                    for (int r = 0; r < recordCount; r++) {
+                        if (under(recordSizes.get(r), size) && anyUnder(recordColors.get(r), node)) {
+                            expected++;
+                        }
+                    }
+                    assertEquals(node.toString(), expected, counts.getCount(0, node));
+                }
+                for (Node node : nodes(sizes)) {
+                    int expected = 0;
+                    for (int r = 0; r < recordCount; r++) {
+                        if (anyUnder(recordColors.get(r), color) && under(recordSizes.get(r), node)) {
+                            expected++;
+                        }
+                    }
+                    assertEquals(node.toString(), expected, counts.getCount(1, node));
+                }
+                int expectedMatches = 0;
+                for (int r = 0; r < recordCount; r++) {
+                    if (anyUnder(recordColors.get(r), color) && under(recordSizes.get(r), size)) {
+                        expectedMatches++;
+                    }
+                }
+                assertEquals(expectedMatches, counts.getMatchCount());
+                previous = counts;
+            }
+        }
+    }
+
+    private static Node child(Node node, int index) {
+        return node.getChildren().get(index);
+    }
+
+    private static List<Node> nodes(Node rootNode) {
+        final List<Node> nodes = new ArrayList<>();
+        TreeWalker.obtain().preOrder(rootNode, new TreeWalker.Visitor() {
+            @Override
+            public int visit(Node node) {
+                nodes.add(node);
+                return TreeWalker.CONTINUE;
+            }
+        });
+        return nodes;
+    }
+
+    private static List<Node> leaves(Node rootNode) {
+        List<Node> leaves = new ArrayList<>();
+        for (Node node : nodes(rootNode)) {
+            if (node.isLeaf() && !"*".equals(node.getValue())) {
+                leaves.add(node);
+            }
+        }
+        return leaves;
+    }
+
+    /**
+     * Picks a node other than the root and the "All" leaf, which do not restrict the records.
+     */
+    private static Node pick(Random random, Node rootNode) {
+        List<Node> nodes = nodes(rootNode);
+        Node node;
+        do {
+            node = nodes.get(random.nextInt(nodes.size()));
+        } while (node == rootNode || "*".equals(node.getValue()));
+        return node;
+    }
+
+    /**
+     * Returns <tt>true</tt> if the tagged node is the selected node or below it, or if nothing
+     * is selected.
+     */
+    private static boolean under(Node tagged, Node selected) {
+        if (selected == null) {
+            return true;
+        }
+        for (Node node = tagged; node != null; node = node.getParent()) {
+            if (node == selected) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean anyUnder(List<Node> tagged, Node selected) {
+        if (selected == null) {
+            return true;
+        }
+        for (Node node : tagged) {
+            if (under(node, selected)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
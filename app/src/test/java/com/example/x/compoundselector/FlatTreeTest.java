@@ -0,0 +1,164 @@
+package com.example.x.compoundselector;
+
+import com.google.gson.stream.JsonReader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that a {@link FlatTree} answers as the {@link Node} tree it is built from, read from
+ * JSON or converted back.
+ */
+public class FlatTreeTest {
+
+    @Test
+    public void of_matchesNodeTree() {
+        Random random = new Random(13);
+        Node root = TreeLoader.fromJson(RandomTreeChanges.TREE);
+        RandomTreeChanges changes = new RandomTreeChanges(random);
+        for (int round = 0; round < 300; round++) {
+            changes.apply(root);
+            assertSameTree(root, FlatTree.of(root));
+        }
+    }
+
+    @Test
+    public void fromJson_matchesNodeTree() throws IOException {
+        Random random = new Random(17);
+        Node root = TreeLoader.fromJson(RandomTreeChanges.TREE);
+        RandomTreeChanges changes = new RandomTreeChanges(random);
+        for (int round = 0; round < 100; round++) {
+            changes.apply(root);
+            String json = toJson(root, new StringBuilder()).toString();
+            StringPool stringPool = new StringPool();
+            FlatTree tree = FlatTree.fromJson(new JsonReader(new StringReader(json)), stringPool);
+            assertSameTree(TreeLoader.fromJson(json), tree);
+            // The strings are shared through the specified pool.
+            for (int id = 0; id < tree.size(); id++) {
+                assertSame(stringPool.intern(new String(tree.getShowName(id))), tree.getShowName(id));
+            }
+        }
+    }
+
+    @Test
+    public void setSingleLeafNodeChecked_matchesNodeTree() {
+        Random random = new Random(19);
+        Node root = TreeLoader.fromJson(RandomTreeChanges.TREE);
+        RandomTreeChanges changes = new RandomTreeChanges(random);
+        for (int round = 0; round < 50; round++) {
+            changes.apply(root);
+        }
+        FlatTree tree = FlatTree.of(root);
+        List<Node> nodes = RandomTreeChanges.preOrder(root);
+        for (int round = 0; round < 200; round++) {
+            int id = random.nextInt(tree.size());
+            assertEquals(Node.setSingleLeafNodeChecked(root, nodes.get(id)), tree.setSingleLeafNodeChecked(id));
+            assertSameTree(root, tree);
+            if (random.nextInt(10) == 0) {
+                Node.setAllNodeUnchecked(root);
+                tree.setAllNodeUnchecked();
+                assertEquals(FlatTree.NO_NODE, tree.findCheckedLeafPreOrder());
+                assertEquals(nodes.indexOf(Node.getCheckedLeafWithDefault(root)), tree.getCheckedLeafWithDefault());
+            }
+        }
+        assertFalse(tree.setSingleLeafNodeChecked(tree.size()));
+    }
+
+    @Test
+    public void toNode_roundTrip() {
+        Random random = new Random(23);
+        Node root = TreeLoader.fromJson(RandomTreeChanges.TREE);
+        RandomTreeChanges changes = new RandomTreeChanges(random);
+        for (int round = 0; round < 100; round++) {
+            changes.apply(root);
+            FlatTree tree = FlatTree.of(root);
+            Node copy = tree.toNode();
+            TreeAssert.assertSameTree(root, copy);
+            assertSameTree(copy, tree);
+            assertEquals(Node.getTreeLeafCount(root), Node.getTreeLeafCount(copy));
+        }
+    }
+
+    @Test
+    public void toNode_keepsRepeatedSiblings() throws IOException {
+        // The checked leaf is under the second of two equal branches.
+        String json = "{\"showName\":\"r\",\"value\":\"r\",\"checked\":true,\"children\":["
+                + "{\"showName\":\"a\",\"value\":\"a\",\"children\":[{\"showName\":\"x\",\"value\":\"x\"}]},"
+                + "{\"showName\":\"a\",\"value\":\"a\",\"checked\":true,\"children\":["
+                + "{\"showName\":\"y\",\"value\":\"y\",\"checked\":true},"
+                + "{\"showName\":\"y\",\"value\":\"y\"}]}]}";
+        Node expected = TreeLoader.fromJson(json);
+        FlatTree tree = FlatTree.fromJson(new JsonReader(new StringReader(json)), new StringPool());
+        Node copy = tree.toNode();
+        TreeAssert.assertSameTree(expected, copy);
+        assertSameTree(copy, tree);
+        assertSame(copy.getChildren().get(1).getChildren().get(0), Node.findCheckedLeafPreOrder(copy));
+    }
+
+    /**
+     * Checks the structure, checked states, path, checked leaf, depth and degree of the tree against the nodes,
+     * which are numbered in preorder.
+     */
+    private static void assertSameTree(Node root, FlatTree tree) {
+        List<Node> nodes = RandomTreeChanges.preOrder(root);
+        Map<Node, Integer> ids = new IdentityHashMap<>();
+        for (int id = 0; id < nodes.size(); id++) {
+            ids.put(nodes.get(id), id);
+        }
+        assertEquals(nodes.size(), tree.size());
+        assertEquals(0, tree.getRoot());
+        for (int id = 0; id < nodes.size(); id++) {
+            Node node = nodes.get(id);
+            assertEquals(node.getShowName(), tree.getShowName(id));
+            assertEquals(node.getValue(), tree.getValue(id));
+            assertEquals(node.isRoot(), tree.isRoot(id));
+            assertEquals(node.isLeaf(), tree.isLeaf(id));
+            assertEquals(node.isChecked(), tree.isChecked(id));
+            assertEquals(node.getHeight(), tree.getLevel(id));
+            assertEquals(node.getChildList().size(), tree.getChildCount(id));
+            assertEquals(idOf(ids, node.getParent()), tree.getParent(id));
+            assertEquals(idOf(ids, node.getFirstLeafPreOrder()), tree.getFirstLeafPreOrder(id));
+
+            List<Node> path = Node.getNodeSimplePath(node);
+            int[] flatPath = tree.getNodeSimplePath(id);
+            assertEquals(path.size(), flatPath.length);
+            for (int i = 0; i < flatPath.length; i++) {
+                assertEquals(idOf(ids, path.get(i)), flatPath[i]);
+            }
+        }
+        assertEquals(Node.getTreeDepth(root), tree.getTreeDepth());
+        assertEquals(Node.getTreeDegree(root), tree.getTreeDegree());
+        assertEquals(Node.getTreeLeafCount(root), tree.getTreeLeafCount());
+        Node checkedLeaf = Node.findCheckedLeafPreOrder(root);
+        assertEquals(idOf(ids, checkedLeaf), tree.findCheckedLeafPreOrder());
+    }
+
+    private static int idOf(Map<Node, Integer> ids, Node node) {
+        return node == null ? FlatTree.NO_NODE : ids.get(node);
+    }
+
+    private static StringBuilder toJson(Node node, StringBuilder json) {
+        json.append("{\"showName\":\"").append(node.getShowName())
+                .append("\",\"value\":\"").append(node.getValue())
+                .append("\",\"checked\":").append(node.isChecked());
+        if (!node.isLeaf()) {
+            json.append(",\"children\":[");
+            List<Node> children = node.getChildList();
+            for (int i = 0; i < children.size(); i++) {
+                toJson(children.get(i), i == 0 ? json : json.append(','));
+            }
+            json.append(']');
+        }
+        return json.append('}');
+    }
+}
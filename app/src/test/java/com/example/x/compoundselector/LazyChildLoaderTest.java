@@ -0,0 +1,134 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the paging and the eviction of {@link LazyChildLoader}, with an
+ * {@link InMemoryChildProvider} and executors running the tasks in place.
+ */
+public class LazyChildLoaderTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * A root with the specified count of branches, each with the specified count of leaves.
+     */
+    private static Node buildSource(int branches, int leaves) {
+        Node root = new Node("root", "root");
+        for (int b = 0; b < branches; b++) {
+            Node branch = new Node("b" + b, "b" + b);
+            for (int l = 0; l < leaves; l++) {
+                branch.addChild(new Node("b" + b + "l" + l, "b" + b + "l" + l));
+            }
+            root.addChild(branch);
+        }
+        Node.formatTree(root);
+        return root;
+    }
+
+    @Test
+    public void loadNextPage_pagesUntilEnd() {
+        Node lazyRoot = new InMemoryChildProvider(0).newLazyTree(buildSource(25, 3));
+        LazyChildLoader loader = new LazyChildLoader(10, 64, DIRECT, DIRECT);
+        final List<Node> loaded = new ArrayList<>();
+        LazyChildLoader.OnChildPageLoadedListener listener = new LazyChildLoader.OnChildPageLoadedListener() {
+            @Override
+            public void onChildPageLoaded(Node parent) {
+                loaded.add(parent);
+            }
+
+            @Override
+            public void onChildPageFailed(Node parent, Exception e) {
+                throw new AssertionError(e);
+            }
+        };
+
+        assertFalse(lazyRoot.isLeaf());
+        assertEquals(3, Node.getTreeDepth(lazyRoot));
+        int pages = 0;
+        while (loader.loadNextPage(lazyRoot, listener)) {
+            pages++;
+        }
+        assertEquals(3, pages);
+        assertEquals(3, loaded.size());
+        assertFalse(lazyRoot.hasMoreChildren());
+        assertEquals(25, lazyRoot.getChildren().size());
+        assertEquals("b24", lazyRoot.getChildren().get(24).getValue());
+        assertEquals(3, Node.getTreeDepth(lazyRoot));
+
+        Node branch = lazyRoot.getChildren().get(7);
+        assertTrue(branch.hasMoreChildren());
+        assertTrue(loader.loadNextPage(branch, listener));
+        assertEquals(3, branch.getChildren().size());
+        assertTrue(branch.getChildren().get(0).isLeaf());
+        assertEquals(2, branch.getChildren().get(0).getHeight());
+        // Branches not loaded yet are no leaves.
+        assertEquals(3, Node.getTreeLeafCount(lazyRoot));
+    }
+
+    @Test
+    public void loadNextPage_evictsLeastRecentlyUsedLevels() {
+        Node lazyRoot = new InMemoryChildProvider(0).newLazyTree(buildSource(5, 2));
+        LazyChildLoader loader = new LazyChildLoader(10, 4, DIRECT, DIRECT);
+        loader.loadNextPage(lazyRoot, null);
+        List<Node> branches = lazyRoot.getChildren();
+
+        loader.loadNextPage(branches.get(0), null);
+        Node.setSingleLeafNodeChecked(lazyRoot, branches.get(0).getChildren().get(1));
+        loader.loadNextPage(branches.get(1), null);
+        loader.loadNextPage(branches.get(2), null);
+        loader.touch(branches.get(1));
+        loader.loadNextPage(branches.get(3), null);
+
+        // The root and the first branch are on the checked path, the third branch is the least
+        // recently used.
+        assertEquals(4, loader.getCachedLevelCount());
+        assertEquals(2, branches.get(0).getChildren().size());
+        assertEquals(2, branches.get(1).getChildren().size());
+        assertTrue(branches.get(2).getChildren().isEmpty());
+        assertTrue(branches.get(2).hasMoreChildren());
+        assertFalse(branches.get(2).isLeaf());
+        assertEquals(2, branches.get(3).getChildren().size());
+
+        // A dropped level is loaded again on demand.
+        assertTrue(loader.loadNextPage(branches.get(2), null));
+        assertEquals(2, branches.get(2).getChildren().size());
+        assertNotNull(Node.findCheckedLeafPreOrder(lazyRoot));
+        assertEquals("b0l1", Node.findCheckedLeafPreOrder(lazyRoot).getValue());
+    }
+
+    @Test
+    public void inMemoryChildProvider_servesSeveralTreesByKey() {
+        InMemoryChildProvider provider = new InMemoryChildProvider(0);
+        Node first = provider.newLazyTree(buildSource(3, 2));
+        Node second = provider.newLazyTree(buildSource(2, 4));
+        LazyChildLoader loader = new LazyChildLoader(10, 64, DIRECT, DIRECT);
+
+        assertTrue(loader.loadNextPage(second, null));
+        Node branch = second.getChildren().get(1);
+        assertEquals(2, Node.getTreeDepth(branch));
+        assertTrue(loader.loadNextPage(branch, null));
+        assertEquals(4, branch.getChildren().size());
+        assertEquals("b1l3", branch.getChildren().get(3).getValue());
+
+        assertTrue(loader.loadNextPage(first, null));
+        branch = first.getChildren().get(2);
+        assertTrue(loader.loadNextPage(branch, null));
+        assertEquals(2, branch.getChildren().size());
+        assertEquals("b2l1", branch.getChildren().get(1).getValue());
+    }
+}
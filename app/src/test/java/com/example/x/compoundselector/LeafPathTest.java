@@ -0,0 +1,90 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a {@link LeafPath} finds its leaf again in a new copy of the tree, even when the
+ * tree changed meanwhile.
+ */
+public class LeafPathTest {
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final String JSON = "{\"showName\":\"r\",\"value\":\"r\",\"children\":["
+            + "{\"showName\":\"a\",\"value\":\"a\",\"children\":["
+            + "{\"showName\":\"x\",\"value\":\"1\"},{\"showName\":\"x\",\"value\":\"2\"}]},"
+            + "{\"showName\":\"b\",\"value\":\"b\",\"children\":["
+            + "{\"showName\":\"y\",\"value\":\"3\"},{\"showName\":\"z\",\"value\":\"4\"}]}]}";
+
+    @Test
+    public void resolve_sameTree() {
+        Node saved = TreeLoader.fromJson(JSON);
+        Node leaf = saved.getChildren().get(1).getChildren().get(1);
+        LeafPath path = LeafPath.of(leaf);
+        assertArrayEquals(new int[]{1, 1}, path.getChildIndices());
+
+        Node restored = TreeLoader.fromJson(JSON);
+        assertSame(restored.getChildren().get(1).getChildren().get(1), path.resolve(restored));
+        // Copied as they would be through a parcel.
+        LeafPath parceled = new LeafPath(path.getChildIndices().clone(), path.getNodeHashes().clone());
+        assertSame(path.resolve(restored), parceled.resolve(restored));
+    }
+
+    @Test
+    public void resolve_changedTree() {
+        LeafPath path = LeafPath.of(TreeLoader.fromJson(JSON).getChildren().get(1).getChildren().get(1));
+
+        Node restored = TreeLoader.fromJson(JSON);
+        Node b = restored.getChildren().get(1);
+        // The leaf moved to another index, found by its hash.
+        b.addChildren(Arrays.asList(new Node("w", "5")));
+        b.removeChild(b.getChildren().get(0));
+        assertSame(b.getChildren().get(0), path.resolve(restored));
+        // The leaf is gone.
+        b.removeChild(b.getChildren().get(0));
+        assertNull(path.resolve(restored));
+        // Not a leaf any more.
+        assertNull(LeafPath.of(b).resolve(restored));
+    }
+
+    @Test
+    public void resolveLoaded_lazyTree_stopsAtNodeToLoad() {
+        Node source = TreeLoader.fromJson(JSON);
+        LeafPath path = LeafPath.of(source.getChildren().get(1).getChildren().get(1));
+        Node lazyRoot = new InMemoryChildProvider(0).newLazyTree(source);
+        LazyChildLoader loader = new LazyChildLoader(1, 64, DIRECT, DIRECT);
+
+        assertSame(lazyRoot, path.resolveLoaded(lazyRoot));
+        assertNull(path.resolve(lazyRoot));
+        // "a" only, the rest of the path is in the next page.
+        assertTrue(loader.loadNextPage(lazyRoot, null));
+        assertSame(lazyRoot, path.resolveLoaded(lazyRoot));
+        assertTrue(loader.loadNextPage(lazyRoot, null));
+        Node b = lazyRoot.getChildren().get(1);
+        assertSame(b, path.resolveLoaded(lazyRoot));
+        assertTrue(loader.loadNextPage(b, null));
+        assertTrue(loader.loadNextPage(b, null));
+        Node z = b.getChildren().get(1);
+        assertSame(z, path.resolveLoaded(lazyRoot));
+        assertSame(z, path.resolve(lazyRoot));
+        // The end of the children is known once a page comes short.
+        assertTrue(loader.loadNextPage(b, null));
+        assertFalse(b.hasMoreChildren());
+        LeafPath missing = new LeafPath(new int[]{1, 1}, new int[]{b.hashCode(), 0});
+        assertNull(missing.resolveLoaded(lazyRoot));
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.x.compoundselector;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.example.x.compoundselector.TreeAssert.assertSameTree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a {@link MappedTreeFile} serves the same tree as the one written, and that stale or
+ * corrupted files fall back to the source.
+ */
+public class MappedTreeFileTest {
+
+    private static final long STAMP = 42;
+
+    private File file;
+    private Node source;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("tree", ".tree");
+        source = TreeLoader.fromJson(TreeLoaderTest.buildCatalog(20, 10, 5));
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void readTree_sameTree() throws IOException {
+        MappedTreeFile.write(source, STAMP, file);
+        MappedTreeFile treeFile = MappedTreeFile.open(file, STAMP);
+
+        assertEquals(1 + 20 + 20 * 10 + 20 * 10 * 5, treeFile.getNodeCount());
+        assertSameTree(source, treeFile.readTree());
+    }
+
+    @Test
+    public void lazyTree_loadsChildrenByPage() throws IOException {
+        MappedTreeFile.write(source, STAMP, file);
+        MappedTreeFile treeFile = MappedTreeFile.open(file, STAMP);
+        Node root = treeFile.newLazyTree();
+
+        assertEquals(source, root);
+        assertSame(treeFile, root.getChildProvider());
+        assertEquals(4, treeFile.getSubtreeDepth(root));
+        List<Node> page = treeFile.loadChildren(root, 15, 10);
+        assertEquals(5, page.size());
+        assertEquals(source.getChildren().get(15), page.get(0));
+
+        Node province = page.get(0);
+        assertSame(treeFile, province.getChildProvider());
+        assertEquals(3, treeFile.getSubtreeDepth(province));
+        List<Node> cities = treeFile.loadChildren(province, 0, 50);
+        assertEquals(source.getChildren().get(15).getChildren(), cities);
+        List<Node> districts = treeFile.loadChildren(cities.get(9), 0, 50);
+        assertEquals(source.getChildren().get(15).getChildren().get(9).getChildren(), districts);
+        assertEquals("0", districts.get(0).getTag());
+        // Leaves declare no provider.
+        assertNull(districts.get(0).getChildProvider());
+        assertFalse(districts.get(0).hasMoreChildren());
+    }
+
+    @Test
+    public void lazyTree_loadsCheckedPath() throws IOException {
+        Node checkedLeaf = source.getChildren().get(7).getChildren().get(3).getChildren().get(2);
+        // Leaves are found by key, which repeats in every city.
+        checkedLeaf.setValue("checked");
+        assertTrue(Node.setSingleLeafNodeChecked(source, checkedLeaf));
+        MappedTreeFile.write(source, STAMP, file);
+        Node root = MappedTreeFile.open(file, STAMP).newLazyTree();
+
+        // Only the levels along the checked path are loaded, with their checked states.
+        assertEquals(20, root.getChildList().size());
+        assertFalse(root.hasMoreChildren());
+        Node province = root.getChildList().get(7);
+        assertTrue(province.isChecked());
+        assertTrue(root.getChildList().get(6).hasMoreChildren());
+        assertEquals(10, province.getChildList().size());
+        Node leaf = Node.findCheckedLeafPreOrder(root);
+        assertEquals(LeafPath.of(checkedLeaf), LeafPath.of(leaf));
+        assertSame(leaf, Node.getCheckedLeafWithDefault(root));
+        // Other branches still know their depth.
+        assertEquals(3, province.getChildProvider().getSubtreeDepth(root.getChildList().get(6)));
+    }
+
+    @Test
+    public void lazyTree_loadsFirstPathWithoutCheckedLeaf() throws IOException {
+        MappedTreeFile.write(source, STAMP, file);
+        Node root = MappedTreeFile.open(file, STAMP).newLazyTree();
+
+        assertNull(Node.findCheckedLeafPreOrder(root));
+        Node leaf = Node.getCheckedLeafWithDefault(root);
+        assertEquals(LeafPath.of(source.getFirstLeafPreOrder()), LeafPath.of(leaf));
+        assertTrue(root.getChildList().get(1).hasMoreChildren());
+    }
+
+    @Test
+    public void load_fallsBackToSourceWhenStaleOrCorrupted() throws Exception {
+        final AtomicInteger sourceLoads = new AtomicInteger();
+        Callable<Node> treeSource = new Callable<Node>() {
+            @Override
+            public Node call() {
+                sourceLoads.incrementAndGet();
+                return source;
+            }
+        };
+
+        // Missing, then written from the source.
+        file.delete();
+        assertSame(source, MappedTreeFile.load(file, STAMP, treeSource));
+        assertEquals(1, sourceLoads.get());
+        Node lazyRoot = MappedTreeFile.load(file, STAMP, treeSource);
+        assertTrue(lazyRoot.getChildProvider() instanceof MappedTreeFile);
+        assertEquals(1, sourceLoads.get());
+
+        // Stale.
+        assertSame(source, MappedTreeFile.load(file, STAMP + 1, treeSource));
+        assertEquals(2, sourceLoads.get());
+        MappedTreeFile.open(file, STAMP + 1);
+
+        // Truncated.
+        RandomAccessFile content = new RandomAccessFile(file, "rw");
+        try {
+            content.setLength(content.length() - 1);
+        } finally {
+            content.close();
+        }
+        try {
+            MappedTreeFile.open(file, STAMP + 1);
+            fail();
+        } catch (IOException expected) {
+            // Expected.
+        }
+        assertSame(source, MappedTreeFile.load(file, STAMP + 1, treeSource));
+        assertEquals(3, sourceLoads.get());
+
+        // A string changed in place, found by the checksum only.
+        content = new RandomAccessFile(file, "rw");
+        try {
+            content.seek(content.length() - 1);
+            int last = content.read();
+            content.seek(content.length() - 1);
+            content.write(last ^ 1);
+        } finally {
+            content.close();
+        }
+        MappedTreeFile corrupted = MappedTreeFile.open(file, STAMP + 1);
+        try {
+            corrupted.verify();
+            fail();
+        } catch (IOException expected) {
+            // Expected.
+        }
+        assertSame(source, MappedTreeFile.load(file, STAMP + 1, treeSource));
+        assertEquals(4, sourceLoads.get());
+        MappedTreeFile.open(file, STAMP + 1).verify();
+    }
+}
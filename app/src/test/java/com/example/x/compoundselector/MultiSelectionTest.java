@@ -0,0 +1,104 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the tri-state counts of {@link MultiSelection} against a count of the selected leaves
+ * of every subtree.
+ */
+public class MultiSelectionTest {
+
+    /**
+     * A root with 4 branches of 3 branches of 5 leaves.
+     */
+    private static FlatTree buildTree() {
+        Node root = new Node("root", "root");
+        for (int b = 0; b < 4; b++) {
+            Node branch = new Node("b" + b, "b" + b);
+            for (int c = 0; c < 3; c++) {
+                Node child = new Node("b" + b + "c" + c, "b" + b + "c" + c);
+                for (int l = 0; l < 5; l++) {
+                    child.addChild(new Node("b" + b + "c" + c + "l" + l, "b" + b + "c" + c + "l" + l));
+                }
+                branch.addChild(child);
+            }
+            root.addChild(branch);
+        }
+        Node.formatTree(root);
+        return FlatTree.of(root);
+    }
+
+    private static void assertCounts(FlatTree flatTree, MultiSelection selection, boolean[] selected) {
+        for (int id = 0; id < flatTree.size(); id++) {
+            int leaves = 0;
+            int selectedLeaves = 0;
+            for (int i = id, end = flatTree.getSubtreeEnd(id); i < end; i++) {
+                if (flatTree.isLeaf(i)) {
+                    leaves++;
+                    selectedLeaves += selected[i] ? 1 : 0;
+                }
+            }
+            assertEquals(leaves, selection.getLeafCount(id));
+            assertEquals(selectedLeaves, selection.getSelectedLeafCount(id));
+            int state = selectedLeaves == 0 ? MultiSelection.STATE_NONE
+                    : selectedLeaves == leaves ? MultiSelection.STATE_ALL : MultiSelection.STATE_PARTIAL;
+            assertEquals(state, selection.getSelectionState(id));
+        }
+    }
+
+    @Test
+    public void selection_keepsCountsOfEverySubtree() {
+        FlatTree flatTree = buildTree();
+        MultiSelection selection = new MultiSelection(flatTree);
+        boolean[] selected = new boolean[flatTree.size()];
+        Random random = new Random(3);
+        for (int step = 0; step < 500; step++) {
+            int id = random.nextInt(flatTree.size());
+            if (flatTree.isLeaf(id)) {
+                selected[id] = selection.toggleLeaf(id);
+            } else {
+                boolean select = random.nextBoolean();
+                selection.setSubtreeSelected(id, select);
+                for (int i = id, end = flatTree.getSubtreeEnd(id); i < end; i++) {
+                    selected[i] = select && flatTree.isLeaf(i);
+                }
+            }
+            assertCounts(flatTree, selection, selected);
+        }
+        // The single checked path of the tree is left untouched.
+        assertEquals(FlatTree.NO_NODE, flatTree.findCheckedLeafPreOrder());
+    }
+
+    @Test
+    public void setSubtreeSelected_selectsAllLeavesOfBranch() {
+        FlatTree flatTree = buildTree();
+        MultiSelection selection = new MultiSelection(flatTree);
+        int branch = flatTree.getChild(0, 1);
+        int child = flatTree.getChild(branch, 2);
+        int leaf = flatTree.getChild(child, 0);
+
+        assertTrue(selection.setLeafSelected(leaf, true));
+        assertFalse(selection.setLeafSelected(leaf, true));
+        assertEquals(MultiSelection.STATE_PARTIAL, selection.getSelectionState(branch));
+        assertEquals(14, selection.setSubtreeSelected(branch, true));
+        assertEquals(MultiSelection.STATE_ALL, selection.getSelectionState(branch));
+        assertEquals(MultiSelection.STATE_PARTIAL, selection.getSelectionState(0));
+        assertEquals(15, selection.getSelectedLeafCount());
+        assertEquals(leaf, selection.getSelectedLeaves()[10]);
+        assertEquals(flatTree.getFirstLeafPreOrder(branch), selection.getFirstSelectedLeaf());
+
+        assertEquals(5, selection.setSubtreeSelected(child, false));
+        assertTrue(selection.isSelected(flatTree.getChild(branch, 0)));
+        assertFalse(selection.isSelected(branch));
+        selection.clear();
+        assertArrayEquals(new int[0], selection.getSelectedLeaves());
+        assertEquals(FlatTree.NO_NODE, selection.getFirstSelectedLeaf());
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the checked path tracked by the root against walks of the tree, through additions,
+ * removals, renames and checks.
+ */
+public class NodeCheckedPathTest {
+
+    @Test
+    public void checkedPath_followsChecksAndRemovals() {
+        Node root = TreeLoader.fromJson(RandomTreeChanges.TREE);
+        Node b = root.getChildren().get(1);
+        Node b11 = b.getChildren().get(0).getChildren().get(0);
+        assertSame(b11, Node.findCheckedLeafPreOrder(root));
+
+        Node a2 = root.getChildren().get(0).getChildren().get(1);
+        assertTrue(Node.setSingleLeafNodeChecked(root, new Node("a2", "a2")));
+        assertSame(a2, Node.findCheckedLeafPreOrder(root));
+        assertFalse(b.isChecked());
+        assertFalse(b11.isChecked());
+        assertTrue(a2.getParent().isChecked() && root.isChecked());
+
+        // Turning the checked leaf into a branch breaks the path.
+        a2.addChild(new Node("a21", "a21"));
+        assertNull(Node.findCheckedLeafPreOrder(root));
+        assertTrue(Node.setSingleLeafNodeChecked(root, new Node("a21", "a21")));
+        root.getChildren().get(0).removeChild(new Node("a2", "a2"));
+        // The ancestors left checked are not a path to a leaf.
+        assertNull(Node.findCheckedLeafPreOrder(root));
+
+        Node.setAllNodeUnchecked(root);
+        assertNull(Node.findCheckedLeafPreOrder(root));
+        assertFalse(root.isChecked());
+        assertSame(root.getChildren().get(0).getChildren().get(0), Node.getCheckedLeafWithDefault(root));
+    }
+
+    @Test
+    public void checkedLeaf_matchesWalk_randomChanges() {
+        Random random = new Random(17);
+        for (int round = 0; round < 20; round++) {
+            Node root = TreeLoader.fromJson(RandomTreeChanges.TREE);
+            RandomTreeChanges changes = new RandomTreeChanges(random);
+            for (int step = 0; step < 200; step++) {
+                changes.apply(root);
+                Node firstCheckedLeaf = null;
+                for (Node node : RandomTreeChanges.preOrder(root)) {
+                    if (node.isLeaf() && node.isChecked()) {
+                        firstCheckedLeaf = node;
+                        break;
+                    }
+                }
+                assertSame(firstCheckedLeaf, Node.findCheckedLeafPreOrder(root));
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the {@link NodeIndex} of a tree answers the first node in preorder for every key,
+ * as a traversal would, through the changes of the tree.
+ */
+public class NodeIndexTest {
+
+    private static Node all() {
+        return new Node("All", "*");
+    }
+
+    /**
+     * Builds a root with the specified count of branches, each holding a leaf, and an "All" leaf
+     * from the branch {@code firstAll} on.
+     */
+    private static Node newTree(int branchCount, int firstAll) {
+        Node root = new Node("root", "root");
+        for (int i = 0; i < branchCount; i++) {
+            Node branch = new Node("b" + i, "b" + i);
+            branch.addChild(new Node("leaf", "b" + i + ".leaf"));
+            if (i >= firstAll) {
+                branch.addChild(all());
+            }
+            root.addChild(branch);
+        }
+        return root;
+    }
+
+    private static Node child(Node node, int index) {
+        return node.getChildren().get(index);
+    }
+
+    @Test
+    public void findNode_repeatedKeys_returnsFirstInPreOrder() {
+        Node root = newTree(4, 1);
+        assertSame(child(child(root, 1), 1), Node.findNode(root, all()));
+
+        // Added before the other ones in preorder, though added last.
+        Node first = all();
+        child(root, 0).addChild(first);
+        assertSame(first, Node.findNode(root, all()));
+        // An ancestor comes before its descendants.
+        Node branch = new Node("All", "*");
+        branch.addChild(new Node("x", "x"));
+        Node nested = new Node("n", "n");
+        nested.addChild(branch);
+        child(root, 0).addChild(nested);
+        assertSame(first, Node.findNode(root, all()));
+
+        assertTrue(child(root, 0).removeChild(all()));
+        assertSame(branch, Node.findNode(root, all()));
+        assertTrue(root.removeChild(new Node("b0", "b0")));
+        assertSame(child(child(root, 0), 1), Node.findNode(root, all()));
+        assertEquals("b1", Node.findNode(root, all()).getParent().getValue());
+    }
+
+    @Test
+    public void findNode_wideTree_checksTheFirstRepeatedLeaf() {
+        int width = 20000;
+        Node root = newTree(width, 0);
+        Node last = child(child(root, width - 1), 1);
+        assertTrue(Node.setSingleLeafNodeChecked(root, last));
+        // Lookups by key resolve to the first equal leaf, as the traversal did.
+        assertSame(child(child(root, 0), 1), Node.findCheckedLeafPreOrder(root));
+        Node inserted = new Node("b", "b");
+        inserted.addChild(all());
+        child(root, 0).addChild(inserted);
+        assertSame(child(child(root, 0), 1), Node.findNode(root, all()));
+    }
+
+    @Test
+    public void findNode_renamedNodes_followTheirKeys() {
+        Node root = newTree(3, 3);
+        Node.findNode(root, all());
+        Node second = child(child(root, 1), 0);
+        Node third = child(child(root, 2), 0);
+
+        third.setShowName("All");
+        third.setValue("*");
+        assertSame(third, Node.findNode(root, all()));
+        second.setShowName("All");
+        second.setValue("*");
+        assertSame(second, Node.findNode(root, all()));
+        assertNull(Node.findNode(root, new Node("leaf", "b1.leaf")));
+
+        second.setValue("other");
+        assertSame(third, Node.findNode(root, all()));
+        assertSame(second, Node.findNode(root, new Node("All", "other")));
+    }
+
+    @Test
+    public void findNode_addedAndRemovedSubtrees() {
+        Node root = newTree(3, 0);
+        assertSame(child(child(root, 0), 1), Node.findNode(root, all()));
+
+        Node subtree = new Node("s", "s");
+        Node inner = new Node("inner", "inner");
+        inner.addChild(new Node("deep", "deep"));
+        inner.addChild(all());
+        subtree.addChild(inner);
+        child(root, 1).addChild(subtree);
+        assertSame(inner, Node.findNode(root, new Node("inner", "inner")));
+        assertSame(child(inner, 0), Node.findNode(root, new Node("deep", "deep")));
+        assertSame(child(child(root, 0), 1), Node.findNode(root, all()));
+
+        assertTrue(child(root, 1).removeChild(new Node("s", "s")));
+        assertNull(Node.findNode(root, new Node("inner", "inner")));
+        assertNull(Node.findNode(root, new Node("deep", "deep")));
+
+        List<Node> removed = new ArrayList<>();
+        removed.add(new Node("b0", "b0"));
+        removed.add(new Node("b1", "b1"));
+        assertTrue(root.removeChildren(removed));
+        assertSame(child(child(root, 0), 1), Node.findNode(root, all()));
+        assertEquals("b2", Node.findNode(root, all()).getParent().getValue());
+    }
+
+    @Test
+    public void findNode_reorderedChildren_returnsFirstInNewOrder() {
+        Node root = newTree(4, 0);
+        assertSame(child(child(root, 0), 1), Node.findNode(root, all()));
+        List<Node> reversed = new ArrayList<>(root.getChildren());
+        Collections.reverse(reversed);
+        Node added = new Node("b9", "b9");
+        added.addChild(all());
+        reversed.add(1, added);
+        root.rearrangeChildren(reversed);
+        assertEquals("b3", Node.findNode(root, all()).getParent().getValue());
+        reversed.remove(0);
+        root.rearrangeChildren(reversed);
+        assertSame(added, Node.findNode(root, all()).getParent());
+    }
+}
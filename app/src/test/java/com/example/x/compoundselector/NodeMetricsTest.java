@@ -0,0 +1,96 @@
+package com.example.x.compoundselector;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the cached depth, degree and leaf count of the trees, and the cached levels of the
+ * nodes, against walks of the tree, through additions, removals, renames and checks.
+ */
+public class NodeMetricsTest {
+
+    @Test
+    public void formatTree_linksGsonSubtreeAddedToFormattedTree() {
+        Node root = TreeLoader.fromJson(RandomTreeChanges.TREE);
+        Node.formatTree(root);
+        Node subtree = new Gson().fromJson("{\"showName\":\"g\",\"value\":\"g\",\"children\":["
+                + "{\"showName\":\"g1\",\"value\":\"g1\",\"children\":["
+                + "{\"showName\":\"g11\",\"value\":\"g11\"}]}]}", Node.class);
+        Node b11 = root.getChildren().get(1).getChildren().get(0).getChildren().get(0);
+        b11.addChild(subtree);
+        Node.formatTree(root);
+
+        Node g1 = subtree.getChildren().get(0);
+        Node g11 = g1.getChildren().get(0);
+        assertSame(subtree, g1.getParent());
+        assertSame(g1, g11.getParent());
+        assertEquals(6, g11.getHeight());
+        assertEquals(7, Node.getNodeSimplePath(g11).size());
+        assertEquals(7, Node.getTreeDepth(root));
+        assertEquals(true, Node.setSingleLeafNodeChecked(root, g11));
+        assertSame(g11, Node.findCheckedLeafPreOrder(root));
+        assertEquals(true, subtree.isChecked());
+    }
+
+    @Test
+    public void metrics_followAdditionsAndRemovals() {
+        Node root = TreeLoader.fromJson(RandomTreeChanges.TREE);
+        assertEquals(4, Node.getTreeDepth(root));
+        assertEquals(2, Node.getTreeDegree(root));
+        assertEquals(3, Node.getTreeLeafCount(root));
+        Node b11 = root.getChildren().get(1).getChildren().get(0).getChildren().get(0);
+        assertEquals(3, b11.getHeight());
+
+        Node wide = new Node("w", "w");
+        for (int i = 0; i < 5; i++) {
+            wide.addChild(new Node("w" + i, "w" + i));
+        }
+        b11.addChild(wide);
+        assertEquals(6, Node.getTreeDepth(root));
+        assertEquals(5, Node.getTreeDegree(root));
+        assertEquals(7, Node.getTreeLeafCount(root));
+        assertEquals(5, wide.getChildren().get(4).getHeight());
+
+        root.removeChild(new Node("b", "b"));
+        assertEquals(3, Node.getTreeDepth(root));
+        assertEquals(2, Node.getTreeDegree(root));
+        assertEquals(2, Node.getTreeLeafCount(root));
+        // The removed subtree is a tree of its own.
+        assertEquals(0, wide.getParent().getParent().getParent().getHeight());
+        assertEquals(3, wide.getHeight());
+    }
+
+    @Test
+    public void metrics_matchWalks_randomChanges() {
+        Random random = new Random(23);
+        for (int round = 0; round < 20; round++) {
+            Node root = TreeLoader.fromJson(RandomTreeChanges.TREE);
+            RandomTreeChanges changes = new RandomTreeChanges(random);
+            for (int step = 0; step < 200; step++) {
+                changes.apply(root);
+                int depth = 0;
+                int degree = 0;
+                int leafCount = 0;
+                for (Node node : RandomTreeChanges.preOrder(root)) {
+                    int level = 0;
+                    for (Node ancestor = node.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+                        level++;
+                    }
+                    assertEquals(level, node.getHeight());
+                    depth = Math.max(depth, level + 1);
+                    degree = Math.max(degree, node.getChildren().size());
+                    leafCount += node.isLeaf() ? 1 : 0;
+                }
+                assertEquals(depth, Node.getTreeDepth(root));
+                assertEquals(degree, Node.getTreeDegree(root));
+                assertEquals(leafCount, Node.getTreeLeafCount(root));
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the results of {@link Node#searchLeaves(Node, String, int)} against a scan of the tree,
+ * before and after changes of the tree. The time of the queries is measured by the
+ * {@code NodeTreeBenchmark} of the benchmark module.
+ */
+public class NodeSearchIndexTest {
+
+    private static final String[] SYLLABLES = {"an", "bei", "cheng", "du", "hai", "jing", "shan", "zhou"};
+
+    /**
+     * A tree of 100 provinces of 10 cities of 100 districts, whose names are made of 2 or 3 syllables.
+     */
+    private static Node buildTree(Random random) {
+        Node root = new Node("root", "root");
+        List<Node> provinces = new ArrayList<>();
+        for (int p = 0; p < 100; p++) {
+            Node province = new Node(randomName(random) + p, "p" + p);
+            List<Node> cities = new ArrayList<>();
+            for (int c = 0; c < 10; c++) {
+                Node city = new Node(randomName(random), "p" + p + "c" + c);
+                List<Node> districts = new ArrayList<>();
+                for (int d = 0; d < 100; d++) {
+                    districts.add(new Node(randomName(random), "p" + p + "c" + c + "d" + d));
+                }
+                city.addChildren(districts);
+                cities.add(city);
+            }
+            province.addChildren(cities);
+            provinces.add(province);
+        }
+        root.addChildren(provinces);
+        Node.formatTree(root);
+        return root;
+    }
+
+    private static String randomName(Random random) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 2 + random.nextInt(2); i > 0; i--) {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        name.setCharAt(0, Character.toUpperCase(name.charAt(0)));
+        return name.toString();
+    }
+
+    private static List<Node> scanLeaves(Node root, final String query, final int maxCount) {
+        final List<Node> results = new ArrayList<>();
+        final String text = query.trim().toLowerCase(Locale.ROOT);
+        TreeWalker.obtain().preOrder(root, new TreeWalker.Visitor() {
+            @Override
+            public int visit(Node node) {
+                if (node.isLeaf() && !node.isRoot() && node.getShowName().toLowerCase(Locale.ROOT).contains(text)) {
+                    results.add(node);
+                }
+                return results.size() == maxCount ? TreeWalker.TERMINATE : TreeWalker.CONTINUE;
+            }
+        });
+        return results;
+    }
+
+    private static void assertSameNodes(List<Node> expected, List<Node> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue(expected.get(i) == actual.get(i));
+        }
+    }
+
+    @Test
+    public void searchLeaves_findsSameLeavesAsScan() {
+        Random random = new Random(42);
+        Node root = buildTree(random);
+        String[] queries = {"a", "Z", "haibei", " shan ", "zhoudu", "jingjing", "x", "anan"};
+        for (String query : queries) {
+            assertSameNodes(scanLeaves(root, query, 50), Node.searchLeaves(root, query, 50));
+            assertSameNodes(scanLeaves(root, query, Integer.MAX_VALUE),
+                    Node.searchLeaves(root, query, Integer.MAX_VALUE));
+        }
+        assertTrue(Node.searchLeaves(root, " ", 50).isEmpty());
+    }
+
+    @Test
+    public void searchLeaves_followsChangesOfTree() {
+        Node root = buildTree(new Random(7));
+        assertEquals(0, Node.searchLeaves(root, "xyz", 10).size());
+
+        Node city = root.getChildren().get(3).getChildren().get(4);
+        Node district = city.getChildren().get(5);
+        city.addChild(new Node("Xyz", "xyz"));
+        district.setShowName("Qxyz");
+        List<Node> results = Node.searchLeaves(root, "XYZ", 10);
+        assertEquals(2, results.size());
+        // Changed nodes are found after the other ones.
+        assertEquals("Xyz", results.get(0).getShowName());
+        assertEquals("Qxyz", results.get(1).getShowName());
+
+        // A leaf turned into a branch is not a result any longer.
+        district.addChild(new Node("Inner", "inner"));
+        assertEquals(1, Node.searchLeaves(root, "xyz", 10).size());
+        assertEquals(1, Node.searchLeaves(root, "inner", 10).size());
+
+        root.removeChild(root.getChildren().get(3));
+        assertEquals(0, Node.searchLeaves(root, "xyz", 10).size());
+        assertEquals(0, Node.searchLeaves(root, "inner", 10).size());
+        assertSameNodes(scanLeaves(root, "an", Integer.MAX_VALUE), Node.searchLeaves(root, "an", Integer.MAX_VALUE));
+    }
+}
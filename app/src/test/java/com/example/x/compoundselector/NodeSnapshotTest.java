@@ -0,0 +1,156 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the structural sharing of {@link NodeSnapshot} versions, and their publication through
+ * {@link TreePublisher} while other threads read them.
+ */
+public class NodeSnapshotTest {
+
+    private static final String JSON = "{\"showName\":\"r\",\"value\":\"r\",\"children\":["
+            + "{\"showName\":\"a\",\"value\":\"a\",\"children\":["
+            + "{\"showName\":\"x\",\"value\":\"1\"},{\"showName\":\"y\",\"value\":\"2\"}]},"
+            + "{\"showName\":\"b\",\"value\":\"b\",\"children\":["
+            + "{\"showName\":\"y\",\"value\":\"2\"},{\"showName\":\"z\",\"value\":\"3\"}]}]}";
+
+    @Test
+    public void builder_copiesOnlyChangedPath() {
+        NodeSnapshot v1 = NodeSnapshot.of(TreeLoader.fromJson(JSON));
+        NodeSnapshot v2 = v1.edit()
+                .addChild(new int[]{1}, NodeSnapshot.leaf("w", "4", null))
+                .removeChild(new int[]{1}, 0)
+                .setTag(new int[]{1, 0}, "hot")
+                .build();
+
+        // The former version is unchanged.
+        assertEquals(2, v1.getChild(1).getChildCount());
+        assertEquals("y", v1.getChild(1).getChild(0).getShowName());
+        assertNull(v1.getChild(1).getChild(1).getTag());
+        // Only the path to the changed nodes is copied.
+        assertNotSame(v1, v2);
+        assertSame(v1.getChild(0), v2.getChild(0));
+        assertNotSame(v1.getChild(1), v2.getChild(1));
+        assertEquals(2, v2.getChild(1).getChildCount());
+        assertEquals("z", v2.getChild(1).getChild(0).getShowName());
+        assertEquals("hot", v2.getChild(1).getChild(0).getTag());
+        assertEquals(1, v2.getChild(1).indexOfChild("w", "4"));
+    }
+
+    @Test
+    public void toNode_carriesCheckedLeafOverByKey() {
+        Node shown = TreeLoader.fromJson(JSON);
+        Node checked = shown.getChildren().get(1).getChildren().get(1);
+        Node.setSingleLeafNodeChecked(shown, checked);
+
+        NodeSnapshot v1 = NodeSnapshot.of(shown);
+        Node v2 = v1.edit().removeChild(new int[]{1}, 0).build().toNode();
+        Node carried = Node.findSameKeyPath(v2, checked);
+        assertSame(v2.getChildren().get(1).getChildren().get(0), carried);
+        assertEquals(3, Node.getTreeDepth(v2));
+        // The same key under another branch is not the same node.
+        Node v3 = v1.edit().removeChild(new int[]{0}, 1).build().toNode();
+        assertNull(Node.findSameKeyPath(v3, shown.getChildren().get(0).getChildren().get(1)));
+    }
+
+    /**
+     * Writers add leaves under random branches while readers walk the versions they get. Every
+     * version a reader holds must stay the same during its walk, and no update may be lost.
+     */
+    @Test
+    public void publisher_concurrentReadersAndWriters() throws Exception {
+        final int writers = 4;
+        final int readers = 4;
+        final int updatesPerWriter = 2000;
+        NodeSnapshot.Builder initial = NodeSnapshot.leaf("root", "root", null).edit();
+        for (int i = 0; i < 50; i++) {
+            initial.addChild(new int[0], NodeSnapshot.leaf("Branch " + i, "b" + i, null));
+        }
+        final TreePublisher publisher = new TreePublisher(initial.build());
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(writers);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for (int w = 0; w < writers; w++) {
+            final int writer = w;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    Random random = new Random(writer);
+                    try {
+                        start.await();
+                        for (int i = 0; i < updatesPerWriter; i++) {
+                            final int branch = random.nextInt(50);
+                            final NodeSnapshot leaf = NodeSnapshot.leaf("Leaf", writer + "-" + i, null);
+                            publisher.update(new TreePublisher.Updater() {
+                                @Override
+                                public NodeSnapshot update(NodeSnapshot current) {
+                                    return current.edit().addChild(new int[]{branch}, leaf).build();
+                                }
+                            });
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        writersDone.countDown();
+                    }
+                }
+            });
+        }
+        for (int r = 0; r < readers; r++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        int lastCount = 0;
+                        while (writersDone.getCount() > 0) {
+                            NodeSnapshot version = publisher.get();
+                            int count = countLeaves(version);
+                            assertTrue(count >= lastCount);
+                            assertEquals(count, countLeaves(version));
+                            lastCount = count;
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(writers * updatesPerWriter, countLeaves(publisher.get()));
+    }
+
+    /**
+     * Counts the leaves added under the branches.
+     */
+    private static int countLeaves(NodeSnapshot root) {
+        int count = 0;
+        for (NodeSnapshot branch : root.getChildren()) {
+            count += branch.getChildCount();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.x.compoundselector;
+
+import com.google.gson.JsonParseException;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link ParallelTreeLoader} builds the same trees and indexes as a single-threaded
+ * load, whatever the count of workers.
+ */
+public class ParallelTreeLoaderTest {
+
+    @Test
+    public void load_matchesSequentialLoad() throws IOException {
+        Random random = new Random(5);
+        for (int round = 0; round < 30; round++) {
+            String json = randomJson(random, round % 3 == 0 ? 200000 : 3000);
+            StringPool stringPool = new StringPool();
+            Node expected = new TreeLoader(stringPool).load(new StringReader(json));
+            for (int parallelism : new int[]{1, 3, 8}) {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    Node actual = new ParallelTreeLoader(pool, stringPool).load(json);
+                    assertSameTree(expected, actual);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void load_weakPool_sharesStringsOfEarlierTrees() throws IOException {
+        Random random = new Random(7);
+        String json = randomJson(random, 200000);
+        StringPool stringPool = new StringPool(true);
+        // Holds its strings, so that the weak pool keeps them.
+        Node expected = new TreeLoader(stringPool).load(new StringReader(json));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // The workers pool the strings apart, and the ones pooled before are replaced.
+            assertSameTree(expected, new ParallelTreeLoader(pool, stringPool).load(json));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void buildIndexes_matchesSequentialBuild() {
+        Random random = new Random(9);
+        String json = randomJson(random, 400000);
+        Node expected = TreeLoader.fromJson(json);
+        List<Node> expectedNodes = preOrder(expected);
+        List<Node> expectedResults = Node.searchLeaves(expected, "it", 100000);
+        int[] expectedSlots = new int[expectedNodes.size()];
+        for (int i = 0; i < expectedSlots.length; i++) {
+            expectedSlots[i] = expectedNodes.get(i).getSearchSlot();
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Node actual = new ParallelTreeLoader(pool).loadIndexed(json);
+            List<Node> actualNodes = preOrder(actual);
+            Map<Node, Integer> expectedPositions = positions(expectedNodes);
+            assertEquals(expectedNodes.size(), actualNodes.size());
+            for (int i = 0; i < expectedSlots.length; i++) {
+                assertEquals(expectedSlots[i], actualNodes.get(i).getSearchSlot());
+                // Lookups of equal nodes answer the first one in preorder, as a walk would.
+                Node found = Node.findNode(actual, expectedNodes.get(i));
+                Node expectedFound = Node.findNode(expected, expectedNodes.get(i));
+                assertSame(actualNodes.get(expectedPositions.get(expectedFound)), found);
+            }
+            List<Node> actualResults = Node.searchLeaves(actual, "it", 100000);
+            assertEquals(expectedResults.size(), actualResults.size());
+            for (int i = 0; i < expectedResults.size(); i++) {
+                assertEquals(expectedResults.get(i).getValue(), actualResults.get(i).getValue());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void load_fallsBackOnUnsplittableJson() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ParallelTreeLoader loader = new ParallelTreeLoader(pool);
+            assertNull(loader.load("null"));
+            assertTrue(loader.load("{\"showName\":\"root\"}").isLeaf());
+            assertEquals(1, loader.load("{\"showName\":\"root\",\"children\":[{\"showName\":\"a\"}]}")
+                    .getChildren().size());
+            // The last children array is the one read, and brackets within strings are ignored.
+            Node root = loader.load("{\"children\":[{\"showName\":\"x\"}],\"showName\":\"r\\\"}[\","
+                    + "\"children\":[{\"showName\":\"a]\"},{\"showName\":\"b{\",\"value\":\"\\\\\"}],"
+                    + "\"checked\":true}");
+            assertEquals("r\"}[", root.getShowName());
+            assertEquals(2, root.getChildren().size());
+            assertEquals("b{", root.getChildren().get(1).getShowName());
+            assertEquals("\\", root.getChildren().get(1).getValue());
+            assertTrue(root.isChecked());
+            assertSame(root, root.getChildren().get(0).getParent());
+            for (String malformed : new String[]{"{\"children\":[{\"showName\":}, {}]}",
+                    "{\"children\":[{}, {}]", "{\"showName\":tru,\"children\":[{}, {}]}"}) {
+                try {
+                    loader.load(malformed);
+                    fail(malformed);
+                } catch (JsonParseException | IllegalStateException expected) {
+                    // Reported as by the single-threaded loader.
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Builds a tree of about the specified count of nodes, with repeated names, tags, checked
+     * leaves and escaped characters.
+     */
+    private static String randomJson(Random random, int nodeCount) {
+        StringBuilder json = new StringBuilder();
+        appendNode(json, random, "root", 0, 1 + random.nextInt(5), nodeCount);
+        return json.toString();
+    }
+
+    private static int appendNode(StringBuilder json, Random random, String value, int level, int maxLevel,
+                                  int budget) {
+        String name = random.nextInt(4) == 0 ? "Item \\\"" + level + "\\\"" : "item " + random.nextInt(50);
+        json.append("{\"showName\":\"").append(name).append("\",\"value\":\"").append(value).append('"');
+        if (random.nextInt(10) == 0) {
+            json.append(",\"tag\":").append(random.nextBoolean() ? "\"t\"" : "{\"k\":[1,2]}");
+        }
+        int used = 1;
+        if (level < maxLevel && budget > 1) {
+            int childCount = level == 0 ? random.nextInt(60) : 1 + random.nextInt(12);
+            json.append(",\"children\":\n[");
+            for (int i = 0; i < childCount && used < budget; i++) {
+                json.append(i == 0 ? "" : " ,");
+                used += appendNode(json, random, value + '.' + i, level + 1, maxLevel,
+                        (budget - used) / Math.max(1, childCount - i));
+            }
+            json.append(']');
+        } else if (random.nextInt(20) == 0) {
+            json.append(",\"checked\":true");
+        }
+        json.append('}');
+        return used;
+    }
+
+    private static void assertSameTree(Node expected, Node actual) {
+        List<Node> expectedNodes = preOrder(expected);
+        List<Node> actualNodes = preOrder(actual);
+        Map<Node, Integer> expectedPositions = positions(expectedNodes);
+        Map<Node, Integer> actualPositions = positions(actualNodes);
+        assertEquals(expectedNodes.size(), actualNodes.size());
+        for (int i = 0; i < expectedNodes.size(); i++) {
+            Node e = expectedNodes.get(i);
+            Node a = actualNodes.get(i);
+            // Strings are shared through the same pool.
+            assertSame(e.getShowName(), a.getShowName());
+            assertSame(e.getValue(), a.getValue());
+            assertEquals(e.getTag(), a.getTag());
+            assertEquals(e.isChecked(), a.isChecked());
+            assertEquals(e.getChildList().size(), a.getChildList().size());
+            assertEquals(e.isMetricsValid(), a.isMetricsValid());
+            assertEquals(e.getCachedSubtreeDepth(), a.getCachedSubtreeDepth());
+            if (e.getParent() == null) {
+                assertNull(a.getParent());
+            } else {
+                assertSame(actualNodes.get(expectedPositions.get(e.getParent())), a.getParent());
+            }
+        }
+        assertEquals(Node.getTreeLeafCount(expected), Node.getTreeLeafCount(actual));
+        assertEquals(Node.getTreeDegree(expected), Node.getTreeDegree(actual));
+        Node expectedLeaf = Node.findCheckedLeafPreOrder(expected);
+        Node actualLeaf = Node.findCheckedLeafPreOrder(actual);
+        assertEquals(expectedLeaf == null ? null : expectedPositions.get(expectedLeaf),
+                actualLeaf == null ? null : actualPositions.get(actualLeaf));
+    }
+
+    private static Map<Node, Integer> positions(List<Node> nodes) {
+        Map<Node, Integer> positions = new IdentityHashMap<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            positions.put(nodes.get(i), i);
+        }
+        return positions;
+    }
+
+    private static List<Node> preOrder(Node rootNode) {
+        final List<Node> nodes = new ArrayList<>();
+        TreeWalker.obtain().preOrder(rootNode, new TreeWalker.Visitor() {
+            @Override
+            public int visit(Node node) {
+                nodes.add(node);
+                return TreeWalker.CONTINUE;
+            }
+        });
+        return nodes;
+    }
+}
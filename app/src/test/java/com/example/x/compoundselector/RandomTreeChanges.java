@@ -0,0 +1,74 @@
+package com.example.x.compoundselector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Applies random changes to a tree through the public operations of {@link Node}: additions of
+ * leaves and of subtrees holding checked nodes, removals, renames and checks.
+ */
+final class RandomTreeChanges {
+
+    /**
+     * A small tree whose checked nodes form the path to the leaf b11.
+     */
+    static final String TREE = "{\"showName\":\"root\",\"value\":\"root\",\"children\":["
+            + "{\"showName\":\"a\",\"value\":\"a\",\"children\":["
+            + "{\"showName\":\"a1\",\"value\":\"a1\"},{\"showName\":\"a2\",\"value\":\"a2\"}]},"
+            + "{\"showName\":\"b\",\"value\":\"b\",\"checked\":true,\"children\":["
+            + "{\"showName\":\"b1\",\"value\":\"b1\",\"checked\":true,\"children\":["
+            + "{\"showName\":\"b11\",\"value\":\"b11\",\"checked\":true}]}]}]}";
+
+    private final Random random;
+    private int nameCount;
+
+    RandomTreeChanges(Random random) {
+        this.random = random;
+    }
+
+    void apply(Node root) {
+        List<Node> nodes = preOrder(root);
+        Node node = nodes.get(random.nextInt(nodes.size()));
+        switch (random.nextInt(6)) {
+            case 0:
+                node.addChild(new Node("n" + nameCount, "n" + nameCount++));
+                break;
+            case 1:
+                String value = "s" + nameCount++;
+                node.addChild(TreeLoader.fromJson("{\"showName\":\"" + value + "\",\"value\":\"" + value
+                        + "\",\"checked\":" + random.nextBoolean() + ",\"children\":[{\"showName\":\"x\","
+                        + "\"value\":\"" + value + ".x\",\"checked\":" + random.nextBoolean() + "}]}"));
+                break;
+            case 2:
+                if (node.getParent() != null) {
+                    node.getParent().removeChild(node);
+                }
+                break;
+            case 3:
+                node.setShowName("r" + nameCount);
+                node.setValue("r" + nameCount++);
+                break;
+            case 4:
+                Node.setSingleLeafNodeChecked(root, node);
+                break;
+            default:
+                if (random.nextInt(4) == 0) {
+                    Node.setAllNodeUnchecked(root);
+                }
+                break;
+        }
+    }
+
+    static List<Node> preOrder(Node rootNode) {
+        final List<Node> nodes = new ArrayList<>();
+        TreeWalker.obtain().preOrder(rootNode, new TreeWalker.Visitor() {
+            @Override
+            public int visit(Node node) {
+                nodes.add(node);
+                return TreeWalker.CONTINUE;
+            }
+        });
+        return nodes;
+    }
+}
@@ -0,0 +1,205 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the queries of {@link RecordIndex} against a scan of a million records, and the
+ * compressed bitmaps behind them.
+ */
+public class RecordIndexTest {
+
+    private static final String CITIES = "{\"showName\":\"city\",\"value\":\"city\",\"children\":["
+            + "{\"showName\":\"All\",\"value\":\"*\"},"
+            + "{\"showName\":\"north\",\"value\":\"north\",\"children\":["
+            + "{\"showName\":\"A\",\"value\":\"a\"},{\"showName\":\"B\",\"value\":\"b\"},"
+            + "{\"showName\":\"C\",\"value\":\"c\"}]},"
+            + "{\"showName\":\"south\",\"value\":\"south\",\"children\":["
+            + "{\"showName\":\"D\",\"value\":\"d\"},{\"showName\":\"E\",\"value\":\"e\"}]}]}";
+    private static final String PRICES = "{\"showName\":\"price\",\"value\":\"price\",\"children\":["
+            + "{\"showName\":\"low\",\"value\":\"0\"},{\"showName\":\"mid\",\"value\":\"1\"},"
+            + "{\"showName\":\"high\",\"value\":\"2\"},{\"showName\":\"top\",\"value\":\"3\"}]}";
+    private static final String KINDS = "{\"showName\":\"kind\",\"value\":\"kind\",\"children\":["
+            + "{\"showName\":\"rare\",\"value\":\"r\"},{\"showName\":\"common\",\"value\":\"c\"}]}";
+
+    private static final int RECORD_COUNT = 1000000;
+
+    @Test
+    public void query_matchesScan_millionRecords() {
+        Node cities = TreeLoader.fromJson(CITIES);
+        Node prices = TreeLoader.fromJson(PRICES);
+        Node kinds = TreeLoader.fromJson(KINDS);
+        String[] cityValues = {"a", "b", "c", "d", "e"};
+        Random random = new Random(11);
+        byte[] recordCities = new byte[RECORD_COUNT];
+        byte[] recordPrices = new byte[RECORD_COUNT];
+        byte[] recordKinds = new byte[RECORD_COUNT];
+
+        RecordIndex.Builder builder = new RecordIndex.Builder(Arrays.asList(cities, prices, kinds));
+        builder.matchAll(0, "*");
+        for (int r = 0; r < RECORD_COUNT; r++) {
+            // Skewed cities, uniform prices, and a rare kind on about one record in a thousand.
+            recordCities[r] = (byte) Math.min(4, (int) (-Math.log(1 - random.nextDouble()) * 1.2));
+            recordPrices[r] = (byte) random.nextInt(4);
+            recordKinds[r] = (byte) (random.nextInt(1000) == 0 ? 0 : 1);
+            builder.addRecord(cityValues[recordCities[r]], String.valueOf(recordPrices[r]),
+                    recordKinds[r] == 0 ? "r" : "c");
+        }
+        RecordIndex index = builder.build();
+        assertEquals(3, index.getGroupCount());
+        assertEquals(RECORD_COUNT, index.getRecordCount());
+
+        Node north = cities.getChildren().get(1);
+        Node[][] selections = {
+                {null, null, null},
+                {cities.getChildren().get(0), null, null},
+                {north.getChildren().get(0), null, null},
+                {north, prices.getChildren().get(2), null},
+                {cities.getChildren().get(2).getChildren().get(1), prices.getChildren().get(3), null},
+                {north, prices.getChildren().get(1), kinds.getChildren().get(0)},
+                {null, null, kinds.getChildren().get(0)},
+                {cities.getChildren().get(2), null, kinds.getChildren().get(1)},
+        };
+        for (Node[] selected : selections) {
+            List<Integer> expected = new ArrayList<>();
+            for (int r = 0; r < RECORD_COUNT; r++) {
+                if (matches(selected[0], cityValues[recordCities[r]])
+                        && matches(selected[1], String.valueOf(recordPrices[r]))
+                        && matches(selected[2], recordKinds[r] == 0 ? "r" : "c")) {
+                    expected.add(r);
+                }
+            }
+            RecordIndex.Query query = index.query(selected);
+            assertEquals(expected.size(), query.count());
+
+            RecordIndex.Cursor cursor = query.cursor();
+            int[] page = new int[997];
+            int listed = 0;
+            for (int filled; (filled = cursor.nextPage(page)) > 0; ) {
+                for (int i = 0; i < filled; i++) {
+                    assertEquals(expected.get(listed++).intValue(), page[i]);
+                }
+            }
+            assertEquals(expected.size(), listed);
+            assertFalse(cursor.hasNext());
+
+            // A middle page is reached by skipping whole chunks.
+            int pageIndex = expected.size() / 2 / 50;
+            int[] middle = query.page(pageIndex, 50);
+            int from = pageIndex * 50;
+            assertEquals(Math.min(50, expected.size() - from), middle.length);
+            for (int i = 0; i < middle.length; i++) {
+                assertEquals(expected.get(from + i).intValue(), middle[i]);
+            }
+        }
+    }
+
+    @Test
+    public void query_bySnapshotsAndValues() {
+        Node cities = TreeLoader.fromJson(CITIES);
+        Node prices = TreeLoader.fromJson(PRICES);
+        RecordIndex.Builder builder = new RecordIndex.Builder(Arrays.asList(cities, prices));
+        builder.matchAll(0, "*");
+        builder.addRecord("a", "0");
+        builder.addRecord("d", "1");
+        int record = builder.addRecord("b");
+        builder.tag(record, 0, "e").tag(record, 1, "1");
+        builder.addRecord(null, "1");
+        RecordIndex index = builder.build();
+
+        Node south = cities.getChildren().get(2);
+        List<SelectionSnapshot> snapshots = Collections.singletonList(
+                new SelectionSnapshot(0, south, south.getChildren().get(0)));
+        assertArrayEquals(new int[]{1}, index.query(snapshots).page(0, 10));
+        assertArrayEquals(new int[]{1, 2}, index.query(new Node[]{south, null}).page(0, 10));
+        assertArrayEquals(new int[]{1, 2, 3}, index.queryValues(null, "1").page(0, 10));
+        assertArrayEquals(new int[]{2}, index.queryValues("b", "1").page(0, 10));
+        assertArrayEquals(new int[0], index.queryValues("c").page(0, 10));
+        assertArrayEquals(new int[]{2, 3}, index.queryValues().page(1, 2));
+        assertEquals(4, index.queryValues().count());
+        // A copy of a branch, as from a tree loaded again, is found by its path.
+        Node copy = TreeLoader.fromJson(CITIES).getChildren().get(2);
+        assertEquals(2, index.query(new Node[]{copy, null}).count());
+
+        // The names of the selected nodes by the names of the roots, as the simple adapter reports.
+        Map<String, String> selectedGroups = new HashMap<>();
+        selectedGroups.put("city", "E");
+        assertArrayEquals(new int[]{2}, index.query(selectedGroups).page(0, 10));
+        selectedGroups.put("city", "All");
+        selectedGroups.put("price", "mid");
+        assertArrayEquals(new int[]{1, 2, 3}, index.query(selectedGroups).page(0, 10));
+        selectedGroups.put("city", "south");
+        assertArrayEquals(new int[]{1, 2}, index.query(selectedGroups).page(0, 10));
+        selectedGroups.put("price", "unknown");
+        assertEquals(0, index.query(selectedGroups).count());
+        selectedGroups.clear();
+        selectedGroups.put("other", "A");
+        assertEquals(4, index.query(selectedGroups).count());
+    }
+
+    @Test
+    public void compressedBitmap_unionAndIntersection() {
+        Random random = new Random(3);
+        for (int round = 0; round < 20; round++) {
+            // Dense and sparse chunks, across several chunks.
+            int universe = 1 + random.nextInt(300000);
+            int density = 1 + random.nextInt(40);
+            boolean[][] members = new boolean[3][universe];
+            CompressedBitmap[] bitmaps = new CompressedBitmap[3];
+            for (int b = 0; b < bitmaps.length; b++) {
+                int[] ids = new int[universe];
+                int count = 0;
+                for (int id = 0; id < universe; id++) {
+                    if (random.nextInt(b == 0 ? 2 : density) == 0) {
+                        members[b][id] = true;
+                        ids[count++] = id;
+                    }
+                }
+                bitmaps[b] = CompressedBitmap.of(ids, count);
+                assertEquals(count, bitmaps[b].cardinality());
+            }
+            CompressedBitmap union = CompressedBitmap.union(bitmaps, bitmaps.length);
+            int unionCount = 0;
+            int andCount = 0;
+            for (int id = 0; id < universe; id++) {
+                boolean any = members[0][id] || members[1][id] || members[2][id];
+                assertEquals(any, union.contains(id));
+                unionCount += any ? 1 : 0;
+                andCount += members[1][id] && members[2][id] ? 1 : 0;
+            }
+            assertEquals(unionCount, union.cardinality());
+            assertEquals(andCount, bitmaps[1].andCardinality(bitmaps[2]));
+            CompressedBitmap intersection = new RecordIndex.Query(
+                    Arrays.asList(bitmaps[1], bitmaps[2]), universe).toBitmap();
+            assertEquals(andCount, intersection.cardinality());
+            for (int id = 0; id < universe; id++) {
+                assertEquals(members[1][id] && members[2][id], intersection.contains(id));
+            }
+            assertTrue(!union.contains(universe));
+        }
+    }
+
+    private static boolean matches(Node selected, String value) {
+        if (selected == null || selected.isRoot() || "*".equals(selected.getValue())) {
+            return true;
+        }
+        for (Node node : selected.isLeaf() ? Collections.singletonList(selected) : selected.getChildren()) {
+            if (value.equals(node.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
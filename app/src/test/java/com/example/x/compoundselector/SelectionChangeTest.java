@@ -0,0 +1,84 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the levels reported by {@link SelectionChange} and the lazy path of
+ * {@link SelectionSnapshot}.
+ */
+public class SelectionChangeTest {
+
+    /**
+     * <pre>
+     *          r
+     *        /   \
+     *       a     b
+     *      / \    |
+     *    a1   a2  b1
+     *    |        |
+     *   a1x      b1x
+     * </pre>
+     */
+    private final Node root = new Node("r", "r");
+    private final Node a2 = new Node("a2", "a2");
+    private final Node a1x = new Node("a1x", "a1x");
+    private final Node b1x = new Node("b1x", "b1x");
+
+    public SelectionChangeTest() {
+        Node a = new Node("a", "a");
+        Node a1 = new Node("a1", "a1");
+        a1.addChild(a1x);
+        a.addChild(a1);
+        a.addChild(a2);
+        Node b = new Node("b", "b");
+        Node b1 = new Node("b1", "b1");
+        b1.addChild(b1x);
+        b.addChild(b1);
+        root.addChild(a);
+        root.addChild(b);
+        Node.formatTree(root);
+    }
+
+    private SelectionChange change(Node oldLeaf, Node newLeaf) {
+        return new SelectionChange(0, oldLeaf, new SelectionSnapshot(0, root, newLeaf));
+    }
+
+    @Test
+    public void change_reportsLevelsBelowCommonAncestor() {
+        SelectionChange change = change(a1x, b1x);
+        assertEquals(1, change.getFirstChangedLevel());
+        assertTrue(change.isLevelChanged(3));
+        assertFalse(change.isLevelChanged(0));
+
+        change = change(a1x, a2);
+        assertEquals(2, change.getFirstChangedLevel());
+        assertFalse(change.isLevelChanged(1));
+        assertTrue(change.isLevelChanged(3));
+        assertFalse(change.isLevelChanged(4));
+
+        change = change(null, a2);
+        assertEquals(1, change.getFirstChangedLevel());
+        assertSame(a2, change.getNewLeaf());
+
+        change = change(a2, a2);
+        assertFalse(change.isChanged());
+        assertFalse(change.isLevelChanged(2));
+    }
+
+    @Test
+    public void snapshot_readsPathFromLeaf() {
+        SelectionSnapshot snapshot = new SelectionSnapshot(1, root, b1x);
+        assertEquals(4, snapshot.getDepth());
+        assertSame(root, snapshot.getNode(0));
+        assertEquals("b1", snapshot.getNode(2).getValue());
+        assertSame(b1x, snapshot.getNode(3));
+        assertEquals(Node.getNodeSimplePath(b1x), snapshot.getPath());
+        assertSame(snapshot.getPath(), snapshot.getPath());
+        assertEquals(0, new SelectionSnapshot(1, root, null).getPath().size());
+    }
+}
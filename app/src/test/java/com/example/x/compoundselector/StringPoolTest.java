@@ -0,0 +1,60 @@
+package com.example.x.compoundselector;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the sharing of the strings of the trees by {@link StringPool}. The heap it saves is
+ * measured by the {@code RetainedHeapBenchmark} of the benchmark module.
+ */
+public class StringPoolTest {
+
+    @Test
+    public void intern_returnsPooledString() {
+        for (StringPool pool : new StringPool[]{new StringPool(), new StringPool(true)}) {
+            String first = new String("Unlimited");
+            String second = new String("Unlimited");
+            assertSame(first, pool.intern(first));
+            assertSame(first, pool.intern(second));
+            assertNull(pool.intern(null));
+            assertEquals(1, pool.size());
+        }
+    }
+
+    @Test
+    public void hashCode_cachedUntilKeyChanges() {
+        Node root = new Node("root", "root");
+        Node node = new Node("a", "1");
+        root.addChild(node);
+        int hash = node.hashCode();
+        assertEquals(hash, new Node("a", "1").hashCode());
+
+        node.setShowName("b");
+        assertTrue(hash != node.hashCode());
+        assertEquals(new Node("b", "1").hashCode(), node.hashCode());
+        assertSame(node, Node.findNode(root, new Node("b", "1")));
+        node.setValue("2");
+        assertEquals(new Node("b", "2"), node);
+        assertSame(node, Node.findNode(root, new Node("b", "2")));
+        assertNull(Node.findNode(root, new Node("b", "1")));
+    }
+
+    @Test
+    public void formatTree_sharesRepeatedStrings() {
+        Node tree = new Gson().fromJson(TreeLoaderTest.buildCatalog(10, 3, 5), Node.class);
+        Node first = tree.getChildren().get(0).getChildren().get(0).getChildren().get(0);
+        Node last = tree.getChildren().get(9).getChildren().get(2).getChildren().get(0);
+        assertNotSame(first.getShowName(), last.getShowName());
+
+        Node.formatTree(tree);
+        assertSame(first.getShowName(), last.getShowName());
+        assertSame(first.getValue(), last.getValue());
+    }
+}
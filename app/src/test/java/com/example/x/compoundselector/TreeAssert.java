@@ -0,0 +1,32 @@
+package com.example.x.compoundselector;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Assertions on whole trees shared by the tests of the loaders.
+ */
+final class TreeAssert {
+
+    private TreeAssert() {
+    }
+
+    /**
+     * Checks that the trees have equal nodes, tags and checked states in the same places, and
+     * that the parents of {@code actual} are set.
+     */
+    static void assertSameTree(Node expected, Node actual) {
+        assertEquals(expected, actual);
+        assertEquals(expected.getTag(), actual.getTag());
+        assertEquals(expected.isChecked(), actual.isChecked());
+        List<Node> expectedChildren = expected.getChildren();
+        List<Node> actualChildren = actual.getChildren();
+        assertEquals(expectedChildren.size(), actualChildren.size());
+        for (int i = 0; i < expectedChildren.size(); i++) {
+            assertSame(actual, actualChildren.get(i).getParent());
+            assertSameTree(expectedChildren.get(i), actualChildren.get(i));
+        }
+    }
+}
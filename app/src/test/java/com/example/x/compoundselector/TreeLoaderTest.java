@@ -0,0 +1,91 @@
+package com.example.x.compoundselector;
+
+import com.google.gson.Gson;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+import static com.example.x.compoundselector.TreeAssert.assertSameTree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link TreeLoader} builds the same tree as Gson with {@link Node#formatTree(Node)},
+ * on a generated catalog of about 10 MB. The loading times are measured by the
+ * {@code TreeLoadingBenchmark} of the benchmark module, the retained heap by the
+ * {@code RetainedHeapBenchmark}.
+ */
+public class TreeLoaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static byte[] catalog;
+
+    @BeforeClass
+    public static void setUp() {
+        catalog = buildCatalog(100, 30, 50).getBytes(UTF_8);
+    }
+
+    /**
+     * Builds a three level catalog, with the names and values repeated under every branch as
+     * real catalogs do.
+     */
+    static String buildCatalog(int provinces, int cities, int districts) {
+        StringBuilder json = new StringBuilder("{\"showName\":\"Region\",\"value\":\"region\",\"children\":[");
+        for (int p = 0; p < provinces; p++) {
+            json.append(p == 0 ? "" : ",").append("{\"showName\":\"Province ").append(p)
+                    .append("\",\"value\":\"p").append(p).append("\",\"tag\":\"1\",\"children\":[");
+            for (int c = 0; c < cities; c++) {
+                json.append(c == 0 ? "" : ",").append("{\"showName\":\"City ").append(c)
+                        .append("\",\"value\":\"c").append(c).append("\",\"children\":[");
+                for (int d = 0; d < districts; d++) {
+                    json.append(d == 0 ? "" : ",").append("{\"showName\":\"")
+                            .append(d == 0 ? "All" : "District " + d).append("\",\"value\":\"")
+                            .append(d * 100).append('-').append(d * 100 + 99).append("\",\"tag\":\"0\"}");
+                }
+                json.append("]}");
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    @Test
+    public void load_sameTreeAsGson() throws Exception {
+        Node expected = loadWithGson();
+        Node actual = loadWithTreeLoader();
+
+        assertSameTree(expected, actual);
+        assertNull(actual.getParent());
+        assertEquals(Node.getTreeDepth(expected), Node.getTreeDepth(actual));
+        assertEquals(Node.getTreeDegree(expected), Node.getTreeDegree(actual));
+        assertEquals(Node.getTreeLeafCount(expected), Node.getTreeLeafCount(actual));
+    }
+
+    @Test
+    public void load_sharesRepeatedStrings() throws Exception {
+        Node root = loadWithTreeLoader();
+        Node first = root.getChildren().get(0).getChildren().get(0).getChildren().get(0);
+        Node last = root.getChildren().get(99).getChildren().get(29).getChildren().get(0);
+        assertSame(first.getShowName(), last.getShowName());
+        assertSame(first.getValue(), last.getValue());
+        assertSame(first.getTag(), last.getTag());
+    }
+
+    private static Node loadWithGson() {
+        Node rootNode = new Gson().fromJson(new InputStreamReader(new ByteArrayInputStream(catalog), UTF_8),
+                Node.class);
+        Node.formatTree(rootNode);
+        Node.getTreeDepth(rootNode);
+        return rootNode;
+    }
+
+    private static Node loadWithTreeLoader() throws Exception {
+        return new TreeLoader().load(new ByteArrayInputStream(catalog));
+    }
+}
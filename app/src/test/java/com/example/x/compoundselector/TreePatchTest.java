@@ -0,0 +1,120 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link TreePatch} keeps the matched nodes and the checked path, and leaves the
+ * caches and indexes of the patched tree consistent.
+ */
+public class TreePatchTest {
+
+    private static final String V1 = "{\"showName\":\"r\",\"value\":\"r\",\"children\":["
+            + "{\"showName\":\"a\",\"value\":\"a\",\"children\":["
+            + "{\"showName\":\"x (3)\",\"value\":\"1\"},{\"showName\":\"y\",\"value\":\"2\"}]},"
+            + "{\"showName\":\"b\",\"value\":\"b\",\"children\":["
+            + "{\"showName\":\"y\",\"value\":\"2\"},{\"showName\":\"z\",\"value\":\"3\"}]}]}";
+
+    @Test
+    public void patch_sameTree_changesNothing() {
+        Node tree = TreeLoader.fromJson(V1);
+        Node a = tree.getChildren().get(0);
+        assertFalse(TreePatch.patch(tree, TreeLoader.fromJson(V1)));
+        assertSame(a, tree.getChildren().get(0));
+    }
+
+    @Test
+    public void patch_keepsMatchedNodesAndCheckedLeaf() {
+        Node tree = TreeLoader.fromJson(V1);
+        Node a = tree.getChildren().get(0);
+        Node b = tree.getChildren().get(1);
+        Node z = b.getChildren().get(1);
+        Node.setSingleLeafNodeChecked(tree, z);
+        // Builds the indexes, so that the patch has to maintain them.
+        assertSame(z, Node.findNode(tree, new Node("z", "3")));
+
+        // b moves first and gains w, y is gone from b, a is renamed by its value.
+        String v2 = "{\"showName\":\"r\",\"value\":\"r\",\"children\":["
+                + "{\"showName\":\"b\",\"value\":\"b\",\"children\":["
+                + "{\"showName\":\"z\",\"value\":\"3\"},{\"showName\":\"w\",\"value\":\"4\"}]},"
+                + "{\"showName\":\"a (2)\",\"value\":\"a\",\"children\":["
+                + "{\"showName\":\"x (5)\",\"value\":\"1\"},{\"showName\":\"y\",\"value\":\"2\"}]}]}";
+        assertTrue(TreePatch.patch(tree, TreeLoader.fromJson(v2)));
+
+        List<Node> children = tree.getChildren();
+        assertSame(b, children.get(0));
+        assertSame(a, children.get(1));
+        assertEquals("a (2)", a.getShowName());
+        assertEquals("x (5)", a.getChildren().get(0).getShowName());
+        assertSame(z, b.getChildren().get(0));
+        assertEquals("w", b.getChildren().get(1).getShowName());
+        assertSame(b, b.getChildren().get(1).getParent());
+        assertEquals(2, b.getChildren().size());
+
+        assertSame(z, Node.findCheckedLeafPreOrder(tree));
+        assertTrue(b.isChecked());
+        assertFalse(b.getChildren().get(1).isChecked());
+        assertSame(b.getChildren().get(1), Node.findNode(tree, new Node("w", "4")));
+        assertEquals(a.getChildren().get(0), Node.findNode(tree, new Node("x (5)", "1")));
+        assertNull(Node.findNode(tree, new Node("x (3)", "1")));
+        assertEquals(4, Node.getTreeLeafCount(tree));
+    }
+
+    @Test
+    public void patch_removedCheckedLeaf_leavesNoCheckedLeaf() {
+        Node tree = TreeLoader.fromJson(V1);
+        Node y = tree.getChildren().get(1).getChildren().get(0);
+        Node.setSingleLeafNodeChecked(tree, y);
+
+        String v2 = "{\"showName\":\"r\",\"value\":\"r\",\"children\":["
+                + "{\"showName\":\"b\",\"value\":\"b\",\"children\":["
+                + "{\"showName\":\"z\",\"value\":\"3\"}]}]}";
+        assertTrue(TreePatch.patch(tree, TreeLoader.fromJson(v2)));
+
+        assertNull(Node.findCheckedLeafPreOrder(tree));
+        assertNull(y.getParent());
+        Node fallback = Node.getCheckedLeafWithDefault(tree);
+        assertEquals("z", fallback.getShowName());
+        assertTrue(fallback.getParent().isChecked());
+    }
+
+    @Test
+    public void patch_checkedLeafTurnedBranch_leavesNoCheckedLeaf() {
+        Node tree = TreeLoader.fromJson(V1);
+        Node z = tree.getChildren().get(1).getChildren().get(1);
+        Node.setSingleLeafNodeChecked(tree, z);
+
+        String v2 = V1.replace("{\"showName\":\"z\",\"value\":\"3\"}",
+                "{\"showName\":\"z\",\"value\":\"3\",\"children\":[{\"showName\":\"q\",\"value\":\"5\"}]}");
+        assertTrue(TreePatch.patch(tree, TreeLoader.fromJson(v2)));
+
+        assertNull(Node.findCheckedLeafPreOrder(tree));
+        assertEquals(4, Node.getTreeDepth(tree));
+    }
+
+    @Test
+    public void patch_repeatedKeys_matchedOneToOne() {
+        String json = "{\"showName\":\"r\",\"value\":\"r\",\"children\":["
+                + "{\"showName\":\"a\",\"value\":\"1\"},{\"showName\":\"a\",\"value\":\"1\"},"
+                + "{\"showName\":\"b\",\"value\":\"2\"}]}";
+        Node tree = TreeLoader.fromJson(json);
+        Node first = tree.getChildren().get(0);
+        Node second = tree.getChildren().get(1);
+
+        String v2 = "{\"showName\":\"r\",\"value\":\"r\",\"children\":["
+                + "{\"showName\":\"b\",\"value\":\"2\"},{\"showName\":\"a\",\"value\":\"1\"},"
+                + "{\"showName\":\"a\",\"value\":\"1\"}]}";
+        assertTrue(TreePatch.patch(tree, TreeLoader.fromJson(v2)));
+
+        assertEquals("b", tree.getChildren().get(0).getShowName());
+        assertSame(first, tree.getChildren().get(1));
+        assertSame(second, tree.getChildren().get(2));
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.x.compoundselector;
+
+import com.google.gson.Gson;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+import static com.example.x.compoundselector.TreeAssert.assertSameTree;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Round trips of trees through {@link TreeSnapshot}, compared to loading their JSON form.
+ */
+public class TreeSnapshotTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static String catalog;
+
+    @BeforeClass
+    public static void setUp() {
+        catalog = TreeLoaderTest.buildCatalog(100, 30, 50);
+    }
+
+    @Test
+    public void roundTrip_sameTree() throws Exception {
+        Node expected = TreeLoader.fromJson(catalog);
+        Node.setSingleLeafNodeChecked(expected, lastLeaf(expected));
+        expected.getChildren().get(1).setTag(new Gson().fromJson("{\"id\":1.0,\"hot\":true}", Map.class));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TreeSnapshot.write(expected, out);
+        Node actual = TreeSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertSameTree(expected, actual);
+        assertEquals(Node.getTreeDepth(expected), Node.getTreeDepth(actual));
+        assertEquals(Node.getTreeLeafCount(expected), Node.getTreeLeafCount(actual));
+        assertEquals(LeafPath.of(Node.findCheckedLeafPreOrder(expected)),
+                LeafPath.of(Node.findCheckedLeafPreOrder(actual)));
+        // Repeated strings are read once.
+        Node first = actual.getChildren().get(0).getChildren().get(0).getChildren().get(0);
+        Node last = actual.getChildren().get(99).getChildren().get(29).getChildren().get(0);
+        assertSame(first.getShowName(), last.getShowName());
+        assertSame(first.getTag(), last.getTag());
+    }
+
+    @Test
+    public void read_rejectsCorruptedSnapshots() {
+        byte[] snapshot = TreeSnapshot.toByteArray(TreeLoader.fromJson(catalog));
+        byte[] notSnapshot = catalog.substring(0, 100).getBytes(UTF_8);
+        byte[] truncated = Arrays.copyOf(snapshot, snapshot.length - 10);
+        byte[] newerVersion = snapshot.clone();
+        newerVersion[7]++;
+        for (byte[] bytes : Arrays.asList(notSnapshot, truncated, newerVersion)) {
+            try {
+                TreeSnapshot.fromByteArray(bytes);
+                fail();
+            } catch (IOException expected) {
+                // Expected.
+            }
+        }
+    }
+
+    @Test
+    public void write_smallerThanJson() {
+        byte[] snapshot = TreeSnapshot.toByteArray(TreeLoader.fromJson(catalog));
+        assertTrue("size " + snapshot.length + " >= " + catalog.length(), snapshot.length < catalog.length());
+    }
+
+    private static Node lastLeaf(Node rootNode) {
+        Node node = rootNode;
+        while (!node.isLeaf()) {
+            node = node.getChildren().get(node.getChildren().size() - 1);
+        }
+        return node;
+    }
+}
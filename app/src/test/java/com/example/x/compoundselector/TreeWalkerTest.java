@@ -0,0 +1,168 @@
+package com.example.x.compoundselector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks the walk orders of {@link TreeWalker}, and that the tree utilities built on it handle
+ * degenerate trees far deeper than the call stack would allow.
+ */
+public class TreeWalkerTest {
+
+    /**
+     * <pre>
+     *        r
+     *      / | \
+     *     a  b  c
+     *    / \    |
+     *   a1 a2   c1
+     * </pre>
+     */
+    private static Node buildTree() {
+        Node a = new Node("a", "a");
+        a.addChild(new Node("a1", "a1"));
+        a.addChild(new Node("a2", "a2"));
+        Node c = new Node("c", "c");
+        c.addChild(new Node("c1", "c1"));
+        Node root = new Node("r", "r");
+        root.addChild(a);
+        root.addChild(new Node("b", "b"));
+        root.addChild(c);
+        Node.formatTree(root);
+        return root;
+    }
+
+    /**
+     * Records the visited names, and returns the result given for a name, if any.
+     */
+    private static class Recorder implements TreeWalker.Visitor {
+        final List<String> names = new ArrayList<>();
+        final String resultName;
+        final int result;
+
+        Recorder() {
+            this(null, TreeWalker.CONTINUE);
+        }
+
+        Recorder(String resultName, int result) {
+            this.resultName = resultName;
+            this.result = result;
+        }
+
+        @Override
+        public int visit(Node node) {
+            names.add(node.getShowName());
+            return node.getShowName().equals(resultName) ? result : TreeWalker.CONTINUE;
+        }
+    }
+
+    @Test
+    public void walk_visitsInOrder() {
+        Node root = buildTree();
+        TreeWalker walker = new TreeWalker();
+
+        Recorder preOrder = new Recorder();
+        assertNull(walker.preOrder(root, preOrder));
+        assertEquals("[r, a, a1, a2, b, c, c1]", preOrder.names.toString());
+
+        Recorder postOrder = new Recorder();
+        assertNull(walker.postOrder(root, postOrder));
+        assertEquals("[a1, a2, a, b, c1, c, r]", postOrder.names.toString());
+
+        Recorder levelOrder = new Recorder();
+        assertNull(walker.levelOrder(root, levelOrder));
+        assertEquals("[r, a, b, c, a1, a2, c1]", levelOrder.names.toString());
+
+        Recorder subtree = new Recorder();
+        walker.preOrder(root.getChildren().get(0), subtree);
+        assertEquals("[a, a1, a2]", subtree.names.toString());
+    }
+
+    @Test
+    public void walk_skipsSubtreesAndTerminates() {
+        Node root = buildTree();
+        TreeWalker walker = new TreeWalker();
+
+        Recorder skipping = new Recorder("a", TreeWalker.SKIP_SUBTREE);
+        walker.preOrder(root, skipping);
+        assertEquals("[r, a, b, c, c1]", skipping.names.toString());
+
+        skipping = new Recorder("a", TreeWalker.SKIP_SUBTREE);
+        walker.levelOrder(root, skipping);
+        assertEquals("[r, a, b, c, c1]", skipping.names.toString());
+
+        Recorder terminating = new Recorder("a2", TreeWalker.TERMINATE);
+        Node found = walker.preOrder(root, terminating);
+        assertEquals("a2", found.getShowName());
+        assertEquals("[r, a, a1, a2]", terminating.names.toString());
+
+        terminating = new Recorder("a", TreeWalker.TERMINATE);
+        found = walker.postOrder(root, terminating);
+        assertEquals("a", found.getShowName());
+        assertEquals("[a1, a2, a]", terminating.names.toString());
+
+        final List<String> depths = new ArrayList<>();
+        final TreeWalker depthWalker = new TreeWalker();
+        depthWalker.preOrder(root, new TreeWalker.Visitor() {
+            @Override
+            public int visit(Node node) {
+                depths.add(node.getShowName() + depthWalker.getDepth());
+                return TreeWalker.CONTINUE;
+            }
+        });
+        assertEquals("[r0, a1, a12, a22, b1, c1, c12]", depths.toString());
+    }
+
+    @Test
+    public void obtain_returnsAnotherWalkerWhileWalking() {
+        final Node root = buildTree();
+        final TreeWalker walker = TreeWalker.obtain();
+        final List<String> names = new ArrayList<>();
+        walker.preOrder(root, new TreeWalker.Visitor() {
+            @Override
+            public int visit(Node node) {
+                TreeWalker nested = TreeWalker.obtain();
+                assertNotSame(walker, nested);
+                // Walking from a visitor must not disturb the outer walk.
+                names.add(nested.preOrder(node, new Recorder()) == null ? node.getShowName() : "?");
+                return TreeWalker.CONTINUE;
+            }
+        });
+        assertEquals("[r, a, a1, a2, b, c, c1]", names.toString());
+        assertSame(walker, TreeWalker.obtain());
+    }
+
+    @Test
+    public void utilities_handleDeepTrees() {
+        int depth = 100000;
+        // Built from the bottom, so that every addChild() is O(1).
+        Node top = new Node("leaf", "leaf");
+        Node leaf = top;
+        for (int i = depth - 1; i > 0; i--) {
+            Node node = new Node("n" + i, "n" + i);
+            node.addChild(top);
+            top = node;
+        }
+        Node root = top;
+        Node.formatTree(root);
+
+        assertEquals(depth, Node.getTreeDepth(root));
+        assertEquals(1, Node.getTreeDegree(root));
+        assertEquals(1, Node.getTreeLeafCount(root));
+        assertEquals(depth - 1, leaf.getHeight());
+        assertEquals(depth, Node.getNodeSimplePath(leaf).size());
+        assertSame(leaf, root.getFirstLeafPreOrder());
+        assertSame(leaf, Node.findNode(root, new Node("leaf", "leaf")));
+        assertSame(leaf, Node.getCheckedLeafWithDefault(root));
+        Node.setAllNodeUnchecked(root.getChildren().get(0));
+        assertNull(Node.findCheckedLeafPreOrder(root));
+        assertEquals(depth, FlatTree.of(root).size());
+    }
+}
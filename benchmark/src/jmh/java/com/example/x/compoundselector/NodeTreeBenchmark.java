@@ -0,0 +1,109 @@
+package com.example.x.compoundselector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The queries and updates of a formatted tree, as run on every selection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NodeTreeBenchmark {
+
+    /**
+     * Parts of the names of the fixture trees searched in turn, the last one found nowhere.
+     */
+    private static final String[] SEARCH_QUERIES = {"item 1", "em 4", "9", "xyz"};
+
+    @Param({"2", "3", "4"})
+    public int depth;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int fanOut;
+
+    private Node root;
+    private Node firstLeaf;
+    private Node lastLeaf;
+    /**
+     * Equal to the last leaf, but not in the tree.
+     */
+    private Node target;
+    private boolean checkFirstLeaf;
+    /**
+     * The tree with an "All" leaf under every top-level branch, and the last of these leaves.
+     */
+    private Node repeatedRoot;
+    private Node lastRepeatedLeaf;
+    private int searchCount;
+
+    @Setup
+    public void setUp() {
+        root = TreeFixtures.buildTree(depth, fanOut);
+        firstLeaf = root.getFirstLeafPreOrder();
+        lastLeaf = TreeFixtures.getLastLeaf(root);
+        target = new Node(lastLeaf.getShowName(), lastLeaf.getValue());
+        Node.setSingleLeafNodeChecked(root, lastLeaf);
+        repeatedRoot = TreeFixtures.buildTree(depth, fanOut);
+        for (Node branch : repeatedRoot.getChildren()) {
+            lastRepeatedLeaf = new Node("All", "*");
+            branch.addChild(lastRepeatedLeaf);
+        }
+    }
+
+    @Benchmark
+    public Node findNode() {
+        return Node.findNode(root, target);
+    }
+
+    @Benchmark
+    public boolean setSingleLeafNodeChecked() {
+        checkFirstLeaf = !checkFirstLeaf;
+        return Node.setSingleLeafNodeChecked(root, checkFirstLeaf ? firstLeaf : lastLeaf);
+    }
+
+    /**
+     * Checking a leaf whose key is repeated under every branch, which resolves to the first one.
+     */
+    @Benchmark
+    public boolean setSingleLeafNodeCheckedRepeatedKey() {
+        return Node.setSingleLeafNodeChecked(repeatedRoot, lastRepeatedLeaf);
+    }
+
+    @Benchmark
+    public Node findCheckedLeafPreOrder() {
+        return Node.findCheckedLeafPreOrder(root);
+    }
+
+    @Benchmark
+    public List<Node> getNodeSimplePath() {
+        return Node.getNodeSimplePath(lastLeaf);
+    }
+
+    /**
+     * A search of the leaves by part of their names, as typed in the search field of the popup.
+     */
+    @Benchmark
+    public List<Node> searchLeaves() {
+        return Node.searchLeaves(root, SEARCH_QUERIES[searchCount++ % SEARCH_QUERIES.length], 100);
+    }
+
+    @Benchmark
+    public int getTreeDepth() {
+        return Node.getTreeDepth(root);
+    }
+
+    @Benchmark
+    public int getTreeDegree() {
+        return Node.getTreeDegree(root);
+    }
+}
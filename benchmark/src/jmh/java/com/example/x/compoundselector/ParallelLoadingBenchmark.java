@@ -0,0 +1,78 @@
+package com.example.x.compoundselector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading and indexing a tree of about one million nodes with {@link ParallelTreeLoader}, by an
+ * increasing count of workers, against a single {@link TreeLoader}, sharing the strings through
+ * the weak default pool or a strong one. Scaling is bounded by the cores of the machine, so the
+ * counts of workers beyond them only measure the overhead of splitting.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParallelLoadingBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"10000"})
+    public int fanOut;
+
+    @Param({"true", "false"})
+    public boolean weakPool;
+
+    private String json;
+    private Node tree;
+    private ForkJoinPool pool;
+    private ParallelTreeLoader loader;
+
+    @Setup
+    public void setUp() {
+        json = TreeFixtures.buildJson(depth, fanOut);
+        tree = TreeLoader.fromJson(json);
+        pool = new ForkJoinPool(parallelism);
+        loader = new ParallelTreeLoader(pool, weakPool ? StringPool.getDefault() : new StringPool());
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public Node loadWithTreeLoader() {
+        return TreeLoader.fromJson(json);
+    }
+
+    @Benchmark
+    public Node loadInParallel() {
+        return loader.load(json);
+    }
+
+    @Benchmark
+    public Node buildIndexes() {
+        tree.setIndexes(NodeIndex.build(tree), NodeSearchIndex.build(tree));
+        return tree;
+    }
+
+    @Benchmark
+    public Node buildIndexesInParallel() {
+        loader.buildIndexes(tree);
+        return tree;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.x.compoundselector;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The queries of a {@link RecordIndex} and the counts of a {@link FacetCounter}, as run on every
+ * selection, over records tagged with a leaf of a wide tree, of a small one and of a rare kind.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordIndexBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"10000", "1000000"})
+    public int recordCount;
+
+    private RecordIndex index;
+    private FacetCounter counter;
+    /**
+     * A branch of the wide tree, a leaf of the small one and the rare kind.
+     */
+    private Node[] selectedNodes;
+    /**
+     * A leaf of the small tree only, matching about a quarter of the records.
+     */
+    private Node[] broadSelection;
+
+    @Setup
+    public void setUp() {
+        Node items = TreeFixtures.buildTree(3, 100);
+        Node sizes = TreeFixtures.buildTree(2, 4);
+        Node kinds = TreeFixtures.buildTree(2, 2);
+        List<Node> sizeLeaves = sizes.getChildren();
+        RecordIndex.Builder builder = new RecordIndex.Builder(Arrays.asList(items, sizes, kinds));
+        Random random = new Random(5);
+        for (int r = 0; r < recordCount; r++) {
+            Node branch = items.getChildren().get(random.nextInt(100));
+            Node item = branch.getChildren().get(random.nextInt(TreeFixtures.INNER_FAN_OUT));
+            builder.addRecord(item.getValue(), sizeLeaves.get(random.nextInt(4)).getValue(),
+                    kinds.getChildren().get(random.nextInt(100) == 0 ? 0 : 1).getValue());
+        }
+        index = builder.build();
+        counter = FacetCounter.of(index);
+        selectedNodes = new Node[]{items.getChildren().get(7), sizeLeaves.get(2), kinds.getChildren().get(0)};
+        broadSelection = new Node[]{null, sizeLeaves.get(1), null};
+    }
+
+    @Benchmark
+    public int countSelection() {
+        return index.query(selectedNodes).count();
+    }
+
+    @Benchmark
+    public int countBroadSelection() {
+        return index.query(broadSelection).count();
+    }
+
+    @Benchmark
+    public int[] firstPage() {
+        return index.query(broadSelection).page(0, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public int[] middlePage() {
+        RecordIndex.Query query = index.query(broadSelection);
+        return query.page(query.count() / 2 / PAGE_SIZE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public FacetCounts countFacets() {
+        return counter.count(selectedNodes, null);
+    }
+}
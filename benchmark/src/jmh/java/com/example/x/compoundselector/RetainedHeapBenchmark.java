@@ -0,0 +1,87 @@
+package com.example.x.compoundselector;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The heap retained by a tree loaded with Gson, as {@code MainActivity} used to, before and after
+ * {@link Node#formatTree(Node)} shares its strings, and with {@link TreeLoader}. The heap used
+ * once the garbage is collected is reported as the secondary result {@code retainedBytes}, the
+ * time of every single shot only includes the collections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RetainedHeapBenchmark {
+
+    @Param({"gson", "gsonFormatted", "treeLoader"})
+    public String loader;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"1000"})
+    public int fanOut;
+
+    private final Gson gson = new Gson();
+    private String json;
+    /**
+     * The tree of the last shot, kept reachable until the next one.
+     */
+    private Node tree;
+
+    @Setup
+    public void setUp() {
+        json = TreeFixtures.buildJson(depth, fanOut);
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class RetainedHeap {
+        public long retainedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            retainedBytes = 0;
+        }
+    }
+
+    @Benchmark
+    public Node load(RetainedHeap heap) throws InterruptedException {
+        tree = null;
+        long baseline = usedHeapAfterGc();
+        Node root;
+        if ("treeLoader".equals(loader)) {
+            root = TreeLoader.fromJson(json);
+        } else {
+            root = gson.fromJson(json, Node.class);
+            if ("gsonFormatted".equals(loader)) {
+                Node.formatTree(root);
+            }
+        }
+        tree = root;
+        heap.retainedBytes = usedHeapAfterGc() - baseline;
+        return tree;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
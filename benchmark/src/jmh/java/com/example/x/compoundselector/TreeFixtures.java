@@ -0,0 +1,71 @@
+package com.example.x.compoundselector;
+
+/**
+ * Synthetic trees for the benchmarks. The root has {@code fanOut} children and every other inner
+ * node has {@link #INNER_FAN_OUT} children, so that a tree of depth 4 and fan-out 10k stays at
+ * about one million leaves. Values are unique, names repeat under every parent as real catalogs do.
+ */
+final class TreeFixtures {
+
+    static final int INNER_FAN_OUT = 10;
+
+    private TreeFixtures() {
+    }
+
+    /**
+     * Builds a formatted tree.
+     *
+     * @param depth  the depth of the tree, the root included.
+     * @param fanOut the count of children of the root.
+     */
+    static Node buildTree(int depth, int fanOut) {
+        Node root = new Node("root", "root");
+        addChildren(root, "", depth - 1, fanOut);
+        Node.formatTree(root);
+        return root;
+    }
+
+    private static void addChildren(Node parent, String parentValue, int levels, int fanOut) {
+        if (levels == 0) {
+            return;
+        }
+        for (int i = 0; i < fanOut; i++) {
+            String value = parentValue + i + '.';
+            Node child = new Node("Item " + i, value);
+            addChildren(child, value, levels - 1, INNER_FAN_OUT);
+            parent.addChild(child);
+        }
+    }
+
+    /**
+     * Builds the JSON form of the tree built by {@link #buildTree(int, int)}.
+     */
+    static String buildJson(int depth, int fanOut) {
+        StringBuilder json = new StringBuilder("{\"showName\":\"root\",\"value\":\"root\"");
+        appendChildren(json, "", depth - 1, fanOut);
+        return json.append('}').toString();
+    }
+
+    private static void appendChildren(StringBuilder json, String parentValue, int levels, int fanOut) {
+        if (levels == 0) {
+            return;
+        }
+        json.append(",\"children\":[");
+        for (int i = 0; i < fanOut; i++) {
+            String value = parentValue + i + '.';
+            json.append(i == 0 ? "" : ",").append("{\"showName\":\"Item ").append(i)
+                    .append("\",\"value\":\"").append(value).append('"');
+            appendChildren(json, value, levels - 1, INNER_FAN_OUT);
+            json.append('}');
+        }
+        json.append(']');
+    }
+
+    static Node getLastLeaf(Node rootNode) {
+        Node node = rootNode;
+        while (!node.isLeaf()) {
+            node = node.getChildren().get(node.getChildren().size() - 1);
+        }
+        return node;
+    }
+}
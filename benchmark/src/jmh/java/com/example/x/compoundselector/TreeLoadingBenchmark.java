@@ -0,0 +1,90 @@
+package com.example.x.compoundselector;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a tree from its JSON form, with Gson as {@code MainActivity} used to, and with
+ * {@link TreeLoader}, or from its binary form with {@link TreeSnapshot}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TreeLoadingBenchmark {
+
+    @Param({"2", "3", "4"})
+    public int depth;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int fanOut;
+
+    private final Gson gson = new Gson();
+    private String json;
+    private Node tree;
+    private byte[] snapshot;
+
+    @Setup
+    public void setUp() {
+        json = TreeFixtures.buildJson(depth, fanOut);
+        tree = TreeLoader.fromJson(json);
+        snapshot = TreeSnapshot.toByteArray(tree);
+    }
+
+    /**
+     * A tree loaded but not formatted yet, renewed before every call of {@link #formatTree}.
+     */
+    @State(Scope.Thread)
+    public static class UnformattedTree {
+        Node root;
+
+        @Setup(Level.Invocation)
+        public void load(TreeLoadingBenchmark benchmark) {
+            root = benchmark.gson.fromJson(benchmark.json, Node.class);
+        }
+    }
+
+    @Benchmark
+    public Node loadWithGson() {
+        return gson.fromJson(json, Node.class);
+    }
+
+    @Benchmark
+    public Node loadWithGsonAndFormat() {
+        Node root = gson.fromJson(json, Node.class);
+        Node.formatTree(root);
+        return root;
+    }
+
+    @Benchmark
+    public Node loadWithTreeLoader() {
+        return TreeLoader.fromJson(json);
+    }
+
+    @Benchmark
+    public Node loadWithTreeSnapshot() throws IOException {
+        return TreeSnapshot.fromByteArray(snapshot);
+    }
+
+    @Benchmark
+    public byte[] writeTreeSnapshot() {
+        return TreeSnapshot.toByteArray(tree);
+    }
+
+    @Benchmark
+    public Node formatTree(UnformattedTree tree) {
+        Node.formatTree(tree.root);
+        return tree.root;
+    }
+}